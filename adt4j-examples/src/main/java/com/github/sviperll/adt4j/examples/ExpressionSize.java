@@ -0,0 +1,67 @@
+/*
+ * Copyright (c) 2015, Victor Nazarov <asviraspossible@gmail.com>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation and/or
+ *     other materials provided with the distribution.
+ *
+ *  3. Neither the name of the copyright holder nor the names of its contributors
+ *     may be used to endorse or promote products derived from this software
+ *     without specific prior written permission.
+ *
+ *  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ *  ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ *  THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ *  IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR
+ *  ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ *  (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ *   LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ *  ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ *  (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+ *  EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.github.sviperll.adt4j.examples;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Algebra of memoized {@code size} attribute of {@code Expression}, that counts nodes of expression.
+ *
+ * @author Victor Nazarov <asviraspossible@gmail.com>
+ */
+public class ExpressionSize implements ExpressionVisitor<Integer, Integer> {
+    private static final AtomicLong INVOCATIONS = new AtomicLong();
+
+    /**
+     * Number of invocations of algebra methods of all instances.
+     * Value doesn't change when cached attribute value is reused.
+     */
+    public static long invocations() {
+        return INVOCATIONS.get();
+    }
+
+    @Override
+    public Integer add(Integer left, Integer right) {
+        INVOCATIONS.incrementAndGet();
+        return left + right + 1;
+    }
+
+    @Override
+    public Integer mul(Integer left, Integer right) {
+        INVOCATIONS.incrementAndGet();
+        return left + right + 1;
+    }
+
+    @Override
+    public Integer lit(int value) {
+        INVOCATIONS.incrementAndGet();
+        return 1;
+    }
+}
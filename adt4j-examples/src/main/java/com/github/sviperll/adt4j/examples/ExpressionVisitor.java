@@ -30,6 +30,9 @@
 package com.github.sviperll.adt4j.examples;
 
 import com.github.sviperll.Caching;
+import com.github.sviperll.adt4j.Attribute;
+import com.github.sviperll.adt4j.GeneratePattern;
+import com.github.sviperll.adt4j.GeneratePatterns;
 import com.github.sviperll.adt4j.GeneratePredicate;
 import com.github.sviperll.adt4j.GeneratePredicates;
 import com.github.sviperll.adt4j.GenerateValueClassForVisitor;
@@ -40,19 +43,30 @@ import com.github.sviperll.meta.Visitor;
  *
  * @author Victor Nazarov <asviraspossible@gmail.com>
  */
-@GenerateValueClassForVisitor(isPublic = true, hashCodeCaching = Caching.SIMPLE)
+@GenerateValueClassForVisitor(isPublic = true, hashCodeCaching = Caching.SIMPLE,
+                              generateFingerprint = true, fingerprintCaching = Caching.SIMPLE,
+                              generateMatcher = true, generateTransform = true, generateFold = true,
+                              generateParallelFold = true, generateMemoizedFold = true,
+                              attributes = @Attribute(name = "size", type = "java.lang.Integer",
+                                                      algebra = "com.github.sviperll.adt4j.examples.ExpressionSize"))
 @Visitor(resultVariableName = "R", selfReferenceVariableName = "S")
 public interface ExpressionVisitor<S, R> {
     @GeneratePredicates({
         @GeneratePredicate(name="isAdd"),
         @GeneratePredicate(name="isBinary")
     })
+    @GeneratePatterns({
+        @GeneratePattern(name = "addZero", pattern = "add(lit(0), x)"),
+        @GeneratePattern(name = "addLiterals", pattern = "add(lit(a), lit(b))"),
+        @GeneratePattern(name = "addToZero", pattern = "add(x, lit(0))")
+    })
     R add(@Getter S left, @Getter S right);
 
     @GeneratePredicates({
         @GeneratePredicate(name="isMul"),
         @GeneratePredicate(name="isBinary")
     })
+    @GeneratePattern(name = "mulByLiteral", pattern = "mul(x, lit(n))")
     R mul(@Getter S left, @Getter S right);
 
     @GeneratePredicate(name="isLiteral")
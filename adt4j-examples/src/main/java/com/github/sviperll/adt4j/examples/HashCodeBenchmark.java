@@ -0,0 +1,157 @@
+/*
+ * Copyright (c) 2015, Victor Nazarov <asviraspossible@gmail.com>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation and/or
+ *     other materials provided with the distribution.
+ *
+ *  3. Neither the name of the copyright holder nor the names of its contributors
+ *     may be used to endorse or promote products derived from this software
+ *     without specific prior written permission.
+ *
+ *  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ *  ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ *  THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ *  IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR
+ *  ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ *  (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ *   LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ *  ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ *  (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+ *  EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.github.sviperll.adt4j.examples;
+
+import com.github.sviperll.adt4j.GenerateValueClassForVisitor;
+import com.github.sviperll.adt4j.HashCodeAlgorithm;
+import com.github.sviperll.meta.Visitor;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Compares hash code algorithms on grid-cell keys with small int and boolean fields.
+ * <p>
+ * Reports number of distinct hash codes, number of keys colliding in HashMap buckets
+ * and HashMap put/get throughput for every algorithm.
+ *
+ * @author Victor Nazarov <asviraspossible@gmail.com>
+ */
+public class HashCodeBenchmark {
+    private static final int SIDE = 256;
+    private static final int ITERATIONS = 20;
+
+    public static void main(final String[] args) {
+        run("POLYNOMIAL", new KeyFactory() {
+            @Override
+            public Object create(int row, int column, boolean visible) {
+                return PolynomialCell.valueOf(row, column, visible);
+            }
+        });
+        run("MIXED_POLYNOMIAL", new KeyFactory() {
+            @Override
+            public Object create(int row, int column, boolean visible) {
+                return MixedPolynomialCell.valueOf(row, column, visible);
+            }
+        });
+        run("FOLDED_LONG", new KeyFactory() {
+            @Override
+            public Object create(int row, int column, boolean visible) {
+                return FoldedLongCell.valueOf(row, column, visible);
+            }
+        });
+    }
+
+    public static List<Object> gridKeys(KeyFactory factory) {
+        List<Object> keys = new ArrayList<Object>(SIDE * SIDE);
+        for (int row = 0; row < SIDE; row++) {
+            for (int column = 0; column < SIDE; column++) {
+                keys.add(factory.create(row, column, (row + column) % 3 == 0));
+            }
+        }
+        return keys;
+    }
+
+    public static int distinctHashCodes(List<Object> keys) {
+        Set<Integer> hashCodes = new HashSet<Integer>();
+        for (Object key: keys) {
+            hashCodes.add(key.hashCode());
+        }
+        return hashCodes.size();
+    }
+
+    /**
+     * Number of keys that land in already occupied bucket of HashMap-like table with given number of buckets.
+     */
+    public static int bucketCollisions(List<Object> keys, int buckets) {
+        boolean[] occupied = new boolean[buckets];
+        int collisions = 0;
+        for (Object key: keys) {
+            int h = key.hashCode();
+            int index = (h ^ (h >>> 16)) & (buckets - 1);
+            if (occupied[index])
+                collisions++;
+            else
+                occupied[index] = true;
+        }
+        return collisions;
+    }
+
+    private static void run(String name, KeyFactory factory) {
+        List<Object> keys = gridKeys(factory);
+        int buckets = Integer.highestOneBit(keys.size()) * 2;
+        long best = Long.MAX_VALUE;
+        int found = 0;
+        for (int iteration = 0; iteration < ITERATIONS; iteration++) {
+            List<Object> lookups = gridKeys(factory);
+            long start = System.nanoTime();
+            Map<Object, Object> map = new HashMap<Object, Object>();
+            for (Object key: keys) {
+                map.put(key, key);
+            }
+            for (Object key: lookups) {
+                if (map.get(key) != null)
+                    found++;
+            }
+            best = Math.min(best, System.nanoTime() - start);
+        }
+        System.out.println(name + ": " + keys.size() + " keys, "
+                           + distinctHashCodes(keys) + " distinct hash codes, "
+                           + bucketCollisions(keys, buckets) + " bucket collisions in " + buckets + " buckets, "
+                           + (best / (2 * keys.size())) + " ns per HashMap operation"
+                           + (found == ITERATIONS * keys.size() ? "" : " (lookup failures)"));
+    }
+
+    public interface KeyFactory {
+        Object create(int row, int column, boolean visible);
+    }
+
+    @GenerateValueClassForVisitor(isPublic = true, className = "PolynomialCell", hashCodeBase = 257)
+    @Visitor(resultVariableName = "R")
+    public interface PolynomialCellVisitor<R> {
+        R valueOf(int row, int column, boolean visible);
+    }
+
+    @GenerateValueClassForVisitor(isPublic = true, className = "MixedPolynomialCell", hashCodeBase = 257,
+                                  hashCodeAlgorithm = HashCodeAlgorithm.MIXED_POLYNOMIAL)
+    @Visitor(resultVariableName = "R")
+    public interface MixedPolynomialCellVisitor<R> {
+        R valueOf(int row, int column, boolean visible);
+    }
+
+    @GenerateValueClassForVisitor(isPublic = true, className = "FoldedLongCell", hashCodeAlgorithm = HashCodeAlgorithm.FOLDED_LONG)
+    @Visitor(resultVariableName = "R")
+    public interface FoldedLongCellVisitor<R> {
+        R valueOf(int row, int column, boolean visible);
+    }
+}
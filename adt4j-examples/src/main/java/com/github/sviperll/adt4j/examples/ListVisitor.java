@@ -35,7 +35,8 @@ import com.github.sviperll.adt4j.Getter;
 import com.github.sviperll.adt4j.Updater;
 import com.github.sviperll.meta.Visitor;
 
-@GenerateValueClassForVisitor(isPublic = true)
+@GenerateValueClassForVisitor(isPublic = true, lazyInitialization = true, generateIterable = true,
+                              generateMap = true)
 @Visitor(resultVariableName = "R", selfReferenceVariableName = "S")
 public interface ListVisitor<T, S, R> {
     R cons(@Getter @Updater T head,
@@ -102,12 +102,10 @@ public class Main {
         System.out.println("oa == oe ---> " + (oa == oe));
         System.out.println("oa.equals(oe) ---> " + ob.equals(oe));
         System.out.println(List.cons("aaa", List.cons("bbb", List.<String>nil())));
-        List<Integer> list = List.cons(1, List.cons(2, List.cons(3, List.<Integer>nil())));
-        List<Integer> tail = list;
+        List<Integer> list = List.fromArray(new Integer[] {1, 2, 3});
         int sum = 0;
-        while (!tail.isEmpty()) {
-            sum += tail.head();
-            tail = tail.tail();
+        for (int element: list) {
+            sum += element;
         }
         System.out.println(list + " sum is " + sum);
     }
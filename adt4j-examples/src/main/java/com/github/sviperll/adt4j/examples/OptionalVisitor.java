@@ -33,7 +33,7 @@ import com.github.sviperll.adt4j.GenerateValueClassForVisitor;
 import com.github.sviperll.adt4j.Getter;
 import com.github.sviperll.meta.Visitor;
 
-@GenerateValueClassForVisitor(className = "OptionalValue")
+@GenerateValueClassForVisitor(className = "OptionalValue", generateMatcher = true)
 @Visitor(resultVariableName = "R", exceptionVariableName = "E")
 public interface OptionalVisitor<T, R, E extends Exception> {
     R missing() throws E;
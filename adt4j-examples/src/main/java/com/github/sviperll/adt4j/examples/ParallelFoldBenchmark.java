@@ -0,0 +1,121 @@
+/*
+ * Copyright (c) 2015, Victor Nazarov <asviraspossible@gmail.com>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation and/or
+ *     other materials provided with the distribution.
+ *
+ *  3. Neither the name of the copyright holder nor the names of its contributors
+ *     may be used to endorse or promote products derived from this software
+ *     without specific prior written permission.
+ *
+ *  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ *  ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ *  THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ *  IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR
+ *  ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ *  (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ *   LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ *  ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ *  (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+ *  EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.github.sviperll.adt4j.examples;
+
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Compares sequential fold with parallel fold on wide balanced expression tree.
+ * <p>
+ * Reports best time for sequential fold and for parallel fold
+ * with pools of 1 to 32 threads and speedup relative to sequential fold.
+ *
+ * @author Victor Nazarov <asviraspossible@gmail.com>
+ */
+public class ParallelFoldBenchmark {
+    private static final int HEIGHT = 16;
+    private static final int PARALLEL_DEPTH = 8;
+    private static final int LEAF_WORK = 2000;
+    private static final int ITERATIONS = 10;
+
+    public static void main(final String[] args) {
+        Expression expression = balancedTree(HEIGHT);
+        ExpressionVisitor<Long, Long> algebra = mixingAlgebra(LEAF_WORK);
+        long expected = expression.fold(algebra);
+        long sequential = Long.MAX_VALUE;
+        for (int iteration = 0; iteration < ITERATIONS; iteration++) {
+            long start = System.nanoTime();
+            expression.fold(algebra);
+            sequential = Math.min(sequential, System.nanoTime() - start);
+        }
+        System.out.println("fold: " + (sequential / 1000000) + " ms");
+        for (int threads = 1; threads <= 32; threads *= 2) {
+            ForkJoinPool pool = new ForkJoinPool(threads);
+            try {
+                long best = Long.MAX_VALUE;
+                boolean matches = true;
+                for (int iteration = 0; iteration < ITERATIONS; iteration++) {
+                    long start = System.nanoTime();
+                    long result = expression.parallelFold(algebra, pool, PARALLEL_DEPTH);
+                    best = Math.min(best, System.nanoTime() - start);
+                    matches = matches && result == expected;
+                }
+                System.out.println("parallelFold, " + threads + " threads: " + (best / 1000000) + " ms, "
+                                   + "speedup " + ((double)sequential / best)
+                                   + (matches ? "" : " (result mismatch)"));
+            } finally {
+                pool.shutdown();
+            }
+        }
+    }
+
+    /**
+     * Balanced tree of additions with given height and literals as leaves.
+     */
+    public static Expression balancedTree(int height) {
+        Expression[] level = new Expression[1 << height];
+        for (int i = 0; i < level.length; i++) {
+            level[i] = Expression.lit(i);
+        }
+        for (int size = level.length / 2; size > 0; size /= 2) {
+            for (int i = 0; i < size; i++) {
+                level[i] = Expression.add(level[2 * i], level[2 * i + 1]);
+            }
+        }
+        return level[0];
+    }
+
+    /**
+     * Stateless algebra, that performs given number of mixing rounds for every literal.
+     */
+    public static ExpressionVisitor<Long, Long> mixingAlgebra(final int leafWork) {
+        return new ExpressionVisitor<Long, Long>() {
+            @Override
+            public Long lit(int value) {
+                long result = value;
+                for (int i = 0; i < leafWork; i++) {
+                    result ^= result >>> 33;
+                    result *= 0xff51afd7ed558ccdL;
+                }
+                return result;
+            }
+
+            @Override
+            public Long add(Long left, Long right) {
+                return left + right;
+            }
+
+            @Override
+            public Long mul(Long left, Long right) {
+                return left * right;
+            }
+        };
+    }
+}
@@ -29,6 +29,8 @@
  */
 package com.github.sviperll.adt4j.examples;
 
+import com.github.sviperll.adt4j.ArrayField;
+import com.github.sviperll.adt4j.ArrayStrategy;
 import com.github.sviperll.adt4j.GenerateValueClassForVisitor;
 import com.github.sviperll.adt4j.Getter;
 import com.github.sviperll.adt4j.Updater;
@@ -36,7 +38,7 @@ import com.github.sviperll.Caching;
 import com.github.sviperll.meta.Visitor;
 import javax.annotation.Nullable;
 
-@GenerateValueClassForVisitor(hashCodeBase = 49, hashCodeCaching = Caching.SYNCRONIZED)
+@GenerateValueClassForVisitor(hashCodeBase = 49, hashCodeCaching = Caching.SYNCRONIZED, packPrimitiveFields = true)
 @Visitor(resultVariableName = "R")
 @ClassList(classes = Function.class)
 public interface RecordVisitor<R> {
@@ -49,12 +51,12 @@ public interface RecordVisitor<R> {
               @Getter(name = "getD") @Updater(name = "withD") double d,
               @Getter(name = "getO") @Updater(name = "withO") Object result,
               @Getter(name = "getBoola") @Updater(name = "withBoola") @Nullable boolean[] boola,
-              @Getter(name = "getBa") @Updater(name = "withBa") byte[][] ba,
+              @Getter(name = "getBa") @Updater(name = "withBa") @ArrayField(strategy = ArrayStrategy.CONTENT) byte[][] ba,
               @Getter(name = "getCa") @Updater(name = "withCa") char[] ca,
               @Getter(name = "getIa") @Updater(name = "withIa") int[] ia,
               @Getter(name = "getLa") @Updater(name = "withLa") long[] la,
               @Getter(name = "getFa") @Updater(name = "withFa") float[] fa,
-              @Getter(name = "getDa") @Updater(name = "withDa") double[] da,
+              @Getter(name = "getDa") @Updater(name = "withDa") @ArrayField(strategy = ArrayStrategy.CACHED_CONTENT) double[] da,
               @Getter(name = "getOa") @Updater(name = "withOa") @Nullable Object[] newValue
               );
 }
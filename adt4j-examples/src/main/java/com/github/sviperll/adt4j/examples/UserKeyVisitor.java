@@ -36,7 +36,10 @@ import com.github.sviperll.meta.Visitor;
 @GenerateValueClassForVisitor(isSerializable = true,
                               isPublic = true,
                               isComparable = true,
-                              hashCodeCaching = Caching.PRECOMPUTE)
+                              hashCodeCaching = Caching.PRECOMPUTE,
+                              generateFingerprint = true,
+                              fingerprintCaching = Caching.PRECOMPUTE,
+                              useRuntimeSupport = true)
 @Visitor(resultVariableName = "R")
 public interface UserKeyVisitor<R> {
     R valueOf(int key);
@@ -29,6 +29,8 @@
  */
 package com.github.sviperll.adt4j.examples;
 
+import com.github.sviperll.adt4j.ArrayField;
+import com.github.sviperll.adt4j.ArrayStrategy;
 import com.github.sviperll.adt4j.GenerateValueClassForVisitor;
 import com.github.sviperll.adt4j.Getter;
 import com.github.sviperll.adt4j.Updater;
@@ -41,5 +43,5 @@ import com.github.sviperll.meta.Visitor;
 @GenerateValueClassForVisitor
 @Visitor(resultVariableName = "R")
 interface VarArgContainerVisitor<R> {
-    R of(int a, @Getter(name = "bs") @Updater(name = "bs") String... bs);
+    R of(int a, @Getter(name = "bs") @Updater(name = "bs") @ArrayField(strategy = ArrayStrategy.CONTENT) String... bs);
 }
@@ -29,8 +29,36 @@
  */
 package com.github.sviperll.adt4j;
 
+import com.github.sviperll.adt4j.examples.BytecodeParityShape;
+import com.github.sviperll.adt4j.examples.BytecodeParityShapeVisitor;
+import com.github.sviperll.adt4j.examples.BytecodeSyntaxNode;
+import com.github.sviperll.adt4j.examples.CellStyle;
 import com.github.sviperll.adt4j.examples.ComparableList;
+import com.github.sviperll.adt4j.examples.Direction;
+import com.github.sviperll.adt4j.examples.DirectionVisitor;
+import com.github.sviperll.adt4j.examples.EqualsProbe;
+import com.github.sviperll.adt4j.examples.Expression;
+import com.github.sviperll.adt4j.examples.ExpressionSize;
+import com.github.sviperll.adt4j.examples.ExpressionVisitor;
+import com.github.sviperll.adt4j.examples.FoldedLongCell;
 import com.github.sviperll.adt4j.examples.GroupName;
+import com.github.sviperll.adt4j.examples.HashCodeBenchmark;
+import com.github.sviperll.adt4j.examples.IndexedDocument;
+import com.github.sviperll.adt4j.examples.Label;
+import com.github.sviperll.adt4j.examples.Markup;
+import com.github.sviperll.adt4j.examples.MarkupVisitor;
+import com.github.sviperll.adt4j.examples.Measurement;
+import com.github.sviperll.adt4j.examples.MixedPolynomialCell;
+import com.github.sviperll.adt4j.examples.ParallelFoldBenchmark;
+import com.github.sviperll.adt4j.examples.ParityShape;
+import com.github.sviperll.adt4j.examples.ParityShapeVisitor;
+import com.github.sviperll.adt4j.examples.PolynomialCell;
+import com.github.sviperll.adt4j.examples.ProbedRecord;
+import com.github.sviperll.adt4j.examples.SearchResponse;
+import com.github.sviperll.adt4j.examples.SessionEvent;
+import com.github.sviperll.adt4j.examples.SessionId;
+import com.github.sviperll.adt4j.examples.Shape;
+import com.github.sviperll.adt4j.examples.SyntaxNode;
 import com.github.sviperll.adt4j.examples.User;
 import com.github.sviperll.adt4j.examples.UserKey;
 import com.github.sviperll.adt4j.examples.UserVisitor;
@@ -39,6 +67,12 @@ import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
 import org.junit.Test;
 import static org.junit.Assert.*;
 
@@ -144,4 +178,1212 @@ public class MainTest {
         assertTrue("list1.compareTo(list2) < 0", list1.compareTo(list2) < 0);
         assertTrue("list2.compareTo(list1) > 0", list2.compareTo(list1) > 0);
     }
+
+    @Test
+    public void testFingerprint() throws IOException, ClassNotFoundException {
+        assertEquals(0x1ee046b74e6add5L, UserKey.valueOf(1).fingerprint64());
+        assertTrue("UserKey.valueOf(1).fingerprint64() != UserKey.valueOf(2).fingerprint64()",
+                   UserKey.valueOf(1).fingerprint64() != UserKey.valueOf(2).fingerprint64());
+
+        UserKey userKey1 = UserKey.valueOf(1);
+        ByteArrayOutputStream byteArray = new ByteArrayOutputStream();
+        ObjectOutputStream outputStream = new ObjectOutputStream(byteArray);
+        outputStream.writeObject(userKey1);
+        ObjectInputStream inputStream = new ObjectInputStream(new ByteArrayInputStream(byteArray.toByteArray()));
+        UserKey userKey2 = (UserKey)inputStream.readObject();
+        assertEquals(userKey1.fingerprint64(), userKey2.fingerprint64());
+
+        Expression e1 = Expression.add(Expression.lit(1), Expression.mul(Expression.lit(2), Expression.lit(3)));
+        Expression e2 = Expression.add(Expression.lit(1), Expression.mul(Expression.lit(2), Expression.lit(3)));
+        Expression e3 = Expression.mul(Expression.lit(1), Expression.add(Expression.lit(2), Expression.lit(3)));
+        assertEquals(e1.fingerprint64(), e2.fingerprint64());
+        assertTrue("e1.fingerprint64() != e3.fingerprint64()", e1.fingerprint64() != e3.fingerprint64());
+    }
+
+    @Test
+    public void testHashCodeAlgorithm() {
+        assertEquals(MixedPolynomialCell.valueOf(1, 2, true).hashCode(), MixedPolynomialCell.valueOf(1, 2, true).hashCode());
+        assertEquals(FoldedLongCell.valueOf(1, 2, true).hashCode(), FoldedLongCell.valueOf(1, 2, true).hashCode());
+
+        List<Object> polynomial = HashCodeBenchmark.gridKeys(new HashCodeBenchmark.KeyFactory() {
+            @Override
+            public Object create(int row, int column, boolean visible) {
+                return PolynomialCell.valueOf(row, column, visible);
+            }
+        });
+        List<Object> mixed = HashCodeBenchmark.gridKeys(new HashCodeBenchmark.KeyFactory() {
+            @Override
+            public Object create(int row, int column, boolean visible) {
+                return MixedPolynomialCell.valueOf(row, column, visible);
+            }
+        });
+        List<Object> folded = HashCodeBenchmark.gridKeys(new HashCodeBenchmark.KeyFactory() {
+            @Override
+            public Object create(int row, int column, boolean visible) {
+                return FoldedLongCell.valueOf(row, column, visible);
+            }
+        });
+        assertEquals(folded.size(), HashCodeBenchmark.distinctHashCodes(folded));
+        int buckets = 2 * folded.size();
+        int polynomialCollisions = HashCodeBenchmark.bucketCollisions(polynomial, buckets);
+        assertTrue("mixed collisions < polynomial collisions", HashCodeBenchmark.bucketCollisions(mixed, buckets) < polynomialCollisions / 2);
+        assertTrue("folded collisions < polynomial collisions", HashCodeBenchmark.bucketCollisions(folded, buckets) < polynomialCollisions / 2);
+    }
+
+    @Test
+    public void testArrayStrategies() throws IOException, ClassNotFoundException {
+        byte[] payload = new byte[] {1, 2, 3};
+        Measurement measurement1 = Measurement.valueOf("m", new double[] {1.0, 2.0}, new int[][] {{1}, {2, 3}}, payload);
+        Measurement measurement2 = Measurement.valueOf("m", new double[] {1.0, 2.0}, new int[][] {{1}, {2, 3}}, payload);
+        assertEquals(measurement1, measurement2);
+        assertEquals(measurement1.hashCode(), measurement2.hashCode());
+
+        Measurement measurement3 = Measurement.valueOf("m", new double[] {1.0, 2.0}, new int[][] {{1}, {2, 4}}, payload);
+        assertFalse("measurement1.equals(measurement3)", measurement1.equals(measurement3));
+
+        Measurement measurement4 = Measurement.valueOf("m", new double[] {1.0, 2.0}, new int[][] {{1}, {2, 3}}, new byte[] {1, 2, 3});
+        assertFalse("measurement1.equals(measurement4)", measurement1.equals(measurement4));
+
+        Measurement measurement5 = Measurement.valueOf("m", new double[] {1.0, 2.0}, null, payload);
+        Measurement measurement6 = Measurement.valueOf("m", new double[] {1.0, 2.0}, null, payload);
+        assertEquals(measurement5, measurement6);
+        assertEquals(measurement5.hashCode(), measurement6.hashCode());
+
+        ByteArrayOutputStream byteArray = new ByteArrayOutputStream();
+        ObjectOutputStream outputStream = new ObjectOutputStream(byteArray);
+        outputStream.writeObject(measurement1);
+        ObjectInputStream inputStream = new ObjectInputStream(new ByteArrayInputStream(byteArray.toByteArray()));
+        Measurement measurement7 = (Measurement)inputStream.readObject();
+        Measurement measurement8 = Measurement.valueOf("m", new double[] {1.0, 2.0}, new int[][] {{1}, {2, 3}}, measurement7.payload());
+        assertEquals(measurement8, measurement7);
+        assertEquals(measurement8.hashCode(), measurement7.hashCode());
+    }
+
+    @Test
+    public void testExcludeFromEquality() {
+        IndexedDocument document1 = IndexedDocument.valueOf("title", 1, Collections.<String, Integer>emptyMap());
+        IndexedDocument document2 = IndexedDocument.valueOf("title", 1, Collections.singletonMap("title", 1));
+        assertEquals(document1, document2);
+        assertEquals(document1.hashCode(), document2.hashCode());
+        assertEquals(document1.fingerprint64(), document2.fingerprint64());
+        assertEquals(0, document1.compareTo(document2));
+
+        IndexedDocument document3 = IndexedDocument.valueOf("title", 2, Collections.singletonMap("title", 1));
+        assertFalse("document2.equals(document3)", document2.equals(document3));
+        assertTrue("document2.compareTo(document3) < 0", document2.compareTo(document3) < 0);
+    }
+
+    @Test
+    public void testCommonFields() {
+        SyntaxNode function = SyntaxNode.identifier(1, "f");
+        SyntaxNode argument = SyntaxNode.literal(3, 42L);
+        SyntaxNode application = SyntaxNode.application(0, function, argument);
+        assertEquals(1, function.position());
+        assertEquals(3, argument.position());
+        assertEquals(0, application.position());
+        assertEquals(application, SyntaxNode.application(0, SyntaxNode.identifier(1, "f"), SyntaxNode.literal(3, 42L)));
+        assertEquals(application.hashCode(), SyntaxNode.application(0, SyntaxNode.identifier(1, "f"), SyntaxNode.literal(3, 42L)).hashCode());
+        assertFalse("function.equals(SyntaxNode.identifier(2, \"f\"))", function.equals(SyntaxNode.identifier(2, "f")));
+
+    }
+
+    @Test
+    public void testSparseCaseMethods() {
+        Expression literal = Expression.lit(1);
+        Expression sum = Expression.add(literal, Expression.lit(2));
+        assertTrue("sum.isBinary()", sum.isBinary());
+        assertTrue("sum.isAdd()", sum.isAdd());
+        assertFalse("sum.isLiteral()", sum.isLiteral());
+        assertTrue("literal.isLiteral()", literal.isLiteral());
+        assertFalse("literal.isBinary()", literal.isBinary());
+        assertSame(literal, sum.left());
+        try {
+            literal.left();
+            fail("IllegalStateException expected");
+        } catch (IllegalStateException ex) {
+            // expected
+        }
+
+        com.github.sviperll.adt4j.examples.List<String> empty = com.github.sviperll.adt4j.examples.List.nil();
+        assertSame(empty, empty.withHead("a"));
+        com.github.sviperll.adt4j.examples.List<String> list = com.github.sviperll.adt4j.examples.List.cons("a", empty);
+        assertEquals(com.github.sviperll.adt4j.examples.List.cons("b", empty), list.withHead("b"));
+    }
+
+    @Test
+    public void testPackedPrimitiveFields() {
+        CellStyle style = CellStyle.colored(true, false, '\uffff', (byte)-1, (byte)0, Byte.MIN_VALUE, Short.MIN_VALUE, "warning");
+        assertTrue("style.bold()", style.bold());
+        assertFalse("style.italic()", style.italic());
+        assertEquals('\uffff', style.alignment());
+        assertEquals((byte)-1, style.red());
+        assertEquals((byte)0, style.green());
+        assertEquals(Byte.MIN_VALUE, style.blue());
+        assertEquals(Short.MIN_VALUE, style.alpha());
+
+        CellStyle same = CellStyle.colored(true, false, '\uffff', (byte)-1, (byte)0, Byte.MIN_VALUE, Short.MIN_VALUE, "warning");
+        assertEquals(style, same);
+        assertEquals(style.hashCode(), same.hashCode());
+        assertEquals(style.fingerprint64(), same.fingerprint64());
+        assertEquals(0, style.compareTo(same));
+
+        CellStyle updated = style.withRed((byte)1);
+        assertEquals((byte)1, updated.red());
+        assertEquals(Byte.MIN_VALUE, updated.blue());
+        assertFalse("style.equals(updated)", style.equals(updated));
+        assertTrue("style.compareTo(updated) < 0", style.compareTo(updated) < 0);
+        assertEquals("CellStyle.Colored{bold = true, italic = false, alignment = a, red = 1, green = 0, blue = -128, alpha = -32768, name = warning}",
+                     CellStyle.colored(true, false, 'a', (byte)1, (byte)0, Byte.MIN_VALUE, Short.MIN_VALUE, "warning").toString());
+
+        CellStyle plain = CellStyle.plain(false, true, 'c');
+        assertTrue("plain.italic()", plain.italic());
+        assertFalse("plain.bold()", plain.bold());
+        assertEquals(plain, CellStyle.plain(false, true, 'c'));
+        assertFalse("plain.equals(CellStyle.plain(true, true, 'c'))", plain.equals(CellStyle.plain(true, true, 'c')));
+    }
+
+    @Test
+    public void testInlineVarArgs() {
+        Label empty = Label.named("a");
+        Label single = Label.named("a", "x");
+        Label pair = Label.named("a", "x", null);
+        Label triple = Label.named("a", "x", null, "z");
+        assertEquals(0, empty.tags().length);
+        assertArrayEquals(new String[] {"x"}, single.tags());
+        assertArrayEquals(new String[] {"x", null}, pair.tags());
+        assertArrayEquals(new String[] {"x", null, "z"}, triple.tags());
+
+        assertEquals(pair, Label.named("a", new String[] {"x", null}));
+        assertEquals(pair.hashCode(), Label.named("a", new String[] {"x", null}).hashCode());
+        assertEquals(triple, Label.named("a", "x", null, "z"));
+        assertEquals(triple.hashCode(), Label.named("a", "x", null, "z").hashCode());
+        assertEquals(triple.fingerprint64(), Label.named("a", "x", null, "z").fingerprint64());
+        assertFalse("empty.equals(Label.named(\"a\", (String)null))", empty.equals(Label.named("a", (String)null)));
+        assertFalse("single.equals(pair)", single.equals(pair));
+        assertFalse("pair.equals(triple)", pair.equals(triple));
+        assertTrue("single.compareTo(triple) < 0", single.compareTo(triple) < 0);
+
+        assertEquals(Label.numbered(1, 2), Label.numbered(1, 2));
+        assertFalse("Label.numbered(1, 2).equals(Label.numbered(1, 2, 0))", Label.numbered(1, 2).equals(Label.numbered(1, 2, 0)));
+        assertFalse("Label.numbered(0).equals(Label.numbered())", Label.numbered(0).equals(Label.numbered()));
+    }
+
+    @Test
+    public void testEnumBackedValueClass() throws IOException, ClassNotFoundException {
+        assertSame(Direction.north(), Direction.north());
+        assertEquals(Direction.north(), Direction.factory().north());
+        assertFalse("Direction.north().equals(Direction.south())", Direction.north().equals(Direction.south()));
+        assertEquals(Direction.west(), new Direction(Direction.west()) {});
+        assertEquals(Direction.west().hashCode(), new Direction(Direction.west()) {}.hashCode());
+        assertTrue("Direction.east().compareTo(Direction.west()) < 0", Direction.east().compareTo(Direction.west()) < 0);
+        assertTrue("Direction.south().compareTo(Direction.north()) > 0", Direction.south().compareTo(Direction.north()) > 0);
+        assertEquals(0, Direction.south().compareTo(Direction.south()));
+        assertTrue("Direction.north().isVertical()", Direction.north().isVertical());
+        assertFalse("Direction.north().isHorizontal()", Direction.north().isHorizontal());
+        assertTrue("Direction.west().isHorizontal()", Direction.west().isHorizontal());
+        assertEquals("Direction.South{}", Direction.south().toString());
+        assertFalse("Direction.north().fingerprint64() == Direction.south().fingerprint64()",
+                    Direction.north().fingerprint64() == Direction.south().fingerprint64());
+
+        String name = Direction.east().accept(new DirectionVisitor<String>() {
+            @Override
+            public String north() {
+                return "N";
+            }
+
+            @Override
+            public String east() {
+                return "E";
+            }
+
+            @Override
+            public String south() {
+                return "S";
+            }
+
+            @Override
+            public String west() {
+                return "W";
+            }
+        });
+        assertEquals("E", name);
+
+        ByteArrayOutputStream byteArray = new ByteArrayOutputStream();
+        ObjectOutputStream outputStream = new ObjectOutputStream(byteArray);
+        outputStream.writeObject(Direction.south());
+        ObjectInputStream inputStream = new ObjectInputStream(new ByteArrayInputStream(byteArray.toByteArray()));
+        Direction deserialized = (Direction)inputStream.readObject();
+        assertEquals(Direction.south(), deserialized);
+        assertEquals(Direction.south().hashCode(), deserialized.hashCode());
+    }
+
+    @Test
+    public void testTaggedUnion() throws IOException, ClassNotFoundException {
+        Shape circle = Shape.circle(1, 2, 3, true);
+        Shape rectangle = Shape.rectangle(1, 2, 10, 20, null);
+        assertEquals(circle, Shape.circle(1, 2, 3, true));
+        assertEquals(circle.hashCode(), Shape.circle(1, 2, 3, true).hashCode());
+        assertEquals(circle.fingerprint64(), Shape.circle(1, 2, 3, true).fingerprint64());
+        assertFalse("circle.equals(Shape.circle(1, 2, 3, false))", circle.equals(Shape.circle(1, 2, 3, false)));
+        assertFalse("circle.equals(rectangle)", circle.equals(rectangle));
+        assertEquals(Shape.rectangle(1, 2, 10, 20, "a"), Shape.rectangle(1, 2, 10, 20, "a"));
+        assertFalse("rectangle.equals(Shape.rectangle(1, 2, 10, 20, \"a\"))", rectangle.equals(Shape.rectangle(1, 2, 10, 20, "a")));
+
+        assertEquals(1.0, rectangle.x(), 0.0);
+        assertEquals(2.0, circle.y(), 0.0);
+        assertEquals(3.0, circle.radius(), 0.0);
+        assertArrayEquals(new int[] {1, 2, 3}, Shape.polygon(1, 2, 3).coordinates());
+        try {
+            rectangle.radius();
+            fail("radius should not be accessible for rectangle");
+        } catch (IllegalStateException ex) {
+        }
+        assertEquals(Shape.rectangle(1, 2, 5, 20, null), rectangle.withWidth(5));
+        assertSame(circle, circle.withWidth(5));
+        assertTrue("Shape.empty().isEmpty()", Shape.empty().isEmpty());
+        assertFalse("circle.isEmpty()", circle.isEmpty());
+
+        assertTrue("circle.compareTo(Shape.empty()) < 0", circle.compareTo(Shape.empty()) < 0);
+        assertTrue("circle.compareTo(Shape.circle(1, 2, 4, true)) < 0", circle.compareTo(Shape.circle(1, 2, 4, true)) < 0);
+        assertEquals(0, Shape.scaled(2, circle).compareTo(Shape.scaled(2, Shape.circle(1, 2, 3, true))));
+        assertEquals("Shape.Text{x = 0.0, y = 1.0, anchor = c, content = a}", Shape.text(0, 1, 'c', "a").toString());
+
+        ByteArrayOutputStream byteArray = new ByteArrayOutputStream();
+        ObjectOutputStream outputStream = new ObjectOutputStream(byteArray);
+        outputStream.writeObject(Shape.scaled(2, rectangle));
+        ObjectInputStream inputStream = new ObjectInputStream(new ByteArrayInputStream(byteArray.toByteArray()));
+        assertEquals(Shape.scaled(2, rectangle), inputStream.readObject());
+    }
+
+    @Test
+    public void testLazyInitialization() {
+        com.github.sviperll.adt4j.examples.List<String> empty = com.github.sviperll.adt4j.examples.List.nil();
+        assertSame(empty, com.github.sviperll.adt4j.examples.List.<Integer>nil());
+        assertSame(com.github.sviperll.adt4j.examples.List.<String>factory(), com.github.sviperll.adt4j.examples.List.<Integer>factory());
+        com.github.sviperll.adt4j.examples.List<String> list = com.github.sviperll.adt4j.examples.List.<String>factory().cons("a", empty);
+        assertEquals(com.github.sviperll.adt4j.examples.List.cons("a", com.github.sviperll.adt4j.examples.List.<String>nil()), list);
+        assertSame(empty, com.github.sviperll.adt4j.examples.List.<String>factory().nil());
+    }
+
+    @Test
+    public void testRuntimeDependency() {
+        assertEquals(UserKey.valueOf(1).fingerprint64(), SessionId.valueOf(1).fingerprint64());
+        assertEquals(SessionId.named("a").hashCode(), SessionId.named("a").hashCode());
+        assertFalse("SessionId.named(\"a\").equals(SessionId.valueOf(1))", SessionId.named("a").equals(SessionId.valueOf(1)));
+
+        try {
+            SessionId.named(null);
+            fail("NullPointerException expected");
+        } catch (NullPointerException ex) {
+            assertEquals("Argument shouldn't be null: 'name' argument in static method invocation: 'named' in class com.github.sviperll.adt4j.examples.SessionId", ex.getMessage());
+        }
+        try {
+            Shape.<Void>text(0, 0, 'c', null);
+            fail("NullPointerException expected");
+        } catch (NullPointerException ex) {
+            assertEquals("Argument shouldn't be null: 'content' argument in static method invocation: 'text' in class com.github.sviperll.adt4j.examples.Shape", ex.getMessage());
+        }
+    }
+
+    private static final Expression.Matcher<Integer, Integer> EVALUATOR = Expression.<Integer, Integer>cases()
+            .lit(new Expression.Matcher.LitCase<Integer, Integer>() {
+                @Override
+                public Integer lit(Integer multiplier, int value) {
+                    return value * multiplier;
+                }
+            })
+            .add(new Expression.Matcher.AddCase<Integer, Integer>() {
+                @Override
+                public Integer add(Integer multiplier, Expression left, Expression right) {
+                    return EVALUATOR.match(left, multiplier) + EVALUATOR.match(right, multiplier);
+                }
+            })
+            .mul(new Expression.Matcher.MulCase<Integer, Integer>() {
+                @Override
+                public Integer mul(Integer multiplier, Expression left, Expression right) {
+                    return EVALUATOR.match(left, multiplier) * EVALUATOR.match(right, 1);
+                }
+            });
+
+    @Test
+    public void testMatcher() {
+        Expression e = Expression.add(Expression.lit(1), Expression.mul(Expression.lit(2), Expression.lit(3)));
+        assertEquals(7, EVALUATOR.match(e, 1).intValue());
+        assertEquals(70, EVALUATOR.match(e, 10).intValue());
+
+        Expression.Matcher<Void, String> describer = Expression.<Void, String>cases()
+                .lit(new Expression.Matcher.LitCase<Void, String>() {
+                    @Override
+                    public String lit(Void context, int value) {
+                        return "literal";
+                    }
+                })
+                .otherwise(new Expression.Matcher.Otherwise<Void, String>() {
+                    @Override
+                    public String otherwise(Void context, Expression value) {
+                        return "binary: " + value.isBinary();
+                    }
+                });
+        assertEquals("literal", describer.match(Expression.lit(5), null));
+        assertEquals("binary: true", describer.match(e, null));
+        try {
+            Expression.<Void, String>cases().match(e, null);
+            fail("IllegalStateException expected");
+        } catch (IllegalStateException ex) {
+        }
+
+        Direction.Matcher<Void, Integer> dx = Direction.<Void, Integer>cases()
+                .east(new Direction.Matcher.EastCase<Void, Integer>() {
+                    @Override
+                    public Integer east(Void context) {
+                        return 1;
+                    }
+                })
+                .west(new Direction.Matcher.WestCase<Void, Integer>() {
+                    @Override
+                    public Integer west(Void context) {
+                        return -1;
+                    }
+                })
+                .otherwise(new Direction.Matcher.Otherwise<Void, Integer>() {
+                    @Override
+                    public Integer otherwise(Void context, Direction value) {
+                        return 0;
+                    }
+                });
+        assertEquals(1, dx.match(Direction.east(), null).intValue());
+        assertEquals(-1, dx.match(Direction.west(), null).intValue());
+        assertEquals(0, dx.match(Direction.north(), null).intValue());
+
+        Shape.Matcher<Double, Double> scaledWidth = Shape.<Double, Double>cases()
+                .rectangle(new Shape.Matcher.RectangleCase<Double, Double>() {
+                    @Override
+                    public Double rectangle(Double factor, double x, double y, double width, double height, String label) {
+                        return width * factor;
+                    }
+                })
+                .otherwise(new Shape.Matcher.Otherwise<Double, Double>() {
+                    @Override
+                    public Double otherwise(Double factor, Shape value) {
+                        return 0.0;
+                    }
+                });
+        assertEquals(6.0, scaledWidth.match(Shape.rectangle(0, 0, 3, 4, null), 2.0), 0.0);
+        assertEquals(0.0, scaledWidth.match(Shape.empty(), 2.0), 0.0);
+    }
+
+    @Test
+    public void testPatterns() {
+        Expression.Matcher<Void, String> simplifier = Expression.<Void, String>cases()
+                .addZero(new Expression.Matcher.AddZeroPattern<Void, String>() {
+                    @Override
+                    public String addZero(Void context, Expression x) {
+                        return "addZero: " + x;
+                    }
+                })
+                .mulByLiteral(new Expression.Matcher.MulByLiteralPattern<Void, String>() {
+                    @Override
+                    public String mulByLiteral(Void context, Expression x, int n) {
+                        return "mulByLiteral: " + n;
+                    }
+                })
+                .add(new Expression.Matcher.AddCase<Void, String>() {
+                    @Override
+                    public String add(Void context, Expression left, Expression right) {
+                        return "add";
+                    }
+                })
+                .otherwise(new Expression.Matcher.Otherwise<Void, String>() {
+                    @Override
+                    public String otherwise(Void context, Expression value) {
+                        return "otherwise";
+                    }
+                });
+        assertEquals("addZero: " + Expression.lit(5), simplifier.match(Expression.add(Expression.lit(0), Expression.lit(5)), null));
+        assertEquals("add", simplifier.match(Expression.add(Expression.lit(1), Expression.lit(5)), null));
+        assertEquals("add", simplifier.match(Expression.add(Expression.lit(5), Expression.lit(0)), null));
+        assertEquals("mulByLiteral: 3", simplifier.match(Expression.mul(Expression.lit(2), Expression.lit(3)), null));
+        assertEquals("otherwise", simplifier.match(Expression.mul(Expression.lit(2), Expression.add(Expression.lit(0), Expression.lit(3))), null));
+        assertEquals("otherwise", simplifier.match(Expression.lit(0), null));
+
+        Shape.Matcher<Void, Double> filledArea = Shape.<Void, Double>cases()
+                .scaledFilledCircle(new Shape.Matcher.ScaledFilledCirclePattern<Void, Double>() {
+                    @Override
+                    public Double scaledFilledCircle(Void context, double factor, double radius) {
+                        return factor * radius;
+                    }
+                })
+                .otherwise(new Shape.Matcher.Otherwise<Void, Double>() {
+                    @Override
+                    public Double otherwise(Void context, Shape value) {
+                        return 0.0;
+                    }
+                });
+        assertEquals(6.0, filledArea.match(Shape.scaled(2.0, Shape.circle(0, 0, 3, true)), null), 0.0);
+        assertEquals(0.0, filledArea.match(Shape.scaled(2.0, Shape.circle(0, 0, 3, false)), null), 0.0);
+        assertEquals(0.0, filledArea.match(Shape.scaled(2.0, Shape.empty()), null), 0.0);
+        assertEquals(0.0, filledArea.match(Shape.circle(0, 0, 3, true), null), 0.0);
+    }
+
+    @Test
+    public void testTransform() {
+        Expression.Transformer folding = new Expression.Transformer() {
+            @Override
+            public Expression transform(Expression value) {
+                if (value.isBinary() && value.left().isLiteral() && value.right().isLiteral())
+                    return Expression.lit(EVALUATOR.match(value, 1));
+                else
+                    return value;
+            }
+        };
+        Expression.Transformer identity = new Expression.Transformer() {
+            @Override
+            public Expression transform(Expression value) {
+                return value;
+            }
+        };
+        Expression e = Expression.add(Expression.lit(1), Expression.mul(Expression.lit(2), Expression.lit(3)));
+        assertEquals(Expression.lit(7), e.transformBottomUp(folding));
+        assertEquals(Expression.add(Expression.lit(1), Expression.lit(6)), e.transformTopDown(folding));
+        assertSame(e, e.transformBottomUp(identity));
+        assertSame(e, e.transformTopDown(identity));
+
+        Expression sparse = Expression.add(e, Expression.mul(Expression.lit(4), Expression.lit(5)));
+        Expression replaced = sparse.transformBottomUp(new Expression.Transformer() {
+            @Override
+            public Expression transform(Expression value) {
+                return value.equals(Expression.lit(5)) ? Expression.lit(50) : value;
+            }
+        });
+        assertSame(e, replaced.left());
+        assertEquals(Expression.mul(Expression.lit(4), Expression.lit(50)), replaced.right());
+
+        Expression deep = Expression.lit(0);
+        for (int i = 0; i < 100000; i++)
+            deep = Expression.add(deep, Expression.lit(1));
+        assertSame(deep, deep.transformTopDown(identity));
+        assertEquals(Expression.lit(100000), deep.transformBottomUp(folding));
+
+        Markup unchanged = Markup.element("b", Arrays.asList(Markup.text("c")));
+        Markup markup = Markup.element("p", Arrays.asList(Markup.text("a"), unchanged));
+        Markup transformed = markup.transformBottomUp(new Markup.Transformer() {
+            @Override
+            public Markup transform(Markup value) {
+                return value.equals(Markup.text("a")) ? Markup.text("A") : value;
+            }
+        });
+        assertEquals(Markup.element("p", Arrays.asList(Markup.text("A"), unchanged)), transformed);
+        assertSame(unchanged, transformed.children().get(1));
+        assertSame(markup, markup.transformTopDown(new Markup.Transformer() {
+            @Override
+            public Markup transform(Markup value) {
+                return value;
+            }
+        }));
+    }
+
+    @Test
+    public void testFold() {
+        ExpressionVisitor<String, String> printer = new ExpressionVisitor<String, String>() {
+            @Override
+            public String add(String left, String right) {
+                return "(" + left + " + " + right + ")";
+            }
+
+            @Override
+            public String mul(String left, String right) {
+                return left + " * " + right;
+            }
+
+            @Override
+            public String lit(int value) {
+                return Integer.toString(value);
+            }
+        };
+        Expression.IntAlgebra evaluator = new Expression.IntAlgebra() {
+            @Override
+            public int add(int left, int right) {
+                return left + right;
+            }
+
+            @Override
+            public int mul(int left, int right) {
+                return left * right;
+            }
+
+            @Override
+            public int lit(int value) {
+                return value;
+            }
+        };
+        Expression e = Expression.add(Expression.lit(1), Expression.mul(Expression.lit(2), Expression.lit(3)));
+        assertEquals("(1 + 2 * 3)", e.fold(printer));
+        assertEquals(7, e.foldToInt(evaluator));
+
+        Expression deep = Expression.lit(0);
+        for (int i = 0; i < 100000; i++)
+            deep = Expression.add(Expression.lit(1), deep);
+        assertEquals(100000, deep.foldToInt(evaluator));
+
+        Markup markup = Markup.element("p", Arrays.asList(Markup.text("a"), Markup.element("b", Arrays.asList(Markup.text("c"), Markup.text("d")))));
+        Markup.LongAlgebra textCount = new Markup.LongAlgebra() {
+            @Override
+            public long element(String name, long[] children) {
+                long result = 0;
+                for (long child: children)
+                    result += child;
+                return result;
+            }
+
+            @Override
+            public long text(String content) {
+                return 1;
+            }
+        };
+        assertEquals(3L, markup.foldToLong(textCount));
+    }
+
+    @Test
+    public void testParallelFold() {
+        ExpressionVisitor<Long, Long> algebra = ParallelFoldBenchmark.mixingAlgebra(10);
+        Expression balanced = ParallelFoldBenchmark.balancedTree(10);
+        Expression deep = Expression.lit(0);
+        for (int i = 0; i < 100000; i++)
+            deep = Expression.mul(Expression.lit(3), deep);
+        Markup markup = Markup.element("p", Arrays.asList(Markup.text("a"), Markup.element("b", Arrays.asList(Markup.text("c"), Markup.text("d")))));
+        MarkupVisitor<String, String> printer = new MarkupVisitor<String, String>() {
+            @Override
+            public String element(String name, List<? extends String> children) {
+                StringBuilder result = new StringBuilder();
+                result.append("<").append(name).append(">");
+                for (String child: children)
+                    result.append(child);
+                result.append("</").append(name).append(">");
+                return result.toString();
+            }
+
+            @Override
+            public String text(String content) {
+                return content;
+            }
+        };
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            for (int depth = 0; depth <= 12; depth += 4) {
+                assertEquals(balanced.fold(algebra), balanced.parallelFold(algebra, pool, depth));
+                assertEquals(deep.fold(algebra), deep.parallelFold(algebra, pool, depth));
+                assertEquals("<p>a<b>cd</b></p>", markup.parallelFold(printer, pool, depth));
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void testIterable() {
+        com.github.sviperll.adt4j.examples.List<String> list = com.github.sviperll.adt4j.examples.List.fromArray(new String[] {"a", "b", "c"});
+        assertEquals(com.github.sviperll.adt4j.examples.List.cons("a", com.github.sviperll.adt4j.examples.List.cons("b", com.github.sviperll.adt4j.examples.List.cons("c", com.github.sviperll.adt4j.examples.List.<String>nil()))), list);
+        assertEquals(list, com.github.sviperll.adt4j.examples.List.fromIterable(Arrays.asList("a", "b", "c")));
+        StringBuilder elements = new StringBuilder();
+        for (String element: list)
+            elements.append(element);
+        assertEquals("abc", elements.toString());
+        assertFalse(com.github.sviperll.adt4j.examples.List.<String>nil().iterator().hasNext());
+
+        Integer[] numbers = new Integer[100000];
+        for (int i = 0; i < numbers.length; i++)
+            numbers[i] = i;
+        long sum = 0;
+        int count = 0;
+        for (int number: com.github.sviperll.adt4j.examples.List.fromArray(numbers)) {
+            assertEquals(count, number);
+            sum += number;
+            count++;
+        }
+        assertEquals(numbers.length, count);
+        assertEquals((long)numbers.length * (numbers.length - 1) / 2, sum);
+    }
+
+    @Test
+    public void testMap() {
+        com.github.sviperll.adt4j.examples.List.Mapper<String, Integer> length = new com.github.sviperll.adt4j.examples.List.Mapper<String, Integer>() {
+            @Override
+            public Integer apply(String value) {
+                return value.length();
+            }
+        };
+        com.github.sviperll.adt4j.examples.List<String> list = com.github.sviperll.adt4j.examples.List.fromArray(new String[] {"a", "bb", "ccc"});
+        assertEquals(com.github.sviperll.adt4j.examples.List.fromArray(new Integer[] {1, 2, 3}), list.mapT(length));
+
+        com.github.sviperll.adt4j.examples.List.Mapper<Object, Object> identity = new com.github.sviperll.adt4j.examples.List.Mapper<Object, Object>() {
+            @Override
+            public Object apply(Object value) {
+                return value;
+            }
+        };
+        assertSame(list, list.mapT(identity));
+
+        com.github.sviperll.adt4j.examples.List.Mapper<String, String> replaceA = new com.github.sviperll.adt4j.examples.List.Mapper<String, String>() {
+            @Override
+            public String apply(String value) {
+                return value.equals("a") ? "A" : value;
+            }
+        };
+        com.github.sviperll.adt4j.examples.List<String> replaced = list.mapT(replaceA);
+        assertEquals(com.github.sviperll.adt4j.examples.List.fromArray(new String[] {"A", "bb", "ccc"}), replaced);
+        assertSame(list.tail(), replaced.tail());
+
+        Integer[] numbers = new Integer[100000];
+        for (int i = 0; i < numbers.length; i++)
+            numbers[i] = i;
+        com.github.sviperll.adt4j.examples.List<Integer> mapped = com.github.sviperll.adt4j.examples.List.fromArray(numbers).mapT(new com.github.sviperll.adt4j.examples.List.Mapper<Integer, String>() {
+            @Override
+            public String apply(Integer value) {
+                return value.toString();
+            }
+        }).mapT(new com.github.sviperll.adt4j.examples.List.Mapper<String, Integer>() {
+            @Override
+            public Integer apply(String value) {
+                return Integer.valueOf(value) + 1;
+            }
+        });
+        int expected = 1;
+        for (int number: mapped) {
+            assertEquals(expected, number);
+            expected++;
+        }
+        assertEquals(numbers.length + 1, expected);
+    }
+
+    @Test
+    public void testAttributes() {
+        Expression e = Expression.add(Expression.lit(1), Expression.mul(Expression.lit(2), Expression.lit(3)));
+        assertEquals(Integer.valueOf(5), e.size());
+        assertEquals(Integer.valueOf(5), e.size());
+        assertEquals(Integer.valueOf(3), e.right().size());
+
+        Expression deep = Expression.lit(0);
+        for (int i = 0; i < 100000; i++) {
+            deep = Expression.add(Expression.lit(1), deep);
+            if (i % 1000 == 0)
+                assertEquals(Integer.valueOf(2 * i + 3), deep.size());
+        }
+        assertEquals(Integer.valueOf(200001), deep.size());
+        assertEquals(Integer.valueOf(2 * 2047 + 1), ParallelFoldBenchmark.balancedTree(11).size());
+    }
+
+    @Test
+    public void testLazyFields() throws IOException, ClassNotFoundException {
+        final int[] evaluations = new int[1];
+        SearchResponse response = SearchResponse.lazyFound("adt", 3, new SearchResponse.Thunk<String>() {
+            @Override
+            public String get() {
+                evaluations[0]++;
+                return "3 results";
+            }
+        }, new SearchResponse.Thunk<String>() {
+            @Override
+            public String get() {
+                return null;
+            }
+        }, new SearchResponse.Thunk<Double>() {
+            @Override
+            public Double get() {
+                return 0.5;
+            }
+        });
+        assertEquals("adt", response.query());
+        assertEquals(3, response.total());
+        assertFalse(response.equals(SearchResponse.failed("adt", "timeout")));
+        assertEquals(0, evaluations[0]);
+        assertEquals("3 results", response.summary());
+        assertEquals("3 results", response.summary());
+        assertEquals(1, evaluations[0]);
+        assertNull(response.debugInfo());
+
+        SearchResponse eager = SearchResponse.found("adt", 3, "3 results", null, 0.5);
+        assertEquals(eager, response);
+        assertEquals(eager.hashCode(), response.hashCode());
+        assertEquals(eager.toString(), response.toString());
+        assertEquals(1, evaluations[0]);
+
+        ByteArrayOutputStream byteArray = new ByteArrayOutputStream();
+        ObjectOutputStream outputStream = new ObjectOutputStream(byteArray);
+        outputStream.writeObject(SearchResponse.lazyFound("adt", 3, new SearchResponse.Thunk<String>() {
+            @Override
+            public String get() {
+                return "3 results";
+            }
+        }, new SearchResponse.Thunk<String>() {
+            @Override
+            public String get() {
+                return null;
+            }
+        }, new SearchResponse.Thunk<Double>() {
+            @Override
+            public Double get() {
+                return 0.5;
+            }
+        }));
+        outputStream.close();
+        ObjectInputStream inputStream = new ObjectInputStream(new ByteArrayInputStream(byteArray.toByteArray()));
+        assertEquals(eager, inputStream.readObject());
+    }
+
+    @Test
+    public void testMemoizedFold() {
+        final int[] invocations = new int[1];
+        ExpressionVisitor<Long, Long> evaluator = new ExpressionVisitor<Long, Long>() {
+            @Override
+            public Long add(Long left, Long right) {
+                invocations[0]++;
+                return left + right;
+            }
+
+            @Override
+            public Long mul(Long left, Long right) {
+                invocations[0]++;
+                return left * right;
+            }
+
+            @Override
+            public Long lit(int value) {
+                invocations[0]++;
+                return (long)value;
+            }
+        };
+        Expression dag = Expression.lit(1);
+        for (int i = 0; i < 40; i++)
+            dag = Expression.add(dag, dag);
+        assertEquals(Long.valueOf(1L << 40), dag.memoizedFold(evaluator));
+        assertEquals(41, invocations[0]);
+
+        invocations[0] = 0;
+        Expression shared = Expression.add(Expression.mul(Expression.lit(2), Expression.lit(3)),
+                                           Expression.mul(Expression.lit(2), Expression.lit(3)));
+        assertEquals(Long.valueOf(12), shared.memoizedFold(evaluator));
+        assertEquals(4, invocations[0]);
+
+        Expression deep = Expression.lit(0);
+        for (int i = 0; i < 100000; i++)
+            deep = Expression.add(Expression.lit(i), deep);
+        assertEquals(deep.fold(new ExpressionSize()), deep.memoizedFold(new ExpressionSize()));
+        assertEquals(Long.valueOf(99999L * 100000L / 2), deep.memoizedFold(evaluator));
+    }
+
+    @Test
+    public void testFingerprintOfNestedGeneratedValue() {
+        SessionId first = SessionId.named("Aa");
+        SessionId second = SessionId.named("BB");
+        assertEquals(first.hashCode(), second.hashCode());
+        assertTrue(first.fingerprint64() != second.fingerprint64());
+        assertTrue(SessionEvent.opened(first, 1L).fingerprint64() != SessionEvent.opened(second, 1L).fingerprint64());
+        assertEquals(SessionEvent.opened(first, 1L).fingerprint64(), SessionEvent.opened(SessionId.named("Aa"), 1L).fingerprint64());
+    }
+
+    @Test
+    public void testEqualsComparisonOrder() {
+        List<String> log = new ArrayList<String>();
+        ProbedRecord record1 = ProbedRecord.valueOf(new EqualsProbe("payload", 1, log), 1, new EqualsProbe("key", 1, log));
+        ProbedRecord record2 = ProbedRecord.valueOf(new EqualsProbe("payload", 1, log), 2, new EqualsProbe("key", 1, log));
+        ProbedRecord record3 = ProbedRecord.valueOf(new EqualsProbe("payload", 1, log), 1, new EqualsProbe("key", 1, log));
+        ProbedRecord record4 = ProbedRecord.valueOf(new EqualsProbe("payload", 1, log), 1, new EqualsProbe("key", 2, log));
+
+        assertFalse(record1.equals(record2));
+        assertEquals(Arrays.asList("key"), log);
+
+        log.clear();
+        assertTrue(record1.equals(record3));
+        assertEquals(Arrays.asList("key", "payload"), log);
+
+        log.clear();
+        assertFalse(record1.equals(record4));
+        assertEquals(Arrays.asList("key"), log);
+    }
+
+    @Test
+    public void testAbsentGetterMessage() {
+        try {
+            SearchResponse.failed("query", "timeout").summary();
+            fail("IllegalStateException expected");
+        } catch (IllegalStateException ex) {
+            assertEquals("summary is not accessible in this case: failed", ex.getMessage());
+        }
+        try {
+            Shape.empty().x();
+            fail("IllegalStateException expected");
+        } catch (IllegalStateException ex) {
+            assertEquals("x is not accessible in this case: empty", ex.getMessage());
+        }
+    }
+
+    @Test
+    public void testEqualsPriorityWithPackedFields() {
+        List<String> log = new ArrayList<String>();
+        ProbedRecord record1 = ProbedRecord.flagged(true, new EqualsProbe("key", 1, log));
+        ProbedRecord record2 = ProbedRecord.flagged(false, new EqualsProbe("key", 1, log));
+        ProbedRecord record3 = ProbedRecord.flagged(true, new EqualsProbe("key", 1, log));
+
+        assertFalse(record1.equals(record2));
+        assertEquals(Arrays.asList("key"), log);
+
+        log.clear();
+        assertTrue(record1.equals(record3));
+        assertEquals(Arrays.asList("key"), log);
+    }
+
+    @Test
+    public void testInlineVarArgsCompareToAndFingerprint() {
+        assertTrue(Label.named("a", "x").compareTo(Label.named("a", "x", "y")) < 0);
+        assertTrue(Label.named("a", "x", "z").compareTo(Label.named("a", "x", "y", "z")) > 0);
+        assertTrue(Label.named("a", "x", "y", "z").compareTo(Label.named("a", "x", "y")) > 0);
+        assertTrue(Label.named("a", (String)null).compareTo(Label.named("a", "x")) < 0);
+        assertEquals(0, Label.named("a", "x", null, "z").compareTo(Label.named("a", "x", null, "z")));
+        assertTrue(Label.numbered(1, 5).compareTo(Label.numbered(1, 2, 3)) > 0);
+        assertTrue(Label.numbered(1, 2).compareTo(Label.numbered(1, 2, 3)) < 0);
+        assertEquals(0, Label.numbered(1, 2).compareTo(Label.numbered(1, 2)));
+
+        assertEquals(Label.named("a", "x", "y").fingerprint64(), Label.named("a", "x", "y").fingerprint64());
+        assertTrue(Label.named("a", "x", "y").fingerprint64() != Label.named("a", "y", "x").fingerprint64());
+        assertTrue(Label.named("a", "x").fingerprint64() != Label.named("a", "x", null).fingerprint64());
+        assertTrue(Label.numbered(1, 2, 3).fingerprint64() != Label.numbered(1, 2).fingerprint64());
+    }
+
+    @Test
+    public void testOverlappingPatterns() {
+        Expression.Matcher<Void, String> simplifier = Expression.<Void, String>cases()
+                .addZero(new Expression.Matcher.AddZeroGuard<Void, String>() {
+                    @Override
+                    public boolean addZero(Void context, Expression x) {
+                        return !x.isLiteral();
+                    }
+                }, new Expression.Matcher.AddZeroPattern<Void, String>() {
+                    @Override
+                    public String addZero(Void context, Expression x) {
+                        return "addZero";
+                    }
+                })
+                .addLiterals(new Expression.Matcher.AddLiteralsPattern<Void, String>() {
+                    @Override
+                    public String addLiterals(Void context, int a, int b) {
+                        return "addLiterals: " + (a + b);
+                    }
+                })
+                .addToZero(new Expression.Matcher.AddToZeroPattern<Void, String>() {
+                    @Override
+                    public String addToZero(Void context, Expression x) {
+                        return "addToZero";
+                    }
+                })
+                .add(new Expression.Matcher.AddCase<Void, String>() {
+                    @Override
+                    public String add(Void context, Expression left, Expression right) {
+                        return "add";
+                    }
+                });
+        Expression sum = Expression.add(Expression.lit(1), Expression.lit(2));
+        assertEquals("addZero", simplifier.match(Expression.add(Expression.lit(0), sum), null));
+        assertEquals("addLiterals: 3", simplifier.match(Expression.add(Expression.lit(0), Expression.lit(3)), null));
+        assertEquals("addLiterals: 2", simplifier.match(Expression.add(Expression.lit(2), Expression.lit(0)), null));
+        assertEquals("addToZero", simplifier.match(Expression.add(sum, Expression.lit(0)), null));
+        assertEquals("add", simplifier.match(Expression.add(sum, Expression.lit(1)), null));
+        assertEquals("add", simplifier.match(Expression.add(Expression.lit(1), sum), null));
+
+        Expression.Matcher<Void, String> unguarded = simplifier.addZero(new Expression.Matcher.AddZeroPattern<Void, String>() {
+            @Override
+            public String addZero(Void context, Expression x) {
+                return "unguarded addZero";
+            }
+        });
+        assertEquals("unguarded addZero", unguarded.match(Expression.add(Expression.lit(0), Expression.lit(3)), null));
+    }
+
+    @Test
+    public void testOverlappingPatternsEvaluateGuardsOnce() {
+        final boolean[] isAccepted = new boolean[] {false};
+        Expression.Matcher<List<String>, String> matcher = Expression.<List<String>, String>cases()
+                .addZero(new Expression.Matcher.AddZeroGuard<List<String>, String>() {
+                    @Override
+                    public boolean addZero(List<String> log, Expression x) {
+                        log.add("addZero");
+                        return isAccepted[0];
+                    }
+                }, new Expression.Matcher.AddZeroPattern<List<String>, String>() {
+                    @Override
+                    public String addZero(List<String> log, Expression x) {
+                        return "addZero";
+                    }
+                })
+                .addLiterals(new Expression.Matcher.AddLiteralsGuard<List<String>, String>() {
+                    @Override
+                    public boolean addLiterals(List<String> log, int a, int b) {
+                        log.add("addLiterals");
+                        return isAccepted[0];
+                    }
+                }, new Expression.Matcher.AddLiteralsPattern<List<String>, String>() {
+                    @Override
+                    public String addLiterals(List<String> log, int a, int b) {
+                        return "addLiterals";
+                    }
+                })
+                .addToZero(new Expression.Matcher.AddToZeroGuard<List<String>, String>() {
+                    @Override
+                    public boolean addToZero(List<String> log, Expression x) {
+                        log.add("addToZero");
+                        return isAccepted[0];
+                    }
+                }, new Expression.Matcher.AddToZeroPattern<List<String>, String>() {
+                    @Override
+                    public String addToZero(List<String> log, Expression x) {
+                        return "addToZero";
+                    }
+                })
+                .add(new Expression.Matcher.AddCase<List<String>, String>() {
+                    @Override
+                    public String add(List<String> log, Expression left, Expression right) {
+                        return "add";
+                    }
+                });
+        Expression sum = Expression.add(Expression.lit(1), Expression.lit(2));
+
+        // Every guard of matching pattern is evaluated once, in declaration order,
+        // guards of patterns that don't match are never evaluated
+        List<String> log = new ArrayList<String>();
+        assertEquals("add", matcher.match(Expression.add(Expression.lit(0), Expression.lit(0)), log));
+        assertEquals(Arrays.asList("addZero", "addLiterals", "addToZero"), log);
+        log = new ArrayList<String>();
+        assertEquals("add", matcher.match(Expression.add(Expression.lit(0), sum), log));
+        assertEquals(Arrays.asList("addZero"), log);
+        log = new ArrayList<String>();
+        assertEquals("add", matcher.match(Expression.add(Expression.lit(1), Expression.lit(2)), log));
+        assertEquals(Arrays.asList("addLiterals"), log);
+        log = new ArrayList<String>();
+        assertEquals("add", matcher.match(Expression.add(sum, Expression.lit(0)), log));
+        assertEquals(Arrays.asList("addToZero"), log);
+        log = new ArrayList<String>();
+        assertEquals("add", matcher.match(Expression.add(sum, sum), log));
+        assertEquals(Collections.<String>emptyList(), log);
+
+        // The first accepted pattern wins, later guards are not evaluated
+        isAccepted[0] = true;
+        log = new ArrayList<String>();
+        assertEquals("addZero", matcher.match(Expression.add(Expression.lit(0), Expression.lit(0)), log));
+        assertEquals(Arrays.asList("addZero"), log);
+        log = new ArrayList<String>();
+        assertEquals("addLiterals", matcher.match(Expression.add(Expression.lit(1), Expression.lit(0)), log));
+        assertEquals(Arrays.asList("addLiterals"), log);
+    }
+
+    @Test
+    public void testCopyConstructorKeepsAttributeCache() {
+        Expression e = Expression.add(Expression.lit(1), Expression.lit(2));
+        long invocations = ExpressionSize.invocations();
+        assertEquals(Integer.valueOf(3), e.size());
+        assertEquals(invocations + 3, ExpressionSize.invocations());
+        Expression copy = new Expression(e) {
+        };
+        assertEquals(Integer.valueOf(3), copy.size());
+        assertEquals(invocations + 3, ExpressionSize.invocations());
+        assertEquals(e, copy);
+    }
+
+    @Test
+    public void testNullPrimitiveLazyField() {
+        SearchResponse response = SearchResponse.lazyFound("adt", 3, new SearchResponse.Thunk<String>() {
+            @Override
+            public String get() {
+                return "3 results";
+            }
+        }, new SearchResponse.Thunk<String>() {
+            @Override
+            public String get() {
+                return null;
+            }
+        }, new SearchResponse.Thunk<Double>() {
+            @Override
+            public Double get() {
+                return null;
+            }
+        });
+        try {
+            response.score();
+            fail("NullPointerException expected");
+        } catch (NullPointerException ex) {
+            assertEquals("Lazy field shouldn't be null: 'score' field in class " + SearchResponse.class.getName(), ex.getMessage());
+        }
+    }
+
+    @Test
+    public void testMemoizedFoldOfEqualDeepValues() {
+        final int[] invocations = new int[1];
+        ExpressionVisitor<Integer, Integer> counter = new ExpressionVisitor<Integer, Integer>() {
+            @Override
+            public Integer add(Integer left, Integer right) {
+                invocations[0]++;
+                return left + right + 1;
+            }
+
+            @Override
+            public Integer mul(Integer left, Integer right) {
+                invocations[0]++;
+                return left + right + 1;
+            }
+
+            @Override
+            public Integer lit(int value) {
+                invocations[0]++;
+                return 1;
+            }
+        };
+        Expression left = Expression.lit(0);
+        Expression right = Expression.lit(0);
+        for (int i = 0; i < 100000; i++) {
+            left = Expression.add(Expression.lit(i), left);
+            right = Expression.add(Expression.lit(i), right);
+        }
+        assertEquals(Integer.valueOf(400003), Expression.add(left, right).memoizedFold(counter));
+        // distinct literals, sums of one of the chains and the root sum
+        assertEquals(100000 + 100000 + 1, invocations[0]);
+    }
+
+    @Test
+    public void testBytecodeValueClassParity() {
+        List<ParityShape> sources = new ArrayList<ParityShape>();
+        List<BytecodeParityShape> bytecodes = new ArrayList<BytecodeParityShape>();
+        sources.add(ParityShape.empty());
+        bytecodes.add(BytecodeParityShape.empty());
+        sources.add(ParityShape.leaf(1, 2L, true, (byte)3, (short)4, 'x', 0.5f, 1.5, "label", TimeUnit.SECONDS));
+        bytecodes.add(BytecodeParityShape.leaf(1, 2L, true, (byte)3, (short)4, 'x', 0.5f, 1.5, "label", TimeUnit.SECONDS));
+        sources.add(ParityShape.leaf(1, 2L, true, (byte)3, (short)4, 'x', 0.5f, 1.5, "label", TimeUnit.SECONDS));
+        bytecodes.add(BytecodeParityShape.leaf(1, 2L, true, (byte)3, (short)4, 'x', 0.5f, 1.5, "label", TimeUnit.SECONDS));
+        sources.add(ParityShape.leaf(-1, Long.MIN_VALUE, false, (byte)-3, (short)-4, 'y', 0.5f, 1.5, null, TimeUnit.DAYS));
+        bytecodes.add(BytecodeParityShape.leaf(-1, Long.MIN_VALUE, false, (byte)-3, (short)-4, 'y', 0.5f, 1.5, null, TimeUnit.DAYS));
+        sources.add(ParityShape.leaf(-1, Long.MIN_VALUE, false, (byte)-3, (short)-4, 'y', 0.5f, 1.5, null, TimeUnit.DAYS));
+        bytecodes.add(BytecodeParityShape.leaf(-1, Long.MIN_VALUE, false, (byte)-3, (short)-4, 'y', 0.5f, 1.5, null, TimeUnit.DAYS));
+        sources.add(ParityShape.leaf(0, 0L, true, (byte)0, (short)0, 'z', Float.NaN, Double.NaN, "nan", TimeUnit.SECONDS));
+        bytecodes.add(BytecodeParityShape.leaf(0, 0L, true, (byte)0, (short)0, 'z', Float.NaN, Double.NaN, "nan", TimeUnit.SECONDS));
+        sources.add(ParityShape.node(sources.get(1), sources.get(0), "payload"));
+        bytecodes.add(BytecodeParityShape.node(bytecodes.get(1), bytecodes.get(0), "payload"));
+        sources.add(ParityShape.node(sources.get(2), sources.get(0), "payload"));
+        bytecodes.add(BytecodeParityShape.node(bytecodes.get(2), bytecodes.get(0), "payload"));
+        sources.add(ParityShape.node(sources.get(0), sources.get(3), 42));
+        bytecodes.add(BytecodeParityShape.node(bytecodes.get(0), bytecodes.get(3), 42));
+        sources.add(ParityShape.factory().node(sources.get(0), sources.get(3), 42));
+        bytecodes.add(BytecodeParityShape.factory().node(bytecodes.get(0), bytecodes.get(3), 42));
+        sources.add(new ParityShape(sources.get(6)) { });
+        bytecodes.add(new BytecodeParityShape(bytecodes.get(6)) { });
+
+        ParityShapeVisitor<ParityShape, String> sourceDescriber = new ParityShapeVisitor<ParityShape, String>() {
+            @Override
+            public String empty() {
+                return "empty";
+            }
+
+            @Override
+            public String leaf(int count, long size, boolean flag, byte tag, short code, char letter, float ratio, double weight, String label, TimeUnit unit) {
+                return "leaf " + Arrays.asList(count, size, flag, tag, code, letter, ratio, weight, label, unit);
+            }
+
+            @Override
+            public String node(ParityShape left, ParityShape right, Object payload) {
+                return "node " + Arrays.asList(left.accept(this), right.accept(this), payload);
+            }
+        };
+        BytecodeParityShapeVisitor<BytecodeParityShape, String> bytecodeDescriber = new BytecodeParityShapeVisitor<BytecodeParityShape, String>() {
+            @Override
+            public String empty() {
+                return "empty";
+            }
+
+            @Override
+            public String leaf(int count, long size, boolean flag, byte tag, short code, char letter, float ratio, double weight, String label, TimeUnit unit) {
+                return "leaf " + Arrays.asList(count, size, flag, tag, code, letter, ratio, weight, label, unit);
+            }
+
+            @Override
+            public String node(BytecodeParityShape left, BytecodeParityShape right, Object payload) {
+                return "node " + Arrays.asList(left.accept(this), right.accept(this), payload);
+            }
+        };
+        for (int i = 0; i < sources.size(); i++) {
+            ParityShape source = sources.get(i);
+            BytecodeParityShape bytecode = bytecodes.get(i);
+            assertEquals(source.toString(), bytecode.toString().replace("BytecodeParityShape", "ParityShape"));
+            assertEquals(source.hashCode(), bytecode.hashCode());
+            assertEquals(source.accept(sourceDescriber), bytecode.accept(bytecodeDescriber));
+            for (int j = 0; j < sources.size(); j++) {
+                assertEquals("equals of " + i + " and " + j, source.equals(sources.get(j)), bytecode.equals(bytecodes.get(j)));
+            }
+            assertFalse(bytecode.equals(null));
+            assertFalse(bytecode.equals(source));
+        }
+        assertSame(BytecodeParityShape.empty(), BytecodeParityShape.factory().empty());
+        assertEquals(bytecodes.get(1), bytecodes.get(2));
+        assertEquals(bytecodes.get(3), bytecodes.get(4));
+        assertEquals(bytecodes.get(6), bytecodes.get(7));
+        assertEquals(bytecodes.get(8), bytecodes.get(9));
+        assertEquals(bytecodes.get(6), bytecodes.get(10));
+        assertEquals(bytecodes.get(5), bytecodes.get(5));
+        assertFalse(bytecodes.get(5).equals(BytecodeParityShape.leaf(0, 0L, true, (byte)0, (short)0, 'z', Float.NaN, Double.NaN, "nan", TimeUnit.SECONDS)));
+
+        String sourceMessage = null;
+        try {
+            ParityShape.node(null, sources.get(0), "payload");
+            fail("NullPointerException expected");
+        } catch (NullPointerException ex) {
+            sourceMessage = ex.getMessage();
+        }
+        try {
+            BytecodeParityShape.node(null, bytecodes.get(0), "payload");
+            fail("NullPointerException expected");
+        } catch (NullPointerException ex) {
+            assertEquals(sourceMessage, ex.getMessage().replace("BytecodeParityShape", "ParityShape"));
+        }
+        try {
+            BytecodeParityShape.leaf(1, 2L, true, (byte)3, (short)4, 'x', 0.5f, 1.5, "label", null);
+            fail("NullPointerException expected");
+        } catch (NullPointerException ex) {
+            assertEquals("Argument shouldn't be null: 'unit' argument in static method invocation: 'leaf' in class " + BytecodeParityShape.class.getName(), ex.getMessage());
+        }
+
+        for (int i = 0; i < sources.size(); i++) {
+            ParityShape source = sources.get(i);
+            BytecodeParityShape bytecode = bytecodes.get(i);
+            assertEquals(source.isEmpty(), bytecode.isEmpty());
+            assertEquals(source.withCount(7).accept(sourceDescriber), bytecode.withCount(7).accept(bytecodeDescriber));
+            assertEquals(source.withCount(7).hashCode(), bytecode.withCount(7).hashCode());
+            String sourceLabel;
+            try {
+                sourceLabel = "label " + source.getLabel();
+            } catch (IllegalStateException ex) {
+                sourceLabel = ex.getMessage();
+            }
+            String bytecodeLabel;
+            try {
+                bytecodeLabel = "label " + bytecode.getLabel();
+            } catch (IllegalStateException ex) {
+                bytecodeLabel = ex.getMessage();
+            }
+            assertEquals(sourceLabel, bytecodeLabel);
+        }
+        assertSame(sources.get(6), sources.get(6).withCount(7));
+        assertSame(bytecodes.get(6), bytecodes.get(6).withCount(7));
+    }
+
+    @Test
+    public void testCommonFieldsOfBytecodeValueClass() {
+        BytecodeSyntaxNode function = BytecodeSyntaxNode.identifier(1, "f");
+        BytecodeSyntaxNode argument = BytecodeSyntaxNode.literal(3, 42L);
+        BytecodeSyntaxNode application = BytecodeSyntaxNode.application(0, function, argument);
+        assertEquals(1, function.position());
+        assertEquals(3, argument.position());
+        assertEquals(0, application.position());
+        assertEquals(application, BytecodeSyntaxNode.application(0, BytecodeSyntaxNode.identifier(1, "f"), BytecodeSyntaxNode.literal(3, 42L)));
+        assertEquals(application.hashCode(), BytecodeSyntaxNode.application(0, BytecodeSyntaxNode.identifier(1, "f"), BytecodeSyntaxNode.literal(3, 42L)).hashCode());
+        assertFalse("function.equals(BytecodeSyntaxNode.identifier(2, \"f\"))", function.equals(BytecodeSyntaxNode.identifier(2, "f")));
+
+        SyntaxNode sourceApplication = SyntaxNode.application(0, SyntaxNode.identifier(1, "f"), SyntaxNode.literal(3, 42L));
+        assertEquals(sourceApplication.toString(), application.toString().replace("BytecodeSyntaxNode", "SyntaxNode"));
+        assertEquals(sourceApplication.hashCode(), application.hashCode());
+    }
 }
@@ -0,0 +1,126 @@
+/*
+ * Copyright (c) 2015, Victor Nazarov <asviraspossible@gmail.com>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation and/or
+ *     other materials provided with the distribution.
+ *
+ *  3. Neither the name of the copyright holder nor the names of its contributors
+ *     may be used to endorse or promote products derived from this software
+ *     without specific prior written permission.
+ *
+ *  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ *  ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ *  THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ *  IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR
+ *  ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ *  (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ *   LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ *  ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ *  (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+ *  EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.github.sviperll.adt4j.runtime;
+
+/**
+ * Helper methods shared by value classes generated by adt4j.
+ * <p>
+ * When adt4j-runtime is available on compile classpath, generated classes delegate
+ * argument checks, hash code caching and fingerprint computation to these methods
+ * instead of repeating the same code in every generated class.
+ * <p>
+ * Methods are small and static, so that they are easily inlined by JIT-compiler.
+ * Exceptions are constructed in separate methods to keep hot paths small.
+ * <p>
+ * This class is not intended to be used directly.
+ *
+ * @author Victor Nazarov <asviraspossible@gmail.com>
+ */
+public final class GeneratedCodeSupport {
+    private static final long FINGERPRINT_MULTIPLIER = 0x9E3779B97F4A7C15L;
+    private static final int FINGERPRINT_ROTATION = 31;
+
+    /**
+     * Throws NullPointerException when argument of static factory method is null.
+     *
+     * @param argument argument to check
+     * @param argumentName name of checked argument
+     * @param methodName name of static factory method
+     * @param className fully qualified name of generated class
+     */
+    public static void requireNonNull(Object argument, String argumentName, String methodName, String className) {
+        if (argument == null)
+            throw staticMethodArgumentIsNull(argumentName, methodName, className);
+    }
+
+    /**
+     * Throws NullPointerException when argument of constructor is null.
+     *
+     * @param argument argument to check
+     * @param argumentName name of checked argument
+     * @param className fully qualified name of generated class
+     */
+    public static void requireConstructorArgumentNonNull(Object argument, String argumentName, String className) {
+        if (argument == null)
+            throw constructorArgumentIsNull(argumentName, className);
+    }
+
+    /**
+     * Replaces zero hash code with some other value.
+     * <p>
+     * Zero is used by generated classes to mark hash code as not computed yet.
+     *
+     * @param code computed hash code
+     * @return non-zero hash code
+     */
+    public static int nonZeroHashCode(int code) {
+        return code != 0 ? code : Integer.MIN_VALUE;
+    }
+
+    /**
+     * Performs fingerprint combining step.
+     * <p>
+     * Algorithm is documented in adt4j's {@code GenerateValueClassForVisitor#generateFingerprint} method.
+     *
+     * @param fingerprint current fingerprint value
+     * @param value value to combine with
+     * @return combined fingerprint
+     */
+    public static long fingerprintCombine(long fingerprint, long value) {
+        return Long.rotateLeft(fingerprint ^ value, FINGERPRINT_ROTATION) * FINGERPRINT_MULTIPLIER;
+    }
+
+    /**
+     * Finalizes fingerprint with MurmurHash3's fmix64.
+     *
+     * @param fingerprint current fingerprint value
+     * @return final non-zero fingerprint
+     */
+    public static long fingerprintFinish(long fingerprint) {
+        long result = fingerprint;
+        result = result ^ (result >>> 33);
+        result = result * 0xFF51AFD7ED558CCDL;
+        result = result ^ (result >>> 33);
+        result = result * 0xC4CEB9FE1A85EC53L;
+        result = result ^ (result >>> 33);
+        return result != 0 ? result : 1L;
+    }
+
+    private static NullPointerException staticMethodArgumentIsNull(String argumentName, String methodName, String className) {
+        return new NullPointerException("Argument shouldn't be null: '" + argumentName + "' argument in static method invocation: '" + methodName + "' in class " + className);
+    }
+
+    private static NullPointerException constructorArgumentIsNull(String argumentName, String className) {
+        return new NullPointerException("Argument shouldn't be null: '" + argumentName + "' argument in class constructor invocation: " + className);
+    }
+
+    private GeneratedCodeSupport() {
+    }
+}
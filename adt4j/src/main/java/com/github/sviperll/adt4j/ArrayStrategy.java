@@ -0,0 +1,74 @@
+/*
+ * Copyright (c) 2015, Victor Nazarov <asviraspossible@gmail.com>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation and/or
+ *     other materials provided with the distribution.
+ *
+ *  3. Neither the name of the copyright holder nor the names of its contributors
+ *     may be used to endorse or promote products derived from this software
+ *     without specific prior written permission.
+ *
+ *  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ *  ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ *  THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ *  IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR
+ *  ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ *  (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ *   LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ *  ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ *  (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+ *  EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.github.sviperll.adt4j;
+
+/**
+ * Strategy used by generated equals and hashCode methods for array fields.
+ *
+ * @see ArrayField
+ *
+ * @author Victor Nazarov <asviraspossible@gmail.com>
+ */
+public enum ArrayStrategy {
+    /**
+     * Arrays are compared and hashed by generated loops over elements.
+     * <p>
+     * This is default strategy.
+     */
+    ELEMENTS,
+
+    /**
+     * Arrays are compared and hashed by {@code java.util.Arrays} methods.
+     * <p>
+     * {@code Arrays.equals} and {@code Arrays.hashCode} are used for one-dimensional arrays and
+     * {@code Arrays.deepEquals} and {@code Arrays.deepHashCode} for arrays of arrays.
+     * JDK provides optimized implementations of these methods for primitive arrays.
+     * <p>
+     * Note that {@code float} and {@code double} elements are compared
+     * like {@code Float.equals} and {@code Double.equals} do: NaN is equal to itself and
+     * {@code 0.0} is not equal to {@code -0.0}.
+     */
+    CONTENT,
+
+    /**
+     * Like {@code CONTENT}, but array's hash code is computed once when value is created.
+     * <p>
+     * Should only be used when array is never modified after value creation.
+     */
+    CACHED_CONTENT,
+
+    /**
+     * Arrays are compared by reference and hashed with {@code System.identityHashCode}.
+     * <p>
+     * Can be used for huge arrays that are never compared by content.
+     * Array fields with this strategy can't be used in comparable classes.
+     */
+    IDENTITY;
+}
@@ -0,0 +1,106 @@
+/*
+ * Copyright (c) 2015, Victor Nazarov <asviraspossible@gmail.com>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation and/or
+ *     other materials provided with the distribution.
+ *
+ *  3. Neither the name of the copyright holder nor the names of its contributors
+ *     may be used to endorse or promote products derived from this software
+ *     without specific prior written permission.
+ *
+ *  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ *  ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ *  THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ *  IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR
+ *  ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ *  (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ *   LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ *  ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ *  (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+ *  EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.github.sviperll.adt4j;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Memoized derived attribute of generated value class.
+ * <p>
+ * Attribute is declared with {@link GenerateValueClassForVisitor#attributes()} parameter.
+ * Generated class gets method with attribute's name, that evaluates algebra on first invocation
+ * and caches the result in the instance.
+ * <p>
+ * Algebra is a class, that implements visitor interface with attribute type used as result type
+ * and as self-reference type, like algebra of {@code fold} method.
+ * For recursive value classes algebra receives cached attributes of children in place of self-reference fields,
+ * so that attribute of every value is computed once.
+ * Attributes are computed with explicit stack and don't overflow call stack on deep values.
+ * <p>
+ * For example, <tt>size</tt> attribute counts nodes of expression:
+ * <blockquote><pre><code>
+ *     &#64;GenerateValueClassForVisitor(generateFold = true,
+ *                                   attributes = &#64;Attribute(name = "size", type = "java.lang.Integer",
+ *                                                           algebra = "com.example.ExpressionSize"))
+ *     interface ExpressionVisitor&lt;S, R&gt; {
+ *         R add(S left, S right);
+ *         R lit(int value);
+ *     }
+ *
+ *     class ExpressionSize implements ExpressionVisitor&lt;Integer, Integer&gt; {
+ *         public Integer add(Integer left, Integer right) {
+ *             return left + right + 1;
+ *         }
+ *         public Integer lit(int value) {
+ *             return 1;
+ *         }
+ *     }
+ * </code></pre></blockquote>
+ *
+ * @author Victor Nazarov <asviraspossible@gmail.com>
+ */
+@Retention(RetentionPolicy.SOURCE)
+@Target({})
+@Documented
+public @interface Attribute {
+    /**
+     * Name of attribute.
+     * <p>
+     * Name is used as name of generated method.
+     *
+     * @return Name of attribute
+     */
+    String name();
+
+    /**
+     * Fully qualified name of attribute type.
+     * <p>
+     * Attribute type should be reference type.
+     * Type arguments can be specified, like {@code "java.util.Set<java.lang.String>"}.
+     *
+     * @return Fully qualified name of attribute type
+     */
+    String type();
+
+    /**
+     * Fully qualified name of algebra class.
+     * <p>
+     * Algebra class should have public constructor without arguments.
+     * Single algebra instance is shared by all values and is invoked concurrently,
+     * so algebra should be thread-safe.
+     * Algebra should not return null and should not throw checked exceptions.
+     *
+     * @return Fully qualified name of algebra class
+     */
+    String algebra();
+}
@@ -0,0 +1,104 @@
+/*
+ * Copyright (c) 2015, Victor Nazarov <asviraspossible@gmail.com>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation and/or
+ *     other materials provided with the distribution.
+ *
+ *  3. Neither the name of the copyright holder nor the names of its contributors
+ *     may be used to endorse or promote products derived from this software
+ *     without specific prior written permission.
+ *
+ *  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ *  ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ *  THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ *  IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR
+ *  ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ *  (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ *   LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ *  ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ *  (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+ *  EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.github.sviperll.adt4j;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Generates nested pattern for specified case.
+ * <p>
+ * Patterns are handled by generated matcher, see {@link GenerateValueClassForVisitor#generateMatcher()}.
+ * Every pattern gets it's own handler interface, that receives context argument and values bound by pattern.
+ * Matcher tries patterns of value's case in declaration order before case handler.
+ * Patterns without handler are skipped.
+ * Pattern handler can be set along with a guard, that receives the same arguments.
+ * When guard returns false, matcher proceeds with subsequent patterns.
+ * <p>
+ * Patterns of a case are compiled into a single tree of nested tests of case tags and fields.
+ * Consecutive patterns, that start with the same tests, share them,
+ * so overlapping patterns, like <tt>add(lit(0), x)</tt> and <tt>add(lit(a), lit(b))</tt>,
+ * test left operand's case only once.
+ * No visitors are allocated during matching.
+ * <p>
+ * For example, <tt>addZero</tt> pattern matches any sum with zero literal as it's left operand
+ * and binds right operand to <tt>x</tt>:
+ * <blockquote><pre><code>
+ *     interface ExpressionVisitor&lt;S, R&gt; {
+ *
+ *         &#64;GeneratePattern(name = "addZero", pattern = "add(lit(0), x)")
+ *         R add(S left, S right);
+ *
+ *         R lit(int value);
+ *     }
+ * </code></pre></blockquote>
+ *
+ * @author Victor Nazarov <asviraspossible@gmail.com>
+ */
+@Retention(RetentionPolicy.SOURCE)
+@Target(ElementType.METHOD)
+@Documented
+public @interface GeneratePattern {
+    /**
+     * Name of generated pattern.
+     * <p>
+     * Name is used as handler method name of generated matcher.
+     * Pattern name should differ from names of cases and other patterns.
+     *
+     * @return Name of generated pattern
+     */
+    String name();
+
+    /**
+     * Pattern to match.
+     * <p>
+     * Pattern is one of:
+     * <ul>
+     *   <li>case pattern, like <tt>add(p1, p2)</tt>, that matches given case
+     *   when every field matches corresponding pattern;
+     *   nullary case pattern can be written without parentheses;
+     *   <li><tt>_</tt>, that matches anything;
+     *   <li>identifier, that matches anything and binds matched value;
+     *   <li>integer, character, string, <tt>true</tt> or <tt>false</tt> literal,
+     *   that matches equal value of primitive or {@code String} field.
+     * </ul>
+     * Case patterns can be nested only for self-reference fields.
+     * Outermost pattern should be case pattern for annotated case.
+     * <p>
+     * Pattern is considered an error, when every value matched by it is matched by some
+     * previously declared pattern of the same case.
+     *
+     * @return Pattern to match.
+     */
+    String pattern();
+}
@@ -120,6 +120,18 @@ public @interface GenerateValueClassForVisitor {
      */
     int hashCodeBase() default 37;
 
+    /**
+     * Algorithm to perform hash code evaluation in generated class.
+     * <p>
+     * Default {@code POLYNOMIAL} algorithm is cheap, but produces clustered hash codes
+     * for small-int and boolean fields.
+     * Use {@code MIXED_POLYNOMIAL} or {@code FOLDED_LONG} for better distribution.
+     *
+     * @see HashCodeAlgorithm
+     * @return Algorithm to perform hash code evaluation in generated class.
+     */
+    HashCodeAlgorithm hashCodeAlgorithm() default HashCodeAlgorithm.POLYNOMIAL;
+
     /**
      * hashCode method caching strategy.
      * <p>
@@ -135,6 +147,308 @@ public @interface GenerateValueClassForVisitor {
      */
     Caching hashCodeCaching() default Caching.NONE;
 
+    /**
+     * Specifies weather generated class should have {@code long fingerprint64()} method.
+     * <p>
+     * Fingerprint is a 64-bit structural hash, that unlike hashCode
+     * is stable across JVM runs and can be used for sharding or as a key in shared caches.
+     * <p>
+     * Fingerprint is computed as follows.
+     * Combining step is {@code h = Long.rotateLeft(h ^ v, 31) * 0x9E3779B97F4A7C15L}.
+     * Initial value is {@code 0xCBF29CE484222325L} combined with length
+     * and then with every character of the case (visitor method) name.
+     * Fields are combined in declaration order:
+     * <ul>
+     *   <li>{@code boolean} is combined as 1 or 0,
+     *   {@code float} and {@code double} as {@code floatToIntBits} and {@code doubleToLongBits},
+     *   other primitives as widened {@code long} value;
+     *   <li>boxed primitives are combined as corresponding primitive values;
+     *   <li>strings are combined as length followed by every character;
+     *   <li>enums are combined as strings returned by {@code name} method;
+     *   <li>arrays are combined as length followed by every element;
+     *   <li>values of classes with {@code fingerprint64} method
+     *   (including self-references) are combined as result of {@code fingerprint64} call;
+     *   <li>any other value is combined as result of {@code hashCode} call.
+     * </ul>
+     * Nullable fields are prefixed with 0 when null and with 1 otherwise.
+     * Result is finalized with MurmurHash3's {@code fmix64} and is never zero: zero is replaced with one.
+     * <p>
+     * Fingerprint is only stable across JVMs when fields that fall back to {@code hashCode}
+     * have stable hashCode implementation themselves.
+     *
+     * @return weather generated class should have fingerprint64 method.
+     */
+    boolean generateFingerprint() default false;
+
+    /**
+     * fingerprint64 method caching strategy.
+     * <p>
+     * The same rules as for {@link #hashCodeCaching()} apply.
+     * {@code SIMPLE} and {@code SYNCRONIZED} strategies use volatile field,
+     * since non-volatile long fields can be observed partially written.
+     *
+     * @see Caching
+     * @see #generateFingerprint()
+     */
+    Caching fingerprintCaching() default Caching.NONE;
+
+    /**
+     * Specifies weather generated class should have {@code Matcher} nested class.
+     * <p>
+     * Matcher is an immutable visitor assembled from per-case single-method interfaces.
+     * Matcher without handlers is returned by static {@code cases} method,
+     * handlers are set with methods named after cases and with {@code otherwise} method,
+     * that sets handler for all cases without their own handler.
+     * Every handler receives context argument, passed to {@code match(value, context)} method,
+     * so that handlers don't need to capture any state,
+     * and single matcher can be stored in static final field and reused.
+     * Matching performs no allocation.
+     * <p>
+     * Cases can't be named {@code cases} or {@code otherwise} when matcher is generated.
+     * <p>
+     * Default is false.
+     *
+     * @return weather generated class should have {@code Matcher} nested class.
+     */
+    boolean generateMatcher() default false;
+
+    /**
+     * Specifies weather generated class should have {@code transformBottomUp} and {@code transformTopDown} methods.
+     * <p>
+     * Transform methods take {@code Transformer}, nested interface of generated class,
+     * and apply it to every value reachable through self-reference fields,
+     * that is fields of {@code S}, {@code List<S>} and {@code List<? extends S>} types,
+     * where {@code S} is self-reference type variable.
+     * Varargs and other fields are not traversed.
+     * {@code transformBottomUp} transforms children before their parent,
+     * {@code transformTopDown} transforms parent and then children of transformed parent.
+     * <p>
+     * Values are rebuilt only when some child is actually changed,
+     * otherwise original instance is preserved, so that unchanged subtrees are shared.
+     * Traversal uses explicit stack and doesn't overflow call stack on deep values.
+     * Null children are skipped.
+     * <p>
+     * Transform methods can be generated only when some case has self-reference field.
+     * <p>
+     * Default is false.
+     *
+     * @return weather generated class should have transform methods.
+     */
+    boolean generateTransform() default false;
+
+    /**
+     * Specifies weather generated class should have {@code fold} methods.
+     * <p>
+     * {@code fold} method takes visitor, that is used as algebra:
+     * self-reference type variable {@code S} is replaced with result type,
+     * so that every case receives already folded results in place of self-reference fields.
+     * Values are traversed like with {@link #generateTransform()}.
+     * Traversal uses explicit stack and doesn't overflow call stack on deep values.
+     * Null children are passed as nulls, null elements of lists are skipped.
+     * <p>
+     * {@code foldToInt}, {@code foldToLong} and {@code foldToDouble} methods
+     * take {@code IntAlgebra}, {@code LongAlgebra} and {@code DoubleAlgebra} nested interfaces and
+     * store intermediate results without boxing.
+     * Primitive algebras receive arrays of results in place of lists
+     * and boxed results in place of nullable fields.
+     * <p>
+     * Fold methods can be generated only when some case has self-reference field
+     * and every field, that refers to self-reference type, is either self-reference or list of self-references.
+     * <p>
+     * Default is false.
+     *
+     * @return weather generated class should have fold methods.
+     */
+    boolean generateFold() default false;
+
+    /**
+     * Specifies weather generated class should have {@code parallelFold} method.
+     * <p>
+     * {@code parallelFold} method takes the same algebra as {@code fold} method,
+     * {@code java.util.concurrent.ForkJoinPool} and depth.
+     * Children are folded by separate fork/join tasks down to given depth,
+     * deeper subtrees are folded sequentially like with {@code fold} method.
+     * Algebra is invoked concurrently from pool threads and should be thread-safe.
+     * Results are combined in the same order as with {@code fold} method,
+     * so that {@code parallelFold} returns the same result as {@code fold} for any pure algebra.
+     * <p>
+     * Generated code requires Java 7 or later.
+     * Parallel fold can be generated only when {@link #generateFold()} is enabled
+     * and visitor has no exception type variable.
+     * <p>
+     * Default is false.
+     *
+     * @return weather generated class should have parallelFold method.
+     */
+    boolean generateParallelFold() default false;
+
+    /**
+     * Specifies weather generated class should have {@code memoizedFold} method.
+     * <p>
+     * {@code memoizedFold} method takes the same algebra as {@code fold} method,
+     * but folds every shared subvalue only once, so that values with heavy subterm sharing,
+     * like DAGs, are folded in time proportional to the number of distinct subvalues.
+     * Results are cached per subvalue identity.
+     * When hash code caching is enabled with {@link #hashCodeCaching()} parameter,
+     * results are additionally shared between structurally equal subvalues.
+     * Structurally equal subvalues are found by shallow keys, built from case fields and
+     * structural classes of children, so that deep subvalues are never compared recursively.
+     * Traversal uses loops and doesn't overflow call stack on deep values.
+     * Cache is local to single method invocation and is released when method returns.
+     * <p>
+     * Memoized fold can be generated only when {@link #generateFold()} is enabled.
+     * <p>
+     * Default is false.
+     *
+     * @return weather generated class should have memoizedFold method.
+     */
+    boolean generateMemoizedFold() default false;
+
+    /**
+     * Specifies weather list-shaped generated class should implement {@code Iterable}.
+     * <p>
+     * Visitor is list-shaped when it has exactly two cases:
+     * nullary case, like {@code nil()}, and case with single element field
+     * and single non-nullable self-reference field, like {@code cons(T head, S tail)}.
+     * Primitive elements are boxed by iterator.
+     * <p>
+     * Generated class additionally gets
+     * static {@code fromArray} and {@code fromIterable} methods,
+     * that build list with the same elements in the same order.
+     * Iteration and factory methods use loops and don't overflow call stack on long lists.
+     * <p>
+     * Default is false.
+     *
+     * @return weather generated class should implement Iterable.
+     */
+    boolean generateIterable() default false;
+
+    /**
+     * Specifies weather generated class should have map methods for it's type parameters.
+     * <p>
+     * For every type parameter {@code T} of value class,
+     * method named {@code mapT} is generated.
+     * It takes {@code Mapper}, nested interface of generated class,
+     * and returns value with the same structure,
+     * where every field of {@code T} type is replaced with result of mapper.
+     * Values reachable through self-reference fields are mapped too,
+     * like with {@link #generateTransform()}, without overflowing call stack on deep values.
+     * <p>
+     * Values are rebuilt only when mapper returns different instance for some field
+     * or some child is rebuilt, otherwise original instance is reused as a result,
+     * so that identity mapping doesn't allocate new values.
+     * <p>
+     * Map methods can be generated only when type parameters have no bounds,
+     * every field, that refers to type parameter, is of type parameter type
+     * and every field, that refers to self-reference type, is either self-reference or list of self-references.
+     * <p>
+     * Default is false.
+     *
+     * @return weather generated class should have map methods.
+     */
+    boolean generateMap() default false;
+
+    /**
+     * Memoized derived attributes of generated class.
+     * <p>
+     * Every attribute gets method, that computes attribute with attribute's algebra on first invocation
+     * and caches the result in volatile field of the instance, see {@link Attribute}.
+     * Cache fields are transient when generated class is serializable.
+     * <p>
+     * Attributes can be generated only for value classes without type parameters.
+     * Attributes of value classes with self-reference fields
+     * require {@link #generateFold()} to be enabled.
+     * <p>
+     * Default is no attributes.
+     *
+     * @return memoized attributes of generated class.
+     */
+    Attribute[] attributes() default {};
+
+    /**
+     * Specifies weather small primitive fields should be packed together.
+     * <p>
+     * When enabled, {@code boolean}, {@code byte}, {@code char} and {@code short} fields
+     * of every case are stored as bit-fields of one or more {@code int} or {@code long} fields.
+     * This reduces per-instance footprint and allows generated equals method
+     * to compare all packed fields with a single comparison.
+     * Getters and other generated methods extract packed values with shifts and masks.
+     * <p>
+     * Default is false.
+     *
+     * @return weather small primitive fields should be packed together.
+     */
+    boolean packPrimitiveFields() default false;
+
+    /**
+     * Maximum number of varargs elements stored in dedicated fields instead of an array.
+     * <p>
+     * When positive, varargs of every case with up to this number of elements
+     * are stored in dedicated fields and no array is retained. Longer varargs are stored as array.
+     * Getters, accept-method and updaters build new array on every call.
+     * Generated equals, hashCode, compareTo and fingerprint64 methods read stored elements directly.
+     * <p>
+     * Only varargs that are not nullable, have default {@code @ArrayField} strategy
+     * and have element type, that is neither type variable nor parameterized type, are stored inline.
+     * <p>
+     * Default is 0, that means that varargs are always stored as arrays.
+     *
+     * @return maximum number of varargs elements stored in dedicated fields.
+     */
+    int inlineVarArgsLimit() default 0;
+
+    /**
+     * Specifies weather cases should be represented by single class instead of class per case.
+     * <p>
+     * When enabled, fields of all cases are stored in single final class along with {@code int} tag,
+     * that identifies current case.
+     * Generated methods switch over tag instead of dispatching to case classes.
+     * This greatly reduces number of loaded classes at the cost of larger instances,
+     * since every instance has fields of every case.
+     * <p>
+     * Tagged union can't be combined with {@link #packPrimitiveFields()}, {@link #inlineVarArgsLimit()}
+     * and {@code CACHED_CONTENT} array strategy.
+     * Value classes, whose cases are all nullary, are always backed by enum and are not affected by this parameter.
+     * <p>
+     * Default is false.
+     *
+     * @return weather cases should be represented by single class.
+     */
+    boolean isTaggedUnion() default false;
+
+    /**
+     * Specifies weather static instances should be created lazily.
+     * <p>
+     * By default, instances for nullary cases and factory instance
+     * are created when generated class is initialized,
+     * so that all nullary case classes and factory class are loaded along with generated class.
+     * <p>
+     * When enabled, every such instance is stored in it's own holder class
+     * and is created when it is accessed for the first time.
+     * No synchronization is required, since JVM initializes holder class only once.
+     * <p>
+     * Default is false.
+     *
+     * @return weather static instances should be created lazily.
+     */
+    boolean lazyInitialization() default false;
+
+    /**
+     * Specifies weather generated class should use adt4j-runtime.
+     * <p>
+     * When enabled, generated class delegates argument checks, hash code caching and fingerprint computation
+     * to shared helper methods of adt4j-runtime instead of containing the same code itself.
+     * This reduces size of generated bytecode, but requires adt4j-runtime to be present
+     * on compile classpath and at runtime.
+     * It is an error to enable this option when adt4j-runtime is not available on compile classpath.
+     * <p>
+     * Default is false, that means that generated class is standalone
+     * and never references adt4j-runtime even when it is available.
+     *
+     * @return weather generated class should use adt4j-runtime.
+     */
+    boolean useRuntimeSupport() default false;
+
     /**
      * Specifies weather generated class should be serializable.
      *
@@ -159,4 +473,35 @@ public @interface GenerateValueClassForVisitor {
      * @return serialVersionUID value for generated serializable class.
      */
     long serialVersionUID() default 1L;
+
+    /**
+     * Specifies weather generated class should be written as class files instead of Java source.
+     * <p>
+     * Class files are written directly with {@link javax.annotation.processing.Filer#createClassFile},
+     * so that javac doesn't have to parse and compile generated source.
+     * Generated class has the same API and the same behaviour of equals, hashCode and toString methods,
+     * as class generated as source, but stores fields of all cases in a single class along with case tag.
+     * <p>
+     * Only restricted shape of visitors is supported:
+     * <ul>
+     *   <li>visitor has result and optional self-reference type-variables only;
+     *   <li>case fields are of primitive types, self-reference type or non-generic class types,
+     *   fields can be annotated with {@code @Nullable}, {@code @Nonnull}, {@code @Getter}, {@code @Updater}
+     *   and {@code @EqualsPriority} only;
+     *   <li>visitor methods can be annotated with {@code @GeneratePredicate} and {@code @GeneratePredicates} only
+     *   and have no varargs;
+     *   <li>all parameters of this annotation, except {@link #className()}, {@link #isPublic()},
+     *   {@link #acceptMethodName()}, {@link #acceptMethodAccess()} and {@link #hashCodeBase()}, have default values.
+     * </ul>
+     * It is an error to enable this option for other visitors.
+     * Source generation remains the default and can be used to debug generated code.
+     * <p>
+     * Class files are written with ASM library, that is optional dependency of adt4j.
+     * org.ow2.asm:asm artifact should be added to annotation processor path to use this option.
+     * <p>
+     * Default is false.
+     *
+     * @return weather generated class should be written as class files.
+     */
+    boolean generateBytecode() default false;
 }
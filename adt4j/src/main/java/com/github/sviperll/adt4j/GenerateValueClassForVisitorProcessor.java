@@ -33,6 +33,7 @@ import com.github.sviperll.Throwables;
 import com.github.sviperll.meta.java.model.JCodeModelJavaxLangModelAdapter;
 import com.github.sviperll.meta.FilerCodeWriter;
 import com.github.sviperll.adt4j.model.ValueClassModelFactory;
+import com.github.sviperll.adt4j.model.util.Types;
 import com.github.sviperll.meta.CodeModelBuildingException;
 import com.github.sviperll.meta.ElementMessage;
 import com.github.sviperll.meta.ElementMessager;
@@ -40,25 +41,62 @@ import com.github.sviperll.meta.SourceCodeValidationException;
 import com.github.sviperll.meta.Visitor;
 import com.helger.jcodemodel.JCodeModel;
 import com.helger.jcodemodel.JDefinedClass;
+import com.helger.jcodemodel.JFormatter;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.TreeSet;
 import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.ProcessingEnvironment;
 import javax.annotation.processing.RoundEnvironment;
 import javax.annotation.processing.SupportedAnnotationTypes;
 import javax.annotation.processing.SupportedSourceVersion;
 import javax.lang.model.SourceVersion;
 import javax.lang.model.element.Element;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
 import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.ElementFilter;
 import javax.tools.Diagnostic;
 
+/**
+ * Generates value classes for visitor interfaces annotated with {@link GenerateValueClassForVisitor}.
+ * <p>
+ * Value classes are written as Java source with {@link javax.annotation.processing.Filer#createSourceFile} by default.
+ * Value classes of restricted shape can be written as class files with {@link javax.annotation.processing.Filer#createClassFile} instead,
+ * see {@link GenerateValueClassForVisitor#generateBytecode()}.
+ * Size of generated source can be reduced with adt4j-runtime,
+ * see {@link GenerateValueClassForVisitor#useRuntimeSupport()}.
+ *
+ * @author Victor Nazarov <asviraspossible@gmail.com>
+ */
 @SupportedAnnotationTypes("com.github.sviperll.adt4j.GenerateValueClassForVisitor")
 @SupportedSourceVersion(SourceVersion.RELEASE_6)
 public class GenerateValueClassForVisitorProcessor extends AbstractProcessor {
     private final Set<String> remainingElements = new HashSet<String>();
     private final List<ElementMessage> errors = new ArrayList<ElementMessage>();
+    private boolean isRuntimeAvailable = false;
+    private boolean isAsmAvailable = false;
+
+    @Override
+    public synchronized void init(ProcessingEnvironment processingEnv) {
+        super.init(processingEnv);
+        isRuntimeAvailable = processingEnv.getElementUtils().getTypeElement(ValueClassModelFactory.RUNTIME_SUPPORT_CLASS_NAME) != null;
+        try {
+            Class.forName(ValueClassModelFactory.ASM_CLASS_NAME, false, getClass().getClassLoader());
+            isAsmAvailable = true;
+        } catch (ClassNotFoundException ex) {
+            isAsmAvailable = false;
+        }
+    }
 
     @Override
     public boolean process(Set<? extends TypeElement> annotations,
@@ -66,7 +104,8 @@ public class GenerateValueClassForVisitorProcessor extends AbstractProcessor {
         try {
             if (roundEnv.processingOver()) {
                 for (String qualifiedName: remainingElements) {
-                    errors.add(ElementMessage.of(processingEnv.getElementUtils().getTypeElement(qualifiedName), "Unable to process"));
+                    TypeElement element = processingEnv.getElementUtils().getTypeElement(qualifiedName);
+                    errors.add(ElementMessage.of(element, deferredElementError(element)));
                 }
                 for (ElementMessage error: errors) {
                     TypeElement typeElement = processingEnv.getElementUtils().getTypeElement(error.qualifiedElementName());
@@ -88,18 +127,48 @@ public class GenerateValueClassForVisitorProcessor extends AbstractProcessor {
         }
         return true;
     }
+    /**
+     * Elements of single round share code model, so types referenced by several visitors are adapted only once.
+     * Every value class is hidden after it is processed, so that it isn't written again with the next one.
+     * Elements, whose visitors reference types that are not generated yet, are deferred without building value class.
+     * Code model is not reused in the next round, since models of deferred elements contain error types,
+     * that should be adapted again.
+     */
     private void processElements(Set<? extends TypeElement> elements) {
+        JCodeModel jCodeModel = new JCodeModel();
+        Types types = Types.createInstance(jCodeModel);
+        JCodeModelJavaxLangModelAdapter adapter = new JCodeModelJavaxLangModelAdapter(jCodeModel, processingEnv.getElementUtils());
         for (TypeElement element: elements) {
+            JDefinedClass valueClass = null;
             try {
-                JCodeModel jCodeModel = new JCodeModel();
                 Visitor visitorAnnotation = element.getAnnotation(Visitor.class);
                 if (visitorAnnotation == null)
                     throw new SourceCodeValidationException("No " + Visitor.class.getName() + " annotation for " + element.getQualifiedName() + " class annotated with " + GenerateValueClassForVisitor.class.getName() + " annotation");
                 GenerateValueClassForVisitor generateAnnotation = element.getAnnotation(GenerateValueClassForVisitor.class);
-                JCodeModelJavaxLangModelAdapter adapter = new JCodeModelJavaxLangModelAdapter(jCodeModel, processingEnv.getElementUtils());
                 JDefinedClass visitorModel = adapter.getClassWithErrorTypes(element);
-                JDefinedClass valueClass = ValueClassModelFactory.createValueClass(jCodeModel, visitorModel, visitorAnnotation, generateAnnotation);
-                if (jCodeModel.buildsErrorTypeRefs()) {
+                if (JFormatter.containsErrorTypes(visitorModel)) {
+                    // Visitor interface references types that are not generated yet.
+                    // Value class would reference them too, so it's not built until next round.
+                    remainingElements.add(element.getQualifiedName().toString());
+                    continue;
+                }
+                if (generateAnnotation.generateBytecode()) {
+                    // Class files are written without building code model of value class
+                    Map<String, byte[]> classFiles = ValueClassModelFactory.createClassFiles(jCodeModel, types, visitorModel, visitorAnnotation, generateAnnotation, isAsmAvailable);
+                    String valueClassName = classFiles.keySet().iterator().next();
+                    processingEnv.getMessager().printMessage(Diagnostic.Kind.NOTE, "Generated value class " + valueClassName + " for " + element + " visitor interface", element);
+                    for (Map.Entry<String, byte[]> classFile: classFiles.entrySet()) {
+                        OutputStream stream = processingEnv.getFiler().createClassFile(classFile.getKey(), element).openOutputStream();
+                        try {
+                            stream.write(classFile.getValue());
+                        } finally {
+                            stream.close();
+                        }
+                    }
+                    continue;
+                }
+                valueClass = ValueClassModelFactory.createValueClass(jCodeModel, types, visitorModel, visitorAnnotation, generateAnnotation, isRuntimeAvailable, fingerprintedClassNames(element));
+                if (JFormatter.containsErrorTypes(valueClass)) {
                     remainingElements.add(element.getQualifiedName().toString());
                 } else {
                     processingEnv.getMessager().printMessage(Diagnostic.Kind.NOTE, "Generated value class " + valueClass.fullName() + " for " + element + " visitor interface", element);
@@ -122,7 +191,65 @@ public class GenerateValueClassForVisitorProcessor extends AbstractProcessor {
                 errors.add(ElementMessage.of(element, Throwables.render(ex)));
             } catch (RuntimeException ex) {
                 errors.add(ElementMessage.of(element, Throwables.render(ex)));
+            } finally {
+                if (valueClass != null)
+                    valueClass.hide();
             }
         }
     }
+
+    /**
+     * Error of element, that is still deferred when processing is over.
+     * Value class is built only to find out why visitor can't be processed,
+     * since error types may cause validation errors.
+     */
+    private String deferredElementError(TypeElement element) {
+        try {
+            Visitor visitorAnnotation = element.getAnnotation(Visitor.class);
+            GenerateValueClassForVisitor generateAnnotation = element.getAnnotation(GenerateValueClassForVisitor.class);
+            JCodeModel jCodeModel = new JCodeModel();
+            JCodeModelJavaxLangModelAdapter adapter = new JCodeModelJavaxLangModelAdapter(jCodeModel, processingEnv.getElementUtils());
+            JDefinedClass visitorModel = adapter.getClassWithErrorTypes(element);
+            ValueClassModelFactory.createValueClass(jCodeModel, Types.createInstance(jCodeModel), visitorModel, visitorAnnotation, generateAnnotation, isRuntimeAvailable, fingerprintedClassNames(element));
+        } catch (SourceCodeValidationException ex) {
+            return ex.toString();
+        } catch (CodeModelBuildingException ex) {
+            return ex.toString();
+        } catch (RuntimeException ex) {
+            return Throwables.render(ex);
+        }
+        return "Unable to process";
+    }
+
+    /**
+     * Classes of visitor method parameters, that have {@code long fingerprint64()} method,
+     * like value classes generated for other visitors with fingerprint enabled.
+     * Code model contains only signatures of such classes, so methods are looked up here.
+     */
+    private Set<String> fingerprintedClassNames(TypeElement element) {
+        Set<String> result = new TreeSet<String>();
+        for (ExecutableElement method: ElementFilter.methodsIn(processingEnv.getElementUtils().getAllMembers(element))) {
+            for (VariableElement param: method.getParameters()) {
+                TypeMirror type = param.asType();
+                if (type.getKind() == TypeKind.DECLARED) {
+                    TypeElement typeElement = (TypeElement)((DeclaredType)type).asElement();
+                    if (hasFingerprintMethod(typeElement))
+                        result.add(typeElement.getQualifiedName().toString());
+                }
+            }
+        }
+        return result;
+    }
+
+    private boolean hasFingerprintMethod(TypeElement element) {
+        for (ExecutableElement method: ElementFilter.methodsIn(processingEnv.getElementUtils().getAllMembers(element))) {
+            if (method.getSimpleName().contentEquals(ValueClassModelFactory.FINGERPRINT_METHOD_NAME)
+                    && method.getParameters().isEmpty()
+                    && method.getReturnType().getKind() == TypeKind.LONG
+                    && method.getModifiers().contains(Modifier.PUBLIC)
+                    && !method.getModifiers().contains(Modifier.STATIC))
+                return true;
+        }
+        return false;
+    }
 }
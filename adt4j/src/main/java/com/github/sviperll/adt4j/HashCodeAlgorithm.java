@@ -0,0 +1,66 @@
+/*
+ * Copyright (c) 2015, Victor Nazarov <asviraspossible@gmail.com>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation and/or
+ *     other materials provided with the distribution.
+ *
+ *  3. Neither the name of the copyright holder nor the names of its contributors
+ *     may be used to endorse or promote products derived from this software
+ *     without specific prior written permission.
+ *
+ *  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ *  ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ *  THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ *  IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR
+ *  ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ *  (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ *   LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ *  ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ *  (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+ *  EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.github.sviperll.adt4j;
+
+/**
+ * Hash code evaluation algorithm for generated value classes.
+ *
+ * @see GenerateValueClassForVisitor#hashCodeAlgorithm()
+ *
+ * @author Victor Nazarov <asviraspossible@gmail.com>
+ */
+public enum HashCodeAlgorithm {
+    /**
+     * {@code result = result * hashCodeBase + field} starting with case tag.
+     * <p>
+     * The cheapest algorithm, but small-int and boolean fields produce clustered hash codes.
+     */
+    POLYNOMIAL,
+
+    /**
+     * The same polynomial as {@link #POLYNOMIAL} followed by MurmurHash3's {@code fmix32} finalizer.
+     * <p>
+     * Every bit of the result depends on every bit of the polynomial,
+     * so power-of-two sized hash tables use all buckets.
+     * Finalizer doesn't remove collisions of the polynomial itself:
+     * hashCodeBase should still be greater than the range of small-int fields.
+     */
+    MIXED_POLYNOMIAL,
+
+    /**
+     * 64-bit intermediate value folded to 32 bits.
+     * <p>
+     * Fields are combined with {@code h = Long.rotateLeft(h ^ field, 31) * 0x9E3779B97F4A7C15L},
+     * long and double fields are combined without being folded to 32 bits first.
+     * Result is {@code (int)(h ^ (h >>> 32))}.
+     * hashCodeBase is ignored.
+     */
+    FOLDED_LONG;
+}
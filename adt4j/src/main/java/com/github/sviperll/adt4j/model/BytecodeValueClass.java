@@ -0,0 +1,939 @@
+/*
+ * Copyright (c) 2015, Victor Nazarov <asviraspossible@gmail.com>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation and/or
+ *     other materials provided with the distribution.
+ *
+ *  3. Neither the name of the copyright holder nor the names of its contributors
+ *     may be used to endorse or promote products derived from this software
+ *     without specific prior written permission.
+ *
+ *  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ *  ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ *  THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ *  IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR
+ *  ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ *  (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ *   LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ *  ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ *  (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+ *  EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.github.sviperll.adt4j.model;
+
+import com.github.sviperll.Caching;
+import com.github.sviperll.adt4j.EqualsPriority;
+import com.github.sviperll.adt4j.GeneratePredicate;
+import com.github.sviperll.adt4j.GeneratePredicates;
+import com.github.sviperll.adt4j.GenerateValueClassForVisitor;
+import com.github.sviperll.adt4j.Getter;
+import com.github.sviperll.adt4j.HashCodeAlgorithm;
+import com.github.sviperll.adt4j.Updater;
+import com.github.sviperll.adt4j.model.util.Source;
+import com.github.sviperll.adt4j.model.util.Types;
+import com.github.sviperll.adt4j.model.util.ValueVisitorInterfaceModel;
+import com.github.sviperll.meta.MemberAccess;
+import com.github.sviperll.meta.SourceCodeValidationException;
+import com.helger.jcodemodel.AbstractJClass;
+import com.helger.jcodemodel.AbstractJType;
+import com.helger.jcodemodel.JAnnotationUse;
+import com.helger.jcodemodel.JMethod;
+import com.helger.jcodemodel.JNarrowedClass;
+import com.helger.jcodemodel.JTypeVar;
+import com.helger.jcodemodel.JVar;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Label;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+
+/**
+ * Value class, that is written as class files directly, bypassing source generation.
+ * <p>
+ * Class files are built from visitor interface model and from value class model,
+ * that is built for source backend, so that both backends provide the same API.
+ * Only restricted shape of value classes is supported,
+ * see {@link GenerateValueClassForVisitor#generateBytecode()}.
+ * <p>
+ * Instead of case classes, value class holds case tag and fields of all cases,
+ * fields of other cases hold default values.
+ * Equals, hashCode and toString methods compare, hash and print fields the same way,
+ * as methods generated by {@link ValueClassModel}.
+ * <p>
+ * Class files are emitted in Java 5 format, so that stack map frames are not required.
+ *
+ * @author Victor Nazarov <asviraspossible@gmail.com>
+ */
+class BytecodeValueClass implements Opcodes {
+    private static final String OBJECT = "java/lang/Object";
+    private static final String STRING_BUILDER = "java/lang/StringBuilder";
+    private static final String FACTORY_FIELD_NAME = "FACTORY";
+    private static final String TAG_FIELD_NAME = "tag";
+    private static final int MAX_SLOTS = 255;
+    private static final Set<String> SUPPORTED_METHOD_ANNOTATIONS = new HashSet<String>(Arrays.asList(
+            GeneratePredicate.class.getName(),
+            GeneratePredicates.class.getName()));
+    private static final Set<String> SUPPORTED_FIELD_ANNOTATIONS = new HashSet<String>(Arrays.asList(
+            Nullable.class.getName(),
+            Nonnull.class.getName(),
+            Getter.class.getName(),
+            Updater.class.getName(),
+            EqualsPriority.class.getName()));
+
+    /**
+     * Checks that value class for given visitor can be written as class files.
+     */
+    static void checkSupported(ValueVisitorInterfaceModel visitorInterface, GenerateValueClassForVisitor annotation) throws SourceCodeValidationException {
+        checkDefault("baseInterface", annotation.baseInterface().equals(""));
+        checkDefault("baseClass", annotation.baseClass().equals(""));
+        checkDefault("hashCodeAlgorithm", annotation.hashCodeAlgorithm() == HashCodeAlgorithm.POLYNOMIAL);
+        checkDefault("hashCodeCaching", annotation.hashCodeCaching() == Caching.NONE);
+        checkDefault("generateFingerprint", !annotation.generateFingerprint());
+        checkDefault("fingerprintCaching", annotation.fingerprintCaching() == Caching.NONE);
+        checkDefault("generateMatcher", !annotation.generateMatcher());
+        checkDefault("generateTransform", !annotation.generateTransform());
+        checkDefault("generateFold", !annotation.generateFold());
+        checkDefault("generateParallelFold", !annotation.generateParallelFold());
+        checkDefault("generateMemoizedFold", !annotation.generateMemoizedFold());
+        checkDefault("generateIterable", !annotation.generateIterable());
+        checkDefault("generateMap", !annotation.generateMap());
+        checkDefault("attributes", annotation.attributes().length == 0);
+        checkDefault("packPrimitiveFields", !annotation.packPrimitiveFields());
+        checkDefault("inlineVarArgsLimit", annotation.inlineVarArgsLimit() == 0);
+        checkDefault("isTaggedUnion", !annotation.isTaggedUnion());
+        checkDefault("lazyInitialization", !annotation.lazyInitialization());
+        checkDefault("useRuntimeSupport", !annotation.useRuntimeSupport());
+        checkDefault("isSerializable", !annotation.isSerializable());
+        checkDefault("isComparable", !annotation.isComparable());
+
+        if (!visitorInterface.getValueTypeParameters().isEmpty())
+            throw new SourceCodeValidationException("generateBytecode is not supported for value classes with type parameters");
+        if (visitorInterface.getExceptionTypeParameter() != null)
+            throw new SourceCodeValidationException("generateBytecode is not supported for visitors with exception type-variable");
+        checkUnbounded(visitorInterface.getResultTypeParameter());
+        if (visitorInterface.getSelfTypeParameter() != null)
+            checkUnbounded(visitorInterface.getSelfTypeParameter());
+        int slots = 2;
+        for (JMethod interfaceMethod: visitorInterface.methods()) {
+            for (JAnnotationUse annotationUse: interfaceMethod.annotations()) {
+                String annotationClassName = annotationUse.getAnnotationClass().fullName();
+                if (!SUPPORTED_METHOD_ANNOTATIONS.contains(annotationClassName))
+                    throw new SourceCodeValidationException("generateBytecode is not supported for visitor methods annotated with " + annotationClassName + ": " + interfaceMethod.name() + " method");
+            }
+            if (interfaceMethod.hasVarArgs())
+                throw new SourceCodeValidationException("generateBytecode is not supported for visitor methods with varargs: " + interfaceMethod.name() + " method has varargs");
+            for (JVar param: interfaceMethod.params()) {
+                for (JAnnotationUse annotationUse: param.annotations()) {
+                    String annotationClassName = annotationUse.getAnnotationClass().fullName();
+                    if (!SUPPORTED_FIELD_ANNOTATIONS.contains(annotationClassName))
+                        throw new SourceCodeValidationException("generateBytecode is not supported for fields annotated with " + annotationClassName + ": " + param.name() + " parameter of " + interfaceMethod.name() + " method");
+                }
+                AbstractJType type = param.type();
+                boolean isSupported = type.isPrimitive()
+                                      || visitorInterface.isSelf(type)
+                                      || type instanceof AbstractJClass && !type.isArray() && !(type instanceof JTypeVar) && !(type instanceof JNarrowedClass) && !type.isError();
+                if (!isSupported)
+                    throw new SourceCodeValidationException("generateBytecode is not supported for fields of " + type.fullName() + " type: " + param.name() + " parameter of " + interfaceMethod.name() + " method");
+                slots += type.fullName().equals("long") || type.fullName().equals("double") ? 2 : 1;
+            }
+        }
+        if (slots > MAX_SLOTS)
+            throw new SourceCodeValidationException("generateBytecode is not supported for visitors with too many fields: fields of all cases should fit into single constructor");
+    }
+
+    private static void checkDefault(String name, boolean isDefault) throws SourceCodeValidationException {
+        if (!isDefault)
+            throw new SourceCodeValidationException("generateBytecode is not supported along with " + name + " parameter");
+    }
+
+    private static void checkUnbounded(JTypeVar typeVariable) throws SourceCodeValidationException {
+        AbstractJClass bound = typeVariable._extends();
+        if (bound != null && !bound.fullName().equals(Object.class.getName()) || typeVariable._implements().hasNext())
+            throw new SourceCodeValidationException("generateBytecode is not supported for visitors with bounded type-variables: " + typeVariable.name() + " type-variable has bounds");
+    }
+
+    /**
+     * Class files of value class, mapped by binary class names.
+     * Value class comes first and is followed by it's nested classes.
+     *
+     * @param valueClass reference to value class, that is not defined in code model
+     */
+    static Map<String, byte[]> createClassFiles(AbstractJClass valueClass, ValueVisitorInterfaceModel visitorInterface, Types types, GenerateValueClassForVisitor annotation) throws SourceCodeValidationException {
+        BytecodeValueClass result = new BytecodeValueClass(valueClass, visitorInterface, types, annotation);
+        Map<String, byte[]> classFiles = new LinkedHashMap<String, byte[]>();
+        classFiles.put(valueClass.binaryName(), result.buildValueClass());
+        classFiles.put(result.factoryClassBinaryName(), result.buildFactoryClass());
+        return classFiles;
+    }
+
+    private final AbstractJClass valueClass;
+    private final ValueVisitorInterfaceModel visitorInterface;
+    private final Types types;
+    private final int hashCodeBase;
+    private final boolean isPublic;
+    private final String internalName;
+    private final String visitorInternalName;
+    private final String factoryClassName;
+    private final List<Field> fields = new ArrayList<Field>();
+    private final Map<String, List<Field>> caseFields = new LinkedHashMap<String, List<Field>>();
+    private final Map<String, Integer> tags = new LinkedHashMap<String, Integer>();
+    private final Map<String, FieldConfiguration> getters = new TreeMap<String, FieldConfiguration>();
+    private final Map<String, FieldConfiguration> updaters = new TreeMap<String, FieldConfiguration>();
+    private final Map<String, PredicateConfigutation> predicates = new TreeMap<String, PredicateConfigutation>();
+
+    private BytecodeValueClass(AbstractJClass valueClass, ValueVisitorInterfaceModel visitorInterface, Types types, GenerateValueClassForVisitor annotation) throws SourceCodeValidationException {
+        this.valueClass = valueClass;
+        this.visitorInterface = visitorInterface;
+        this.types = types;
+        this.hashCodeBase = annotation.hashCodeBase();
+        this.isPublic = annotation.isPublic();
+        this.internalName = internalName(valueClass.binaryName());
+        this.factoryClassName = valueClass.name() + "Factory";
+        AbstractJClass visitorType = visitorInterface.narrowed(valueClass, valueClass, null);
+        this.visitorInternalName = internalName(visitorType.erasure().binaryName());
+        FieldReader getterReader = new FieldReader(getters);
+        FieldReader updaterReader = new FieldReader(updaters);
+        PredicatesReader predicatesReader = new PredicatesReader(predicates);
+        int tag = 1;
+        for (JMethod interfaceMethod: visitorInterface.methods()) {
+            List<Field> thisCaseFields = new ArrayList<Field>();
+            for (JVar param: interfaceMethod.params()) {
+                Field field = new Field(interfaceMethod.name() + "$" + param.name(), param, fieldDescriptor(param.type()), Source.isNullable(param));
+                fields.add(field);
+                thisCaseFields.add(field);
+                getterReader.readGetter(interfaceMethod, param, param.type(), false);
+                updaterReader.readUpdater(interfaceMethod, param, param.type(), false);
+            }
+            for (JAnnotationUse annotationUsage: interfaceMethod.annotations()) {
+                predicatesReader.read(interfaceMethod, annotationUsage);
+            }
+            caseFields.put(interfaceMethod.name(), thisCaseFields);
+            tags.put(interfaceMethod.name(), tag);
+            tag++;
+        }
+    }
+
+    private String factoryClassBinaryName() {
+        return valueClass.binaryName() + "$" + factoryClassName;
+    }
+
+    private byte[] buildValueClass() throws SourceCodeValidationException {
+        ClassWriter classWriter = new ClassWriter(ClassWriter.COMPUTE_MAXS);
+        int access = isPublic ? ACC_PUBLIC | ACC_SUPER : ACC_SUPER;
+        classWriter.visit(V1_5, access, internalName, null, OBJECT, null);
+        classWriter.visitInnerClass(internalName(factoryClassBinaryName()), internalName, factoryClassName, ACC_PRIVATE | ACC_STATIC);
+        classWriter.visitField(ACC_PRIVATE | ACC_FINAL, TAG_FIELD_NAME, "I", null, null).visitEnd();
+        for (Field field: fields) {
+            classWriter.visitField(ACC_PRIVATE | ACC_FINAL, field.name, field.descriptor, null, null).visitEnd();
+        }
+        for (JMethod interfaceMethod: visitorInterface.methods()) {
+            if (interfaceMethod.params().isEmpty())
+                classWriter.visitField(ACC_PRIVATE | ACC_STATIC | ACC_FINAL, singletonFieldName(interfaceMethod), valueDescriptor(), null, null).visitEnd();
+        }
+        classWriter.visitField(ACC_PRIVATE | ACC_STATIC | ACC_FINAL, FACTORY_FIELD_NAME, "L" + internalName(factoryClassBinaryName()) + ";", null, null).visitEnd();
+
+        buildStaticInitializer(classWriter);
+        buildPrivateConstructor(classWriter);
+        buildProtectedConstructor(classWriter);
+        for (JMethod interfaceMethod: visitorInterface.methods()) {
+            buildConstructorMethod(classWriter, interfaceMethod);
+        }
+        buildAcceptMethod(classWriter);
+        for (FieldConfiguration getter: getters.values()) {
+            buildGetterMethod(classWriter, getter);
+        }
+        for (FieldConfiguration updater: updaters.values()) {
+            buildUpdaterMethod(classWriter, updater);
+        }
+        for (Map.Entry<String, PredicateConfigutation> predicate: predicates.entrySet()) {
+            buildPredicateMethod(classWriter, predicate.getKey(), predicate.getValue());
+        }
+        buildEqualsMethod(classWriter);
+        buildHashCodeMethod(classWriter);
+        buildToStringMethod(classWriter);
+        buildFactoryMethod(classWriter);
+        classWriter.visitEnd();
+        return classWriter.toByteArray();
+    }
+
+    private void buildStaticInitializer(ClassWriter classWriter) {
+        MethodVisitor method = classWriter.visitMethod(ACC_STATIC, "<clinit>", "()V", null, null);
+        method.visitCode();
+        for (JMethod interfaceMethod: visitorInterface.methods()) {
+            if (interfaceMethod.params().isEmpty()) {
+                appendPrivateConstructorInvocation(method, interfaceMethod);
+                method.visitFieldInsn(PUTSTATIC, internalName, singletonFieldName(interfaceMethod), valueDescriptor());
+            }
+        }
+        String factoryInternalName = internalName(factoryClassBinaryName());
+        method.visitTypeInsn(NEW, factoryInternalName);
+        method.visitInsn(DUP);
+        method.visitMethodInsn(INVOKESPECIAL, factoryInternalName, "<init>", "()V", false);
+        method.visitFieldInsn(PUTSTATIC, internalName, FACTORY_FIELD_NAME, "L" + factoryInternalName + ";");
+        method.visitInsn(RETURN);
+        method.visitMaxs(0, 0);
+        method.visitEnd();
+    }
+
+    private void buildPrivateConstructor(ClassWriter classWriter) {
+        MethodVisitor method = classWriter.visitMethod(ACC_PRIVATE, "<init>", privateConstructorDescriptor(), null, null);
+        method.visitCode();
+        method.visitVarInsn(ALOAD, 0);
+        method.visitMethodInsn(INVOKESPECIAL, OBJECT, "<init>", "()V", false);
+        method.visitVarInsn(ALOAD, 0);
+        method.visitVarInsn(ILOAD, 1);
+        method.visitFieldInsn(PUTFIELD, internalName, TAG_FIELD_NAME, "I");
+        int slot = 2;
+        for (Field field: fields) {
+            method.visitVarInsn(ALOAD, 0);
+            method.visitVarInsn(loadOpcode(field.descriptor), slot);
+            method.visitFieldInsn(PUTFIELD, internalName, field.name, field.descriptor);
+            slot += slotSize(field.descriptor);
+        }
+        method.visitInsn(RETURN);
+        method.visitMaxs(0, 0);
+        method.visitEnd();
+    }
+
+    private void buildProtectedConstructor(ClassWriter classWriter) {
+        MethodVisitor method = classWriter.visitMethod(ACC_PROTECTED, "<init>", "(" + valueDescriptor() + ")V", null, null);
+        method.visitCode();
+        method.visitVarInsn(ALOAD, 0);
+        method.visitMethodInsn(INVOKESPECIAL, OBJECT, "<init>", "()V", false);
+        Label notNull = new Label();
+        method.visitVarInsn(ALOAD, 1);
+        method.visitJumpInsn(IFNONNULL, notNull);
+        appendThrow(method, "java/lang/NullPointerException", "Argument shouldn't be null: 'implementation' argument in class constructor invocation: " + valueClass.fullName());
+        method.visitLabel(notNull);
+        method.visitVarInsn(ALOAD, 0);
+        method.visitVarInsn(ALOAD, 1);
+        method.visitFieldInsn(GETFIELD, internalName, TAG_FIELD_NAME, "I");
+        method.visitFieldInsn(PUTFIELD, internalName, TAG_FIELD_NAME, "I");
+        for (Field field: fields) {
+            method.visitVarInsn(ALOAD, 0);
+            method.visitVarInsn(ALOAD, 1);
+            method.visitFieldInsn(GETFIELD, internalName, field.name, field.descriptor);
+            method.visitFieldInsn(PUTFIELD, internalName, field.name, field.descriptor);
+        }
+        method.visitInsn(RETURN);
+        method.visitMaxs(0, 0);
+        method.visitEnd();
+    }
+
+    private void buildConstructorMethod(ClassWriter classWriter, JMethod interfaceMethod) {
+        int access = accessFlags(visitorInterface.factoryMethodAccessLevel()) | ACC_STATIC;
+        MethodVisitor method = classWriter.visitMethod(access, interfaceMethod.name(), constructorMethodDescriptor(interfaceMethod), null, null);
+        method.visitCode();
+        if (interfaceMethod.params().isEmpty()) {
+            method.visitFieldInsn(GETSTATIC, internalName, singletonFieldName(interfaceMethod), valueDescriptor());
+        } else {
+            int slot = 0;
+            for (Field field: caseFields.get(interfaceMethod.name())) {
+                if (isReference(field.descriptor) && !field.isNullable) {
+                    Label notNull = new Label();
+                    method.visitVarInsn(ALOAD, slot);
+                    method.visitJumpInsn(IFNONNULL, notNull);
+                    appendThrow(method, "java/lang/NullPointerException", "Argument shouldn't be null: '" + field.param.name() + "' argument in static method invocation: '" + interfaceMethod.name() + "' in class " + valueClass.fullName());
+                    method.visitLabel(notNull);
+                }
+                slot += slotSize(field.descriptor);
+            }
+            appendPrivateConstructorInvocation(method, interfaceMethod);
+        }
+        method.visitInsn(ARETURN);
+        method.visitMaxs(0, 0);
+        method.visitEnd();
+    }
+
+    /**
+     * Creates new value of given case from arguments of case's constructor method, that start from slot 0.
+     */
+    private void appendPrivateConstructorInvocation(MethodVisitor method, JMethod interfaceMethod) {
+        method.visitTypeInsn(NEW, internalName);
+        method.visitInsn(DUP);
+        appendInt(method, tags.get(interfaceMethod.name()));
+        List<Field> thisCaseFields = caseFields.get(interfaceMethod.name());
+        int slot = 0;
+        for (Field field: fields) {
+            if (thisCaseFields.contains(field)) {
+                method.visitVarInsn(loadOpcode(field.descriptor), slot);
+                slot += slotSize(field.descriptor);
+            } else
+                appendDefaultValue(method, field.descriptor);
+        }
+        method.visitMethodInsn(INVOKESPECIAL, internalName, "<init>", privateConstructorDescriptor(), false);
+    }
+
+    /**
+     * Accept method has the same generic signature as the one of value class generated as source:
+     * result type-variable of the method is named after result type-variable of visitor.
+     */
+    private void buildAcceptMethod(ClassWriter classWriter) {
+        JTypeVar resultType = visitorInterface.getResultTypeParameter();
+        AbstractJClass visitorType = visitorInterface.narrowed(valueClass, resultType, null);
+        String descriptor = "(L" + visitorInternalName + ";)L" + OBJECT + ";";
+        String signature = "<" + resultType.name() + ":L" + OBJECT + ";>(" + typeSignature(visitorType) + ")" + typeSignature(resultType);
+        int access = accessFlags(visitorInterface.acceptMethodAccessLevel()) | ACC_FINAL;
+        MethodVisitor method = classWriter.visitMethod(access, visitorInterface.acceptMethodName(), descriptor, signature, null);
+        method.visitCode();
+        Map<String, Label> labels = appendTagSwitch(method, 0);
+        for (JMethod interfaceMethod: visitorInterface.methods()) {
+            method.visitLabel(labels.get(interfaceMethod.name()));
+            method.visitVarInsn(ALOAD, 1);
+            StringBuilder caseDescriptor = new StringBuilder();
+            caseDescriptor.append("(");
+            for (Field field: caseFields.get(interfaceMethod.name())) {
+                appendGetField(method, 0, field);
+                caseDescriptor.append(erasedDescriptor(field.param.type()));
+            }
+            caseDescriptor.append(")").append(erasedDescriptor(interfaceMethod.type()));
+            method.visitMethodInsn(INVOKEINTERFACE, visitorInternalName, interfaceMethod.name(), caseDescriptor.toString(), true);
+            method.visitInsn(ARETURN);
+        }
+        method.visitMaxs(0, 0);
+        method.visitEnd();
+    }
+
+    /**
+     * Getter throws IllegalStateException in cases without the field.
+     */
+    private void buildGetterMethod(ClassWriter classWriter, FieldConfiguration configuration) {
+        String descriptor = fieldDescriptor(configuration.type());
+        int access = accessFlags(configuration.accessLevel()) | ACC_FINAL;
+        MethodVisitor method = classWriter.visitMethod(access, configuration.name(), "()" + descriptor, null, null);
+        method.visitCode();
+        Map<String, Label> labels = appendTagSwitch(method, 0);
+        for (JMethod interfaceMethod: visitorInterface.methods()) {
+            method.visitLabel(labels.get(interfaceMethod.name()));
+            String paramName = configuration.paramName(interfaceMethod);
+            if (paramName == null)
+                appendThrow(method, "java/lang/IllegalStateException", configuration.name() + " is not accessible in this case: " + interfaceMethod.name());
+            else {
+                appendGetField(method, 0, field(interfaceMethod, paramName));
+                method.visitInsn(returnOpcode(descriptor));
+            }
+        }
+        method.visitMaxs(0, 0);
+        method.visitEnd();
+    }
+
+    /**
+     * Updater creates new value with constructor method of the same case.
+     * Cases without the field return updated value itself.
+     */
+    private void buildUpdaterMethod(ClassWriter classWriter, FieldConfiguration configuration) {
+        String descriptor = fieldDescriptor(configuration.type());
+        int access = accessFlags(configuration.accessLevel()) | ACC_FINAL;
+        MethodVisitor method = classWriter.visitMethod(access, configuration.name(), "(" + descriptor + ")" + valueDescriptor(), null, null);
+        method.visitCode();
+        Map<String, Label> labels = appendTagSwitch(method, 0);
+        for (JMethod interfaceMethod: visitorInterface.methods()) {
+            method.visitLabel(labels.get(interfaceMethod.name()));
+            if (configuration.paramName(interfaceMethod) == null)
+                method.visitVarInsn(ALOAD, 0);
+            else {
+                for (Field field: caseFields.get(interfaceMethod.name())) {
+                    if (configuration.isFieldValue(interfaceMethod, field.param.name()))
+                        method.visitVarInsn(loadOpcode(field.descriptor), 1);
+                    else
+                        appendGetField(method, 0, field);
+                }
+                method.visitMethodInsn(INVOKESTATIC, internalName, interfaceMethod.name(), constructorMethodDescriptor(interfaceMethod), false);
+            }
+            method.visitInsn(ARETURN);
+        }
+        method.visitMaxs(0, 0);
+        method.visitEnd();
+    }
+
+    private void buildPredicateMethod(ClassWriter classWriter, String name, PredicateConfigutation configuration) {
+        int access = accessFlags(configuration.accessLevel()) | ACC_FINAL;
+        MethodVisitor method = classWriter.visitMethod(access, name, "()Z", null, null);
+        method.visitCode();
+        Map<String, Label> labels = appendTagSwitch(method, 0);
+        for (JMethod interfaceMethod: visitorInterface.methods()) {
+            method.visitLabel(labels.get(interfaceMethod.name()));
+            method.visitInsn(configuration.isTrueFor(interfaceMethod) ? ICONST_1 : ICONST_0);
+            method.visitInsn(IRETURN);
+        }
+        method.visitMaxs(0, 0);
+        method.visitEnd();
+    }
+
+    private void buildEqualsMethod(ClassWriter classWriter) throws SourceCodeValidationException {
+        MethodVisitor method = classWriter.visitMethod(ACC_PUBLIC | ACC_FINAL, "equals", "(Ljava/lang/Object;)Z", null, null);
+        method.visitCode();
+        Label notSame = new Label();
+        method.visitVarInsn(ALOAD, 0);
+        method.visitVarInsn(ALOAD, 1);
+        method.visitJumpInsn(IF_ACMPNE, notSame);
+        method.visitInsn(ICONST_1);
+        method.visitInsn(IRETURN);
+        method.visitLabel(notSame);
+        Label notEqual = new Label();
+        method.visitVarInsn(ALOAD, 1);
+        method.visitTypeInsn(INSTANCEOF, internalName);
+        method.visitJumpInsn(IFEQ, notEqual);
+        method.visitVarInsn(ALOAD, 1);
+        method.visitTypeInsn(CHECKCAST, internalName);
+        method.visitVarInsn(ASTORE, 2);
+        method.visitVarInsn(ALOAD, 0);
+        method.visitFieldInsn(GETFIELD, internalName, TAG_FIELD_NAME, "I");
+        method.visitVarInsn(ALOAD, 2);
+        method.visitFieldInsn(GETFIELD, internalName, TAG_FIELD_NAME, "I");
+        method.visitJumpInsn(IF_ICMPNE, notEqual);
+        Map<String, Label> labels = appendTagSwitch(method, 0);
+        for (JMethod interfaceMethod: visitorInterface.methods()) {
+            method.visitLabel(labels.get(interfaceMethod.name()));
+            List<JVar> params = ValueClassModel.sortByEqualsComparisonCost(interfaceMethod.params(), visitorInterface, types);
+            for (JVar param: params) {
+                Field field = field(interfaceMethod, param.name());
+                if (!isReference(field.descriptor)) {
+                    appendGetField(method, 0, field);
+                    appendGetField(method, 2, field);
+                    appendPrimitiveComparison(method, field.descriptor, notEqual);
+                } else {
+                    Label next = new Label();
+                    if (field.isNullable) {
+                        appendGetField(method, 0, field);
+                        appendGetField(method, 2, field);
+                        method.visitJumpInsn(IF_ACMPEQ, next);
+                        appendGetField(method, 0, field);
+                        method.visitJumpInsn(IFNULL, notEqual);
+                        appendGetField(method, 2, field);
+                        method.visitJumpInsn(IFNULL, notEqual);
+                    }
+                    appendGetField(method, 0, field);
+                    appendGetField(method, 2, field);
+                    method.visitMethodInsn(INVOKEVIRTUAL, OBJECT, "equals", "(Ljava/lang/Object;)Z", false);
+                    method.visitJumpInsn(IFEQ, notEqual);
+                    method.visitLabel(next);
+                }
+            }
+            method.visitInsn(ICONST_1);
+            method.visitInsn(IRETURN);
+        }
+        method.visitLabel(notEqual);
+        method.visitInsn(ICONST_0);
+        method.visitInsn(IRETURN);
+        method.visitMaxs(0, 0);
+        method.visitEnd();
+    }
+
+    /**
+     * Jumps to given label, when two primitive values on top of the stack differ.
+     * Floating point values are compared with != operator semantics, so NaN never equals itself.
+     */
+    private static void appendPrimitiveComparison(MethodVisitor method, String descriptor, Label notEqual) {
+        char kind = descriptor.charAt(0);
+        if (kind == 'J') {
+            method.visitInsn(LCMP);
+            method.visitJumpInsn(IFNE, notEqual);
+        } else if (kind == 'F') {
+            method.visitInsn(FCMPL);
+            method.visitJumpInsn(IFNE, notEqual);
+        } else if (kind == 'D') {
+            method.visitInsn(DCMPL);
+            method.visitJumpInsn(IFNE, notEqual);
+        } else
+            method.visitJumpInsn(IF_ICMPNE, notEqual);
+    }
+
+    private void buildHashCodeMethod(ClassWriter classWriter) {
+        MethodVisitor method = classWriter.visitMethod(ACC_PUBLIC | ACC_FINAL, "hashCode", "()I", null, null);
+        method.visitCode();
+        Map<String, Label> labels = appendTagSwitch(method, 0);
+        for (JMethod interfaceMethod: visitorInterface.methods()) {
+            method.visitLabel(labels.get(interfaceMethod.name()));
+            appendInt(method, tags.get(interfaceMethod.name()));
+            for (Field field: caseFields.get(interfaceMethod.name())) {
+                appendInt(method, hashCodeBase);
+                method.visitInsn(IMUL);
+                appendGetField(method, 0, field);
+                appendFieldHashCode(method, field);
+                method.visitInsn(IADD);
+            }
+            method.visitInsn(IRETURN);
+        }
+        method.visitMaxs(0, 0);
+        method.visitEnd();
+    }
+
+    /**
+     * Replaces field value on top of the stack with it's int hash code.
+     */
+    private static void appendFieldHashCode(MethodVisitor method, Field field) {
+        char kind = field.descriptor.charAt(0);
+        if (kind == 'Z') {
+            method.visitInsn(ICONST_1);
+            method.visitInsn(IXOR);
+        } else if (kind == 'J') {
+            appendLongHashCode(method);
+        } else if (kind == 'F') {
+            method.visitMethodInsn(INVOKESTATIC, "java/lang/Float", "floatToIntBits", "(F)I", false);
+        } else if (kind == 'D') {
+            method.visitMethodInsn(INVOKESTATIC, "java/lang/Double", "doubleToLongBits", "(D)J", false);
+            appendLongHashCode(method);
+        } else if (isReference(field.descriptor)) {
+            if (field.isNullable) {
+                Label notNull = new Label();
+                Label end = new Label();
+                method.visitInsn(DUP);
+                method.visitJumpInsn(IFNONNULL, notNull);
+                method.visitInsn(POP);
+                method.visitInsn(ICONST_0);
+                method.visitJumpInsn(GOTO, end);
+                method.visitLabel(notNull);
+                method.visitMethodInsn(INVOKEVIRTUAL, OBJECT, "hashCode", "()I", false);
+                method.visitLabel(end);
+            } else
+                method.visitMethodInsn(INVOKEVIRTUAL, OBJECT, "hashCode", "()I", false);
+        }
+    }
+
+    private static void appendLongHashCode(MethodVisitor method) {
+        method.visitInsn(DUP2);
+        appendInt(method, 32);
+        method.visitInsn(LUSHR);
+        method.visitInsn(LXOR);
+        method.visitInsn(L2I);
+    }
+
+    private void buildToStringMethod(ClassWriter classWriter) {
+        MethodVisitor method = classWriter.visitMethod(ACC_PUBLIC | ACC_FINAL, "toString", "()Ljava/lang/String;", null, null);
+        method.visitCode();
+        Map<String, Label> labels = appendTagSwitch(method, 0);
+        for (JMethod interfaceMethod: visitorInterface.methods()) {
+            method.visitLabel(labels.get(interfaceMethod.name()));
+            method.visitTypeInsn(NEW, STRING_BUILDER);
+            method.visitInsn(DUP);
+            method.visitMethodInsn(INVOKESPECIAL, STRING_BUILDER, "<init>", "()V", false);
+            appendString(method, valueClass.name() + "." + Source.capitalize(interfaceMethod.name()) + "{");
+            boolean isFirst = true;
+            for (Field field: caseFields.get(interfaceMethod.name())) {
+                if (!isFirst)
+                    appendString(method, ", ");
+                isFirst = false;
+                appendString(method, field.param.name() + " = ");
+                appendGetField(method, 0, field);
+                String argumentDescriptor;
+                if (!isReference(field.descriptor))
+                    argumentDescriptor = "BS".indexOf(field.descriptor.charAt(0)) >= 0 ? "I" : field.descriptor;
+                else
+                    argumentDescriptor = field.descriptor.equals("Ljava/lang/String;") ? field.descriptor : "Ljava/lang/Object;";
+                method.visitMethodInsn(INVOKEVIRTUAL, STRING_BUILDER, "append", "(" + argumentDescriptor + ")Ljava/lang/StringBuilder;", false);
+            }
+            appendString(method, "}");
+            method.visitMethodInsn(INVOKEVIRTUAL, STRING_BUILDER, "toString", "()Ljava/lang/String;", false);
+            method.visitInsn(ARETURN);
+        }
+        method.visitMaxs(0, 0);
+        method.visitEnd();
+    }
+
+    private void buildFactoryMethod(ClassWriter classWriter) {
+        AbstractJClass visitorType = visitorInterface.narrowed(valueClass, valueClass, null);
+        int access = accessFlags(visitorInterface.factoryMethodAccessLevel()) | ACC_STATIC;
+        MethodVisitor method = classWriter.visitMethod(access, "factory", "()L" + visitorInternalName + ";", "()" + typeSignature(visitorType), null);
+        method.visitCode();
+        method.visitFieldInsn(GETSTATIC, internalName, FACTORY_FIELD_NAME, "L" + internalName(factoryClassBinaryName()) + ";");
+        method.visitInsn(ARETURN);
+        method.visitMaxs(0, 0);
+        method.visitEnd();
+    }
+
+    /**
+     * Builds visitor implementation, that creates values with constructor methods.
+     * Visitor methods are implemented with erased signatures,
+     * self-reference arguments are cast to value class.
+     */
+    private byte[] buildFactoryClass() {
+        String factoryInternalName = internalName(factoryClassBinaryName());
+        ClassWriter classWriter = new ClassWriter(ClassWriter.COMPUTE_MAXS);
+        AbstractJClass visitorType = visitorInterface.narrowed(valueClass, valueClass, null);
+        String signature = "L" + OBJECT + ";" + typeSignature(visitorType);
+        classWriter.visit(V1_5, ACC_SUPER, factoryInternalName, signature, OBJECT, new String[] {visitorInternalName});
+        classWriter.visitInnerClass(factoryInternalName, internalName, factoryClassName, ACC_PRIVATE | ACC_STATIC);
+
+        MethodVisitor constructor = classWriter.visitMethod(0, "<init>", "()V", null, null);
+        constructor.visitCode();
+        constructor.visitVarInsn(ALOAD, 0);
+        constructor.visitMethodInsn(INVOKESPECIAL, OBJECT, "<init>", "()V", false);
+        constructor.visitInsn(RETURN);
+        constructor.visitMaxs(0, 0);
+        constructor.visitEnd();
+
+        for (JMethod interfaceMethod: visitorInterface.methods()) {
+            StringBuilder descriptor = new StringBuilder();
+            descriptor.append("(");
+            for (Field field: caseFields.get(interfaceMethod.name())) {
+                descriptor.append(erasedDescriptor(field.param.type()));
+            }
+            descriptor.append(")").append(erasedDescriptor(interfaceMethod.type()));
+            MethodVisitor method = classWriter.visitMethod(ACC_PUBLIC, interfaceMethod.name(), descriptor.toString(), null, null);
+            method.visitCode();
+            int slot = 1;
+            for (Field field: caseFields.get(interfaceMethod.name())) {
+                method.visitVarInsn(loadOpcode(field.descriptor), slot);
+                if (visitorInterface.isSelf(field.param.type()))
+                    method.visitTypeInsn(CHECKCAST, internalName);
+                slot += slotSize(field.descriptor);
+            }
+            method.visitMethodInsn(INVOKESTATIC, internalName, interfaceMethod.name(), constructorMethodDescriptor(interfaceMethod), false);
+            method.visitInsn(ARETURN);
+            method.visitMaxs(0, 0);
+            method.visitEnd();
+        }
+        classWriter.visitEnd();
+        return classWriter.toByteArray();
+    }
+
+    /**
+     * Switches on case tag of value in given slot.
+     * Unknown tag causes IllegalStateException.
+     *
+     * @return labels of cases
+     */
+    private Map<String, Label> appendTagSwitch(MethodVisitor method, int slot) {
+        Map<String, Label> result = new LinkedHashMap<String, Label>();
+        Label[] labels = new Label[tags.size()];
+        int i = 0;
+        for (String caseName: tags.keySet()) {
+            labels[i] = new Label();
+            result.put(caseName, labels[i]);
+            i++;
+        }
+        Label unexpected = new Label();
+        method.visitVarInsn(ALOAD, slot);
+        method.visitFieldInsn(GETFIELD, internalName, TAG_FIELD_NAME, "I");
+        method.visitTableSwitchInsn(1, labels.length, unexpected, labels);
+        method.visitLabel(unexpected);
+        appendThrow(method, "java/lang/IllegalStateException", "Unexpected case");
+        return result;
+    }
+
+    private void appendGetField(MethodVisitor method, int slot, Field field) {
+        method.visitVarInsn(ALOAD, slot);
+        method.visitFieldInsn(GETFIELD, internalName, field.name, field.descriptor);
+    }
+
+    private static void appendThrow(MethodVisitor method, String exceptionInternalName, String message) {
+        method.visitTypeInsn(NEW, exceptionInternalName);
+        method.visitInsn(DUP);
+        method.visitLdcInsn(message);
+        method.visitMethodInsn(INVOKESPECIAL, exceptionInternalName, "<init>", "(Ljava/lang/String;)V", false);
+        method.visitInsn(ATHROW);
+    }
+
+    private static void appendString(MethodVisitor method, String string) {
+        method.visitLdcInsn(string);
+        method.visitMethodInsn(INVOKEVIRTUAL, STRING_BUILDER, "append", "(Ljava/lang/String;)Ljava/lang/StringBuilder;", false);
+    }
+
+    private static void appendInt(MethodVisitor method, int value) {
+        if (value >= -1 && value <= 5)
+            method.visitInsn(ICONST_0 + value);
+        else if (value >= Byte.MIN_VALUE && value <= Byte.MAX_VALUE)
+            method.visitIntInsn(BIPUSH, value);
+        else if (value >= Short.MIN_VALUE && value <= Short.MAX_VALUE)
+            method.visitIntInsn(SIPUSH, value);
+        else
+            method.visitLdcInsn(value);
+    }
+
+    private static void appendDefaultValue(MethodVisitor method, String descriptor) {
+        char kind = descriptor.charAt(0);
+        if (kind == 'J')
+            method.visitInsn(LCONST_0);
+        else if (kind == 'F')
+            method.visitInsn(FCONST_0);
+        else if (kind == 'D')
+            method.visitInsn(DCONST_0);
+        else if (isReference(descriptor))
+            method.visitInsn(ACONST_NULL);
+        else
+            method.visitInsn(ICONST_0);
+    }
+
+    private static int loadOpcode(String descriptor) {
+        char kind = descriptor.charAt(0);
+        if (kind == 'J')
+            return LLOAD;
+        else if (kind == 'F')
+            return FLOAD;
+        else if (kind == 'D')
+            return DLOAD;
+        else if (isReference(descriptor))
+            return ALOAD;
+        else
+            return ILOAD;
+    }
+
+    private static int returnOpcode(String descriptor) {
+        char kind = descriptor.charAt(0);
+        if (kind == 'J')
+            return LRETURN;
+        else if (kind == 'F')
+            return FRETURN;
+        else if (kind == 'D')
+            return DRETURN;
+        else if (isReference(descriptor))
+            return ARETURN;
+        else
+            return IRETURN;
+    }
+
+    private static int accessFlags(MemberAccess accessLevel) {
+        switch (accessLevel) {
+            case PUBLIC:
+                return ACC_PUBLIC;
+            case PROTECTED:
+                return ACC_PROTECTED;
+            case PRIVATE:
+                return ACC_PRIVATE;
+            default:
+                return 0;
+        }
+    }
+
+    private static int slotSize(String descriptor) {
+        return descriptor.equals("J") || descriptor.equals("D") ? 2 : 1;
+    }
+
+    private static boolean isReference(String descriptor) {
+        return descriptor.charAt(0) == 'L' || descriptor.charAt(0) == '[';
+    }
+
+    private static String internalName(String binaryName) {
+        return binaryName.replace('.', '/');
+    }
+
+    private String privateConstructorDescriptor() {
+        StringBuilder result = new StringBuilder();
+        result.append("(I");
+        for (Field field: fields)
+            result.append(field.descriptor);
+        result.append(")V");
+        return result.toString();
+    }
+
+    private String valueDescriptor() {
+        return "L" + internalName + ";";
+    }
+
+    private String singletonFieldName(JMethod interfaceMethod) {
+        return interfaceMethod.name() + "$instance";
+    }
+
+    private String constructorMethodDescriptor(JMethod interfaceMethod) {
+        StringBuilder result = new StringBuilder();
+        result.append("(");
+        for (Field field: caseFields.get(interfaceMethod.name()))
+            result.append(field.descriptor);
+        result.append(")").append(valueDescriptor());
+        return result.toString();
+    }
+
+    private Field field(JMethod interfaceMethod, String paramName) {
+        for (Field field: caseFields.get(interfaceMethod.name())) {
+            if (field.param.name().equals(paramName))
+                return field;
+        }
+        throw new IllegalStateException("Unknown field " + paramName + " of " + interfaceMethod.name() + " case");
+    }
+
+    /**
+     * Descriptor of field type, where self-reference type is replaced with value class.
+     */
+    private String fieldDescriptor(AbstractJType type) {
+        if (visitorInterface.isSelf(type))
+            return valueDescriptor();
+        else
+            return erasedDescriptor(type);
+    }
+
+    /**
+     * Type-variables are erased to Object, since only unbounded type-variables are supported.
+     */
+    private static String erasedDescriptor(AbstractJType type) {
+        if (type.isPrimitive())
+            return primitiveDescriptor(type.fullName());
+        else if (type instanceof JTypeVar)
+            return "L" + OBJECT + ";";
+        else
+            return "L" + internalName(type.erasure().binaryName()) + ";";
+    }
+
+    private static String primitiveDescriptor(String name) {
+        if (name.equals("int"))
+            return "I";
+        else if (name.equals("long"))
+            return "J";
+        else if (name.equals("boolean"))
+            return "Z";
+        else if (name.equals("byte"))
+            return "B";
+        else if (name.equals("short"))
+            return "S";
+        else if (name.equals("char"))
+            return "C";
+        else if (name.equals("float"))
+            return "F";
+        else if (name.equals("double"))
+            return "D";
+        else if (name.equals("void"))
+            return "V";
+        else
+            throw new IllegalStateException("Unknown primitive type: " + name);
+    }
+
+    private static String typeSignature(AbstractJType type) {
+        if (type.isPrimitive())
+            return primitiveDescriptor(type.fullName());
+        else if (type instanceof JTypeVar)
+            return "T" + type.name() + ";";
+        else if (type instanceof JNarrowedClass) {
+            AbstractJClass klass = (AbstractJClass)type;
+            StringBuilder result = new StringBuilder();
+            result.append("L").append(internalName(klass.erasure().binaryName())).append("<");
+            for (AbstractJClass typeArgument: klass.getTypeParameters())
+                result.append(typeSignature(typeArgument));
+            result.append(">;");
+            return result.toString();
+        } else if (type instanceof AbstractJClass && !type.isArray())
+            return "L" + internalName(type.binaryName()) + ";";
+        else
+            throw new IllegalStateException("Unsupported type in signature: " + type);
+    }
+
+    private static class Field {
+        private final String name;
+        private final JVar param;
+        private final String descriptor;
+        private final boolean isNullable;
+
+        Field(String name, JVar param, String descriptor, boolean isNullable) {
+            this.name = name;
+            this.param = param;
+            this.descriptor = descriptor;
+            this.isNullable = isNullable;
+        }
+    }
+}
@@ -40,6 +40,7 @@ import com.helger.jcodemodel.JForLoop;
 import com.helger.jcodemodel.JInvocation;
 import com.helger.jcodemodel.JOp;
 import com.helger.jcodemodel.JVar;
+import java.util.List;
 
 /**
  *
@@ -100,6 +101,13 @@ class CompareToMethod {
                 else
                     forBody.appendNotNullValue(type.elementType(), value1.component(i), value2.component(i));
                 appendNotNullValue(types._int, value1.ref("length"), value2.ref("length"));
+            } else if (type.isPrimitive() && type.fullName().equals("boolean")) {
+                // false is less than true, as in Boolean.compareTo
+                IJExpression condition = JOp.cond(value1.eq(value2), JExpr.lit(0),
+                                                  JOp.cond(value1, JExpr.lit(1), JExpr.lit(-1)));
+                body.assign(resultVariable, condition);
+                JConditional _if = body._if(resultVariable.ne(JExpr.lit(0)));
+                _if._then()._return(resultVariable);
             } else if (type.isPrimitive()) {
                 IJExpression condition = JOp.cond(value1.lt(value2), JExpr.lit(-1),
                                                   JOp.cond(value1.eq(value2), JExpr.lit(0), JExpr.lit(1)));
@@ -114,6 +122,32 @@ class CompareToMethod {
                 _if._then()._return(resultVariable);
             }
         }
+    
+        /**
+         * Compares inline varargs like arrays, but without array materialization.
+         * Other instance's inline fields are given as arguments.
+         */
+        void appendInlineVarArgs(InlineVarArgs inline, IJExpression length1, IJExpression spill1, List<? extends IJExpression> elements1) {
+            IJExpression length2 = JExpr.refthis(inline.length());
+            JInvocation invocation = types._Math.staticInvoke("min");
+            invocation.arg(length1);
+            invocation.arg(length2);
+            JVar length = body.decl(types._int, nameSource.get("length"), invocation);
+            VariableNameSource localNames = nameSource.forBlock();
+            JForLoop _for = body._for();
+            JVar i = _for.init(types._int, localNames.get("i"), JExpr.lit(0));
+            _for.test(i.lt(length));
+            _for.update(i.incr());
+            AbstractJType elementType = inline.elementType();
+            JVar element1 = _for.body().decl(elementType, localNames.get("element1"), inline.element(i, spill1, elements1));
+            JVar element2 = _for.body().decl(elementType, localNames.get("element2"), inline.element(i));
+            Body forBody = new Body(resultVariable, _for.body(), localNames);
+            if (elementType.isReference())
+                forBody.appendNullableValue(elementType, element1, element2);
+            else
+                forBody.appendNotNullValue(elementType, element1, element2);
+            appendNotNullValue(types._int, length1, length2);
+        }
     }
 
 }
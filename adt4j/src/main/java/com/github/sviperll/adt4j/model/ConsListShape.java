@@ -0,0 +1,107 @@
+/*
+ * Copyright (c) 2015, Victor Nazarov <asviraspossible@gmail.com>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation and/or
+ *     other materials provided with the distribution.
+ *
+ *  3. Neither the name of the copyright holder nor the names of its contributors
+ *     may be used to endorse or promote products derived from this software
+ *     without specific prior written permission.
+ *
+ *  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ *  ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ *  THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ *  IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR
+ *  ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ *  (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ *   LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ *  ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ *  (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+ *  EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.github.sviperll.adt4j.model;
+
+import com.github.sviperll.adt4j.model.util.Source;
+import com.github.sviperll.adt4j.model.util.ValueVisitorInterfaceModel;
+import com.github.sviperll.meta.SourceCodeValidationException;
+import com.helger.jcodemodel.JMethod;
+import com.helger.jcodemodel.JVar;
+import java.util.Collection;
+import javax.annotation.Nullable;
+
+/**
+ * Cases of list-shaped visitor interface, like {@code cons(T head, S tail)} and {@code nil()}.
+ * <p>
+ * Visitor has list shape when it has exactly two cases:
+ * nullary case and case with single element field and single non-nullable self-reference field,
+ * without varargs.
+ *
+ * @author Victor Nazarov <asviraspossible@gmail.com>
+ */
+class ConsListShape {
+    @Nullable
+    static ConsListShape find(ValueVisitorInterfaceModel visitorInterface) throws SourceCodeValidationException {
+        Collection<JMethod> methods = visitorInterface.methods();
+        if (methods.size() != 2)
+            return null;
+        JMethod nilMethod = null;
+        JMethod consMethod = null;
+        for (JMethod method: methods) {
+            if (method.listVarParam() != null)
+                return null;
+            if (method.params().isEmpty())
+                nilMethod = method;
+            else if (method.params().size() == 2)
+                consMethod = method;
+        }
+        if (nilMethod == null || consMethod == null)
+            return null;
+        JVar headParam = null;
+        JVar tailParam = null;
+        for (JVar param: consMethod.params()) {
+            if (visitorInterface.isSelf(param.type()) && !Source.isNullable(param))
+                tailParam = param;
+            else if (!visitorInterface.containsSelf(param.type()))
+                headParam = param;
+        }
+        if (headParam == null || tailParam == null)
+            return null;
+        return new ConsListShape(consMethod, nilMethod, headParam, tailParam);
+    }
+
+    private final JMethod consMethod;
+    private final JMethod nilMethod;
+    private final JVar headParam;
+    private final JVar tailParam;
+
+    private ConsListShape(JMethod consMethod, JMethod nilMethod, JVar headParam, JVar tailParam) {
+        this.consMethod = consMethod;
+        this.nilMethod = nilMethod;
+        this.headParam = headParam;
+        this.tailParam = tailParam;
+    }
+
+    JMethod consMethod() {
+        return consMethod;
+    }
+
+    JMethod nilMethod() {
+        return nilMethod;
+    }
+
+    JVar headParam() {
+        return headParam;
+    }
+
+    JVar tailParam() {
+        return tailParam;
+    }
+}
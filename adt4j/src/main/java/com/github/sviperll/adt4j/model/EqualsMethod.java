@@ -29,6 +29,7 @@
  */
 package com.github.sviperll.adt4j.model;
 
+import com.github.sviperll.adt4j.ArrayStrategy;
 import com.github.sviperll.adt4j.model.util.Types;
 import com.github.sviperll.adt4j.model.util.VariableNameSource;
 import com.helger.jcodemodel.AbstractJType;
@@ -78,6 +79,25 @@ class EqualsMethod {
         }
     }
 
+    void appendArrayValue(ArrayStrategy strategy, AbstractJType type, IJExpression value1, IJExpression value2, boolean isLast) {
+        IJExpression condition;
+        if (strategy == ArrayStrategy.IDENTITY)
+            condition = value1.eq(value2);
+        else if (strategy == ArrayStrategy.CONTENT || strategy == ArrayStrategy.CACHED_CONTENT) {
+            JInvocation invocation = types._Arrays.staticInvoke(type.elementType().isArray() ? "deepEquals" : "equals");
+            invocation.arg(value1);
+            invocation.arg(value2);
+            condition = invocation;
+        } else
+            throw new IllegalStateException("Unsupported array strategy for equals: " + strategy);
+        if (isLast) {
+            body._return(condition);
+        } else {
+            JConditional _if = body._if(condition.not());
+            _if._then()._return(JExpr.FALSE);
+        }
+    }
+
     void appendNotNullValue(AbstractJType type, IJExpression value1, IJExpression value2, boolean isLast) {
         if (type.isArray()) {
             appendNotNullValue(types._int, value1.ref("length"), value2.ref("length"), false);
@@ -32,7 +32,9 @@ package com.github.sviperll.adt4j.model;
 import com.github.sviperll.meta.MemberAccess;
 import com.helger.jcodemodel.AbstractJType;
 import com.helger.jcodemodel.JMethod;
+import javax.annotation.Nullable;
 import java.text.MessageFormat;
+import java.util.Collection;
 import java.util.Map;
 import java.util.TreeMap;
 
@@ -89,6 +91,19 @@ class FieldConfiguration {
         return getterParamName != null && getterParamName.equals(paramName);
     }
 
+    boolean isDefinedForAll(Collection<JMethod> methods) {
+        for (JMethod method: methods) {
+            if (!map.containsKey(method.name()))
+                return false;
+        }
+        return true;
+    }
+
+    @Nullable
+    String paramName(JMethod method) {
+        return map.get(method.name());
+    }
+
     boolean isVarArg() {
         return flags.isVarArg();
     }
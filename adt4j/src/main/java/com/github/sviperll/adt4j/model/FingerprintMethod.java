@@ -0,0 +1,239 @@
+/*
+ * Copyright (c) 2015, Victor Nazarov <asviraspossible@gmail.com>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation and/or
+ *     other materials provided with the distribution.
+ *
+ *  3. Neither the name of the copyright holder nor the names of its contributors
+ *     may be used to endorse or promote products derived from this software
+ *     without specific prior written permission.
+ *
+ *  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ *  ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ *  THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ *  IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR
+ *  ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ *  (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ *   LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ *  ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ *  (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+ *  EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.github.sviperll.adt4j.model;
+
+import com.github.sviperll.adt4j.model.util.Types;
+import com.github.sviperll.adt4j.model.util.VariableNameSource;
+import com.helger.jcodemodel.AbstractJClass;
+import com.helger.jcodemodel.AbstractJType;
+import com.helger.jcodemodel.IJExpression;
+import com.helger.jcodemodel.JBlock;
+import com.helger.jcodemodel.JConditional;
+import com.helger.jcodemodel.JDefinedClass;
+import com.helger.jcodemodel.JExpr;
+import com.helger.jcodemodel.JForLoop;
+import com.helger.jcodemodel.JInvocation;
+import com.helger.jcodemodel.JMethod;
+import com.helger.jcodemodel.JOp;
+import com.helger.jcodemodel.JVar;
+import java.util.Set;
+import javax.annotation.Nullable;
+
+/**
+ * Generates fingerprint64 implementation.
+ * <p>
+ * Algorithm is fixed and documented in {@link com.github.sviperll.adt4j.GenerateValueClassForVisitor#generateFingerprint()},
+ * so it shouldn't be changed without changing the documentation.
+ *
+ * @author Victor Nazarov <asviraspossible@gmail.com>
+ */
+class FingerprintMethod {
+    static final String METHOD_NAME = "fingerprint64";
+    private static final long SEED = 0xCBF29CE484222325L;
+    private static final long MULTIPLIER = 0x9E3779B97F4A7C15L;
+    private static final int ROTATION = 31;
+
+    private static long combine(long result, long value) {
+        return Long.rotateLeft(result ^ value, ROTATION) * MULTIPLIER;
+    }
+
+    static long caseSeed(String caseName) {
+        long result = combine(SEED, caseName.length());
+        for (int i = 0; i < caseName.length(); i++) {
+            result = combine(result, caseName.charAt(i));
+        }
+        return result;
+    }
+
+    private final Types types;
+    @Nullable
+    private final AbstractJClass runtimeSupport;
+    private final Set<String> fingerprintedClassNames;
+    private final JBlock methodBody;
+    private final VariableNameSource methodNameSource;
+
+    FingerprintMethod(Types types, @Nullable AbstractJClass runtimeSupport, Set<String> fingerprintedClassNames, JBlock methodBody, VariableNameSource methodNameSource) {
+        this.types = types;
+        this.runtimeSupport = runtimeSupport;
+        this.fingerprintedClassNames = fingerprintedClassNames;
+        this.methodBody = methodBody;
+        this.methodNameSource = methodNameSource;
+    }
+
+    Body createBody(String caseName) {
+        JVar result = methodBody.decl(types._long, methodNameSource.get("result"), JExpr.lit(caseSeed(caseName)));
+        return new Body(result, methodBody, methodNameSource);
+    }
+
+    /**
+     * Value class itself is checked for generated method.
+     * Other classes, like value classes generated for other visitors,
+     * are looked up by processor, since code model doesn't contain their methods.
+     */
+    private boolean isFingerprinted(AbstractJType type) {
+        AbstractJType erasure = type.erasure();
+        if (erasure.isReference() && fingerprintedClassNames.contains(erasure.fullName()))
+            return true;
+        else if (!(erasure instanceof JDefinedClass))
+            return false;
+        else {
+            for (JMethod method: ((JDefinedClass)erasure).methods()) {
+                if (method.name().equals(METHOD_NAME) && method.params().isEmpty() && method.type() == types._long)
+                    return true;
+            }
+            return false;
+        }
+    }
+
+    class Body {
+
+        private final JBlock body;
+        private final VariableNameSource nameSource;
+        private final JVar result;
+
+        private Body(JVar result, JBlock body, VariableNameSource nameSource) {
+            this.result = result;
+            this.body = body;
+            this.nameSource = nameSource;
+        }
+
+        private void combine(IJExpression value) {
+            if (runtimeSupport != null) {
+                JInvocation invocation = runtimeSupport.staticInvoke("fingerprintCombine");
+                invocation.arg(result);
+                invocation.arg(value);
+                body.assign(result, invocation);
+            } else {
+                JInvocation invocation = types._Long.staticInvoke("rotateLeft");
+                invocation.arg(result.xor(value));
+                invocation.arg(JExpr.lit(ROTATION));
+                body.assign(result, invocation.mul(JExpr.lit(MULTIPLIER)));
+            }
+        }
+
+        void appendNullableValue(AbstractJType type, IJExpression value) {
+            if (!type.isReference())
+                throw new AssertionError("appendNullableValue called for non-reference type");
+            else {
+                JConditional _if = body._if(value.eq(JExpr._null()));
+                Body thenBody = new Body(result, _if._then(), nameSource);
+                thenBody.combine(JExpr.lit(0));
+                Body elseBody = new Body(result, _if._else(), nameSource);
+                elseBody.combine(JExpr.lit(1));
+                elseBody.appendNotNullValue(type, value);
+            }
+        }
+
+        void appendNotNullValue(AbstractJType type, IJExpression value) {
+            if (type.isArray()) {
+                combine(value.ref("length"));
+                VariableNameSource localNames = nameSource.forBlock();
+                JForLoop _for = body._for();
+                JVar i = _for.init(types._int, localNames.get("i"), JExpr.lit(0));
+                _for.test(i.lt(value.ref("length")));
+                _for.update(i.incr());
+                Body forBody = new Body(result, _for.body(), localNames);
+                if (type.elementType().isReference())
+                    forBody.appendNullableValue(type.elementType(), value.component(i));
+                else
+                    forBody.appendNotNullValue(type.elementType(), value.component(i));
+            } else if (type.isPrimitive()) {
+                if (type.name().equals("double")) {
+                    JInvocation invocation = types._Double.staticInvoke("doubleToLongBits");
+                    invocation.arg(value);
+                    combine(invocation);
+                } else if (type.name().equals("float")) {
+                    JInvocation invocation = types._Float.staticInvoke("floatToIntBits");
+                    invocation.arg(value);
+                    combine(invocation);
+                } else if (type.name().equals("boolean")) {
+                    combine(JOp.cond(value, JExpr.lit(1), JExpr.lit(0)));
+                } else {
+                    combine(value);
+                }
+            } else if (isFingerprinted(type)) {
+                combine(value.invoke(METHOD_NAME));
+            } else if (type.erasure().fullName().equals(types._String.fullName())) {
+                combine(value.invoke("length"));
+                VariableNameSource localNames = nameSource.forBlock();
+                JForLoop _for = body._for();
+                JVar i = _for.init(types._int, localNames.get("i"), JExpr.lit(0));
+                _for.test(i.lt(value.invoke("length")));
+                _for.update(i.incr());
+                Body forBody = new Body(result, _for.body(), localNames);
+                JInvocation charAt = value.invoke("charAt");
+                charAt.arg(i);
+                forBody.combine(charAt);
+            } else if (type.unboxify().isPrimitive()) {
+                AbstractJType primitiveType = type.unboxify();
+                appendNotNullValue(primitiveType, value.invoke(primitiveType.name() + "Value"));
+            } else if (types.isEnum(type)) {
+                appendNotNullValue(types._String, value.invoke("name"));
+            } else {
+                combine(value.invoke("hashCode"));
+            }
+        }
+
+        /**
+         * Combines inline varargs like an array, but without array materialization.
+         */
+        void appendInlineVarArgs(InlineVarArgs inline) {
+            combine(JExpr.refthis(inline.length()));
+            VariableNameSource localNames = nameSource.forBlock();
+            JForLoop _for = body._for();
+            JVar i = _for.init(types._int, localNames.get("i"), JExpr.lit(0));
+            _for.test(i.lt(JExpr.refthis(inline.length())));
+            _for.update(i.incr());
+            AbstractJType elementType = inline.elementType();
+            JVar element = _for.body().decl(elementType, localNames.get("element"), inline.element(i));
+            Body forBody = new Body(result, _for.body(), localNames);
+            if (elementType.isReference())
+                forBody.appendNullableValue(elementType, element);
+            else
+                forBody.appendNotNullValue(elementType, element);
+        }
+
+        IJExpression finish() {
+            if (runtimeSupport != null) {
+                JInvocation invocation = runtimeSupport.staticInvoke("fingerprintFinish");
+                invocation.arg(result);
+                return invocation;
+            } else {
+                body.assign(result, result.xor(result.shrz(JExpr.lit(33))));
+                body.assign(result, result.mul(JExpr.lit(0xFF51AFD7ED558CCDL)));
+                body.assign(result, result.xor(result.shrz(JExpr.lit(33))));
+                body.assign(result, result.mul(JExpr.lit(0xC4CEB9FE1A85EC53L)));
+                body.assign(result, result.xor(result.shrz(JExpr.lit(33))));
+                return JOp.cond(result.ne0(), result, JExpr.lit(1L));
+            }
+        }
+    }
+
+}
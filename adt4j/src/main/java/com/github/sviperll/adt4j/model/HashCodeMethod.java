@@ -29,6 +29,7 @@
  */
 package com.github.sviperll.adt4j.model;
 
+import com.github.sviperll.adt4j.HashCodeAlgorithm;
 import com.github.sviperll.adt4j.model.util.Types;
 import com.github.sviperll.adt4j.model.util.VariableNameSource;
 import com.helger.jcodemodel.AbstractJType;
@@ -46,20 +47,29 @@ import com.helger.jcodemodel.JVar;
  * @author Victor Nazarov <asviraspossible@gmail.com>
  */
 class HashCodeMethod {
+    private static final long FOLDED_LONG_MULTIPLIER = 0x9E3779B97F4A7C15L;
+    private static final int FOLDED_LONG_ROTATION = 31;
+
     private final Types types;
     private final int hashCodeBase;
+    private final HashCodeAlgorithm algorithm;
     private final JBlock methodBody;
     private final VariableNameSource methodNameSource;
 
-    HashCodeMethod(Types types, int hashCodeBase, JBlock methodBody, VariableNameSource methodNameSource) {
+    HashCodeMethod(Types types, int hashCodeBase, HashCodeAlgorithm algorithm, JBlock methodBody, VariableNameSource methodNameSource) {
         this.types = types;
         this.hashCodeBase = hashCodeBase;
+        this.algorithm = algorithm;
         this.methodBody = methodBody;
         this.methodNameSource = methodNameSource;
     }
 
     Body createBody(int tag) {
-        JVar result = methodBody.decl(types._int, methodNameSource.get("result"), JExpr.lit(tag));
+        JVar result;
+        if (algorithm == HashCodeAlgorithm.FOLDED_LONG)
+            result = methodBody.decl(types._long, methodNameSource.get("result"), JExpr.lit((long)tag));
+        else
+            result = methodBody.decl(types._int, methodNameSource.get("result"), JExpr.lit(tag));
         return new Body(result, methodBody, methodNameSource);
     }
 
@@ -111,15 +121,32 @@ class HashCodeMethod {
                 appendNotNullValue(types._int, invocation);
             } else if (type.name().equals("boolean")) {
                 appendNotNullValue(types._int, JOp.cond(value, JExpr.lit(0), JExpr.lit(1)));
-            } else if (type.name().equals("long")) {
+            } else if (type.name().equals("long") && algorithm != HashCodeAlgorithm.FOLDED_LONG) {
                 appendNotNullValue(types._int, JExpr.cast(types._int, value.xor(value.shrz(JExpr.lit(32)))));
+            } else if (algorithm == HashCodeAlgorithm.FOLDED_LONG) {
+                JInvocation invocation = types._Long.staticInvoke("rotateLeft");
+                invocation.arg(result.xor(value));
+                invocation.arg(JExpr.lit(FOLDED_LONG_ROTATION));
+                body.assign(result, invocation.mul(JExpr.lit(FOLDED_LONG_MULTIPLIER)));
             } else {
                 body.assign(result, result.mul(JExpr.lit(hashCodeBase)).plus(value));
             }
         }
 
-        IJExpression result() {
-            return result;
+        IJExpression finish() {
+            if (algorithm == HashCodeAlgorithm.POLYNOMIAL)
+                return result;
+            else if (algorithm == HashCodeAlgorithm.MIXED_POLYNOMIAL) {
+                body.assign(result, result.xor(result.shrz(JExpr.lit(16))));
+                body.assign(result, result.mul(JExpr.lit(0x85EBCA6B)));
+                body.assign(result, result.xor(result.shrz(JExpr.lit(13))));
+                body.assign(result, result.mul(JExpr.lit(0xC2B2AE35)));
+                body.assign(result, result.xor(result.shrz(JExpr.lit(16))));
+                return result;
+            } else if (algorithm == HashCodeAlgorithm.FOLDED_LONG) {
+                return JExpr.cast(types._int, result.xor(result.shrz(JExpr.lit(32))));
+            } else
+                throw new IllegalStateException("Unsupported hashCodeAlgorithm: " + algorithm);
         }
     }
 
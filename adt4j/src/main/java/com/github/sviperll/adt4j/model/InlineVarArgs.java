@@ -0,0 +1,198 @@
+/*
+ * Copyright (c) 2015, Victor Nazarov <asviraspossible@gmail.com>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation and/or
+ *     other materials provided with the distribution.
+ *
+ *  3. Neither the name of the copyright holder nor the names of its contributors
+ *     may be used to endorse or promote products derived from this software
+ *     without specific prior written permission.
+ *
+ *  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ *  ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ *  THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ *  IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR
+ *  ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ *  (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ *   LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ *  ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ *  (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+ *  EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.github.sviperll.adt4j.model;
+
+import com.github.sviperll.adt4j.model.util.Types;
+import com.helger.jcodemodel.AbstractJClass;
+import com.helger.jcodemodel.AbstractJType;
+import com.helger.jcodemodel.IJExpression;
+import com.helger.jcodemodel.JBlock;
+import com.helger.jcodemodel.JDefinedClass;
+import com.helger.jcodemodel.JExpr;
+import com.helger.jcodemodel.JFieldVar;
+import com.helger.jcodemodel.JInvocation;
+import com.helger.jcodemodel.JMethod;
+import com.helger.jcodemodel.JMod;
+import com.helger.jcodemodel.JOp;
+import com.helger.jcodemodel.JTypeVar;
+import com.helger.jcodemodel.JVar;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Storage of varargs field with up to limit elements stored in dedicated fields.
+ * <p>
+ * Length is always stored in separate int field.
+ * When length is not greater than limit, elements are stored in dedicated fields and spill array field is null.
+ * Otherwise, all elements are stored in spill array field and dedicated fields hold default values.
+ * Representation is canonical, so equals and hashCode methods can work with fields directly
+ * without materializing an array.
+ * compareTo and fingerprint64 methods read elements one by one with static element method.
+ *
+ * @author Victor Nazarov <asviraspossible@gmail.com>
+ */
+class InlineVarArgs {
+    /**
+     * Array of element type should be creatable and element type should not be a type variable or parameterized type.
+     */
+    static boolean isInlinable(AbstractJType elementType) {
+        if (elementType.isPrimitive())
+            return true;
+        else if (elementType instanceof JTypeVar || !(elementType instanceof AbstractJClass))
+            return false;
+        else
+            return ((AbstractJClass)elementType).getTypeParameters().isEmpty();
+    }
+
+    private final Types types;
+    private final int limit;
+    private final AbstractJType elementType;
+    private JFieldVar length;
+    private final List<JFieldVar> elements = new ArrayList<JFieldVar>();
+    private JFieldVar spill;
+    private JMethod arrayMethod;
+    private JMethod elementMethod;
+
+    InlineVarArgs(Types types, int limit, AbstractJType elementType) {
+        this.types = types;
+        this.limit = limit;
+        this.elementType = elementType;
+    }
+
+    /**
+     * Declares fields and array materialization method in case class and initializes fields in constructor.
+     */
+    void build(JDefinedClass caseClass, JBlock constructorBody, JVar argument) {
+        String name = argument.name();
+        length = caseClass.field(JMod.PRIVATE | JMod.FINAL, types._int, fieldName(caseClass, name + "Length"));
+        for (int i = 0; i < limit; i++) {
+            elements.add(caseClass.field(JMod.PRIVATE | JMod.FINAL, elementType, fieldName(caseClass, name + i)));
+        }
+        spill = caseClass.field(JMod.PRIVATE | JMod.FINAL, elementType.array(), fieldName(caseClass, name + "Spill"));
+
+        IJExpression argumentLength = argument.ref("length");
+        IJExpression isInline = argumentLength.lte(JExpr.lit(limit));
+        constructorBody.assign(JExpr._this().ref(length), argumentLength);
+        for (int i = 0; i < limit; i++) {
+            IJExpression condition = isInline.cand(argumentLength.gt(JExpr.lit(i)));
+            constructorBody.assign(JExpr._this().ref(elements.get(i)), JOp.cond(condition, argument.component(JExpr.lit(i)), defaultValue()));
+        }
+        constructorBody.assign(JExpr._this().ref(spill), JOp.cond(isInline, JExpr._null(), argument));
+
+        arrayMethod = caseClass.method(JMod.PRIVATE, elementType.array(), name + "Array");
+        JBlock body = arrayMethod.body();
+        body._if(JExpr.refthis(spill).ne(JExpr._null()))._then()._return(JExpr.refthis(spill));
+        JVar result = body.decl(elementType.array(), "result", JExpr.newArray(elementType, JExpr.refthis(length)));
+        for (int i = 0; i < limit; i++) {
+            JBlock _then = body._if(JExpr.refthis(length).gt(JExpr.lit(i)))._then();
+            _then.assign(result.component(JExpr.lit(i)), JExpr.refthis(elements.get(i)));
+        }
+        body._return(result);
+
+        // Static, so that elements of other instance can be read from fields passed as arguments
+        elementMethod = caseClass.method(JMod.PRIVATE | JMod.STATIC, elementType, name + "Element");
+        JVar index = elementMethod.param(types._int, "index");
+        JVar spillParam = elementMethod.param(elementType.array(), "spill");
+        List<JVar> elementParams = new ArrayList<JVar>();
+        for (int i = 0; i < limit; i++) {
+            elementParams.add(elementMethod.param(elementType, "element" + i));
+        }
+        body = elementMethod.body();
+        body._if(spillParam.ne(JExpr._null()))._then()._return(spillParam.component(index));
+        for (int i = 0; i < limit - 1; i++) {
+            body._if(index.eq(JExpr.lit(i)))._then()._return(elementParams.get(i));
+        }
+        body._return(elementParams.get(limit - 1));
+    }
+
+    private static String fieldName(JDefinedClass caseClass, String name) {
+        while (caseClass.fields().containsKey(name))
+            name = name + "_";
+        return name;
+    }
+
+    private IJExpression defaultValue() {
+        if (!elementType.isPrimitive())
+            return JExpr._null();
+        else if (elementType.fullName().equals("boolean"))
+            return JExpr.FALSE;
+        else
+            return JExpr.lit(0);
+    }
+
+    AbstractJType elementType() {
+        return elementType;
+    }
+
+    /**
+     * Materialized array with all elements.
+     * New array is allocated on every evaluation, unless varargs are stored as spill array.
+     */
+    IJExpression value() {
+        return JExpr.invoke(arrayMethod);
+    }
+
+    /**
+     * Element at given index, that should be less than length.
+     */
+    IJExpression element(IJExpression index) {
+        List<IJExpression> elementValues = new ArrayList<IJExpression>();
+        for (JFieldVar element: elements) {
+            elementValues.add(JExpr.refthis(element));
+        }
+        return element(index, JExpr.refthis(spill), elementValues);
+    }
+
+    /**
+     * Element at given index of instance, which fields are given as arguments.
+     */
+    IJExpression element(IJExpression index, IJExpression spill, List<? extends IJExpression> elements) {
+        JInvocation invocation = JExpr.invoke(elementMethod);
+        invocation.arg(index);
+        invocation.arg(spill);
+        for (IJExpression element: elements) {
+            invocation.arg(element);
+        }
+        return invocation;
+    }
+
+    JFieldVar length() {
+        return length;
+    }
+
+    List<JFieldVar> elements() {
+        return Collections.unmodifiableList(elements);
+    }
+
+    JFieldVar spill() {
+        return spill;
+    }
+}
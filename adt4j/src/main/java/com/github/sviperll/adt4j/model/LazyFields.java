@@ -0,0 +1,171 @@
+/*
+ * Copyright (c) 2015, Victor Nazarov <asviraspossible@gmail.com>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation and/or
+ *     other materials provided with the distribution.
+ *
+ *  3. Neither the name of the copyright holder nor the names of its contributors
+ *     may be used to endorse or promote products derived from this software
+ *     without specific prior written permission.
+ *
+ *  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ *  ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ *  THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ *  IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR
+ *  ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ *  (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ *   LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ *  ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ *  (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+ *  EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.github.sviperll.adt4j.model;
+
+import com.github.sviperll.adt4j.Lazy;
+import com.github.sviperll.adt4j.model.util.Source;
+import com.github.sviperll.adt4j.model.util.Types;
+import com.github.sviperll.adt4j.model.util.VariableNameSource;
+import com.helger.jcodemodel.AbstractJClass;
+import com.helger.jcodemodel.AbstractJType;
+import com.helger.jcodemodel.IJExpression;
+import com.helger.jcodemodel.JAnnotationUse;
+import com.helger.jcodemodel.JBlock;
+import com.helger.jcodemodel.JDefinedClass;
+import com.helger.jcodemodel.JExpr;
+import com.helger.jcodemodel.JFieldVar;
+import com.helger.jcodemodel.JInvocation;
+import com.helger.jcodemodel.JMethod;
+import com.helger.jcodemodel.JMod;
+import com.helger.jcodemodel.JVar;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Storage of lazily evaluated fields of single case class.
+ * <p>
+ * Every lazy field is stored as value field and volatile thunk field.
+ * Thunk field holds pending computation and is null when value is already evaluated.
+ * Value is evaluated under case object lock and thunk field is cleared after value field is written,
+ * so thunk is invoked at most once and every thread, that reads null from thunk field, sees evaluated value.
+ *
+ * @author Victor Nazarov <asviraspossible@gmail.com>
+ */
+class LazyFields {
+    static boolean isLazy(JVar param) {
+        for (JAnnotationUse annotationUsage: param.annotations()) {
+            String annotationClassName = annotationUsage.getAnnotationClass().fullName();
+            if (annotationClassName != null && annotationClassName.equals(Lazy.class.getName()))
+                return true;
+        }
+        return false;
+    }
+
+    private final Types types;
+    private final AbstractJClass thunkInterface;
+    private final Map<String, JMethod> forceMethods = new TreeMap<String, JMethod>();
+
+    LazyFields(Types types, AbstractJClass thunkInterface) {
+        this.types = types;
+        this.thunkInterface = thunkInterface;
+    }
+
+    /**
+     * Thunk type, that is accepted in place of value of given type.
+     */
+    AbstractJClass thunkType(AbstractJType type) {
+        return thunkInterface.narrow(type.boxify().wildcard());
+    }
+
+    /**
+     * Declares value and thunk fields and forcing method in case class.
+     * Additional constructor parameter is declared for thunk.
+     * Constructor is passed either value and null thunk or default value and not null thunk.
+     */
+    void add(JDefinedClass caseClass, JMethod constructor, JVar argument, boolean isNullable, boolean isSerializable) {
+        String name = argument.name();
+        AbstractJType type = argument.type();
+        JFieldVar value = caseClass.field(JMod.PRIVATE, type, name);
+        int thunkMods = isSerializable ? JMod.PRIVATE | JMod.VOLATILE | JMod.TRANSIENT : JMod.PRIVATE | JMod.VOLATILE;
+        JFieldVar thunk = caseClass.field(thunkMods, thunkType(type), fieldName(caseClass, name + "Thunk"));
+        JVar thunkArgument = constructor.param(thunkType(type), thunk.name());
+        constructor.body().assign(JExpr._this().ref(value), argument);
+        constructor.body().assign(JExpr._this().ref(thunk), thunkArgument);
+
+        JMethod forceMethod = caseClass.method(JMod.PRIVATE, type, "force" + Source.capitalize(name));
+        VariableNameSource nameSource = new VariableNameSource();
+        JBlock evaluation = Source.addSynchronizedBlock(forceMethod.body()._if(JExpr.refthis(thunk).ne(JExpr._null()))._then(), JExpr._this());
+        JVar pending = evaluation.decl(thunk.type(), nameSource.get("thunk"), JExpr.refthis(thunk));
+        JBlock _then = evaluation._if(pending.ne(JExpr._null()))._then();
+        // Primitive result is kept boxed until checked, so that null is reported the same way as for references
+        JVar result = _then.decl(type.boxify(), nameSource.get("result"), pending.invoke("get"));
+        if (type.isPrimitive() || !isNullable) {
+            JInvocation exceptionInvocation = JExpr._new(types._NullPointerException);
+            exceptionInvocation.arg("Lazy field shouldn't be null: '" + name + "' field in class " + caseClass.outer().fullName());
+            _then._if(result.eq(JExpr._null()))._then()._throw(exceptionInvocation);
+        }
+        _then.assign(JExpr.refthis(value), result);
+        _then.assign(JExpr.refthis(thunk), JExpr._null());
+        forceMethod.body()._return(JExpr.refthis(value));
+        forceMethods.put(name, forceMethod);
+    }
+
+    /**
+     * Value, that lazy field holds before evaluation.
+     */
+    static IJExpression defaultValue(AbstractJType type) {
+        if (!type.isPrimitive())
+            return JExpr._null();
+        else if (type.fullName().equals("boolean"))
+            return JExpr.FALSE;
+        else
+            return JExpr.cast(type, JExpr.lit(0));
+    }
+
+    private static String fieldName(JDefinedClass caseClass, String name) {
+        while (caseClass.fields().containsKey(name))
+            name = name + "_";
+        return name;
+    }
+
+    boolean isEmpty() {
+        return forceMethods.isEmpty();
+    }
+
+    boolean contains(String name) {
+        return forceMethods.containsKey(name);
+    }
+
+    /**
+     * Evaluated value of field.
+     */
+    IJExpression value(String name) {
+        return JExpr.invoke(forceMethods.get(name));
+    }
+
+    IJExpression value(IJExpression object, String name) {
+        return object.invoke(forceMethods.get(name));
+    }
+
+    /**
+     * Declares writeObject method, that evaluates every lazy field before default serialization.
+     * Thunks are transient, so deserialized values always hold evaluated fields.
+     */
+    void buildWriteObjectMethod(JDefinedClass caseClass) {
+        JMethod writeObjectMethod = caseClass.method(JMod.PRIVATE, types._void, "writeObject");
+        writeObjectMethod._throws(types._IOException);
+        VariableNameSource nameSource = new VariableNameSource();
+        JVar outputStream = writeObjectMethod.param(types._ObjectOutputStream, nameSource.get("output"));
+        for (JMethod forceMethod: forceMethods.values()) {
+            writeObjectMethod.body().invoke(forceMethod);
+        }
+        writeObjectMethod.body().invoke(outputStream, "defaultWriteObject");
+    }
+}
@@ -0,0 +1,428 @@
+/*
+ * Copyright (c) 2015, Victor Nazarov <asviraspossible@gmail.com>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation and/or
+ *     other materials provided with the distribution.
+ *
+ *  3. Neither the name of the copyright holder nor the names of its contributors
+ *     may be used to endorse or promote products derived from this software
+ *     without specific prior written permission.
+ *
+ *  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ *  ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ *  THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ *  IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR
+ *  ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ *  (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ *   LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ *  ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ *  (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+ *  EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.github.sviperll.adt4j.model;
+
+import com.github.sviperll.adt4j.model.util.Source;
+import com.github.sviperll.adt4j.model.util.Types;
+import com.github.sviperll.adt4j.model.util.ValueVisitorInterfaceModel;
+import com.github.sviperll.adt4j.model.util.VariableNameSource;
+import com.helger.jcodemodel.AbstractJClass;
+import com.helger.jcodemodel.AbstractJType;
+import com.helger.jcodemodel.EClassType;
+import com.helger.jcodemodel.IJExpression;
+import com.helger.jcodemodel.IJGenerifiable;
+import com.helger.jcodemodel.JBlock;
+import com.helger.jcodemodel.JClassAlreadyExistsException;
+import com.helger.jcodemodel.JConditional;
+import com.helger.jcodemodel.JDefinedClass;
+import com.helger.jcodemodel.JExpr;
+import com.helger.jcodemodel.JFieldVar;
+import com.helger.jcodemodel.JInvocation;
+import com.helger.jcodemodel.JMethod;
+import com.helger.jcodemodel.JMod;
+import com.helger.jcodemodel.JOp;
+import com.helger.jcodemodel.JTypeVar;
+import com.helger.jcodemodel.JVar;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Immutable visitor assembled from per-case functional interfaces.
+ * <p>
+ * Matcher class is nested into value class and is parameterized by value type parameters,
+ * context type, result type and exception type (when visitor declares one).
+ * Every case is handled by an instance of it's own single-method interface,
+ * that receives context argument along with case fields.
+ * Patterns, declared with {@link com.github.sviperll.adt4j.GeneratePattern} annotation,
+ * get handler interfaces too, that receive context argument along with bound values.
+ * Pattern handler can be accompanied by a guard, that receives the same arguments,
+ * when guard rejects matched value, subsequent patterns are tried.
+ * Cases without handler and without matching pattern are passed to otherwise-handler.
+ * <p>
+ * Matcher is applied without allocation: value's acceptor calls case handler directly.
+ *
+ * @author Victor Nazarov <asviraspossible@gmail.com>
+ */
+class MatcherClass {
+    static final String CLASS_NAME = "Matcher";
+    static final String FACTORY_METHOD_NAME = "cases";
+    static final String OTHERWISE_NAME = "otherwise";
+
+    static MatcherClass createInstance(JDefinedClass valueClass, ValueVisitorInterfaceModel visitorInterface, Map<String, Pattern> patterns, Types types) throws JClassAlreadyExistsException {
+        VariableNameSource typeParameterNames = new VariableNameSource();
+        for (JTypeVar visitorTypeParameter: visitorInterface.getValueTypeParameters())
+            typeParameterNames.get(visitorTypeParameter.name());
+        typeParameterNames.get(visitorInterface.getResultTypeParameter().name());
+        if (visitorInterface.getExceptionTypeParameter() != null)
+            typeParameterNames.get(visitorInterface.getExceptionTypeParameter().name());
+        String contextTypeParameterName = typeParameterNames.get("C");
+
+        JDefinedClass matcherClass = valueClass._class(JMod.PUBLIC | JMod.STATIC | JMod.FINAL, CLASS_NAME, EClassType.CLASS);
+        MatcherClass result = new MatcherClass(matcherClass, valueClass, visitorInterface, patterns, types, contextTypeParameterName);
+        result.build();
+        return result;
+    }
+
+    private final JDefinedClass matcherClass;
+    private final JDefinedClass valueClass;
+    private final ValueVisitorInterfaceModel visitorInterface;
+    private final Map<String, Pattern> patterns;
+    private final Types types;
+    private final String contextTypeParameterName;
+    private final Map<String, JFieldVar> caseFields = new TreeMap<String, JFieldVar>();
+    private final Map<String, JFieldVar> patternFields = new TreeMap<String, JFieldVar>();
+    private final Map<String, JFieldVar> guardFields = new TreeMap<String, JFieldVar>();
+    private JFieldVar otherwiseField = null;
+    private JMethod matchMethod = null;
+    private JMethod unmatchedMethod = null;
+
+    private MatcherClass(JDefinedClass matcherClass, JDefinedClass valueClass, ValueVisitorInterfaceModel visitorInterface, Map<String, Pattern> patterns, Types types, String contextTypeParameterName) {
+        this.matcherClass = matcherClass;
+        this.valueClass = valueClass;
+        this.visitorInterface = visitorInterface;
+        this.patterns = patterns;
+        this.types = types;
+        this.contextTypeParameterName = contextTypeParameterName;
+    }
+
+    /**
+     * Declares context, result and exception type parameters.
+     *
+     * @return context, result and exception (or null) type parameters.
+     */
+    JTypeVar[] generifyWithMatchTypeParameters(IJGenerifiable generifiable) {
+        JTypeVar contextType = generifiable.generify(contextTypeParameterName);
+        JTypeVar visitorResultType = visitorInterface.getResultTypeParameter();
+        JTypeVar resultType = Types.generifyWithBoundsFrom(generifiable, visitorResultType.name(), visitorResultType);
+        JTypeVar visitorExceptionType = visitorInterface.getExceptionTypeParameter();
+        JTypeVar exceptionType = null;
+        if (visitorExceptionType != null)
+            exceptionType = Types.generifyWithBoundsFrom(generifiable, visitorExceptionType.name(), visitorExceptionType);
+        return new JTypeVar[] {contextType, resultType, exceptionType};
+    }
+
+    private JTypeVar[] generify(IJGenerifiable generifiable) {
+        List<JTypeVar> result = new ArrayList<JTypeVar>();
+        for (JTypeVar visitorTypeParameter: visitorInterface.getValueTypeParameters()) {
+            result.add(Types.generifyWithBoundsFrom(generifiable, visitorTypeParameter.name(), visitorTypeParameter));
+        }
+        result.addAll(Arrays.asList(generifyWithMatchTypeParameters(generifiable)));
+        return result.toArray(new JTypeVar[result.size()]);
+    }
+
+    /**
+     * Narrows class declared with {@link #generify(IJGenerifiable)} method.
+     */
+    private static AbstractJClass narrow(AbstractJClass klass, AbstractJClass[] typeArguments) {
+        List<AbstractJClass> arguments = new ArrayList<AbstractJClass>();
+        for (AbstractJClass typeArgument: typeArguments) {
+            if (typeArgument != null)
+                arguments.add(typeArgument);
+        }
+        return klass.narrow(arguments);
+    }
+
+    AbstractJClass narrow(AbstractJClass[] valueTypeArguments, AbstractJClass[] matchTypeArguments) {
+        List<AbstractJClass> arguments = new ArrayList<AbstractJClass>();
+        arguments.addAll(Arrays.asList(valueTypeArguments));
+        arguments.addAll(Arrays.asList(matchTypeArguments));
+        return narrow(matcherClass, arguments.toArray(new AbstractJClass[arguments.size()]));
+    }
+
+    private void build() throws JClassAlreadyExistsException {
+        JTypeVar[] typeParameters = generify(matcherClass);
+        AbstractJClass usedMatcherType = narrow(matcherClass, typeParameters);
+        int valueTypeParameterCount = visitorInterface.getValueTypeParameters().size();
+        AbstractJClass usedValueClassType = valueClass.narrow(Arrays.copyOf(typeParameters, valueTypeParameterCount, AbstractJClass[].class));
+        JTypeVar contextType = typeParameters[valueTypeParameterCount];
+        JTypeVar resultType = typeParameters[valueTypeParameterCount + 1];
+        JTypeVar exceptionType = typeParameters[valueTypeParameterCount + 2];
+
+        Map<String, AbstractJClass> caseInterfaceTypes = new TreeMap<String, AbstractJClass>();
+        for (JMethod interfaceMethod: visitorInterface.methods()) {
+            JDefinedClass caseInterface = buildCaseInterface(interfaceMethod);
+            AbstractJClass usedCaseInterfaceType = narrow(caseInterface, typeParameters);
+            caseInterfaceTypes.put(interfaceMethod.name(), usedCaseInterfaceType);
+            caseFields.put(interfaceMethod.name(), matcherClass.field(JMod.PRIVATE | JMod.FINAL, usedCaseInterfaceType, interfaceMethod.name()));
+        }
+        Map<String, AbstractJClass> patternInterfaceTypes = new TreeMap<String, AbstractJClass>();
+        for (Map.Entry<String, Pattern> pattern: patterns.entrySet()) {
+            JDefinedClass patternInterface = buildPatternInterface(pattern.getKey(), pattern.getValue(), false);
+            AbstractJClass usedPatternInterfaceType = narrow(patternInterface, typeParameters);
+            patternInterfaceTypes.put(pattern.getKey(), usedPatternInterfaceType);
+            patternFields.put(pattern.getKey(), matcherClass.field(JMod.PRIVATE | JMod.FINAL, usedPatternInterfaceType, pattern.getKey()));
+        }
+        Map<String, AbstractJClass> guardInterfaceTypes = new TreeMap<String, AbstractJClass>();
+        for (Map.Entry<String, Pattern> pattern: patterns.entrySet()) {
+            JDefinedClass guardInterface = buildPatternInterface(pattern.getKey(), pattern.getValue(), true);
+            AbstractJClass usedGuardInterfaceType = narrow(guardInterface, typeParameters);
+            guardInterfaceTypes.put(pattern.getKey(), usedGuardInterfaceType);
+            String guardFieldName = pattern.getKey() + "Guard";
+            while (caseFields.containsKey(guardFieldName) || patternFields.containsKey(guardFieldName) || guardFieldName.equals(OTHERWISE_NAME))
+                guardFieldName = guardFieldName + "_";
+            guardFields.put(pattern.getKey(), matcherClass.field(JMod.PRIVATE | JMod.FINAL, usedGuardInterfaceType, guardFieldName));
+        }
+        AbstractJClass usedOtherwiseType = narrow(buildOtherwiseInterface(), typeParameters);
+        otherwiseField = matcherClass.field(JMod.PRIVATE | JMod.FINAL, usedOtherwiseType, OTHERWISE_NAME);
+
+        JMethod constructor = matcherClass.constructor(JMod.PRIVATE);
+        for (JFieldVar field: allFields()) {
+            JVar param = constructor.param(field.type(), field.name());
+            constructor.body().assign(JExpr.refthis(field), param);
+        }
+
+        for (JMethod interfaceMethod: visitorInterface.methods()) {
+            buildWithMethod(usedMatcherType, interfaceMethod.name(), caseInterfaceTypes.get(interfaceMethod.name()), caseFields.get(interfaceMethod.name()));
+        }
+        for (String patternName: patterns.keySet()) {
+            buildWithMethod(usedMatcherType, patternName, patternInterfaceTypes.get(patternName), patternFields.get(patternName));
+            buildWithGuardMethod(usedMatcherType, patternName, guardInterfaceTypes.get(patternName), patternInterfaceTypes.get(patternName));
+        }
+        buildWithMethod(usedMatcherType, OTHERWISE_NAME, usedOtherwiseType, otherwiseField);
+
+        matchMethod = matcherClass.method(JMod.PUBLIC, resultType, "match");
+        matchMethod.param(usedValueClassType, "value");
+        matchMethod.param(contextType, "context");
+        if (exceptionType != null)
+            matchMethod._throws(exceptionType);
+
+        unmatchedMethod = matcherClass.method(JMod.PRIVATE, resultType, "unmatched");
+        JVar value = unmatchedMethod.param(usedValueClassType, "value");
+        JVar context = unmatchedMethod.param(contextType, "context");
+        if (exceptionType != null)
+            unmatchedMethod._throws(exceptionType);
+        JConditional _if = unmatchedMethod.body()._if(JExpr.refthis(otherwiseField).eq(JExpr._null()));
+        JInvocation exceptionInvocation = JExpr._new(types._IllegalStateException);
+        exceptionInvocation.arg(JExpr.lit("No case matches value: ").plus(value));
+        _if._then()._throw(exceptionInvocation);
+        JInvocation invocation = JExpr.refthis(otherwiseField).invoke(OTHERWISE_NAME);
+        invocation.arg(context);
+        invocation.arg(value);
+        unmatchedMethod.body()._return(invocation);
+    }
+
+    private List<JFieldVar> allFields() {
+        List<JFieldVar> result = new ArrayList<JFieldVar>();
+        for (JMethod interfaceMethod: visitorInterface.methods()) {
+            result.add(caseFields.get(interfaceMethod.name()));
+        }
+        for (String patternName: patterns.keySet()) {
+            result.add(patternFields.get(patternName));
+        }
+        for (String patternName: patterns.keySet()) {
+            result.add(guardFields.get(patternName));
+        }
+        result.add(otherwiseField);
+        return result;
+    }
+
+    /**
+     * Builds method, that returns new matcher, that has all the same handlers, but given field.
+     * Pattern handler set this way has no guard.
+     */
+    private void buildWithMethod(AbstractJClass usedMatcherType, String name, AbstractJClass handlerType, JFieldVar handlerField) {
+        JMethod method = matcherClass.method(JMod.PUBLIC, usedMatcherType, name);
+        JVar handler = method.param(handlerType, name);
+        JFieldVar guardField = guardFields.get(name);
+        JInvocation invocation = JExpr._new(usedMatcherType);
+        for (JFieldVar field: allFields()) {
+            if (field == handlerField)
+                invocation.arg(handler);
+            else if (handlerField == patternFields.get(name) && field == guardField)
+                invocation.arg(JExpr._null());
+            else
+                invocation.arg(JExpr.refthis(field));
+        }
+        method.body()._return(invocation);
+    }
+
+    /**
+     * Builds method, that returns new matcher, that has all the same handlers, but given pattern's guard and handler.
+     */
+    private void buildWithGuardMethod(AbstractJClass usedMatcherType, String patternName, AbstractJClass guardType, AbstractJClass handlerType) {
+        JMethod method = matcherClass.method(JMod.PUBLIC, usedMatcherType, patternName);
+        VariableNameSource nameSource = new VariableNameSource();
+        JVar guard = method.param(guardType, nameSource.get("guard"));
+        JVar handler = method.param(handlerType, nameSource.get(patternName));
+        JInvocation invocation = JExpr._new(usedMatcherType);
+        for (JFieldVar field: allFields()) {
+            if (field == patternFields.get(patternName))
+                invocation.arg(handler);
+            else if (field == guardFields.get(patternName))
+                invocation.arg(guard);
+            else
+                invocation.arg(JExpr.refthis(field));
+        }
+        method.body()._return(invocation);
+    }
+
+    private JDefinedClass buildCaseInterface(JMethod interfaceMethod) throws JClassAlreadyExistsException {
+        JDefinedClass caseInterface = matcherClass._class(JMod.PUBLIC, Source.capitalize(interfaceMethod.name()) + "Case", EClassType.INTERFACE);
+        JTypeVar[] typeParameters = generify(caseInterface);
+        int valueTypeParameterCount = visitorInterface.getValueTypeParameters().size();
+        AbstractJClass usedValueClassType = valueClass.narrow(Arrays.copyOf(typeParameters, valueTypeParameterCount, AbstractJClass[].class));
+        JTypeVar contextType = typeParameters[valueTypeParameterCount];
+        JTypeVar resultType = typeParameters[valueTypeParameterCount + 1];
+        JTypeVar exceptionType = typeParameters[valueTypeParameterCount + 2];
+
+        VariableNameSource nameSource = new VariableNameSource();
+        for (JVar param: interfaceMethod.params())
+            nameSource.get(param.name());
+        if (interfaceMethod.hasVarArgs())
+            nameSource.get(interfaceMethod.listVarParam().name());
+
+        JMethod method = caseInterface.method(JMod.NONE, resultType, interfaceMethod.name());
+        method.param(contextType, nameSource.get("context"));
+        for (JVar param: interfaceMethod.params()) {
+            AbstractJType paramType = Source.toDeclarable(visitorInterface.narrowType(param.type(), usedValueClassType, usedValueClassType, types._RuntimeException));
+            method.param(param.mods().getValue(), paramType, param.name());
+        }
+        JVar param = interfaceMethod.listVarParam();
+        if (param != null) {
+            AbstractJType paramType = Source.toDeclarable(visitorInterface.narrowType(param.type().elementType(), usedValueClassType, usedValueClassType, types._RuntimeException));
+            method.varParam(param.mods().getValue(), paramType, param.name());
+        }
+        if (exceptionType != null)
+            method._throws(exceptionType);
+        return caseInterface;
+    }
+
+    /**
+     * Builds handler interface of given pattern, or guard interface, that receives the same arguments.
+     */
+    private JDefinedClass buildPatternInterface(String patternName, Pattern pattern, boolean isGuard) throws JClassAlreadyExistsException {
+        String suffix = isGuard ? "Guard" : "Pattern";
+        JDefinedClass patternInterface = matcherClass._class(JMod.PUBLIC, Source.capitalize(patternName) + suffix, EClassType.INTERFACE);
+        JTypeVar[] typeParameters = generify(patternInterface);
+        int valueTypeParameterCount = visitorInterface.getValueTypeParameters().size();
+        AbstractJClass usedValueClassType = valueClass.narrow(Arrays.copyOf(typeParameters, valueTypeParameterCount, AbstractJClass[].class));
+        JTypeVar contextType = typeParameters[valueTypeParameterCount];
+        JTypeVar resultType = typeParameters[valueTypeParameterCount + 1];
+        JTypeVar exceptionType = typeParameters[valueTypeParameterCount + 2];
+
+        List<String> bindingNames = pattern.bindingNames();
+        List<JVar> bindingParams = pattern.bindingParams();
+        VariableNameSource nameSource = new VariableNameSource();
+        for (String bindingName: bindingNames)
+            nameSource.get(bindingName);
+
+        JMethod method = patternInterface.method(JMod.NONE, isGuard ? types._boolean : resultType, patternName);
+        method.param(contextType, nameSource.get("context"));
+        for (int i = 0; i < bindingNames.size(); i++) {
+            JVar param = bindingParams.get(i);
+            AbstractJType paramType = Source.toDeclarable(visitorInterface.narrowType(param.type(), usedValueClassType, usedValueClassType, types._RuntimeException));
+            method.param(paramType, bindingNames.get(i));
+        }
+        if (exceptionType != null)
+            method._throws(exceptionType);
+        return patternInterface;
+    }
+
+    private JDefinedClass buildOtherwiseInterface() throws JClassAlreadyExistsException {
+        JDefinedClass otherwiseInterface = matcherClass._class(JMod.PUBLIC, Source.capitalize(OTHERWISE_NAME), EClassType.INTERFACE);
+        JTypeVar[] typeParameters = generify(otherwiseInterface);
+        int valueTypeParameterCount = visitorInterface.getValueTypeParameters().size();
+        AbstractJClass usedValueClassType = valueClass.narrow(Arrays.copyOf(typeParameters, valueTypeParameterCount, AbstractJClass[].class));
+        JTypeVar exceptionType = typeParameters[valueTypeParameterCount + 2];
+        JMethod method = otherwiseInterface.method(JMod.NONE, typeParameters[valueTypeParameterCount + 1], OTHERWISE_NAME);
+        method.param(typeParameters[valueTypeParameterCount], "context");
+        method.param(usedValueClassType, "value");
+        if (exceptionType != null)
+            method._throws(exceptionType);
+        return otherwiseInterface;
+    }
+
+    /**
+     * Builds factory method of matcher without any handlers.
+     */
+    void buildFactoryMethod() {
+        JMethod method = valueClass.method(JMod.PUBLIC | JMod.STATIC, types._void, FACTORY_METHOD_NAME);
+        JTypeVar[] typeParameters = generify(method);
+        AbstractJClass usedMatcherType = narrow(matcherClass, typeParameters);
+        method.type(usedMatcherType);
+        JInvocation invocation = JExpr._new(usedMatcherType);
+        for (int i = 0; i < allFields().size(); i++) {
+            invocation.arg(JExpr._null());
+        }
+        method.body()._return(invocation);
+    }
+
+    JBlock matchMethodBody() {
+        return matchMethod.body();
+    }
+
+    /**
+     * Handler of given pattern, that is null when not set.
+     */
+    IJExpression patternHandler(IJExpression matcher, String patternName) {
+        return matcher.ref(patternFields.get(patternName));
+    }
+
+    /**
+     * Tests if given pattern is accepted by it's guard, guard is optional.
+     */
+    IJExpression patternGuardCondition(IJExpression matcher, IJExpression context, String patternName, List<IJExpression> bindings) {
+        IJExpression guard = matcher.ref(guardFields.get(patternName));
+        JInvocation invocation = guard.invoke(patternName);
+        invocation.arg(context);
+        for (IJExpression binding: bindings)
+            invocation.arg(binding);
+        return guard.eq(JExpr._null()).cor(invocation);
+    }
+
+    /**
+     * Calls handler of given pattern.
+     */
+    IJExpression patternInvocation(IJExpression matcher, IJExpression context, String patternName, List<IJExpression> bindings) {
+        JInvocation invocation = patternHandler(matcher, patternName).invoke(patternName);
+        invocation.arg(context);
+        for (IJExpression binding: bindings)
+            invocation.arg(binding);
+        return invocation;
+    }
+
+    /**
+     * Calls handler of given case, or otherwise-handler when there is no handler for given case.
+     */
+    IJExpression caseInvocation(IJExpression matcher, IJExpression value, IJExpression context, JMethod interfaceMethod, List<IJExpression> arguments) {
+        JFieldVar field = caseFields.get(interfaceMethod.name());
+        JInvocation handlerInvocation = matcher.ref(field).invoke(interfaceMethod.name());
+        handlerInvocation.arg(context);
+        for (IJExpression argument: arguments)
+            handlerInvocation.arg(argument);
+        JInvocation unmatchedInvocation = matcher.invoke(unmatchedMethod);
+        unmatchedInvocation.arg(value);
+        unmatchedInvocation.arg(context);
+        return JOp.cond(matcher.ref(field).eq(JExpr._null()), unmatchedInvocation, handlerInvocation);
+    }
+}
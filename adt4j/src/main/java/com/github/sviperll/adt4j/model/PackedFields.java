@@ -0,0 +1,201 @@
+/*
+ * Copyright (c) 2015, Victor Nazarov <asviraspossible@gmail.com>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation and/or
+ *     other materials provided with the distribution.
+ *
+ *  3. Neither the name of the copyright holder nor the names of its contributors
+ *     may be used to endorse or promote products derived from this software
+ *     without specific prior written permission.
+ *
+ *  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ *  ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ *  THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ *  IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR
+ *  ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ *  (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ *   LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ *  ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ *  (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+ *  EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.github.sviperll.adt4j.model;
+
+import com.github.sviperll.adt4j.model.util.Types;
+import com.helger.jcodemodel.AbstractJType;
+import com.helger.jcodemodel.IJExpression;
+import com.helger.jcodemodel.JBlock;
+import com.helger.jcodemodel.JDefinedClass;
+import com.helger.jcodemodel.JExpr;
+import com.helger.jcodemodel.JFieldVar;
+import com.helger.jcodemodel.JMod;
+import com.helger.jcodemodel.JOp;
+import com.helger.jcodemodel.JVar;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Layout of small primitive fields of single case class packed into int or long words.
+ * <p>
+ * Fields are allocated in declaration order.
+ * New word is started when field doesn't fit into the rest of current word.
+ * Words of 32 bits or less are declared as int, longer words are declared as long.
+ *
+ * @author Victor Nazarov <asviraspossible@gmail.com>
+ */
+class PackedFields {
+    private static final int WORD_SIZE = 64;
+
+    static boolean isPackable(AbstractJType type) {
+        return bitWidth(type) > 0;
+    }
+
+    private static int bitWidth(AbstractJType type) {
+        if (!type.isPrimitive())
+            return 0;
+        else if (type.fullName().equals("boolean"))
+            return 1;
+        else if (type.fullName().equals("byte"))
+            return 8;
+        else if (type.fullName().equals("char") || type.fullName().equals("short"))
+            return 16;
+        else
+            return 0;
+    }
+
+    private final Types types;
+    private final Map<String, Slot> slots = new TreeMap<String, Slot>();
+    private final List<JVar> arguments = new ArrayList<JVar>();
+    private final List<Integer> wordSizes = new ArrayList<Integer>();
+    private final List<JFieldVar> words = new ArrayList<JFieldVar>();
+
+    PackedFields(Types types) {
+        this.types = types;
+    }
+
+    void add(JVar argument) {
+        int width = bitWidth(argument.type());
+        if (width == 0)
+            throw new IllegalArgumentException("Unable to pack " + argument.name() + " of type " + argument.type().fullName());
+        int word = wordSizes.size() - 1;
+        if (word < 0 || wordSizes.get(word) + width > WORD_SIZE) {
+            wordSizes.add(0);
+            word++;
+        }
+        int offset = wordSizes.get(word);
+        wordSizes.set(word, offset + width);
+        slots.put(argument.name(), new Slot(argument.type(), word, offset));
+        arguments.add(argument);
+    }
+
+    boolean isEmpty() {
+        return arguments.isEmpty();
+    }
+
+    boolean contains(String name) {
+        return slots.containsKey(name);
+    }
+
+    /**
+     * Declares word fields in case class and assigns packed arguments to them in constructor.
+     */
+    void build(JDefinedClass caseClass, JBlock constructorBody) {
+        for (int word = 0; word < wordSizes.size(); word++) {
+            AbstractJType type = isLong(word) ? types._long : types._int;
+            String name = "packedFields" + word;
+            while (caseClass.fields().containsKey(name))
+                name = name + "_";
+            words.add(caseClass.field(JMod.PRIVATE | JMod.FINAL, type, name));
+        }
+        IJExpression[] values = new IJExpression[words.size()];
+        for (JVar argument: arguments) {
+            Slot slot = slots.get(argument.name());
+            IJExpression value = pack(slot, argument);
+            values[slot.word] = values[slot.word] == null ? value : values[slot.word].bor(value);
+        }
+        for (int word = 0; word < words.size(); word++) {
+            constructorBody.assign(JExpr._this().ref(words.get(word)), values[word]);
+        }
+    }
+
+    List<JFieldVar> words() {
+        return Collections.unmodifiableList(words);
+    }
+
+    /**
+     * Index of word, that holds given field.
+     */
+    int word(String name) {
+        return slots.get(name).word;
+    }
+
+    AbstractJType type(String name) {
+        return slots.get(name).type;
+    }
+
+    IJExpression value(String name) {
+        return value(JExpr._this(), name);
+    }
+
+    /**
+     * Value of packed field of given object.
+     */
+    IJExpression value(IJExpression object, String name) {
+        Slot slot = slots.get(name);
+        boolean isLong = isLong(slot.word);
+        IJExpression word = object.ref(words.get(slot.word));
+        if (bitWidth(slot.type) == 1) {
+            IJExpression mask = isLong ? JExpr.lit(1L << slot.offset) : JExpr.lit(1 << slot.offset);
+            return word.band(mask).ne(isLong ? JExpr.lit(0L) : JExpr.lit(0));
+        } else {
+            IJExpression shifted = slot.offset == 0 ? word : word.shrz(JExpr.lit(slot.offset));
+            return JExpr.cast(slot.type, shifted);
+        }
+    }
+
+    private IJExpression pack(Slot slot, JVar argument) {
+        boolean isLong = isLong(slot.word);
+        int width = bitWidth(slot.type);
+        if (width == 1) {
+            if (isLong)
+                return JOp.cond(argument, JExpr.lit(1L << slot.offset), JExpr.lit(0L));
+            else
+                return JOp.cond(argument, JExpr.lit(1 << slot.offset), JExpr.lit(0));
+        } else {
+            IJExpression value = isLong ? JExpr.cast(types._long, argument) : argument;
+            // char is unsigned and needs no mask, byte and short are sign-extended
+            if (!slot.type.fullName().equals("char")) {
+                int mask = (1 << width) - 1;
+                value = value.band(isLong ? JExpr.lit((long)mask) : JExpr.lit(mask));
+            }
+            return slot.offset == 0 ? value : value.shl(JExpr.lit(slot.offset));
+        }
+    }
+
+    private boolean isLong(int word) {
+        return wordSizes.get(word) > 32;
+    }
+
+    private static class Slot {
+        private final AbstractJType type;
+        private final int word;
+        private final int offset;
+
+        Slot(AbstractJType type, int word, int offset) {
+            this.type = type;
+            this.word = word;
+            this.offset = offset;
+        }
+    }
+}
@@ -0,0 +1,437 @@
+/*
+ * Copyright (c) 2015, Victor Nazarov <asviraspossible@gmail.com>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation and/or
+ *     other materials provided with the distribution.
+ *
+ *  3. Neither the name of the copyright holder nor the names of its contributors
+ *     may be used to endorse or promote products derived from this software
+ *     without specific prior written permission.
+ *
+ *  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ *  ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ *  THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ *  IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR
+ *  ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ *  (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ *   LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ *  ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ *  (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+ *  EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.github.sviperll.adt4j.model;
+
+import com.github.sviperll.adt4j.model.util.Source;
+import com.github.sviperll.adt4j.model.util.ValueVisitorInterfaceModel;
+import com.github.sviperll.meta.SourceCodeValidationException;
+import com.helger.jcodemodel.AbstractJType;
+import com.helger.jcodemodel.IJExpression;
+import com.helger.jcodemodel.JExpr;
+import com.helger.jcodemodel.JMethod;
+import com.helger.jcodemodel.JVar;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import javax.lang.model.SourceVersion;
+
+/**
+ * Nested pattern declared with {@link com.github.sviperll.adt4j.GeneratePattern} annotation.
+ * <p>
+ * Pattern is parsed with {@link #parse(String)} method and then resolved against visitor interface
+ * with {@link #resolve(ValueVisitorInterfaceModel)} method.
+ * Unresolved pattern contains identifiers, that are either nullary case patterns or bindings.
+ *
+ * @author Victor Nazarov <asviraspossible@gmail.com>
+ */
+class Pattern {
+    private static final String WILDCARD = "_";
+
+    static Pattern parse(String source) throws SourceCodeValidationException {
+        Parser parser = new Parser(source);
+        Pattern result = parser.parsePattern();
+        parser.skipWhitespace();
+        if (!parser.isAtEnd())
+            throw parser.error("unexpected character");
+        return result;
+    }
+
+    private final Kind kind;
+    private final String name;
+    private final Object literalValue;
+    private final List<Pattern> arguments;
+    private final JMethod caseMethod;
+
+    private Pattern(Kind kind, String name, Object literalValue, List<Pattern> arguments, JMethod caseMethod) {
+        this.kind = kind;
+        this.name = name;
+        this.literalValue = literalValue;
+        this.arguments = arguments;
+        this.caseMethod = caseMethod;
+    }
+
+    boolean isCase() {
+        return kind == Kind.CASE;
+    }
+
+    boolean isBinding() {
+        return kind == Kind.BINDING;
+    }
+
+    boolean isLiteral() {
+        return kind == Kind.LITERAL;
+    }
+
+    String name() {
+        return name;
+    }
+
+    /**
+     * Visitor interface method of case pattern.
+     */
+    JMethod caseMethod() {
+        return caseMethod;
+    }
+
+    List<Pattern> arguments() {
+        return arguments;
+    }
+
+    /**
+     * Condition, that holds when given value is equal to literal.
+     */
+    IJExpression literalCondition(IJExpression value) {
+        if (literalValue instanceof Boolean)
+            return ((Boolean)literalValue).booleanValue() ? value : value.not();
+        else if (literalValue instanceof String)
+            return literal().invoke("equals").arg(value);
+        else
+            return value.eq(literal());
+    }
+
+    /**
+     * Tests if both literals match the same value.
+     * Integer and long literals are compared numerically, since both can be used for long fields.
+     */
+    boolean isSameLiteral(Pattern that) {
+        if (literalValue instanceof Number && that.literalValue instanceof Number)
+            return ((Number)literalValue).longValue() == ((Number)that.literalValue).longValue();
+        else
+            return literalValue.equals(that.literalValue);
+    }
+
+    private IJExpression literal() {
+        if (literalValue instanceof Integer)
+            return JExpr.lit(((Integer)literalValue).intValue());
+        else if (literalValue instanceof Long)
+            return JExpr.lit(((Long)literalValue).longValue());
+        else if (literalValue instanceof Character)
+            return JExpr.lit(((Character)literalValue).charValue());
+        else if (literalValue instanceof Boolean)
+            return JExpr.lit(((Boolean)literalValue).booleanValue());
+        else
+            return JExpr.lit((String)literalValue);
+    }
+
+    /**
+     * Resolves outermost pattern.
+     * Identifiers are resolved to nullary case patterns when there is a case with the same name.
+     */
+    Pattern resolve(ValueVisitorInterfaceModel visitorInterface) throws SourceCodeValidationException {
+        Map<String, JMethod> cases = new TreeMap<String, JMethod>();
+        for (JMethod interfaceMethod: visitorInterface.methods()) {
+            cases.put(interfaceMethod.name(), interfaceMethod);
+        }
+        Pattern result = resolve(visitorInterface, cases);
+        if (!result.isCase())
+            throw new SourceCodeValidationException("Outermost pattern should be case pattern, but " + this + " found");
+        Set<String> bindingNames = new TreeSet<String>();
+        for (String bindingName: result.bindingNames()) {
+            if (!bindingNames.add(bindingName))
+                throw new SourceCodeValidationException("Pattern " + this + " binds " + bindingName + " more than once");
+        }
+        return result;
+    }
+
+    private Pattern resolve(ValueVisitorInterfaceModel visitorInterface, Map<String, JMethod> cases) throws SourceCodeValidationException {
+        if (kind == Kind.LITERAL || kind == Kind.WILDCARD)
+            return this;
+        JMethod interfaceMethod = cases.get(name);
+        if (interfaceMethod == null) {
+            if (kind == Kind.CASE)
+                throw new SourceCodeValidationException("Unknown case in pattern: " + name);
+            else if (SourceVersion.isKeyword(name))
+                throw new SourceCodeValidationException("Unable to bind " + name + ": keyword can't be used as binding name");
+            else
+                return new Pattern(Kind.BINDING, name, null, Collections.<Pattern>emptyList(), null);
+        } else {
+            if (interfaceMethod.hasVarArgs())
+                throw new SourceCodeValidationException("Unable to match " + name + " case with pattern: varargs are not supported");
+            List<JVar> params = interfaceMethod.params();
+            if (params.size() != arguments.size())
+                throw new SourceCodeValidationException("Wrong number of arguments in pattern for " + name + " case: expecting " + params.size() + ", found: " + arguments.size());
+            List<Pattern> resolvedArguments = new ArrayList<Pattern>();
+            for (int i = 0; i < params.size(); i++) {
+                JVar param = params.get(i);
+                Pattern argument = arguments.get(i).resolve(visitorInterface, cases);
+                if (argument.isCase() && !visitorInterface.isSelf(param.type()))
+                    throw new SourceCodeValidationException("Unable to match " + param.name() + " parameter of " + name + " case with case pattern: only self-reference parameters can be matched with case patterns");
+                if (argument.isLiteral() && !argument.isLiteralOfType(param.type()))
+                    throw new SourceCodeValidationException("Unable to match " + param.name() + " parameter of " + name + " case with " + argument + " literal: incompatible type " + param.type().fullName());
+                if (argument.isLiteral() && Source.isNullable(param) && !param.type().isPrimitive())
+                    throw new SourceCodeValidationException("Unable to match nullable " + param.name() + " parameter of " + name + " case with " + argument + " literal");
+                resolvedArguments.add(argument);
+            }
+            return new Pattern(Kind.CASE, name, null, resolvedArguments, interfaceMethod);
+        }
+    }
+
+    private boolean isLiteralOfType(AbstractJType type) {
+        String typeName = type.fullName();
+        if (literalValue instanceof Integer)
+            return typeName.equals("int") || typeName.equals("long") || typeName.equals("short") || typeName.equals("byte");
+        else if (literalValue instanceof Long)
+            return typeName.equals("long");
+        else if (literalValue instanceof Character)
+            return typeName.equals("char");
+        else if (literalValue instanceof Boolean)
+            return typeName.equals("boolean");
+        else
+            return typeName.equals(String.class.getName());
+    }
+
+    /**
+     * Names of bound values from left to right.
+     */
+    List<String> bindingNames() {
+        List<String> result = new ArrayList<String>();
+        collectBindings(result, null);
+        return result;
+    }
+
+    /**
+     * Visitor interface parameters, that bound values are read from, from left to right.
+     */
+    List<JVar> bindingParams() {
+        List<JVar> result = new ArrayList<JVar>();
+        collectBindings(null, result);
+        return result;
+    }
+
+    private void collectBindings(List<String> names, List<JVar> params) {
+        if (kind == Kind.CASE) {
+            for (int i = 0; i < arguments.size(); i++) {
+                Pattern argument = arguments.get(i);
+                if (argument.isBinding()) {
+                    if (names != null)
+                        names.add(argument.name);
+                    if (params != null)
+                        params.add(caseMethod.params().get(i));
+                } else
+                    argument.collectBindings(names, params);
+            }
+        }
+    }
+
+    /**
+     * Tests if every value matched by given pattern is matched by this pattern.
+     */
+    boolean subsumes(Pattern that) {
+        if (kind == Kind.WILDCARD || kind == Kind.BINDING)
+            return true;
+        else if (kind == Kind.LITERAL)
+            return that.kind == Kind.LITERAL && literalValue.equals(that.literalValue);
+        else {
+            if (that.kind != Kind.CASE || !name.equals(that.name))
+                return false;
+            for (int i = 0; i < arguments.size(); i++) {
+                if (!arguments.get(i).subsumes(that.arguments.get(i)))
+                    return false;
+            }
+            return true;
+        }
+    }
+
+    @Override
+    public String toString() {
+        if (kind == Kind.LITERAL) {
+            if (literalValue instanceof Character)
+                return "'" + literalValue + "'";
+            else if (literalValue instanceof String)
+                return "\"" + literalValue + "\"";
+            else if (literalValue instanceof Long)
+                return literalValue + "L";
+            else
+                return literalValue.toString();
+        } else if (kind != Kind.CASE || arguments.isEmpty())
+            return name;
+        else {
+            StringBuilder builder = new StringBuilder();
+            builder.append(name).append("(");
+            for (int i = 0; i < arguments.size(); i++) {
+                if (i > 0)
+                    builder.append(", ");
+                builder.append(arguments.get(i));
+            }
+            builder.append(")");
+            return builder.toString();
+        }
+    }
+
+    private enum Kind {
+        WILDCARD, IDENTIFIER, BINDING, LITERAL, CASE
+    }
+
+    private static class Parser {
+        private final String source;
+        private int position = 0;
+
+        Parser(String source) {
+            this.source = source;
+        }
+
+        SourceCodeValidationException error(String message) {
+            return new SourceCodeValidationException("Unable to parse pattern \"" + source + "\": " + message + " at position " + position);
+        }
+
+        boolean isAtEnd() {
+            return position >= source.length();
+        }
+
+        void skipWhitespace() {
+            while (!isAtEnd() && Character.isWhitespace(source.charAt(position)))
+                position++;
+        }
+
+        Pattern parsePattern() throws SourceCodeValidationException {
+            skipWhitespace();
+            if (isAtEnd())
+                throw error("pattern expected");
+            char c = source.charAt(position);
+            if (c == '\'')
+                return literal(Character.valueOf(parseCharacter()));
+            else if (c == '"')
+                return literal(parseString());
+            else if (c == '-' || Character.isDigit(c))
+                return literal(parseNumber());
+            else if (Character.isJavaIdentifierStart(c)) {
+                String identifier = parseIdentifier();
+                if (identifier.equals(WILDCARD))
+                    return new Pattern(Kind.WILDCARD, identifier, null, Collections.<Pattern>emptyList(), null);
+                else if (identifier.equals("true") || identifier.equals("false"))
+                    return literal(Boolean.valueOf(identifier));
+                skipWhitespace();
+                if (isAtEnd() || source.charAt(position) != '(')
+                    return new Pattern(Kind.IDENTIFIER, identifier, null, Collections.<Pattern>emptyList(), null);
+                position++;
+                List<Pattern> arguments = new ArrayList<Pattern>();
+                skipWhitespace();
+                if (!isAtEnd() && source.charAt(position) == ')') {
+                    position++;
+                } else {
+                    for (;;) {
+                        arguments.add(parsePattern());
+                        skipWhitespace();
+                        if (isAtEnd())
+                            throw error("')' expected");
+                        else if (source.charAt(position) == ')') {
+                            position++;
+                            break;
+                        } else if (source.charAt(position) == ',')
+                            position++;
+                        else
+                            throw error("',' or ')' expected");
+                    }
+                }
+                return new Pattern(Kind.CASE, identifier, null, arguments, null);
+            } else
+                throw error("unexpected character");
+        }
+
+        private Pattern literal(Object value) {
+            return new Pattern(Kind.LITERAL, null, value, Collections.<Pattern>emptyList(), null);
+        }
+
+        private String parseIdentifier() {
+            int start = position;
+            position++;
+            while (!isAtEnd() && Character.isJavaIdentifierPart(source.charAt(position)))
+                position++;
+            return source.substring(start, position);
+        }
+
+        private Object parseNumber() throws SourceCodeValidationException {
+            int start = position;
+            if (source.charAt(position) == '-')
+                position++;
+            while (!isAtEnd() && Character.isDigit(source.charAt(position)))
+                position++;
+            String digits = source.substring(start, position);
+            try {
+                if (!isAtEnd() && (source.charAt(position) == 'L' || source.charAt(position) == 'l')) {
+                    position++;
+                    return Long.valueOf(digits);
+                } else
+                    return Integer.valueOf(digits);
+            } catch (NumberFormatException ex) {
+                throw error("wrong number " + digits);
+            }
+        }
+
+        private char parseCharacter() throws SourceCodeValidationException {
+            position++;
+            char result = parseCharacterContent();
+            if (isAtEnd() || source.charAt(position) != '\'')
+                throw error("closing quote expected");
+            position++;
+            return result;
+        }
+
+        private String parseString() throws SourceCodeValidationException {
+            position++;
+            StringBuilder builder = new StringBuilder();
+            while (!isAtEnd() && source.charAt(position) != '"')
+                builder.append(parseCharacterContent());
+            if (isAtEnd())
+                throw error("closing quote expected");
+            position++;
+            return builder.toString();
+        }
+
+        private char parseCharacterContent() throws SourceCodeValidationException {
+            if (isAtEnd())
+                throw error("character expected");
+            char c = source.charAt(position++);
+            if (c != '\\')
+                return c;
+            if (isAtEnd())
+                throw error("escape sequence expected");
+            char escape = source.charAt(position++);
+            switch (escape) {
+                case 'n':
+                    return '\n';
+                case 't':
+                    return '\t';
+                case 'r':
+                    return '\r';
+                case '\\':
+                case '\'':
+                case '"':
+                    return escape;
+                default:
+                    throw error("unsupported escape sequence");
+            }
+        }
+    }
+}
@@ -0,0 +1,142 @@
+/*
+ * Copyright (c) 2015, Victor Nazarov <asviraspossible@gmail.com>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation and/or
+ *     other materials provided with the distribution.
+ *
+ *  3. Neither the name of the copyright holder nor the names of its contributors
+ *     may be used to endorse or promote products derived from this software
+ *     without specific prior written permission.
+ *
+ *  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ *  ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ *  THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ *  IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR
+ *  ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ *  (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ *   LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ *  ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ *  (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+ *  EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.github.sviperll.adt4j.model;
+
+import com.github.sviperll.adt4j.model.util.Source;
+import com.github.sviperll.meta.SourceCodeValidationException;
+import com.helger.jcodemodel.JMethod;
+import com.helger.jcodemodel.JVar;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Atomic test of a single field of matched value: null check, case check or literal check.
+ * <p>
+ * Field is addressed by path: cases of enclosing case patterns, starting with the outermost one,
+ * and index of the field in every case.
+ *
+ * @author Victor Nazarov <asviraspossible@gmail.com>
+ */
+class PatternCheck {
+    /**
+     * Tests of given resolved case pattern in evaluation order.
+     * Null check and case check of a field always precede tests of it's fields.
+     */
+    static List<PatternCheck> checksOf(Pattern pattern) throws SourceCodeValidationException {
+        List<PatternCheck> result = new ArrayList<PatternCheck>();
+        collectChecks(pattern, new ArrayList<JMethod>(), new ArrayList<Integer>(), result);
+        return result;
+    }
+
+    private static void collectChecks(Pattern pattern, List<JMethod> cases, List<Integer> indexes, List<PatternCheck> result) throws SourceCodeValidationException {
+        JMethod caseMethod = pattern.caseMethod();
+        List<JVar> params = caseMethod.params();
+        for (int i = 0; i < params.size(); i++) {
+            Pattern argument = pattern.arguments().get(i);
+            List<JMethod> fieldCases = new ArrayList<JMethod>(cases);
+            fieldCases.add(caseMethod);
+            List<Integer> fieldIndexes = new ArrayList<Integer>(indexes);
+            fieldIndexes.add(i);
+            if (argument.isLiteral())
+                result.add(new PatternCheck(fieldCases, fieldIndexes, argument, false));
+            else if (argument.isCase()) {
+                if (Source.isNullable(params.get(i)))
+                    result.add(new PatternCheck(fieldCases, fieldIndexes, argument, true));
+                result.add(new PatternCheck(fieldCases, fieldIndexes, argument, false));
+                collectChecks(argument, fieldCases, fieldIndexes, result);
+            }
+        }
+    }
+
+    private final List<JMethod> cases;
+    private final List<Integer> indexes;
+    private final Pattern argument;
+    private final boolean isNullCheck;
+
+    private PatternCheck(List<JMethod> cases, List<Integer> indexes, Pattern argument, boolean isNullCheck) {
+        this.cases = Collections.unmodifiableList(cases);
+        this.indexes = Collections.unmodifiableList(indexes);
+        this.argument = argument;
+        this.isNullCheck = isNullCheck;
+    }
+
+    List<JMethod> cases() {
+        return cases;
+    }
+
+    List<Integer> indexes() {
+        return indexes;
+    }
+
+    /**
+     * Literal or case pattern, that field is tested against.
+     */
+    Pattern argument() {
+        return argument;
+    }
+
+    /**
+     * Whether this test checks that field is not null, not that it matches argument.
+     */
+    boolean isNullCheck() {
+        return isNullCheck;
+    }
+
+    /**
+     * Tests if this test holds exactly when given test holds.
+     */
+    boolean isSameAs(PatternCheck that) {
+        if (!hasSameField(that) || isNullCheck != that.isNullCheck)
+            return false;
+        else if (isNullCheck)
+            return true;
+        else if (argument.isLiteral())
+            return that.argument.isLiteral() && argument.isSameLiteral(that.argument);
+        else
+            return that.argument.isCase() && argument.caseMethod() == that.argument.caseMethod();
+    }
+
+    /**
+     * Tests if this test never holds when given test holds.
+     */
+    boolean contradicts(PatternCheck that) {
+        if (!hasSameField(that) || isNullCheck || that.isNullCheck)
+            return false;
+        else if (argument.isLiteral())
+            return that.argument.isLiteral() && !argument.isSameLiteral(that.argument);
+        else
+            return that.argument.isCase() && argument.caseMethod() != that.argument.caseMethod();
+    }
+
+    private boolean hasSameField(PatternCheck that) {
+        return indexes.equals(that.indexes) && cases.equals(that.cases);
+    }
+}
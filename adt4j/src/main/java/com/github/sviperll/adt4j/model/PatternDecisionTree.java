@@ -0,0 +1,152 @@
+/*
+ * Copyright (c) 2015, Victor Nazarov <asviraspossible@gmail.com>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation and/or
+ *     other materials provided with the distribution.
+ *
+ *  3. Neither the name of the copyright holder nor the names of its contributors
+ *     may be used to endorse or promote products derived from this software
+ *     without specific prior written permission.
+ *
+ *  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ *  ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ *  THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ *  IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR
+ *  ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ *  (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ *   LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ *  ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ *  (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+ *  EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.github.sviperll.adt4j.model;
+
+import com.github.sviperll.meta.SourceCodeValidationException;
+import com.helger.jcodemodel.IJExpression;
+import com.helger.jcodemodel.JBlock;
+import com.helger.jcodemodel.JConditional;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Decision tree, that tries patterns of a single case in declaration order.
+ * <p>
+ * Tree tests the first remaining test of the first remaining pattern.
+ * Consecutive patterns, that require this test, share it:
+ * they are tried inside single conditional statement without this test.
+ * Patterns, that follow, are tried after conditional statement,
+ * or in it's else-branch, when all of them contradict the test.
+ * Every pattern is placed into the tree exactly once,
+ * so size of generated code is linear in the size of patterns.
+ * <p>
+ * Pattern is tried as soon as all it's tests hold.
+ * When pattern's handler is not set or pattern's guard rejects the value,
+ * the rest of the patterns are tried.
+ * When no pattern matches, control falls through the tree.
+ *
+ * @author Victor Nazarov <asviraspossible@gmail.com>
+ */
+class PatternDecisionTree {
+    /**
+     * Builds decision tree for given patterns of a single case, in declaration order.
+     */
+    static void build(JBlock block, Map<String, Pattern> patterns, Generator generator) throws SourceCodeValidationException {
+        List<Candidate> candidates = new ArrayList<Candidate>();
+        for (Map.Entry<String, Pattern> entry: patterns.entrySet()) {
+            candidates.add(new Candidate(entry.getKey(), PatternCheck.checksOf(entry.getValue())));
+        }
+        build(block, candidates, generator);
+    }
+
+    private static void build(JBlock block, List<Candidate> candidates, Generator generator) {
+        int next = 0;
+        while (next < candidates.size() && candidates.get(next).tests.isEmpty()) {
+            generator.appendPattern(block, candidates.get(next).name);
+            next++;
+        }
+        if (next < candidates.size()) {
+            PatternCheck test = candidates.get(next).tests.get(0);
+            List<Candidate> thenCandidates = new ArrayList<Candidate>();
+            while (next < candidates.size() && candidates.get(next).requires(test)) {
+                thenCandidates.add(candidates.get(next).withHolding(test));
+                next++;
+            }
+            List<Candidate> rest = candidates.subList(next, candidates.size());
+            JConditional _if = block._if(generator.condition(test));
+            build(_if._then(), thenCandidates, generator);
+            if (!rest.isEmpty()) {
+                if (contradictAll(rest, test))
+                    build(_if._else(), rest, generator);
+                else
+                    build(block, rest, generator);
+            }
+        }
+    }
+
+    private static boolean contradictAll(List<Candidate> candidates, PatternCheck test) {
+        for (Candidate candidate: candidates) {
+            if (!candidate.contradicts(test))
+                return false;
+        }
+        return true;
+    }
+
+    private PatternDecisionTree() {
+    }
+
+    interface Generator {
+        IJExpression condition(PatternCheck test);
+
+        /**
+         * Tries pattern with given name, that is known to match.
+         */
+        void appendPattern(JBlock block, String patternName);
+    }
+
+    private static class Candidate {
+        private final String name;
+        private final List<PatternCheck> tests;
+
+        Candidate(String name, List<PatternCheck> tests) {
+            this.name = name;
+            this.tests = tests;
+        }
+
+        boolean requires(PatternCheck test) {
+            for (PatternCheck candidateTest: tests) {
+                if (candidateTest.isSameAs(test))
+                    return true;
+            }
+            return false;
+        }
+
+        boolean contradicts(PatternCheck test) {
+            for (PatternCheck candidateTest: tests) {
+                if (candidateTest.contradicts(test))
+                    return true;
+            }
+            return false;
+        }
+
+        /**
+         * Remaining tests, when given test is known to hold.
+         */
+        Candidate withHolding(PatternCheck test) {
+            List<PatternCheck> remaining = new ArrayList<PatternCheck>();
+            for (PatternCheck candidateTest: tests) {
+                if (!candidateTest.isSameAs(test))
+                    remaining.add(candidateTest);
+            }
+            return new Candidate(name, remaining);
+        }
+    }
+}
@@ -0,0 +1,104 @@
+/*
+ * Copyright (c) 2015, Victor Nazarov <asviraspossible@gmail.com>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation and/or
+ *     other materials provided with the distribution.
+ *
+ *  3. Neither the name of the copyright holder nor the names of its contributors
+ *     may be used to endorse or promote products derived from this software
+ *     without specific prior written permission.
+ *
+ *  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ *  ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ *  THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ *  IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR
+ *  ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ *  (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ *   LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ *  ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ *  (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+ *  EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.github.sviperll.adt4j.model;
+
+import com.github.sviperll.adt4j.GeneratePattern;
+import com.github.sviperll.adt4j.GeneratePatterns;
+import com.github.sviperll.adt4j.model.util.Source;
+import com.github.sviperll.adt4j.model.util.ValueVisitorInterfaceModel;
+import com.github.sviperll.meta.SourceCodeValidationException;
+import com.helger.jcodemodel.JAnnotationArrayMember;
+import com.helger.jcodemodel.JAnnotationUse;
+import com.helger.jcodemodel.JMethod;
+import java.text.MessageFormat;
+import java.util.Collection;
+import java.util.Map;
+import javax.lang.model.SourceVersion;
+
+/**
+ * Reads patterns in declaration order.
+ *
+ * @author Victor Nazarov <asviraspossible@gmail.com>
+ */
+class PatternsReader {
+    private final ValueVisitorInterfaceModel visitorInterface;
+    private final Map<String, Pattern> patterns;
+
+    PatternsReader(ValueVisitorInterfaceModel visitorInterface, Map<String, Pattern> patterns) {
+        this.visitorInterface = visitorInterface;
+        this.patterns = patterns;
+    }
+
+    private void read(JMethod interfaceMethod, String patternName, String source) throws SourceCodeValidationException {
+        if (!SourceVersion.isName(patternName))
+            throw new SourceCodeValidationException(MessageFormat.format("Unable to generate {0} pattern: name is not valid Java identifier",
+                                                                         patternName));
+        if (patterns.containsKey(patternName))
+            throw new SourceCodeValidationException(MessageFormat.format("Unable to generate {0} pattern: pattern with the same name is already defined",
+                                                                         patternName));
+        if (patternName.equals(MatcherClass.OTHERWISE_NAME) || patternName.equals(MatcherClass.FACTORY_METHOD_NAME))
+            throw new SourceCodeValidationException(MessageFormat.format("Unable to generate {0} pattern: name clashes with generated matcher method",
+                                                                         patternName));
+        for (JMethod caseMethod: visitorInterface.methods()) {
+            if (caseMethod.name().equals(patternName))
+                throw new SourceCodeValidationException(MessageFormat.format("Unable to generate {0} pattern: name clashes with case name",
+                                                                             patternName));
+        }
+        Pattern pattern = Pattern.parse(source).resolve(visitorInterface);
+        if (pattern.caseMethod() != interfaceMethod)
+            throw new SourceCodeValidationException(MessageFormat.format("Unable to generate {0} pattern: outermost pattern should match {1} case, but {2} found",
+                                                                         patternName, interfaceMethod.name(), pattern));
+        for (Map.Entry<String, Pattern> entry: patterns.entrySet()) {
+            if (entry.getValue().subsumes(pattern))
+                throw new SourceCodeValidationException(MessageFormat.format("Unable to generate {0} pattern: {1} is unreachable, since it is matched by previously declared {2} pattern: {3}",
+                                                                             patternName, pattern, entry.getKey(), entry.getValue()));
+        }
+        patterns.put(patternName, pattern);
+    }
+
+    void read(JMethod interfaceMethod, JAnnotationUse annotationUsage) throws SourceCodeValidationException {
+        String annotationClassName = annotationUsage.getAnnotationClass().fullName();
+        if (annotationClassName != null) {
+            if (annotationClassName.equals(GeneratePattern.class.getName())) {
+                String patternName = Source.getAnnotationArgument(annotationUsage, "name", String.class);
+                String source = Source.getAnnotationArgument(annotationUsage, "pattern", String.class);
+                read(interfaceMethod, patternName, source);
+            } else if (annotationClassName.equals(GeneratePatterns.class.getName())) {
+                JAnnotationArrayMember values = (JAnnotationArrayMember)annotationUsage.getParam("value");
+                if (values != null && values.size() > 0) {
+                    Collection<JAnnotationUse> annotations = values.annotations();
+                    for (JAnnotationUse annotation: annotations) {
+                        read(interfaceMethod, annotation);
+                    }
+                }
+            }
+        }
+    }
+}
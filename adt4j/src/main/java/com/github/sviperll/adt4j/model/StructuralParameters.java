@@ -0,0 +1,92 @@
+/*
+ * Copyright (c) 2015, Victor Nazarov <asviraspossible@gmail.com>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation and/or
+ *     other materials provided with the distribution.
+ *
+ *  3. Neither the name of the copyright holder nor the names of its contributors
+ *     may be used to endorse or promote products derived from this software
+ *     without specific prior written permission.
+ *
+ *  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ *  ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ *  THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ *  IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR
+ *  ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ *  (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ *   LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ *  ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ *  (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+ *  EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.github.sviperll.adt4j.model;
+
+import com.github.sviperll.adt4j.ArrayField;
+import com.github.sviperll.adt4j.ArrayStrategy;
+import com.github.sviperll.adt4j.EqualsPriority;
+import com.github.sviperll.adt4j.ExcludeFromEquality;
+import com.github.sviperll.adt4j.model.util.Source;
+import com.github.sviperll.meta.SourceCodeValidationException;
+import com.helger.jcodemodel.JAnnotationUse;
+import com.helger.jcodemodel.JVar;
+import java.text.MessageFormat;
+
+/**
+ * Reads visitor method parameter annotations that affect equals, hashCode and compareTo methods.
+ *
+ * @author Victor Nazarov <asviraspossible@gmail.com>
+ */
+class StructuralParameters {
+    static boolean isExcluded(JVar param) throws SourceCodeValidationException {
+        boolean isExcluded = false;
+        boolean hasArrayStrategy = false;
+        for (JAnnotationUse annotationUsage: param.annotations()) {
+            String annotationClassName = annotationUsage.getAnnotationClass().fullName();
+            if (annotationClassName != null && annotationClassName.equals(ExcludeFromEquality.class.getName()))
+                isExcluded = true;
+            if (annotationClassName != null && annotationClassName.equals(ArrayField.class.getName()))
+                hasArrayStrategy = true;
+        }
+        if (isExcluded && hasArrayStrategy)
+            throw new SourceCodeValidationException(MessageFormat.format("Parameter {0} is excluded from equality with @ExcludeFromEquality, but has equality strategy set with @ArrayField",
+                                                                         param.name()));
+        return isExcluded;
+    }
+
+    static boolean hasEqualsPriority(JVar param) throws SourceCodeValidationException {
+        for (JAnnotationUse annotationUsage: param.annotations()) {
+            String annotationClassName = annotationUsage.getAnnotationClass().fullName();
+            if (annotationClassName != null && annotationClassName.equals(EqualsPriority.class.getName())) {
+                if (isExcluded(param))
+                    throw new SourceCodeValidationException(MessageFormat.format("Parameter {0} is excluded from equality with @ExcludeFromEquality, but annotated with @EqualsPriority",
+                                                                                 param.name()));
+                return true;
+            }
+        }
+        return false;
+    }
+
+    static ArrayStrategy arrayStrategy(JVar param) throws SourceCodeValidationException {
+        for (JAnnotationUse annotationUsage: param.annotations()) {
+            String annotationClassName = annotationUsage.getAnnotationClass().fullName();
+            if (annotationClassName != null && annotationClassName.equals(ArrayField.class.getName())) {
+                if (!param.type().isArray())
+                    throw new SourceCodeValidationException(MessageFormat.format("Parameter {0} is not an array, but annotated with @ArrayField",
+                                                                                 param.name()));
+                return Source.getAnnotationArgument(annotationUsage, "strategy", ArrayStrategy.class);
+            }
+        }
+        return ArrayStrategy.ELEMENTS;
+    }
+
+    private StructuralParameters() {
+    }
+}
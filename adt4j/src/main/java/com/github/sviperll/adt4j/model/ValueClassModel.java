@@ -30,6 +30,8 @@
 package com.github.sviperll.adt4j.model;
 
 import com.github.sviperll.Caching;
+import com.github.sviperll.adt4j.ArrayStrategy;
+import com.github.sviperll.adt4j.HashCodeAlgorithm;
 import com.github.sviperll.adt4j.model.util.Serialization;
 import com.github.sviperll.adt4j.model.util.Source;
 import com.github.sviperll.adt4j.model.util.Types;
@@ -46,36 +48,111 @@ import com.helger.jcodemodel.JBlock;
 import com.helger.jcodemodel.JClassAlreadyExistsException;
 import com.helger.jcodemodel.JConditional;
 import com.helger.jcodemodel.JDefinedClass;
+import com.helger.jcodemodel.JEnumConstant;
 import com.helger.jcodemodel.JExpr;
 import com.helger.jcodemodel.JFieldRef;
 import com.helger.jcodemodel.JFieldVar;
+import com.helger.jcodemodel.JForEach;
+import com.helger.jcodemodel.JForLoop;
 import com.helger.jcodemodel.JInvocation;
 import com.helger.jcodemodel.JMethod;
 import com.helger.jcodemodel.JMod;
 import com.helger.jcodemodel.JOp;
+import com.helger.jcodemodel.JPrimitiveType;
+import com.helger.jcodemodel.JSwitch;
 import com.helger.jcodemodel.JTypeVar;
 import com.helger.jcodemodel.JVar;
+import com.helger.jcodemodel.JWhileLoop;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 import java.text.MessageFormat;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
+import java.util.Set;
 import java.util.TreeMap;
+import java.util.TreeSet;
 
 class ValueClassModel {
+    static final String TRANSFORMER_CLASS_NAME = "Transformer";
+    static final String FOLD_METHOD_NAME = "fold";
+    static final String MEMOIZED_FOLD_METHOD_NAME = "memoizedFold";
+    static final String PARALLEL_FOLD_TASK_CLASS_NAME = "ParallelFoldTask";
+    static final String ITERATOR_CLASS_NAME = "ElementIterator";
+    static final String MAPPER_CLASS_NAME = "Mapper";
+    static final String THUNK_CLASS_NAME = "Thunk";
+
+    static String mapMethodName(String typeParameterName) {
+        return "map" + Source.capitalize(typeParameterName);
+    }
+
+    /**
+     * Name of static factory method, that accepts thunks for lazy fields of given case.
+     */
+    static String lazyConstructorMethodName(String caseName) {
+        return "lazy" + Source.capitalize(caseName);
+    }
+
+    /**
+     * Names of methods generated for list-shaped value classes.
+     */
+    static List<String> iterableMethodNames() {
+        return Arrays.asList("iterator", "fromArray", "fromIterable");
+    }
+
+    /**
+     * Name of nested algebra interface for fold method specialized for given primitive type.
+     */
+    static String primitiveFoldAlgebraClassName(String primitiveTypeName) {
+        return Source.capitalize(primitiveTypeName) + "Algebra";
+    }
+
+    /**
+     * Primitive types, that fold method is specialized for.
+     */
+    static List<String> primitiveFoldTypeNames() {
+        return Arrays.asList("int", "long", "double");
+    }
+
     private final JDefinedClass valueClass;
     private final JDefinedClass acceptingInterface;
     private final ValueVisitorInterfaceModel visitorInterface;
     private final Types types;
-
-    ValueClassModel(JDefinedClass valueClass, JDefinedClass acceptingInterface, ValueVisitorInterfaceModel visitorInterface, Types modelTypes) {
+    private final Map<String, FieldConfiguration> commonFields = new TreeMap<String, FieldConfiguration>();
+    private final Map<String, JFieldVar> commonFieldVars = new TreeMap<String, JFieldVar>();
+    private final Map<String, PackedFields> packedFields = new TreeMap<String, PackedFields>();
+    private final Map<String, InlineVarArgs> inlineVarArgs = new TreeMap<String, InlineVarArgs>();
+    private final Map<String, LazyFields> lazyFields = new TreeMap<String, LazyFields>();
+    private final Map<String, JEnumConstant> enumConstants = new TreeMap<String, JEnumConstant>();
+    private JMethod acceptorConstructor = null;
+    private JDefinedClass thunkInterface = null;
+    private JFieldVar tagField = null;
+
+    /**
+     * Class with shared helper methods from adt4j-runtime or null when generated class should be standalone.
+     */
+    @Nullable
+    private final AbstractJClass runtimeSupport;
+
+    /**
+     * Classes of fields, that are fingerprinted with their own fingerprint64 method.
+     */
+    private final Set<String> fingerprintedClassNames;
+
+    ValueClassModel(JDefinedClass valueClass, JDefinedClass acceptingInterface, ValueVisitorInterfaceModel visitorInterface, Types modelTypes, @Nullable AbstractJClass runtimeSupport, Set<String> fingerprintedClassNames) {
         this.valueClass = valueClass;
         this.acceptingInterface = acceptingInterface;
         this.visitorInterface = visitorInterface;
         this.types = modelTypes;
+        this.runtimeSupport = runtimeSupport;
+        this.fingerprintedClassNames = fingerprintedClassNames;
     }
 
     JDefinedClass getJDefinedClass() {
@@ -86,16 +163,67 @@ class ValueClassModel {
         return Source.decapitalize(valueClass.name()) + "HashCode";
     }
 
-    MethodBuilder createMethodBuilder(Serialization serialization) throws JClassAlreadyExistsException {
+    String fingerprintAcceptorMethodName() {
+        return Source.decapitalize(valueClass.name()) + "Fingerprint64";
+    }
+
+    String matchAcceptorMethodName() {
+        return Source.decapitalize(valueClass.name()) + "Match";
+    }
+
+    String pushChildrenAcceptorMethodName() {
+        return Source.decapitalize(valueClass.name()) + "PushChildren";
+    }
+
+    String withChildrenAcceptorMethodName() {
+        return Source.decapitalize(valueClass.name()) + "WithChildren";
+    }
+
+    String childCountAcceptorMethodName() {
+        return Source.decapitalize(valueClass.name()) + "ChildCount";
+    }
+
+    String caseNameAcceptorMethodName() {
+        return Source.decapitalize(valueClass.name()) + "CaseName";
+    }
+
+    String foldAcceptorMethodName() {
+        return Source.decapitalize(valueClass.name()) + "Fold";
+    }
+
+    String headAcceptorMethodName() {
+        return Source.decapitalize(valueClass.name()) + "Head";
+    }
+
+    String tailAcceptorMethodName() {
+        return Source.decapitalize(valueClass.name()) + "Tail";
+    }
+
+    String mapAcceptorMethodName(JTypeVar typeParameter) {
+        return Source.decapitalize(valueClass.name()) + "Map" + Source.capitalize(typeParameter.name());
+    }
+
+    String primitiveFoldAcceptorMethodName(JPrimitiveType type) {
+        return Source.decapitalize(valueClass.name()) + "FoldTo" + Source.capitalize(type.name());
+    }
+
+    MethodBuilder createMethodBuilder(Serialization serialization) throws JClassAlreadyExistsException, SourceCodeValidationException {
         JFieldVar acceptorField = buildAcceptorField();
-        Map<String, JDefinedClass> caseClasses = buildCaseClasses(serialization);
+        buildCommonFields();
+        Map<String, JDefinedClass> caseClasses;
+        if (isEnumBacked()) {
+            buildEnumConstants();
+            caseClasses = Collections.emptyMap();
+        } else if (isTaggedUnion()) {
+            buildTaggedUnionFields();
+            caseClasses = Collections.emptyMap();
+        } else
+            caseClasses = buildCaseClasses(serialization);
         Caching hashCode = visitorInterface.hashCodeCaching();
-        if (!hashCode.enabled())
-            return new MethodBuilder(caseClasses, acceptorField);
-        else {
-            JFieldVar hashCodeField = buildHashCodeCachedValueField(serialization);
-            return new MethodBuilder(caseClasses, acceptorField, hashCodeField);
-        }
+        JFieldVar hashCodeField = !hashCode.enabled() ? null : buildHashCodeCachedValueField(serialization);
+        Caching fingerprint = visitorInterface.fingerprintCaching();
+        JFieldVar fingerprintField = !fingerprint.enabled() ? null : buildFingerprintCachedValueField(serialization);
+        return new MethodBuilder(caseClasses, acceptorField, hashCodeField, fingerprintField);
     }
 
     private JFieldVar buildAcceptorField() {
@@ -103,10 +231,153 @@ class ValueClassModel {
         return valueClass.field(JMod.PRIVATE | JMod.FINAL, usedAcceptingInterfaceType, "acceptor");
     }
 
+    /**
+     * Fields that have getter in every case are stored in acceptor base class.
+     * Getters for such fields read field directly instead of dispatching to case classes.
+     */
+    private void buildCommonFields() throws SourceCodeValidationException {
+        Collection<JMethod> interfaceMethods = visitorInterface.methods();
+        if (interfaceMethods.isEmpty())
+            return;
+        JMethod interfaceMethod = interfaceMethods.iterator().next();
+        for (FieldConfiguration configuration: getGettersConfigutation().values()) {
+            if (!configuration.isVarArg()
+                    && !(visitorInterface.packPrimitiveFields() && PackedFields.isPackable(configuration.type()))
+                    && configuration.isDefinedForAll(interfaceMethods)
+                    && !isLazyInSomeCase(configuration)
+                    && !isCommonFieldNameClashing(configuration, configuration.paramName(interfaceMethod)))
+                commonFields.put(configuration.name(), configuration);
+        }
+        if (!commonFields.isEmpty()) {
+            AbstractJClass usedValueClassType = valueClass.narrow(acceptingInterface.typeParams());
+            JMethod constructor = acceptingInterface.constructor(JMod.NONE);
+            acceptorConstructor = constructor;
+            for (FieldConfiguration configuration: commonFields.values()) {
+                String fieldName = configuration.paramName(interfaceMethod);
+                for (JVar param: interfaceMethod.params()) {
+                    if (param.name().equals(fieldName)) {
+                        AbstractJType paramType = Source.toDeclarable(visitorInterface.narrowType(param.type(), usedValueClassType, usedValueClassType, types._RuntimeException));
+                        JFieldVar field = acceptingInterface.field(JMod.FINAL, paramType, fieldName);
+                        JVar argument = constructor.param(paramType, fieldName);
+                        constructor.body().assign(JExpr._this().ref(field), argument);
+                        commonFieldVars.put(configuration.name(), field);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Lazy fields are stored in case classes along with their thunks.
+     */
+    private boolean isLazyInSomeCase(FieldConfiguration configuration) {
+        for (JMethod interfaceMethod: visitorInterface.methods()) {
+            for (JVar param: interfaceMethod.params()) {
+                if (param.name().equals(configuration.paramName(interfaceMethod)) && LazyFields.isLazy(param))
+                    return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Common field would be shadowed by some case class field with the same name.
+     */
+    private boolean isCommonFieldNameClashing(FieldConfiguration configuration, String fieldName) {
+        for (JMethod interfaceMethod: visitorInterface.methods()) {
+            List<JVar> params = new ArrayList<JVar>(interfaceMethod.params());
+            JVar varParam = interfaceMethod.listVarParam();
+            if (varParam != null)
+                params.add(varParam);
+            for (JVar param: params) {
+                if (param.name().equals(fieldName) && !configuration.isFieldValue(interfaceMethod, param.name()))
+                    return true;
+            }
+        }
+        return false;
+    }
+
+    @Nullable
+    private FieldConfiguration commonFieldConfiguration(JMethod interfaceMethod, String paramName) {
+        for (FieldConfiguration configuration: commonFields.values()) {
+            if (configuration.isFieldValue(interfaceMethod, paramName))
+                return configuration;
+        }
+        return null;
+    }
+
+    private JFieldVar caseField(JDefinedClass caseClass, JMethod interfaceMethod, String paramName) {
+        FieldConfiguration configuration = commonFieldConfiguration(interfaceMethod, paramName);
+        if (configuration == null && isTaggedUnion())
+            return acceptingInterface.fields().get(taggedUnionFieldName(interfaceMethod, paramName));
+        else if (configuration == null)
+            return caseClass.fields().get(paramName);
+        else
+            return commonFieldVars.get(configuration.name());
+    }
+
+    @Nullable
+    private InlineVarArgs inlineVarArgs(JMethod interfaceMethod, String paramName) {
+        JVar varParam = interfaceMethod.listVarParam();
+        if (varParam == null || !varParam.name().equals(paramName))
+            return null;
+        else
+            return inlineVarArgs.get(interfaceMethod.name());
+    }
+
+    private AbstractJType caseFieldType(JDefinedClass caseClass, JMethod interfaceMethod, String paramName) {
+        PackedFields packing = packedFields.get(interfaceMethod.name());
+        InlineVarArgs inline = inlineVarArgs(interfaceMethod, paramName);
+        if (packing != null && packing.contains(paramName))
+            return packing.type(paramName);
+        else if (inline != null)
+            return inline.elementType().array();
+        else
+            return caseField(caseClass, interfaceMethod, paramName).type();
+    }
+
+    private IJExpression caseFieldValue(JDefinedClass caseClass, JMethod interfaceMethod, String paramName) {
+        PackedFields packing = packedFields.get(interfaceMethod.name());
+        InlineVarArgs inline = inlineVarArgs(interfaceMethod, paramName);
+        LazyFields lazy = lazyFields.get(interfaceMethod.name());
+        if (packing != null && packing.contains(paramName))
+            return packing.value(paramName);
+        else if (lazy != null && lazy.contains(paramName))
+            return lazy.value(paramName);
+        else if (inline != null)
+            return inline.value();
+        else
+            return JExpr.refthis(caseField(caseClass, interfaceMethod, paramName));
+    }
+
+    /**
+     * Value of case field of given acceptor object.
+     * Inline varargs are not supported.
+     */
+    private IJExpression caseFieldValue(IJExpression acceptor, JDefinedClass caseClass, JMethod interfaceMethod, String paramName) {
+        PackedFields packing = packedFields.get(interfaceMethod.name());
+        LazyFields lazy = lazyFields.get(interfaceMethod.name());
+        if (packing != null && packing.contains(paramName))
+            return packing.value(acceptor, paramName);
+        else if (lazy != null && lazy.contains(paramName))
+            return lazy.value(acceptor, paramName);
+        else
+            return acceptor.ref(caseField(caseClass, interfaceMethod, paramName));
+    }
+
     JMethod buildFactory(Map<String, JMethod> constructorMethods) throws JClassAlreadyExistsException {
         JDefinedClass factory = buildFactoryClass(constructorMethods);
 
-        JFieldVar factoryField = valueClass.field(JMod.PRIVATE | JMod.STATIC | JMod.FINAL, factory, "FACTORY");
+        JFieldVar factoryField;
+        IJExpression factoryInstance;
+        if (visitorInterface.lazyInitialization()) {
+            JDefinedClass holder = buildHolderClass(valueClass.name() + "FactoryHolder");
+            factoryField = holder.field(JMod.STATIC | JMod.FINAL, factory, "FACTORY");
+            factoryInstance = holder.staticRef(factoryField);
+        } else {
+            factoryField = valueClass.field(JMod.PRIVATE | JMod.STATIC | JMod.FINAL, factory, "FACTORY");
+            factoryInstance = factoryField;
+        }
         JAnnotationUse fieldAnnotationUse = factoryField.annotate(SuppressWarnings.class);
         JAnnotationArrayMember paramArray = fieldAnnotationUse.paramArray("value");
         paramArray.param("unchecked");
@@ -122,10 +393,18 @@ class ValueClassModel {
         }
         AbstractJClass usedValueClassType = valueClass.narrow(factoryMethod.typeParams());
         factoryMethod.type(visitorInterface.narrowed(usedValueClassType, usedValueClassType, types._RuntimeException));
-        factoryMethod.body()._return(factoryField);
+        factoryMethod.body()._return(factoryInstance);
         return factoryMethod;
     }
 
+    /**
+     * Initialization-on-demand holder.
+     * Holder class is loaded and initialized only when it's field is accessed for the first time.
+     */
+    private JDefinedClass buildHolderClass(String name) throws JClassAlreadyExistsException {
+        return valueClass._class(JMod.PRIVATE | JMod.STATIC, name);
+    }
+
     private JDefinedClass buildFactoryClass(Map<String, JMethod> constructorMethods) throws JClassAlreadyExistsException {
         JDefinedClass factoryClass = valueClass._class(JMod.PRIVATE | JMod.STATIC, valueClass.name() + "Factory", EClassType.CLASS);
         for (JTypeVar visitorTypeParameter: visitorInterface.getValueTypeParameters()) {
@@ -158,8 +437,185 @@ class ValueClassModel {
         return factoryClass;
     }
 
-    private Map<String, JDefinedClass> buildCaseClasses(Serialization serialization) throws JClassAlreadyExistsException {
+    /**
+     * Acceptor is enum when every case is nullary, see {@link ValueClassModelFactory}.
+     * Every case is represented by enum constant instead of case class.
+     */
+    private boolean isEnumBacked() {
+        return acceptingInterface.getClassType() == EClassType.ENUM;
+    }
+
+    /**
+     * Acceptor is single final class with fields of every case, see {@link ValueClassModelFactory}.
+     */
+    private boolean isTaggedUnion() {
+        return visitorInterface.isTaggedUnion() && !isEnumBacked();
+    }
+
+    private boolean hasCaseClasses() {
+        return !isEnumBacked() && !isTaggedUnion();
+    }
+
+    private void buildEnumConstants() {
+        for (JMethod interfaceMethod: visitorInterface.methods()) {
+            JEnumConstant constant = acceptingInterface.enumConstant(interfaceMethod.name().toUpperCase(Locale.US));
+            enumConstants.put(interfaceMethod.name(), constant);
+        }
+        buildSwitchAcceptMethod();
+    }
+
+    /**
+     * Fields of every case are stored in acceptor itself along with case tag.
+     * Field names are prefixed with case name, so that fields of different cases never clash.
+     */
+    private void buildTaggedUnionFields() throws SourceCodeValidationException {
+        AbstractJClass usedValueClassType = valueClass.narrow(acceptingInterface.typeParams());
+        if (acceptorConstructor == null)
+            acceptorConstructor = acceptingInterface.constructor(JMod.NONE);
+        tagField = buildTaggedUnionField(types._int, "tag");
+        for (JMethod interfaceMethod: visitorInterface.methods()) {
+            for (JVar param: interfaceMethod.params()) {
+                if (commonFieldConfiguration(interfaceMethod, param.name()) == null) {
+                    AbstractJType paramType = Source.toDeclarable(visitorInterface.narrowType(param.type(), usedValueClassType, usedValueClassType, types._RuntimeException));
+                    buildTaggedUnionField(paramType, taggedUnionFieldName(interfaceMethod, param.name()));
+                }
+            }
+            JVar param = interfaceMethod.listVarParam();
+            if (param != null) {
+                AbstractJType paramType = Source.toDeclarable(visitorInterface.narrowType(param.type().elementType(), usedValueClassType, usedValueClassType, types._RuntimeException));
+                buildTaggedUnionField(paramType.array(), taggedUnionFieldName(interfaceMethod, param.name()));
+            }
+        }
+        buildSwitchAcceptMethod();
+    }
+
+    private JFieldVar buildTaggedUnionField(AbstractJType type, String name) throws SourceCodeValidationException {
+        if (acceptingInterface.fields().containsKey(name))
+            throw new SourceCodeValidationException("Value class can't be tagged union: more than one field is named " + name);
+        JFieldVar field = acceptingInterface.field(JMod.PRIVATE | JMod.FINAL, type, name);
+        JVar argument = acceptorConstructor.param(type, name);
+        acceptorConstructor.body().assign(JExpr._this().ref(field), argument);
+        return field;
+    }
+
+    private String taggedUnionFieldName(JMethod interfaceMethod, String paramName) {
+        return interfaceMethod.name() + Source.capitalize(paramName);
+    }
+
+    /**
+     * Tagged union acceptor construction for given case.
+     * Fields of other cases are initialized with default values.
+     */
+    private JInvocation newTaggedUnionAcceptor(JMethod interfaceMethod, AbstractJClass usedAcceptorType) {
+        Map<String, String> caseFieldParams = new TreeMap<String, String>();
+        for (JVar param: interfaceMethod.params())
+            caseFieldParams.put(taggedUnionFieldName(interfaceMethod, param.name()), param.name());
+        JVar varParam = interfaceMethod.listVarParam();
+        if (varParam != null)
+            caseFieldParams.put(taggedUnionFieldName(interfaceMethod, varParam.name()), varParam.name());
+        Map<String, String> commonFieldParams = new TreeMap<String, String>();
+        for (FieldConfiguration configuration: commonFields.values())
+            commonFieldParams.put(commonFieldVars.get(configuration.name()).name(), configuration.paramName(interfaceMethod));
+
+        JInvocation invocation = JExpr._new(usedAcceptorType);
+        for (JVar constructorParam: acceptorConstructor.params()) {
+            String name = constructorParam.name();
+            if (name.equals(tagField.name()))
+                invocation.arg(JExpr.lit(caseTag(interfaceMethod)));
+            else if (commonFieldParams.containsKey(name))
+                invocation.arg(JExpr.ref(commonFieldParams.get(name)));
+            else if (caseFieldParams.containsKey(name))
+                invocation.arg(JExpr.ref(caseFieldParams.get(name)));
+            else if (constructorParam.type().isReference())
+                invocation.arg(JExpr._null());
+            else if (constructorParam.type().equals(types._boolean))
+                invocation.arg(JExpr.FALSE);
+            else if (constructorParam.type().equals(types._byte)
+                    || constructorParam.type().equals(types._short)
+                    || constructorParam.type().equals(types._char))
+                invocation.arg(JExpr.cast(constructorParam.type(), JExpr.lit(0)));
+            else
+                invocation.arg(JExpr.lit(0));
+        }
+        return invocation;
+    }
+
+    private void buildSwitchAcceptMethod() {
+        for (JMethod acceptMethod: acceptingInterface.methods()) {
+            if (acceptMethod.name().equals(visitorInterface.acceptMethodName())) {
+                Map<String, JBlock> caseBodies = buildCaseSwitch(acceptMethod);
+                for (JMethod interfaceMethod: visitorInterface.methods()) {
+                    JInvocation invocation = JExpr.invoke(JExpr.ref("visitor"), interfaceMethod.name());
+                    for (JVar param: interfaceMethod.params()) {
+                        invocation.arg(caseFieldValue(acceptingInterface, interfaceMethod, param.name()));
+                    }
+                    JVar param = interfaceMethod.listVarParam();
+                    if (param != null) {
+                        invocation.arg(caseFieldValue(acceptingInterface, interfaceMethod, param.name()));
+                    }
+                    caseBodies.get(interfaceMethod.name())._return(invocation);
+                }
+            }
+        }
+    }
+
+    /**
+     * Case tag is enum ordinal or tag field value.
+     * Tags are assigned in the order of visitor methods, that is the order used by compareTo.
+     */
+    private int caseTag(JMethod interfaceMethod) {
+        int tag = 0;
+        for (JMethod interfaceMethod1: visitorInterface.methods()) {
+            if (interfaceMethod1 == interfaceMethod)
+                return tag;
+            tag++;
+        }
+        throw new IllegalStateException("Unknown case: " + interfaceMethod.name());
+    }
+
+    private IJExpression caseTag() {
+        return isEnumBacked() ? JExpr.invoke("ordinal") : JExpr.refthis(tagField);
+    }
+
+    private IJExpression isCase(JMethod interfaceMethod) {
+        if (isEnumBacked())
+            return JExpr._this().eq(enumConstants.get(interfaceMethod.name()));
+        else
+            return JExpr.refthis(tagField).eq(JExpr.lit(caseTag(interfaceMethod)));
+    }
+
+    /**
+     * Implements method of enum-backed or tagged union acceptor as switch over case tag.
+     * Such switch is compiled into tableswitch and doesn't require synthetic switch-map class.
+     *
+     * @return block for every case, indexed by case name.
+     */
+    private Map<String, JBlock> buildCaseSwitch(JMethod method) {
+        Map<String, JBlock> result = buildCaseSwitch(method.body(), visitorInterface.methods());
+        throwUnexpectedCase(method.body());
+        return result;
+    }
+
+    private Map<String, JBlock> buildCaseSwitch(JBlock body, Collection<JMethod> cases) {
+        Map<String, JBlock> result = new TreeMap<String, JBlock>();
+        JSwitch _switch = body._switch(caseTag());
+        for (JMethod interfaceMethod: cases) {
+            JBlock caseBody = _switch._case(JExpr.lit(caseTag(interfaceMethod))).body().block();
+            result.put(interfaceMethod.name(), caseBody);
+        }
+        return result;
+    }
+
+    private void throwUnexpectedCase(JBlock body) {
+        JInvocation exceptionInvocation = JExpr._new(types._IllegalStateException);
+        exceptionInvocation.arg(JExpr.lit("Unexpected case: ").plus(caseTag()));
+        body._throw(exceptionInvocation);
+    }
+
+    private Map<String, JDefinedClass> buildCaseClasses(Serialization serialization) throws JClassAlreadyExistsException, SourceCodeValidationException {
         Map<String, JDefinedClass> caseClasses = new TreeMap<String, JDefinedClass>();
+        if (hasLazyFields())
+            thunkInterface = buildThunkInterface();
         for (JMethod interfaceMethod: visitorInterface.methods()) {
             JDefinedClass caseClass = buildCaseClass(interfaceMethod, serialization);
             caseClasses.put(interfaceMethod.name(), caseClass);
@@ -167,7 +623,81 @@ class ValueClassModel {
         return caseClasses;
     }
 
-    private JDefinedClass buildCaseClass(JMethod interfaceMethod, Serialization serialization) throws JClassAlreadyExistsException {
+    private boolean hasLazyFields() {
+        for (JMethod interfaceMethod: visitorInterface.methods()) {
+            for (JVar param: interfaceMethod.params()) {
+                if (LazyFields.isLazy(param))
+                    return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Pending computation of lazy field value.
+     */
+    private JDefinedClass buildThunkInterface() throws JClassAlreadyExistsException {
+        JDefinedClass thunk = valueClass._class(JMod.PUBLIC, THUNK_CLASS_NAME, EClassType.INTERFACE);
+        JTypeVar resultType = thunk.generify("T");
+        thunk.method(JMod.NONE, resultType, "get");
+        return thunk;
+    }
+
+    private void buildArrayHashCodeCachedValueFields(JDefinedClass caseClass, JMethod constructor, JMethod interfaceMethod, Serialization serialization) throws SourceCodeValidationException {
+        List<JVar> cachedParams = new ArrayList<JVar>();
+        for (JVar param: interfaceMethod.params()) {
+            if (StructuralParameters.arrayStrategy(param) == ArrayStrategy.CACHED_CONTENT)
+                cachedParams.add(param);
+        }
+        JVar varParam = interfaceMethod.listVarParam();
+        if (varParam != null && StructuralParameters.arrayStrategy(varParam) == ArrayStrategy.CACHED_CONTENT)
+            cachedParams.add(varParam);
+        if (!cachedParams.isEmpty()) {
+            int mods = serialization.isSerializable() ? JMod.PRIVATE | JMod.TRANSIENT : JMod.PRIVATE | JMod.FINAL;
+            JMethod readObjectMethod = null;
+            if (serialization.isSerializable()) {
+                readObjectMethod = caseClass.method(JMod.PRIVATE, types._void, "readObject");
+                readObjectMethod._throws(types._IOException);
+                readObjectMethod._throws(types._ClassNotFoundException);
+                VariableNameSource variableNameSource = new VariableNameSource();
+                JVar inputStream = readObjectMethod.param(types._ObjectInputStream, variableNameSource.get("input"));
+                readObjectMethod.body().invoke(inputStream, "defaultReadObject");
+            }
+            for (JVar param: cachedParams) {
+                JFieldVar arrayField = caseField(caseClass, interfaceMethod, param.name());
+                JFieldVar field = caseClass.field(mods, types._int, arrayHashCodeCachedValueFieldName(param));
+                constructor.body().assign(JExpr._this().ref(field), arrayContentHashCode(arrayField.type(), JExpr._this().ref(arrayField)));
+                if (readObjectMethod != null)
+                    readObjectMethod.body().assign(JExpr._this().ref(field), arrayContentHashCode(arrayField.type(), JExpr._this().ref(arrayField)));
+            }
+        }
+    }
+
+    private String arrayHashCodeCachedValueFieldName(JVar param) {
+        return param.name() + "HashCodeCachedValue";
+    }
+
+    private IJExpression arrayContentHashCode(AbstractJType type, IJExpression value) {
+        JInvocation invocation = types._Arrays.staticInvoke(type.elementType().isArray() ? "deepHashCode" : "hashCode");
+        invocation.arg(value);
+        return invocation;
+    }
+
+    private IJExpression arrayHashCode(ArrayStrategy strategy, JDefinedClass caseClass, JMethod interfaceMethod, JVar param) {
+        JFieldVar arrayField = caseField(caseClass, interfaceMethod, param.name());
+        if (strategy == ArrayStrategy.IDENTITY) {
+            JInvocation invocation = types._System.staticInvoke("identityHashCode");
+            invocation.arg(JExpr.refthis(arrayField));
+            return invocation;
+        } else if (strategy == ArrayStrategy.CONTENT)
+            return arrayContentHashCode(arrayField.type(), JExpr.refthis(arrayField));
+        else if (strategy == ArrayStrategy.CACHED_CONTENT)
+            return JExpr.refthis(caseClass.fields().get(arrayHashCodeCachedValueFieldName(param)));
+        else
+            throw new IllegalStateException("Unsupported array strategy for hash code: " + strategy);
+    }
+
+    private JDefinedClass buildCaseClass(JMethod interfaceMethod, Serialization serialization) throws JClassAlreadyExistsException, SourceCodeValidationException {
         JDefinedClass caseClass = valueClass._class(JMod.PRIVATE | JMod.STATIC, Source.capitalize(interfaceMethod.name()) + "Case" + acceptingInterface.name());
         for (JTypeVar visitorTypeParameter: acceptingInterface.typeParams()) {
             Types.generifyWithBoundsFrom(caseClass, visitorTypeParameter.name(), visitorTypeParameter);
@@ -175,27 +705,62 @@ class ValueClassModel {
 
         AbstractJClass usedAcceptingInterfaceType = acceptingInterface.narrow(caseClass.typeParams());
         AbstractJClass usedValueClassType = valueClass.narrow(caseClass.typeParams());
-        caseClass._implements(usedAcceptingInterfaceType);
+        caseClass._extends(usedAcceptingInterfaceType);
 
         if (serialization.isSerializable()) {
-            caseClass._implements(types._Serializable);
             caseClass.field(JMod.PRIVATE | JMod.FINAL | JMod.STATIC, types._long, "serialVersionUID", JExpr.lit(serialization.serialVersionUIDForGeneratedCode()));
         }
 
         JMethod constructor = caseClass.constructor(JMod.NONE);
+        JInvocation superInvocation = commonFields.isEmpty() ? null : constructor.body().invoke("super");
+        Map<String, JVar> commonArguments = new TreeMap<String, JVar>();
+        PackedFields packing = new PackedFields(types);
+        LazyFields lazy = thunkInterface == null ? null : new LazyFields(types, thunkInterface);
         for (JVar param: interfaceMethod.params()) {
             AbstractJType paramType = Source.toDeclarable(visitorInterface.narrowType(param.type(), usedValueClassType, usedValueClassType, types._RuntimeException));
-            JFieldVar field = caseClass.field(JMod.PRIVATE | JMod.FINAL, paramType, param.name());
             JVar argument = constructor.param(paramType, param.name());
-            constructor.body().assign(JExpr._this().ref(field), argument);
+            FieldConfiguration commonField = commonFieldConfiguration(interfaceMethod, param.name());
+            if (commonField != null)
+                commonArguments.put(commonField.name(), argument);
+            else if (LazyFields.isLazy(param))
+                lazy.add(caseClass, constructor, argument, Source.isNullable(param), serialization.isSerializable());
+            else if (visitorInterface.packPrimitiveFields() && PackedFields.isPackable(paramType) && !StructuralParameters.isExcluded(param))
+                packing.add(argument);
+            else {
+                JFieldVar field = caseClass.field(JMod.PRIVATE | JMod.FINAL, paramType, param.name());
+                constructor.body().assign(JExpr._this().ref(field), argument);
+            }
+        }
+        if (superInvocation != null) {
+            for (JVar argument: commonArguments.values())
+                superInvocation.arg(argument);
         }
         JVar param = interfaceMethod.listVarParam();
         if (param != null) {
             AbstractJType paramType = Source.toDeclarable(visitorInterface.narrowType(param.type().elementType(), usedValueClassType, usedValueClassType, types._RuntimeException));
-            JFieldVar field = caseClass.field(JMod.PRIVATE | JMod.FINAL, paramType.array(), param.name());
             JVar argument = constructor.varParam(paramType, param.name());
-            constructor.body().assign(JExpr._this().ref(field), argument);
+            if (visitorInterface.inlineVarArgsLimit() > 0
+                    && StructuralParameters.arrayStrategy(param) == ArrayStrategy.ELEMENTS
+                    && !Source.isNullable(param)
+                    && InlineVarArgs.isInlinable(paramType)) {
+                InlineVarArgs inline = new InlineVarArgs(types, visitorInterface.inlineVarArgsLimit(), paramType);
+                inline.build(caseClass, constructor.body(), argument);
+                inlineVarArgs.put(interfaceMethod.name(), inline);
+            } else {
+                JFieldVar field = caseClass.field(JMod.PRIVATE | JMod.FINAL, paramType.array(), param.name());
+                constructor.body().assign(JExpr._this().ref(field), argument);
+            }
+        }
+        if (!packing.isEmpty()) {
+            packing.build(caseClass, constructor.body());
+            packedFields.put(interfaceMethod.name(), packing);
+        }
+        if (lazy != null && !lazy.isEmpty()) {
+            if (serialization.isSerializable())
+                lazy.buildWriteObjectMethod(caseClass);
+            lazyFields.put(interfaceMethod.name(), lazy);
         }
+        buildArrayHashCodeCachedValueFields(caseClass, constructor, interfaceMethod, serialization);
 
         JMethod acceptMethod = caseClass.method(JMod.PUBLIC, types._void, visitorInterface.acceptMethodName());
         acceptMethod.annotate(Override.class);
@@ -215,11 +780,11 @@ class ValueClassModel {
         acceptMethod.param(usedVisitorType, "visitor");
         JInvocation invocation = JExpr.invoke(JExpr.ref("visitor"), interfaceMethod.name());
         for (JVar param1: interfaceMethod.params()) {
-            invocation.arg(JExpr._this().ref(param1.name()));
+            invocation.arg(caseFieldValue(caseClass, interfaceMethod, param1.name()));
         }
         JVar param1 = interfaceMethod.listVarParam();
         if (param1 != null) {
-            invocation.arg(JExpr._this().ref(param1.name()));
+            invocation.arg(caseFieldValue(caseClass, interfaceMethod, param1.name()));
         }
         acceptMethod.body()._return(invocation);
 
@@ -273,6 +838,20 @@ class ValueClassModel {
         return predicates;
     }
 
+    /**
+     * Patterns in declaration order.
+     */
+    Map<String, Pattern> getPatterns() throws SourceCodeValidationException {
+        Map<String, Pattern> patterns = new LinkedHashMap<String, Pattern>();
+        PatternsReader patternsReader = new PatternsReader(visitorInterface, patterns);
+        for (JMethod interfaceMethod: visitorInterface.methods()) {
+            for (JAnnotationUse annotationUsage: interfaceMethod.annotations()) {
+                patternsReader.read(interfaceMethod, annotationUsage);
+            }
+        }
+        return patterns;
+    }
+
     private JFieldVar buildHashCodeCachedValueField(Serialization serialization) {
         if (!visitorInterface.hashCodeCaching().enabled())
             throw new IllegalStateException("Unsupported method evaluation to cache hash code: " + visitorInterface.hashCodeCaching());
@@ -290,19 +869,78 @@ class ValueClassModel {
         }
     }
 
+    private JFieldVar buildFingerprintCachedValueField(Serialization serialization) {
+        if (!visitorInterface.fingerprintCaching().enabled())
+            throw new IllegalStateException("Unsupported method evaluation to cache fingerprint: " + visitorInterface.fingerprintCaching());
+        else {
+            boolean isSerializable = serialization.isSerializable();
+            boolean precomputes = visitorInterface.fingerprintCaching() == Caching.PRECOMPUTE;
+            int mods = JMod.PRIVATE;
+            mods = !isSerializable ? mods : mods | JMod.TRANSIENT;
+            if (!precomputes)
+                return valueClass.field(mods | JMod.VOLATILE, types._long, "fingerprintCachedValue", JExpr.lit(0L));
+            else {
+                mods = isSerializable ? mods : mods | JMod.FINAL;
+                return valueClass.field(mods, types._long, "fingerprintCachedValue");
+            }
+        }
+    }
+
+    /**
+     * Orders fields, so that cheaper comparisons are performed first by equals method.
+     * Sort is stable, fields of the same cost are compared in declaration order.
+     */
+    static List<JVar> sortByEqualsComparisonCost(List<JVar> params, ValueVisitorInterfaceModel visitorInterface, Types types) throws SourceCodeValidationException {
+        final Map<String, Integer> costs = new TreeMap<String, Integer>();
+        for (JVar param: params) {
+            costs.put(param.name(), equalsComparisonCost(param, visitorInterface, types));
+        }
+        List<JVar> result = new ArrayList<JVar>(params);
+        Collections.sort(result, new Comparator<JVar>() {
+            @Override
+            public int compare(JVar param1, JVar param2) {
+                return costs.get(param1.name()).compareTo(costs.get(param2.name()));
+            }
+        });
+        return result;
+    }
+
+    private static int equalsComparisonCost(JVar param, ValueVisitorInterfaceModel visitorInterface, Types types) throws SourceCodeValidationException {
+        AbstractJType type = param.type();
+        if (StructuralParameters.hasEqualsPriority(param))
+            return 0;
+        else if (type.isPrimitive())
+            return 1;
+        else if (type.isArray())
+            return StructuralParameters.arrayStrategy(param) == ArrayStrategy.IDENTITY ? 1 : 4;
+        else if (visitorInterface.isSelf(type))
+            return 4;
+        else if (types.isEnum(type) || type.unboxify().isPrimitive())
+            return 2;
+        else
+            return 3;
+    }
+
     class MethodBuilder {
         private final Map<String, JDefinedClass> caseClasses;
         private final JFieldVar acceptorField;
         private final JFieldVar hashCodeCachedValueField;
+        private final JFieldVar fingerprintCachedValueField;
+        private JMethod caseNameMethod = null;
+        private JMethod protectedConstructor = null;
 
-        private MethodBuilder(Map<String, JDefinedClass> caseClasses, JFieldVar acceptorField, JFieldVar hashCodeCachedValueField) {
+        private MethodBuilder(Map<String, JDefinedClass> caseClasses, JFieldVar acceptorField, @Nullable JFieldVar hashCodeCachedValueField, @Nullable JFieldVar fingerprintCachedValueField) {
             this.caseClasses = caseClasses;
             this.acceptorField = acceptorField;
             this.hashCodeCachedValueField = hashCodeCachedValueField;
+            this.fingerprintCachedValueField = fingerprintCachedValueField;
         }
 
-        private MethodBuilder(Map<String, JDefinedClass> caseClasses, JFieldVar acceptorField) {
-            this(caseClasses, acceptorField, null);
+        /**
+         * Class, that holds fields of given case.
+         */
+        private JDefinedClass caseClass(JMethod interfaceMethod) {
+            return isTaggedUnion() ? acceptingInterface : caseClasses.get(interfaceMethod.name());
         }
 
         void buildPrivateConstructor() {
@@ -312,23 +950,60 @@ class ValueClassModel {
                 JInvocation invocation = acceptorParam.invoke(hashCodeAcceptorMethodName());
                 constructor.body().assign(JExpr.refthis(hashCodeCachedValueField), invocation);
             }
+            if (visitorInterface.fingerprintCaching() == Caching.PRECOMPUTE) {
+                JInvocation invocation = acceptorParam.invoke(fingerprintAcceptorMethodName());
+                constructor.body().assign(JExpr.refthis(fingerprintCachedValueField), invocation);
+            }
             constructor.body().assign(JExpr.refthis(acceptorField.name()), acceptorParam);
         }
 
+        private void buildNullCheck(JMethod constructorMethod, String paramName) {
+            if (runtimeSupport != null) {
+                JInvocation nullCheck = constructorMethod.body().staticInvoke(runtimeSupport, "requireNonNull");
+                nullCheck.arg(JExpr.ref(paramName));
+                nullCheck.arg(JExpr.lit(paramName));
+                nullCheck.arg(JExpr.lit(constructorMethod.name()));
+                nullCheck.arg(JExpr.lit(valueClass.fullName()));
+            } else {
+                JConditional nullCheck = constructorMethod.body()._if(JExpr.ref(paramName).eq(JExpr._null()));
+                JInvocation nullPointerExceptionConstruction = JExpr._new(types._NullPointerException);
+                nullPointerExceptionConstruction.arg(JExpr.lit(MessageFormat.format("Argument shouldn''t be null: ''{0}'' argument in static method invocation: ''{1}'' in class {2}",
+                                                                                    paramName,
+                                                                                    constructorMethod.name(),
+                                                                                    valueClass.fullName())));
+                nullCheck._then()._throw(nullPointerExceptionConstruction);
+            }
+        }
+
+        /**
+         * Builds copy constructor for subclasses.
+         * All cached values are copied along with acceptor,
+         * attribute caches are copied by {@link #buildAttributeMethod(String, AbstractJClass, AbstractJClass, boolean)}.
+         */
         void buildProtectedConstructor(Serialization serialization) throws JClassAlreadyExistsException {
             JMethod constructor = valueClass.constructor(JMod.PROTECTED);
-            JAnnotationUse annotation = constructor.annotate(SuppressWarnings.class);
-            annotation.paramArray("value", "null");
+            protectedConstructor = constructor;
             AbstractJClass usedValueClassType = valueClass.narrow(valueClass.typeParams());
             JVar param = constructor.param(usedValueClassType, "implementation");
             param.annotate(Nonnull.class);
-            JConditional nullCheck = constructor.body()._if(JExpr.ref("implementation").eq(JExpr._null()));
-            JInvocation nullPointerExceptionConstruction = JExpr._new(types._NullPointerException);
-            nullPointerExceptionConstruction.arg(JExpr.lit("Argument shouldn't be null: 'implementation' argument in class constructor invocation: " + valueClass.fullName()));
-            nullCheck._then()._throw(nullPointerExceptionConstruction);
+            if (runtimeSupport != null) {
+                JInvocation nullCheck = constructor.body().staticInvoke(runtimeSupport, "requireConstructorArgumentNonNull");
+                nullCheck.arg(param);
+                nullCheck.arg(JExpr.lit(param.name()));
+                nullCheck.arg(JExpr.lit(valueClass.fullName()));
+            } else {
+                JAnnotationUse annotation = constructor.annotate(SuppressWarnings.class);
+                annotation.paramArray("value", "null");
+                JConditional nullCheck = constructor.body()._if(JExpr.ref("implementation").eq(JExpr._null()));
+                JInvocation nullPointerExceptionConstruction = JExpr._new(types._NullPointerException);
+                nullPointerExceptionConstruction.arg(JExpr.lit("Argument shouldn't be null: 'implementation' argument in class constructor invocation: " + valueClass.fullName()));
+                nullCheck._then()._throw(nullPointerExceptionConstruction);
+            }
 
             if (visitorInterface.hashCodeCaching().enabled())
                 constructor.body().assign(JExpr.refthis(hashCodeCachedValueField), param.ref(hashCodeCachedValueField));
+            if (visitorInterface.fingerprintCaching().enabled())
+                constructor.body().assign(JExpr.refthis(fingerprintCachedValueField), param.ref(fingerprintCachedValueField));
             constructor.body().assign(JExpr.refthis(acceptorField), param.ref(acceptorField));
         }
 
@@ -378,58 +1053,75 @@ class ValueClassModel {
                         constructorMethodParam.annotate(Source.isNullable(param) ? Nullable.class : Nonnull.class);
                 }
 
-                AbstractJClass usedCaseClassType = caseClasses.get(interfaceMethod.name()).narrow(constructorMethod.typeParams());
                 if (!interfaceMethod.params().isEmpty() || interfaceMethod.hasVarArgs()) {
+                    AbstractJClass usedCaseClassType;
+                    if (isTaggedUnion())
+                        usedCaseClassType = acceptingInterface.narrow(constructorMethod.typeParams());
+                    else
+                        usedCaseClassType = caseClasses.get(interfaceMethod.name()).narrow(constructorMethod.typeParams());
                     boolean hasNullChecks = false;
                     for (JVar param1: interfaceMethod.params()) {
                         if (param1.type().isReference() && !Source.isNullable(param1)) {
-                            JConditional nullCheck = constructorMethod.body()._if(JExpr.ref(param1.name()).eq(JExpr._null()));
-                            JInvocation nullPointerExceptionConstruction = JExpr._new(types._NullPointerException);
-                            nullPointerExceptionConstruction.arg(JExpr.lit(MessageFormat.format("Argument shouldn''t be null: ''{0}'' argument in static method invocation: ''{1}'' in class {2}",
-                                                                                                param1.name(),
-                                                                                                constructorMethod.name(),
-                                                                                                valueClass.fullName())));
-                            nullCheck._then()._throw(nullPointerExceptionConstruction);
+                            buildNullCheck(constructorMethod, param1.name());
                             hasNullChecks = true;
                         }
                     }
                     JVar param1 = interfaceMethod.listVarParam();
                     if (param1 != null) {
                         if (param1.type().isReference() && !Source.isNullable(param1)) {
-                            JConditional nullCheck = constructorMethod.body()._if(JExpr.ref(param1.name()).eq(JExpr._null()));
-                            JInvocation nullPointerExceptionConstruction = JExpr._new(types._NullPointerException);
-                            nullPointerExceptionConstruction.arg(JExpr.lit(MessageFormat.format("Argument shouldn''t be null: ''{0}'' argument in static method invocation: ''{1}'' in class {2}",
-                                                                                                param1.name(),
-                                                                                                constructorMethod.name(),
-                                                                                                valueClass.fullName())));
-                            nullCheck._then()._throw(nullPointerExceptionConstruction);
+                            buildNullCheck(constructorMethod, param1.name());
                             hasNullChecks = true;
                         }
                     }
-                    if (hasNullChecks) {
+                    if (hasNullChecks && runtimeSupport == null) {
                         JAnnotationUse annotation = constructorMethod.annotate(SuppressWarnings.class);
                         annotation.paramArray("value", "null");
                     }
 
-                    JInvocation caseClassConstructorInvocation = JExpr._new(usedCaseClassType);
-                    for (JVar param2: interfaceMethod.params()) {
-                        caseClassConstructorInvocation.arg(JExpr.ref(param2.name()));
-                    }
-                    JVar param2 = interfaceMethod.listVarParam();
-                    if (param2 != null) {
-                        caseClassConstructorInvocation.arg(JExpr.ref(param2.name()));
+                    JInvocation caseClassConstructorInvocation;
+                    if (isTaggedUnion())
+                        caseClassConstructorInvocation = newTaggedUnionAcceptor(interfaceMethod, usedCaseClassType);
+                    else {
+                        caseClassConstructorInvocation = JExpr._new(usedCaseClassType);
+                        for (JVar param2: interfaceMethod.params()) {
+                            caseClassConstructorInvocation.arg(JExpr.ref(param2.name()));
+                            if (LazyFields.isLazy(param2))
+                                caseClassConstructorInvocation.arg(JExpr._null());
+                        }
+                        JVar param2 = interfaceMethod.listVarParam();
+                        if (param2 != null) {
+                            caseClassConstructorInvocation.arg(JExpr.ref(param2.name()));
+                        }
                     }
                     JInvocation constructorInvocation = JExpr._new(usedValueClassType);
                     constructorInvocation.arg(caseClassConstructorInvocation);
                     constructorMethod.body()._return(constructorInvocation);
                 } else {
-                    JInvocation caseClassConstructorInvocation = JExpr._new(usedCaseClassType.erasure());
+                    IJExpression acceptor;
+                    if (isEnumBacked())
+                        acceptor = enumConstants.get(interfaceMethod.name());
+                    else if (isTaggedUnion())
+                        acceptor = newTaggedUnionAcceptor(interfaceMethod, acceptingInterface.erasure());
+                    else
+                        acceptor = JExpr._new(caseClasses.get(interfaceMethod.name()).erasure());
                     JInvocation initializer = JExpr._new(usedValueClassType.erasure());
-                    initializer.arg(caseClassConstructorInvocation);
-                    JFieldVar singletonInstanceField = valueClass.field(JMod.PRIVATE | JMod.STATIC | JMod.FINAL,
-                                                                        usedValueClassType.erasure(),
-                                                                        interfaceMethod.name().toUpperCase(Locale.US),
-                                                                        initializer);
+                    initializer.arg(acceptor);
+                    JFieldVar singletonInstanceField;
+                    IJExpression singletonInstance;
+                    if (visitorInterface.lazyInitialization()) {
+                        JDefinedClass holder = buildHolderClass(Source.capitalize(interfaceMethod.name()) + "Case" + valueClass.name() + "Holder");
+                        singletonInstanceField = holder.field(JMod.STATIC | JMod.FINAL,
+                                                              usedValueClassType.erasure(),
+                                                              interfaceMethod.name().toUpperCase(Locale.US),
+                                                              initializer);
+                        singletonInstance = holder.staticRef(singletonInstanceField);
+                    } else {
+                        singletonInstanceField = valueClass.field(JMod.PRIVATE | JMod.STATIC | JMod.FINAL,
+                                                                  usedValueClassType.erasure(),
+                                                                  interfaceMethod.name().toUpperCase(Locale.US),
+                                                                  initializer);
+                        singletonInstance = singletonInstanceField;
+                    }
                     JAnnotationUse fieldAnnotationUse = singletonInstanceField.annotate(SuppressWarnings.class);
                     JAnnotationArrayMember paramArray = fieldAnnotationUse.paramArray("value");
                     paramArray.param("unchecked");
@@ -437,14 +1129,85 @@ class ValueClassModel {
 
                     JAnnotationUse methodAnnotationUse = constructorMethod.annotate(SuppressWarnings.class);
                     methodAnnotationUse.param("value", "unchecked");
-                    constructorMethod.body()._return(singletonInstanceField);
+                    constructorMethod.body()._return(singletonInstance);
                 }
                 constructorMethods.put(interfaceMethod.name(), constructorMethod);
+                if (lazyFields.containsKey(interfaceMethod.name()))
+                    buildLazyConstructorMethod(interfaceMethod);
             }
             return constructorMethods;
         }
 
-        void buildHashCodeMethod(int hashCodeBase) throws SourceCodeValidationException {
+        /**
+         * Static factory method, that accepts thunks instead of values for lazy fields.
+         * Lazy fields are initialized with default values, that are never read before thunk is evaluated.
+         */
+        private void buildLazyConstructorMethod(JMethod interfaceMethod) throws SourceCodeValidationException {
+            LazyFields lazy = lazyFields.get(interfaceMethod.name());
+            JMethod constructorMethod = valueClass.method(Source.toJMod(visitorInterface.factoryMethodAccessLevel()) | JMod.STATIC, types._void, lazyConstructorMethodName(interfaceMethod.name()));
+            constructorMethod.annotate(Nonnull.class);
+            for (JTypeVar visitorTypeParameter: visitorInterface.getValueTypeParameters()) {
+                Types.generifyWithBoundsFrom(constructorMethod, visitorTypeParameter.name(), visitorTypeParameter);
+            }
+            AbstractJClass usedValueClassType = valueClass.narrow(constructorMethod.typeParams());
+            constructorMethod.type(usedValueClassType);
+            AbstractJClass usedCaseClassType = caseClasses.get(interfaceMethod.name()).narrow(constructorMethod.typeParams());
+            JInvocation caseClassConstructorInvocation = JExpr._new(usedCaseClassType);
+            boolean hasNullChecks = false;
+            for (JVar param: interfaceMethod.params()) {
+                AbstractJType paramType = Source.toDeclarable(visitorInterface.narrowType(param.type(), usedValueClassType, usedValueClassType, types._RuntimeException));
+                if (LazyFields.isLazy(param)) {
+                    JVar constructorMethodParam = constructorMethod.param(param.mods().getValue(), lazy.thunkType(paramType), param.name());
+                    constructorMethodParam.annotate(Nonnull.class);
+                    caseClassConstructorInvocation.arg(LazyFields.defaultValue(paramType));
+                    caseClassConstructorInvocation.arg(constructorMethodParam);
+                    buildNullCheck(constructorMethod, param.name());
+                    hasNullChecks = true;
+                } else {
+                    JVar constructorMethodParam = constructorMethod.param(param.mods().getValue(), paramType, param.name());
+                    caseClassConstructorInvocation.arg(constructorMethodParam);
+                    if (param.type().isReference()) {
+                        constructorMethodParam.annotate(Source.isNullable(param) ? Nullable.class : Nonnull.class);
+                        if (!Source.isNullable(param)) {
+                            buildNullCheck(constructorMethod, param.name());
+                            hasNullChecks = true;
+                        }
+                    }
+                }
+            }
+            JVar param = interfaceMethod.listVarParam();
+            if (param != null) {
+                AbstractJType paramType = Source.toDeclarable(visitorInterface.narrowType(param.type().elementType(), usedValueClassType, usedValueClassType, types._RuntimeException));
+                JVar constructorMethodParam = constructorMethod.varParam(param.mods().getValue(), paramType, param.name());
+                caseClassConstructorInvocation.arg(constructorMethodParam);
+                if (param.type().isReference()) {
+                    constructorMethodParam.annotate(Source.isNullable(param) ? Nullable.class : Nonnull.class);
+                    if (!Source.isNullable(param)) {
+                        buildNullCheck(constructorMethod, param.name());
+                        hasNullChecks = true;
+                    }
+                }
+            }
+            if (hasNullChecks && runtimeSupport == null) {
+                JAnnotationUse annotation = constructorMethod.annotate(SuppressWarnings.class);
+                annotation.paramArray("value", "null");
+            }
+            JInvocation constructorInvocation = JExpr._new(usedValueClassType);
+            constructorInvocation.arg(caseClassConstructorInvocation);
+            constructorMethod.body()._return(constructorInvocation);
+        }
+
+        private IJExpression nonZeroHashCode(JVar code) {
+            if (runtimeSupport == null)
+                return JOp.cond(code.ne0(), code, JExpr.lit(Integer.MIN_VALUE));
+            else {
+                JInvocation invocation = runtimeSupport.staticInvoke("nonZeroHashCode");
+                invocation.arg(code);
+                return invocation;
+            }
+        }
+
+        void buildHashCodeMethod(int hashCodeBase, HashCodeAlgorithm algorithm) throws SourceCodeValidationException {
             String hashCodeMethodName = hashCodeAcceptorMethodName();
             JMethod hashCodeMethod = valueClass.method(JMod.PUBLIC | JMod.FINAL, types._int, "hashCode");
             hashCodeMethod.annotate(Override.class);
@@ -461,7 +1224,7 @@ class ValueClassModel {
                 JConditional _if = hashCodeMethod.body()._if(code.eq0());
                 JInvocation invocation = JExpr.refthis(acceptorField).invoke(hashCodeMethodName);
                 _if._then().assign(code, invocation);
-                _if._then().assign(code, JOp.cond(code.ne0(), code, JExpr.lit(Integer.MIN_VALUE)));
+                _if._then().assign(code, nonZeroHashCode(code));
                 _if._then().assign(hashCodeField, code);
                 hashCodeMethod.body()._return(code);
             } else if (visitorInterface.hashCodeCaching() == Caching.SYNCRONIZED) {
@@ -475,153 +1238,1555 @@ class ValueClassModel {
                 JConditional _if2 = synchronizedBlock._if(code.eq0());
                 JInvocation invocation = JExpr.refthis(acceptorField).invoke(hashCodeMethodName);
                 _if2._then().assign(code, invocation);
-                _if2._then().assign(code, JOp.cond(code.ne0(), code, JExpr.lit(Integer.MIN_VALUE)));
+                _if2._then().assign(code, nonZeroHashCode(code));
                 _if2._then().assign(hashCodeField, code);
                 hashCodeMethod.body()._return(code);
             } else
                 throw new IllegalStateException("Unsupported hashCodeCaching: " + visitorInterface.hashCodeCaching());
 
-            acceptingInterface.method(JMod.PUBLIC, types._int, hashCodeMethodName);
+            Map<String, JBlock> switchCaseBodies = null;
+            if (hasCaseClasses())
+                acceptingInterface.method(JMod.PUBLIC | JMod.ABSTRACT, types._int, hashCodeMethodName);
+            else
+                switchCaseBodies = buildCaseSwitch(acceptingInterface.method(JMod.PUBLIC, types._int, hashCodeMethodName));
 
             int tag = 1;
             for (JMethod interfaceMethod1: visitorInterface.methods()) {
-                JDefinedClass caseClass = caseClasses.get(interfaceMethod1.name());
-                JMethod caseHashCodeMethod = caseClass.method(JMod.PUBLIC | JMod.FINAL, types._int, hashCodeMethodName);
-                caseHashCodeMethod.annotate(Override.class);
-
-                VariableNameSource nameSource = new VariableNameSource();
-                List<JFieldVar> arguments = new ArrayList<JFieldVar>();
-                JFieldVar varArgument = null;
-                for (JVar param: interfaceMethod1.params()) {
-                    arguments.add(caseClass.fields().get(param.name()));
-                }
-                JVar param = interfaceMethod1.listVarParam();
-                if (param != null) {
-                    varArgument = caseClass.fields().get(param.name());
+                JDefinedClass caseClass = caseClass(interfaceMethod1);
+                JBlock caseBody;
+                if (switchCaseBodies != null)
+                    caseBody = switchCaseBodies.get(interfaceMethod1.name());
+                else {
+                    JMethod caseHashCodeMethod = caseClass.method(JMod.PUBLIC | JMod.FINAL, types._int, hashCodeMethodName);
+                    caseHashCodeMethod.annotate(Override.class);
+                    caseBody = caseHashCodeMethod.body();
                 }
 
-                HashCodeMethod methodModel = new HashCodeMethod(types, hashCodeBase, caseHashCodeMethod.body(), nameSource);
+                VariableNameSource nameSource = new VariableNameSource();
+                HashCodeMethod methodModel = new HashCodeMethod(types, hashCodeBase, algorithm, caseBody, nameSource);
                 HashCodeMethod.Body body = methodModel.createBody(tag);
-                for (int i = 0; i < arguments.size(); i++) {
-                    param = interfaceMethod1.params().get(i);
-                    JFieldVar argument = arguments.get(i);
-                    if (Source.isNullable(param))
-                        body.appendNullableValue(argument.type(), JExpr.refthis(argument));
-                    else
-                        body.appendNotNullValue(argument.type(), JExpr.refthis(argument));
-                }
-                if (varArgument != null) {
-                    if (Source.isNullable(param))
-                        body.appendNullableValue(varArgument.type(), JExpr.refthis(varArgument));
+                List<JVar> params = new ArrayList<JVar>(interfaceMethod1.params());
+                if (interfaceMethod1.listVarParam() != null)
+                    params.add(interfaceMethod1.listVarParam());
+                for (JVar param: params) {
+                    if (StructuralParameters.isExcluded(param))
+                        continue;
+                    ArrayStrategy arrayStrategy = StructuralParameters.arrayStrategy(param);
+                    AbstractJType argumentType = caseFieldType(caseClass, interfaceMethod1, param.name());
+                    IJExpression argument = caseFieldValue(caseClass, interfaceMethod1, param.name());
+                    InlineVarArgs inline = inlineVarArgs(interfaceMethod1, param.name());
+                    if (inline != null) {
+                        body.appendNotNullValue(types._int, JExpr.refthis(inline.length()));
+                        for (JFieldVar element: inline.elements()) {
+                            if (element.type().isReference())
+                                body.appendNullableValue(element.type(), JExpr.refthis(element));
+                            else
+                                body.appendNotNullValue(element.type(), JExpr.refthis(element));
+                        }
+                        body.appendNullableValue(inline.spill().type(), JExpr.refthis(inline.spill()));
+                    } else if (arrayStrategy != ArrayStrategy.ELEMENTS)
+                        body.appendNotNullValue(types._int, arrayHashCode(arrayStrategy, caseClass, interfaceMethod1, param));
+                    else if (Source.isNullable(param))
+                        body.appendNullableValue(argumentType, argument);
                     else
-                        body.appendNotNullValue(varArgument.type(), JExpr.refthis(varArgument));
+                        body.appendNotNullValue(argumentType, argument);
                 }
-                caseHashCodeMethod.body()._return(body.result());
+                caseBody._return(body.finish());
                 tag++;
             }
         }
 
-        void buildToStringMethod() throws SourceCodeValidationException {
-            JMethod toStringMethod = valueClass.method(JMod.PUBLIC | JMod.FINAL, types._String, "toString");
-            toStringMethod.annotate(Override.class);
-            toStringMethod.annotate(Nonnull.class);
-            JInvocation invocation1 = JExpr.refthis(acceptorField).invoke("toString");
-            toStringMethod.body()._return(invocation1);
+        void buildFingerprintMethod() throws SourceCodeValidationException {
+            String fingerprintMethodName = fingerprintAcceptorMethodName();
+            JMethod fingerprintMethod = valueClass.method(JMod.PUBLIC | JMod.FINAL, types._long, FingerprintMethod.METHOD_NAME);
+
+            if (visitorInterface.fingerprintCaching() == Caching.NONE) {
+                JInvocation invocation = JExpr.refthis(acceptorField).invoke(fingerprintMethodName);
+                fingerprintMethod.body()._return(invocation);
+            } else if (visitorInterface.fingerprintCaching() == Caching.PRECOMPUTE) {
+                fingerprintMethod.body()._return(fingerprintCachedValueField);
+            } else if (visitorInterface.fingerprintCaching() == Caching.SIMPLE) {
+                VariableNameSource nameSource = new VariableNameSource();
+                JFieldRef fingerprintField = JExpr.refthis(fingerprintCachedValueField);
+                JVar code = fingerprintMethod.body().decl(types._long, nameSource.get("code"), fingerprintField);
+                JConditional _if = fingerprintMethod.body()._if(code.eq0());
+                JInvocation invocation = JExpr.refthis(acceptorField).invoke(fingerprintMethodName);
+                _if._then().assign(code, invocation);
+                _if._then().assign(fingerprintField, code);
+                fingerprintMethod.body()._return(code);
+            } else if (visitorInterface.fingerprintCaching() == Caching.SYNCRONIZED) {
+                VariableNameSource nameSource = new VariableNameSource();
+                JFieldRef fingerprintField = JExpr.refthis(fingerprintCachedValueField);
+                JFieldRef lockField = JExpr.refthis(acceptorField);
+                JVar code = fingerprintMethod.body().decl(types._long, nameSource.get("code"), fingerprintField);
+                JConditional _if1 = fingerprintMethod.body()._if(code.eq0());
+                JBlock synchronizedBlock = Source.addSynchronizedBlock(_if1._then(), lockField);
+                synchronizedBlock.assign(code, fingerprintField);
+                JConditional _if2 = synchronizedBlock._if(code.eq0());
+                JInvocation invocation = JExpr.refthis(acceptorField).invoke(fingerprintMethodName);
+                _if2._then().assign(code, invocation);
+                _if2._then().assign(fingerprintField, code);
+                fingerprintMethod.body()._return(code);
+            } else
+                throw new IllegalStateException("Unsupported fingerprintCaching: " + visitorInterface.fingerprintCaching());
+
+            Map<String, JBlock> switchCaseBodies = null;
+            if (hasCaseClasses())
+                acceptingInterface.method(JMod.PUBLIC | JMod.ABSTRACT, types._long, fingerprintMethodName);
+            else
+                switchCaseBodies = buildCaseSwitch(acceptingInterface.method(JMod.PUBLIC, types._long, fingerprintMethodName));
 
             for (JMethod interfaceMethod1: visitorInterface.methods()) {
-                JDefinedClass caseClass = caseClasses.get(interfaceMethod1.name());
-                JMethod caseToStringMethod = caseClass.method(JMod.PUBLIC | JMod.FINAL, types._String, "toString");
-                caseToStringMethod.annotate(Override.class);
-                caseToStringMethod.annotate(Nonnull.class);
+                JDefinedClass caseClass = caseClass(interfaceMethod1);
+                JBlock caseBody;
+                if (switchCaseBodies != null)
+                    caseBody = switchCaseBodies.get(interfaceMethod1.name());
+                else {
+                    JMethod caseFingerprintMethod = caseClass.method(JMod.PUBLIC | JMod.FINAL, types._long, fingerprintMethodName);
+                    caseFingerprintMethod.annotate(Override.class);
+                    caseBody = caseFingerprintMethod.body();
+                }
 
                 VariableNameSource nameSource = new VariableNameSource();
-                List<JFieldVar> arguments = new ArrayList<JFieldVar>();
-                JFieldVar varArgument = null;
+                FingerprintMethod methodModel = new FingerprintMethod(types, runtimeSupport, fingerprintedClassNames, caseBody, nameSource);
+                FingerprintMethod.Body body = methodModel.createBody(interfaceMethod1.name());
                 for (JVar param: interfaceMethod1.params()) {
-                    arguments.add(caseClass.fields().get(param.name()));
+                    if (StructuralParameters.isExcluded(param))
+                        continue;
+                    AbstractJType argumentType = caseFieldType(caseClass, interfaceMethod1, param.name());
+                    IJExpression argument = caseFieldValue(caseClass, interfaceMethod1, param.name());
+                    if (Source.isNullable(param))
+                        body.appendNullableValue(argumentType, argument);
+                    else
+                        body.appendNotNullValue(argumentType, argument);
                 }
                 JVar param = interfaceMethod1.listVarParam();
-                if (param != null) {
-                    varArgument = caseClass.fields().get(param.name());
-                }
-
-                JVar result = caseToStringMethod.body().decl(types._StringBuilder, nameSource.get("result"), JExpr._new(types._StringBuilder));
-                JInvocation invocation = caseToStringMethod.body().invoke(result, "append");
-                invocation.arg(valueClass.name() + "." + Source.capitalize(interfaceMethod1.name()) + "{");
-                ToStringMethodBody body = new ToStringMethodBody(caseToStringMethod.body(), result);
-                if (!arguments.isEmpty()) {
-                    JFieldVar argument = arguments.get(0);
-                    body.appendParam(argument.type(), interfaceMethod1.params().get(0).name(), JExpr.refthis(argument));
-                    for (int i = 1; i < arguments.size(); i++) {
-                        invocation = caseToStringMethod.body().invoke(result, "append");
-                        invocation.arg(", ");
-                        argument = arguments.get(i);
-                        body.appendParam(argument.type(), interfaceMethod1.params().get(i).name(), JExpr.refthis(argument));
-                    }
-                }
-                if (varArgument != null) {
-                    if (!arguments.isEmpty()) {
-                        invocation = caseToStringMethod.body().invoke(result, "append");
-                        invocation.arg(", ");
-                    }
-                    body.appendParam(varArgument.type(), interfaceMethod1.listVarParam().name(), JExpr.refthis(varArgument));
+                InlineVarArgs inline = param == null ? null : inlineVarArgs(interfaceMethod1, param.name());
+                if (inline != null && !StructuralParameters.isExcluded(param))
+                    body.appendInlineVarArgs(inline);
+                else if (param != null && !StructuralParameters.isExcluded(param)) {
+                    AbstractJType argumentType = caseFieldType(caseClass, interfaceMethod1, param.name());
+                    IJExpression argument = caseFieldValue(caseClass, interfaceMethod1, param.name());
+                    if (Source.isNullable(param))
+                        body.appendNullableValue(argumentType, argument);
+                    else
+                        body.appendNotNullValue(argumentType, argument);
                 }
-                invocation = caseToStringMethod.body().invoke(result, "append");
-                invocation.arg("}");
-                caseToStringMethod.body()._return(result.invoke("toString"));
+                caseBody._return(body.finish());
             }
         }
 
-        void generateGetter(FieldConfiguration configuration) {
-            String getterName = configuration.name();
-            JMethod getterMethod = acceptingInterface.method(JMod.PUBLIC, configuration.type(), getterName);
-            if (configuration.type().isReference()) {
+        void buildMatcher(Map<String, Pattern> patterns) throws JClassAlreadyExistsException, SourceCodeValidationException {
+            MatcherClass matcher = MatcherClass.createInstance(valueClass, visitorInterface, patterns, types);
+            matcher.buildFactoryMethod();
+
+            JInvocation invocation = JExpr.ref("value").ref(acceptorField).invoke(matchAcceptorMethodName());
+            invocation.arg(JExpr._this());
+            invocation.arg(JExpr.ref("value"));
+            invocation.arg(JExpr.ref("context"));
+            matcher.matchMethodBody()._return(invocation);
+
+            Map<String, JBlock> switchCaseBodies = null;
+            if (hasCaseClasses())
+                declareMatchAcceptorMethod(matcher, acceptingInterface, JMod.PUBLIC | JMod.ABSTRACT);
+            else
+                switchCaseBodies = buildCaseSwitch(declareMatchAcceptorMethod(matcher, acceptingInterface, JMod.PUBLIC));
+
+            for (JMethod interfaceMethod: visitorInterface.methods()) {
+                JDefinedClass caseClass = caseClass(interfaceMethod);
+                JBlock caseBody;
+                JDefinedClass klass;
+                if (switchCaseBodies != null) {
+                    caseBody = switchCaseBodies.get(interfaceMethod.name());
+                    klass = acceptingInterface;
+                } else {
+                    JMethod caseMatchMethod = declareMatchAcceptorMethod(matcher, caseClass, JMod.PUBLIC | JMod.FINAL);
+                    caseMatchMethod.annotate(Override.class);
+                    caseBody = caseMatchMethod.body();
+                    klass = caseClass;
+                }
+                Map<String, Pattern> casePatterns = new LinkedHashMap<String, Pattern>();
+                for (Map.Entry<String, Pattern> entry: patterns.entrySet()) {
+                    if (entry.getValue().caseMethod() == interfaceMethod)
+                        casePatterns.put(entry.getKey(), entry.getValue());
+                }
+                PatternDecisionTree.build(caseBody, casePatterns, new PatternGenerator(matcher, casePatterns, klass));
+                List<IJExpression> arguments = new ArrayList<IJExpression>();
+                for (JVar param: interfaceMethod.params()) {
+                    arguments.add(caseFieldValue(caseClass, interfaceMethod, param.name()));
+                }
+                JVar param = interfaceMethod.listVarParam();
+                if (param != null) {
+                    arguments.add(caseFieldValue(caseClass, interfaceMethod, param.name()));
+                }
+                caseBody._return(matcher.caseInvocation(JExpr.ref("matcher"), JExpr.ref("value"), JExpr.ref("context"), interfaceMethod, arguments));
+            }
+        }
+
+        /**
+         * Value of matched field, that given test checks.
+         * All enclosing fields should be already known to be of the cases, that test's path goes through.
+         */
+        private IJExpression patternCheckValue(PatternCheck test, JDefinedClass klass) {
+            IJExpression acceptor = JExpr._this();
+            IJExpression value = null;
+            for (int i = 0; i < test.cases().size(); i++) {
+                JMethod interfaceMethod = test.cases().get(i);
+                if (value != null)
+                    acceptor = nestedPatternAcceptor(interfaceMethod, value, klass);
+                String paramName = interfaceMethod.params().get(test.indexes().get(i)).name();
+                value = caseFieldValue(acceptor, caseClass(interfaceMethod), interfaceMethod, paramName);
+            }
+            return value;
+        }
+
+        /**
+         * Condition, that holds when given value is of pattern's case.
+         * Nested patterns are never checked against enum-backed values,
+         * since such values have no fields, but all kinds of values are supported anyway.
+         */
+        private IJExpression nestedPatternCaseCondition(Pattern pattern, IJExpression value) {
+            JMethod interfaceMethod = pattern.caseMethod();
+            IJExpression acceptor = value.ref(acceptorField);
+            if (isEnumBacked())
+                return acceptor.eq(enumConstants.get(interfaceMethod.name()));
+            else if (isTaggedUnion())
+                return acceptor.ref(tagField).eq(JExpr.lit(caseTag(interfaceMethod)));
+            else
+                return JOp._instanceof(acceptor, caseClass(interfaceMethod));
+        }
+
+        /**
+         * Acceptor of given value, that fields of pattern's case can be read from.
+         */
+        private IJExpression nestedPatternAcceptor(JMethod interfaceMethod, IJExpression value, JDefinedClass klass) {
+            IJExpression acceptor = value.ref(acceptorField);
+            if (!hasCaseClasses())
+                return acceptor;
+            else
+                return JExpr.cast(caseClass(interfaceMethod).narrow(klass.typeParams()), acceptor);
+        }
+
+        private void collectPatternBindings(Pattern pattern, IJExpression acceptor, JDefinedClass klass, List<IJExpression> bindings) {
+            JMethod interfaceMethod = pattern.caseMethod();
+            JDefinedClass caseClass = caseClass(interfaceMethod);
+            List<JVar> params = interfaceMethod.params();
+            for (int i = 0; i < params.size(); i++) {
+                Pattern argument = pattern.arguments().get(i);
+                IJExpression value = caseFieldValue(acceptor, caseClass, interfaceMethod, params.get(i).name());
+                if (argument.isBinding())
+                    bindings.add(value);
+                else if (argument.isCase())
+                    collectPatternBindings(argument, nestedPatternAcceptor(argument.caseMethod(), value, klass), klass, bindings);
+            }
+        }
+
+        /**
+         * Generates tests and handler invocations of matcher's decision tree.
+         */
+        private class PatternGenerator implements PatternDecisionTree.Generator {
+            private final MatcherClass matcher;
+            private final Map<String, Pattern> patterns;
+            private final JDefinedClass klass;
+
+            PatternGenerator(MatcherClass matcher, Map<String, Pattern> patterns, JDefinedClass klass) {
+                this.matcher = matcher;
+                this.patterns = patterns;
+                this.klass = klass;
+            }
+
+            @Override
+            public IJExpression condition(PatternCheck test) {
+                IJExpression value = patternCheckValue(test, klass);
+                if (test.isNullCheck())
+                    return value.ne(JExpr._null());
+                else if (test.argument().isLiteral())
+                    return test.argument().literalCondition(value);
+                else
+                    return nestedPatternCaseCondition(test.argument(), value);
+            }
+
+            @Override
+            public void appendPattern(JBlock block, String patternName) {
+                List<IJExpression> bindings = new ArrayList<IJExpression>();
+                collectPatternBindings(patterns.get(patternName), JExpr._this(), klass, bindings);
+                IJExpression matcherExpression = JExpr.ref("matcher");
+                IJExpression contextExpression = JExpr.ref("context");
+                IJExpression condition = matcher.patternHandler(matcherExpression, patternName).ne(JExpr._null());
+                condition = condition.cand(matcher.patternGuardCondition(matcherExpression, contextExpression, patternName, bindings));
+                block._if(condition)._then()._return(matcher.patternInvocation(matcherExpression, contextExpression, patternName, bindings));
+            }
+        }
+
+        private JMethod declareMatchAcceptorMethod(MatcherClass matcher, JDefinedClass klass, int mods) {
+            JMethod method = klass.method(mods, types._void, matchAcceptorMethodName());
+            JTypeVar[] matchTypeParameters = matcher.generifyWithMatchTypeParameters(method);
+            method.type(matchTypeParameters[1]);
+            method.param(matcher.narrow(klass.typeParams(), matchTypeParameters), "matcher");
+            method.param(valueClass.narrow(klass.typeParams()), "value");
+            method.param(matchTypeParameters[0], "context");
+            if (matchTypeParameters[2] != null)
+                method._throws(matchTypeParameters[2]);
+            return method;
+        }
+
+        /**
+         * Builds acceptor methods, that push self-reference children onto the stack.
+         * Children are pushed in declaration order.
+         * <p>
+         * Traversing methods collect values in pre-order first.
+         * Values are then processed in reverse order, so that results for children are
+         * on top of result stack in declaration order, when their parent is processed.
+         */
+        void buildPushChildrenMethods() throws SourceCodeValidationException {
+            Map<String, JBlock> pushChildrenCaseBodies = null;
+            if (hasCaseClasses())
+                declarePushChildrenMethod(acceptingInterface, JMod.PUBLIC | JMod.ABSTRACT);
+            else
+                pushChildrenCaseBodies = buildCaseSwitch(declarePushChildrenMethod(acceptingInterface, JMod.PUBLIC));
+            for (JMethod interfaceMethod: visitorInterface.methods()) {
+                JDefinedClass caseClass = caseClass(interfaceMethod);
+                JDefinedClass klass;
+                JBlock pushChildrenBody;
+                if (pushChildrenCaseBodies != null) {
+                    klass = acceptingInterface;
+                    pushChildrenBody = pushChildrenCaseBodies.get(interfaceMethod.name());
+                } else {
+                    klass = caseClass;
+                    JMethod pushChildrenMethod = declarePushChildrenMethod(caseClass, JMod.PUBLIC | JMod.FINAL);
+                    pushChildrenMethod.annotate(Override.class);
+                    pushChildrenBody = pushChildrenMethod.body();
+                }
+                buildPushChildrenBody(pushChildrenBody, interfaceMethod, caseClass, valueClass.narrow(klass.typeParams()));
+                if (pushChildrenCaseBodies != null)
+                    pushChildrenBody._return();
+            }
+        }
+
+        /**
+         * Declares loop, that moves all values from given stack to given list in pre-order.
+         * Values are transformed with given transformer before their children are pushed, when transformer is not null.
+         */
+        private void buildPreOrderLoop(JBlock body, AbstractJClass usedValueClassType, JVar stack, JVar order, @Nullable JVar transformer) {
+            JWhileLoop loop = body._while(stack.invoke("isEmpty").not());
+            IJExpression next = stack.invoke("remove").arg(stack.invoke("size").minus(JExpr.lit(1)));
+            JVar value = loop.body().decl(usedValueClassType, "value", transformer == null ? next : transformer.invoke("transform").arg(next));
+            loop.body().invoke(order, "add").arg(value);
+            loop.body().invoke(value.ref(acceptorField), pushChildrenAcceptorMethodName()).arg(stack);
+        }
+
+        /**
+         * Builds transform methods, that traverse self-reference fields with explicit stack.
+         * <p>
+         * Acceptor pops results for children in reverse order and returns original value when nothing is changed.
+         */
+        void buildTransformMethods() throws JClassAlreadyExistsException {
+            JDefinedClass transformerInterface = valueClass._class(JMod.PUBLIC, TRANSFORMER_CLASS_NAME, EClassType.INTERFACE);
+            for (JTypeVar visitorTypeParameter: visitorInterface.getValueTypeParameters()) {
+                Types.generifyWithBoundsFrom(transformerInterface, visitorTypeParameter.name(), visitorTypeParameter);
+            }
+            AbstractJClass usedTransformerValueType = valueClass.narrow(transformerInterface.typeParams());
+            JMethod transformerMethod = transformerInterface.method(JMod.NONE, usedTransformerValueType, "transform");
+            transformerMethod.annotate(Nonnull.class);
+            transformerMethod.param(usedTransformerValueType, "value");
+            buildTransformMethod(transformerInterface, "transformBottomUp", true);
+            buildTransformMethod(transformerInterface, "transformTopDown", false);
+        }
+
+        /**
+         * Builds acceptor methods, that rebuild value with given children.
+         * Children are taken from the end of given list, so that last child is taken first.
+         */
+        void buildWithChildrenMethods(Map<String, JMethod> constructorMethods) throws SourceCodeValidationException {
+            Map<String, JBlock> withChildrenCaseBodies = null;
+            if (hasCaseClasses())
+                declareWithChildrenMethod(acceptingInterface, JMod.PUBLIC | JMod.ABSTRACT);
+            else
+                withChildrenCaseBodies = buildCaseSwitch(declareWithChildrenMethod(acceptingInterface, JMod.PUBLIC));
+
+            for (JMethod interfaceMethod: visitorInterface.methods()) {
+                JDefinedClass caseClass = caseClass(interfaceMethod);
+                JDefinedClass klass;
+                JBlock withChildrenBody;
+                if (withChildrenCaseBodies != null) {
+                    klass = acceptingInterface;
+                    withChildrenBody = withChildrenCaseBodies.get(interfaceMethod.name());
+                } else {
+                    klass = caseClass;
+                    JMethod withChildrenMethod = declareWithChildrenMethod(caseClass, JMod.PUBLIC | JMod.FINAL);
+                    withChildrenMethod.annotate(Override.class);
+                    withChildrenBody = withChildrenMethod.body();
+                }
+                AbstractJClass usedValueClassType = valueClass.narrow(klass.typeParams());
+                JInvocation constructorInvocation = valueClass.staticInvoke(constructorMethods.get(interfaceMethod.name()));
+                for (JTypeVar typeArgument: klass.typeParams())
+                    constructorInvocation.narrow(typeArgument);
+                buildWithChildrenBody(withChildrenBody, interfaceMethod, caseClass, usedValueClassType, constructorInvocation);
+            }
+        }
+
+        private JMethod declarePushChildrenMethod(JDefinedClass klass, int mods) {
+            JMethod method = klass.method(mods, types._void, pushChildrenAcceptorMethodName());
+            method.param(types._List.narrow(valueClass.narrow(klass.typeParams())), "stack");
+            return method;
+        }
+
+        private JMethod declareWithChildrenMethod(JDefinedClass klass, int mods) {
+            AbstractJClass usedValueClassType = valueClass.narrow(klass.typeParams());
+            JMethod method = klass.method(mods, usedValueClassType, withChildrenAcceptorMethodName());
+            method.param(usedValueClassType, "value");
+            method.param(types._List.narrow(usedValueClassType), "results");
+            return method;
+        }
+
+        private void buildPushChildrenBody(JBlock body, JMethod interfaceMethod, JDefinedClass caseClass, AbstractJClass usedValueClassType) throws SourceCodeValidationException {
+            IJExpression stack = JExpr.ref("stack");
+            VariableNameSource nameSource = new VariableNameSource();
+            nameSource.get("stack");
+            for (JVar param: interfaceMethod.params()) {
+                IJExpression field = caseFieldValue(caseClass, interfaceMethod, param.name());
+                boolean isSelf = visitorInterface.isSelf(param.type());
+                if (isSelf || visitorInterface.isSelfList(param.type())) {
+                    JBlock fieldBody = !Source.isNullable(param) ? body : body._if(field.ne(JExpr._null()))._then();
+                    if (isSelf)
+                        fieldBody.invoke(stack, "add").arg(field);
+                    else {
+                        JForEach forEach = fieldBody.forEach(usedValueClassType, nameSource.get("child"), field);
+                        forEach.body()._if(forEach.var().ne(JExpr._null()))._then().invoke(stack, "add").arg(forEach.var());
+                    }
+                }
+            }
+        }
+
+        private void buildWithChildrenBody(JBlock body, JMethod interfaceMethod, JDefinedClass caseClass, AbstractJClass usedValueClassType, JInvocation constructorInvocation) throws SourceCodeValidationException {
+            IJExpression value = JExpr.ref("value");
+            IJExpression results = JExpr.ref("results");
+            IJExpression pop = results.invoke("remove").arg(results.invoke("size").minus(JExpr.lit(1)));
+            VariableNameSource nameSource = new VariableNameSource();
+            nameSource.get("value");
+            nameSource.get("results");
+
+            List<JVar> params = interfaceMethod.params();
+            Map<String, IJExpression> children = new TreeMap<String, IJExpression>();
+            IJExpression unchanged = null;
+            for (int i = params.size() - 1; i >= 0; i--) {
+                JVar param = params.get(i);
+                IJExpression field = caseFieldValue(caseClass, interfaceMethod, param.name());
+                if (visitorInterface.isSelf(param.type())) {
+                    IJExpression child = Source.isNullable(param) ? JOp.cond(field.eq(JExpr._null()), JExpr._null(), pop) : pop;
+                    JVar childVar = body.decl(usedValueClassType, nameSource.get(param.name()), child);
+                    children.put(param.name(), childVar);
+                    unchanged = unchanged == null ? childVar.eq(field) : unchanged.cand(childVar.eq(field));
+                } else if (visitorInterface.isSelfList(param.type())) {
+                    AbstractJClass copyType = types._ArrayList.narrow(usedValueClassType);
+                    JVar copy = body.decl(copyType, nameSource.get(param.name()), JExpr._null());
+                    JBlock fieldBody = !Source.isNullable(param) ? body : body._if(field.ne(JExpr._null()))._then();
+                    AbstractJClass iteratorType = types._ListIterator.narrow(usedValueClassType.wildcard());
+                    JVar iterator = fieldBody.decl(iteratorType, nameSource.get(param.name() + "Iterator"), field.invoke("listIterator").arg(field.invoke("size")));
+                    JWhileLoop loop = fieldBody._while(iterator.invoke("hasPrevious"));
+                    JVar element = loop.body().decl(usedValueClassType, nameSource.get("element"), iterator.invoke("previous"));
+                    JBlock nonNullElementBody = loop.body()._if(element.ne(JExpr._null()))._then();
+                    JVar transformed = nonNullElementBody.decl(usedValueClassType, nameSource.get("transformed"), pop);
+                    JBlock changedBody = nonNullElementBody._if(transformed.ne(element))._then();
+                    changedBody._if(copy.eq(JExpr._null()))._then().assign(copy, JExpr._new(copyType).arg(field));
+                    changedBody.invoke(copy, "set").arg(iterator.invoke("nextIndex")).arg(transformed);
+                    children.put(param.name(), JOp.cond(copy.eq(JExpr._null()), field, copy));
+                    unchanged = unchanged == null ? copy.eq(JExpr._null()) : unchanged.cand(copy.eq(JExpr._null()));
+                }
+            }
+            if (unchanged == null)
+                body._return(value);
+            else {
+                body._if(unchanged)._then()._return(value);
+                for (JVar param: params) {
+                    IJExpression child = children.get(param.name());
+                    constructorInvocation.arg(child != null ? child : caseFieldValue(caseClass, interfaceMethod, param.name()));
+                }
+                JVar varParam = interfaceMethod.listVarParam();
+                if (varParam != null)
+                    constructorInvocation.arg(caseFieldValue(caseClass, interfaceMethod, varParam.name()));
+                body._return(constructorInvocation);
+            }
+        }
+
+        private void buildTransformMethod(JDefinedClass transformerInterface, String methodName, boolean isBottomUp) {
+            AbstractJClass usedValueClassType = valueClass.narrow(valueClass.typeParams());
+            JMethod method = valueClass.method(JMod.PUBLIC | JMod.FINAL, usedValueClassType, methodName);
+            method.annotate(Nonnull.class);
+            JVar transformer = method.param(transformerInterface.narrow(valueClass.typeParams()), "transformer");
+            JBlock body = method.body();
+
+            AbstractJClass stackType = types._ArrayList.narrow(usedValueClassType);
+            JVar stack = body.decl(stackType, "stack", JExpr._new(stackType));
+            JVar order = body.decl(stackType, "order", JExpr._new(stackType));
+            body.invoke(stack, "add").arg(JExpr._this());
+            buildPreOrderLoop(body, usedValueClassType, stack, order, isBottomUp ? null : transformer);
+
+            JForLoop forLoop = body._for();
+            JVar index = forLoop.init(types._int, "i", order.invoke("size").minus(JExpr.lit(1)));
+            forLoop.test(index.gte(JExpr.lit(0)));
+            forLoop.update(index.decr());
+            JVar orderedValue = forLoop.body().decl(usedValueClassType, "value", order.invoke("get").arg(index));
+            JInvocation rebuilt = orderedValue.ref(acceptorField).invoke(withChildrenAcceptorMethodName()).arg(orderedValue).arg(stack);
+            forLoop.body().invoke(stack, "add").arg(isBottomUp ? transformer.invoke("transform").arg(rebuilt) : rebuilt);
+            body._return(stack.invoke("get").arg(JExpr.lit(0)));
+        }
+
+        /**
+         * Builds fold methods, that evaluate value bottom-up with explicit stack.
+         * <p>
+         * Values are processed like in transform methods.
+         * Acceptor reads results for it's children starting at base index, that is computed
+         * from the number of it's children, and passes them to algebra in place of self-reference fields.
+         * Primitive specializations store results in primitive array to avoid boxing.
+         */
+        void buildFoldMethods() throws JClassAlreadyExistsException, SourceCodeValidationException {
+            Map<String, JBlock> foldCaseBodies = null;
+            JMethod acceptorFoldMethod;
+            if (hasCaseClasses())
+                acceptorFoldMethod = declareFoldMethod(acceptingInterface, JMod.PUBLIC | JMod.ABSTRACT);
+            else {
+                acceptorFoldMethod = declareFoldMethod(acceptingInterface, JMod.PUBLIC);
+                foldCaseBodies = buildCaseSwitch(acceptorFoldMethod);
+            }
+            for (JMethod interfaceMethod: visitorInterface.methods()) {
+                JDefinedClass caseClass = caseClass(interfaceMethod);
+                if (foldCaseBodies != null) {
+                    JBlock body = foldCaseBodies.get(interfaceMethod.name());
+                    buildFoldBody(body, interfaceMethod, caseClass, valueClass.narrow(acceptingInterface.typeParams()), acceptorFoldMethod.type(), null);
+                } else {
+                    JMethod foldMethod = declareFoldMethod(caseClass, JMod.PUBLIC | JMod.FINAL);
+                    foldMethod.annotate(Override.class);
+                    buildFoldBody(foldMethod.body(), interfaceMethod, caseClass, valueClass.narrow(caseClass.typeParams()), foldMethod.type(), null);
+                }
+            }
+            buildFoldMethod();
+
+            for (String primitiveTypeName: primitiveFoldTypeNames()) {
+                JPrimitiveType type = AbstractJType.parse(valueClass.owner(), primitiveTypeName);
+                buildPrimitiveFoldMethods(type);
+            }
+        }
+
+        void buildChildCountMethods() throws SourceCodeValidationException {
+            Map<String, JBlock> childCountCaseBodies = null;
+            if (hasCaseClasses())
+                acceptingInterface.method(JMod.PUBLIC | JMod.ABSTRACT, types._int, childCountAcceptorMethodName());
+            else
+                childCountCaseBodies = buildCaseSwitch(acceptingInterface.method(JMod.PUBLIC, types._int, childCountAcceptorMethodName()));
+            for (JMethod interfaceMethod: visitorInterface.methods()) {
+                JDefinedClass caseClass = caseClass(interfaceMethod);
+                JDefinedClass klass;
+                JBlock body;
+                if (childCountCaseBodies != null) {
+                    klass = acceptingInterface;
+                    body = childCountCaseBodies.get(interfaceMethod.name());
+                } else {
+                    klass = caseClass;
+                    JMethod childCountMethod = caseClass.method(JMod.PUBLIC | JMod.FINAL, types._int, childCountAcceptorMethodName());
+                    childCountMethod.annotate(Override.class);
+                    body = childCountMethod.body();
+                }
+                buildChildCountBody(body, interfaceMethod, caseClass, valueClass.narrow(klass.typeParams()));
+            }
+        }
+
+        private void buildChildCountBody(JBlock body, JMethod interfaceMethod, JDefinedClass caseClass, AbstractJClass usedValueClassType) throws SourceCodeValidationException {
+            int fixedCount = 0;
+            List<JVar> params = new ArrayList<JVar>();
+            for (JVar param: interfaceMethod.params()) {
+                boolean isSelf = visitorInterface.isSelf(param.type());
+                if (isSelf && !Source.isNullable(param))
+                    fixedCount++;
+                else if (isSelf || visitorInterface.isSelfList(param.type()))
+                    params.add(param);
+            }
+            if (params.isEmpty())
+                body._return(JExpr.lit(fixedCount));
+            else {
+                JVar count = body.decl(types._int, "count", JExpr.lit(fixedCount));
+                for (JVar param: params) {
+                    IJExpression field = caseFieldValue(caseClass, interfaceMethod, param.name());
+                    JBlock fieldBody = !Source.isNullable(param) ? body : body._if(field.ne(JExpr._null()))._then();
+                    if (visitorInterface.isSelf(param.type()))
+                        fieldBody.assignPlus(count, JExpr.lit(1));
+                    else {
+                        JForEach forEach = fieldBody.forEach(usedValueClassType, "child", field);
+                        forEach.body()._if(forEach.var().ne(JExpr._null()))._then().assignPlus(count, JExpr.lit(1));
+                    }
+                }
+                body._return(count);
+            }
+        }
+
+        private JMethod declareFoldMethod(JDefinedClass klass, int mods) {
+            JMethod method = klass.method(mods, types._void, foldAcceptorMethodName());
+            JTypeVar visitorResultType = visitorInterface.getResultTypeParameter();
+            JTypeVar resultType = Types.generifyWithBoundsFrom(method, visitorResultType.name(), visitorResultType);
+            method.type(resultType);
+            JTypeVar visitorExceptionType = visitorInterface.getExceptionTypeParameter();
+            JTypeVar exceptionType = null;
+            if (visitorExceptionType != null) {
+                exceptionType = Types.generifyWithBoundsFrom(method, visitorExceptionType.name(), visitorExceptionType);
+                method._throws(exceptionType);
+            }
+            AbstractJClass usedValueClassType = valueClass.narrow(klass.typeParams());
+            method.param(visitorInterface.narrowed(usedValueClassType, resultType, exceptionType, resultType), "algebra");
+            method.param(types._List.narrow(resultType), "results");
+            method.param(types._int, "base");
+            return method;
+        }
+
+        /**
+         * Builds body of acceptor method, that passes results for children to algebra.
+         * Results for children are read from results list or array starting at base index.
+         *
+         * @param boxedResultType boxed primitive result type or null when result type is not primitive
+         */
+        private void buildFoldBody(JBlock body, JMethod interfaceMethod, JDefinedClass caseClass, AbstractJClass usedValueClassType, AbstractJType resultType, @Nullable AbstractJClass boxedResultType) throws SourceCodeValidationException {
+            IJExpression results = JExpr.ref("results");
+            VariableNameSource nameSource = new VariableNameSource();
+            nameSource.get("algebra");
+            nameSource.get("results");
+            nameSource.get("base");
+
+            JVar index = null;
+            JInvocation invocation = JExpr.ref("algebra").invoke(interfaceMethod.name());
+            for (JVar param: interfaceMethod.params()) {
+                IJExpression field = caseFieldValue(caseClass, interfaceMethod, param.name());
+                boolean isSelf = visitorInterface.isSelf(param.type());
+                if (!isSelf && !visitorInterface.isSelfList(param.type()))
+                    invocation.arg(field);
+                else {
+                    if (index == null)
+                        index = body.decl(types._int, nameSource.get("index"), JExpr.ref("base"));
+                    IJExpression result = boxedResultType != null ? results.component(index.incr()) : results.invoke("get").arg(index.incr());
+                    if (isSelf) {
+                        JVar child;
+                        if (!Source.isNullable(param))
+                            child = body.decl(resultType, nameSource.get(param.name()), result);
+                        else {
+                            AbstractJType childType = boxedResultType == null ? resultType : boxedResultType;
+                            IJExpression nullableResult = boxedResultType == null ? result : boxedResultType.staticInvoke("valueOf").arg(result);
+                            child = body.decl(childType, nameSource.get(param.name()), JOp.cond(field.eq(JExpr._null()), JExpr._null(), nullableResult));
+                        }
+                        invocation.arg(child);
+                    } else {
+                        AbstractJType listType = boxedResultType != null ? resultType.array() : types._ArrayList.narrow((AbstractJClass)resultType);
+                        IJExpression newList = boxedResultType != null ? JExpr.newArray(resultType, field.invoke("size")) : JExpr._new(listType).arg(field.invoke("size"));
+                        JVar list;
+                        JBlock fieldBody;
+                        if (!Source.isNullable(param)) {
+                            list = body.decl(listType, nameSource.get(param.name()), newList);
+                            fieldBody = body;
+                        } else {
+                            list = body.decl(listType, nameSource.get(param.name()), JExpr._null());
+                            fieldBody = body._if(field.ne(JExpr._null()))._then();
+                            fieldBody.assign(list, newList);
+                        }
+                        if (boxedResultType == null) {
+                            JForEach forEach = fieldBody.forEach(usedValueClassType, nameSource.get("child"), field);
+                            forEach.body()._if(forEach.var().ne(JExpr._null()))._then().invoke(list, "add").arg(result);
+                        } else {
+                            JVar size = fieldBody.decl(types._int, nameSource.get(param.name() + "Size"), JExpr.lit(0));
+                            JForEach forEach = fieldBody.forEach(usedValueClassType, nameSource.get("child"), field);
+                            forEach.body()._if(forEach.var().ne(JExpr._null()))._then().assign(list.component(size.incr()), result);
+                            JBlock trimBody = fieldBody._if(size.ne(list.ref("length")))._then();
+                            trimBody.assign(list, types._Arrays.staticInvoke("copyOf").arg(list).arg(size));
+                        }
+                        invocation.arg(list);
+                    }
+                }
+            }
+            JVar varParam = interfaceMethod.listVarParam();
+            if (varParam != null)
+                invocation.arg(caseFieldValue(caseClass, interfaceMethod, varParam.name()));
+            body._return(invocation);
+        }
+
+        private void buildFoldMethod() {
+            JMethod method = valueClass.method(JMod.PUBLIC | JMod.FINAL, types._void, FOLD_METHOD_NAME);
+            JTypeVar visitorResultType = visitorInterface.getResultTypeParameter();
+            JTypeVar resultType = Types.generifyWithBoundsFrom(method, visitorResultType.name(), visitorResultType);
+            method.type(resultType);
+            JTypeVar visitorExceptionType = visitorInterface.getExceptionTypeParameter();
+            JTypeVar exceptionType = null;
+            if (visitorExceptionType != null) {
+                exceptionType = Types.generifyWithBoundsFrom(method, visitorExceptionType.name(), visitorExceptionType);
+                method._throws(exceptionType);
+            }
+            AbstractJClass usedValueClassType = valueClass.narrow(valueClass.typeParams());
+            JVar algebra = method.param(visitorInterface.narrowed(usedValueClassType, resultType, exceptionType, resultType), "algebra");
+            JBlock body = method.body();
+            JVar order = buildPreOrder(body, usedValueClassType);
+
+            AbstractJClass resultsType = types._ArrayList.narrow(resultType);
+            JVar results = body.decl(resultsType, "results", JExpr._new(resultsType));
+            JForLoop forLoop = body._for();
+            JVar index = forLoop.init(types._int, "i", order.invoke("size").minus(JExpr.lit(1)));
+            forLoop.test(index.gte(JExpr.lit(0)));
+            forLoop.update(index.decr());
+            JVar value = forLoop.body().decl(usedValueClassType, "value", order.invoke("get").arg(index));
+            IJExpression childCount = value.ref(acceptorField).invoke(childCountAcceptorMethodName());
+            JVar base = forLoop.body().decl(types._int, "base", results.invoke("size").minus(childCount));
+            JInvocation fold = value.ref(acceptorField).invoke(foldAcceptorMethodName()).arg(algebra).arg(results).arg(base);
+            JVar result = forLoop.body().decl(resultType, "result", fold);
+            forLoop.body().invoke(results.invoke("subList").arg(base).arg(results.invoke("size")), "clear");
+            forLoop.body().invoke(results, "add").arg(result);
+            body._return(results.invoke("get").arg(JExpr.lit(0)));
+        }
+
+        /**
+         * Declares list of all values in pre-order.
+         */
+        private JVar buildPreOrder(JBlock body, AbstractJClass usedValueClassType) {
+            AbstractJClass stackType = types._ArrayList.narrow(usedValueClassType);
+            JVar stack = body.decl(stackType, "stack", JExpr._new(stackType));
+            JVar order = body.decl(stackType, "order", JExpr._new(stackType));
+            body.invoke(stack, "add").arg(JExpr._this());
+            buildPreOrderLoop(body, usedValueClassType, stack, order, null);
+            return order;
+        }
+
+        private void buildPrimitiveFoldMethods(JPrimitiveType type) throws JClassAlreadyExistsException, SourceCodeValidationException {
+            AbstractJClass boxedType = type.boxify();
+            JDefinedClass algebraInterface = buildPrimitiveFoldAlgebraInterface(type, boxedType);
+
+            Map<String, JBlock> foldCaseBodies = null;
+            if (hasCaseClasses())
+                declarePrimitiveFoldMethod(acceptingInterface, JMod.PUBLIC | JMod.ABSTRACT, algebraInterface, type);
+            else
+                foldCaseBodies = buildCaseSwitch(declarePrimitiveFoldMethod(acceptingInterface, JMod.PUBLIC, algebraInterface, type));
+            for (JMethod interfaceMethod: visitorInterface.methods()) {
+                JDefinedClass caseClass = caseClass(interfaceMethod);
+                JDefinedClass klass;
+                JBlock body;
+                if (foldCaseBodies != null) {
+                    klass = acceptingInterface;
+                    body = foldCaseBodies.get(interfaceMethod.name());
+                } else {
+                    klass = caseClass;
+                    JMethod foldMethod = declarePrimitiveFoldMethod(caseClass, JMod.PUBLIC | JMod.FINAL, algebraInterface, type);
+                    foldMethod.annotate(Override.class);
+                    body = foldMethod.body();
+                }
+                buildFoldBody(body, interfaceMethod, caseClass, valueClass.narrow(klass.typeParams()), type, boxedType);
+            }
+
+            JMethod method = valueClass.method(JMod.PUBLIC | JMod.FINAL, type, FOLD_METHOD_NAME + "To" + Source.capitalize(type.name()));
+            JTypeVar visitorExceptionType = visitorInterface.getExceptionTypeParameter();
+            JTypeVar exceptionType = null;
+            if (visitorExceptionType != null) {
+                exceptionType = Types.generifyWithBoundsFrom(method, visitorExceptionType.name(), visitorExceptionType);
+                method._throws(exceptionType);
+            }
+            AbstractJClass usedValueClassType = valueClass.narrow(valueClass.typeParams());
+            JVar algebra = method.param(narrowPrimitiveFoldAlgebra(algebraInterface, valueClass.typeParams(), exceptionType), "algebra");
+            JBlock body = method.body();
+            JVar order = buildPreOrder(body, usedValueClassType);
+
+            JVar results = body.decl(type.array(), "results", JExpr.newArray(type, JExpr.lit(16)));
+            JVar size = body.decl(types._int, "size", JExpr.lit(0));
+            JForLoop forLoop = body._for();
+            JVar index = forLoop.init(types._int, "i", order.invoke("size").minus(JExpr.lit(1)));
+            forLoop.test(index.gte(JExpr.lit(0)));
+            forLoop.update(index.decr());
+            JVar value = forLoop.body().decl(usedValueClassType, "value", order.invoke("get").arg(index));
+            IJExpression childCount = value.ref(acceptorField).invoke(childCountAcceptorMethodName());
+            JVar base = forLoop.body().decl(types._int, "base", size.minus(childCount));
+            JInvocation fold = value.ref(acceptorField).invoke(primitiveFoldAcceptorMethodName(type)).arg(algebra).arg(results).arg(base);
+            JVar result = forLoop.body().decl(type, "result", fold);
+            JBlock growBody = forLoop.body()._if(base.eq(results.ref("length")))._then();
+            growBody.assign(results, types._Arrays.staticInvoke("copyOf").arg(results).arg(results.ref("length").mul(JExpr.lit(2))));
+            forLoop.body().assign(results.component(base), result);
+            forLoop.body().assign(size, base.plus(JExpr.lit(1)));
+            body._return(results.component(JExpr.lit(0)));
+        }
+
+        /**
+         * Algebra interface, that has methods like visitor interface with self-reference fields replaced with primitive results.
+         * Nullable self-reference fields are replaced with boxed results and lists of self-references with arrays of results.
+         */
+        private JDefinedClass buildPrimitiveFoldAlgebraInterface(JPrimitiveType type, AbstractJClass boxedType) throws JClassAlreadyExistsException, SourceCodeValidationException {
+            JDefinedClass algebraInterface = valueClass._class(JMod.PUBLIC, primitiveFoldAlgebraClassName(type.name()), EClassType.INTERFACE);
+            for (JTypeVar visitorTypeParameter: visitorInterface.getValueTypeParameters()) {
+                Types.generifyWithBoundsFrom(algebraInterface, visitorTypeParameter.name(), visitorTypeParameter);
+            }
+            AbstractJClass usedValueClassType = valueClass.narrow(algebraInterface.typeParams());
+            JTypeVar visitorExceptionType = visitorInterface.getExceptionTypeParameter();
+            JTypeVar exceptionType = null;
+            if (visitorExceptionType != null)
+                exceptionType = Types.generifyWithBoundsFrom(algebraInterface, visitorExceptionType.name(), visitorExceptionType);
+            AbstractJClass usedExceptionType = exceptionType != null ? exceptionType : types._RuntimeException;
+            for (JMethod interfaceMethod: visitorInterface.methods()) {
+                JMethod method = algebraInterface.method(JMod.NONE, type, interfaceMethod.name());
+                for (JVar param: interfaceMethod.params()) {
+                    AbstractJType paramType;
+                    if (visitorInterface.isSelf(param.type()))
+                        paramType = Source.isNullable(param) ? boxedType : type;
+                    else if (visitorInterface.isSelfList(param.type()))
+                        paramType = type.array();
+                    else
+                        paramType = Source.toDeclarable(visitorInterface.narrowType(param.type(), usedValueClassType, usedValueClassType, usedExceptionType));
+                    JVar algebraParam = method.param(param.mods().getValue(), paramType, param.name());
+                    if (visitorInterface.isSelfList(param.type()) && Source.isNullable(param))
+                        algebraParam.annotate(Nullable.class);
+                }
+                JVar param = interfaceMethod.listVarParam();
+                if (param != null) {
+                    AbstractJType paramType = Source.toDeclarable(visitorInterface.narrowType(param.type().elementType(), usedValueClassType, usedValueClassType, usedExceptionType));
+                    method.varParam(param.mods().getValue(), paramType, param.name());
+                }
+                if (exceptionType != null)
+                    method._throws(exceptionType);
+            }
+            return algebraInterface;
+        }
+
+        private JMethod declarePrimitiveFoldMethod(JDefinedClass klass, int mods, JDefinedClass algebraInterface, JPrimitiveType type) {
+            JMethod method = klass.method(mods, type, primitiveFoldAcceptorMethodName(type));
+            JTypeVar visitorExceptionType = visitorInterface.getExceptionTypeParameter();
+            JTypeVar exceptionType = null;
+            if (visitorExceptionType != null) {
+                exceptionType = Types.generifyWithBoundsFrom(method, visitorExceptionType.name(), visitorExceptionType);
+                method._throws(exceptionType);
+            }
+            method.param(narrowPrimitiveFoldAlgebra(algebraInterface, klass.typeParams(), exceptionType), "algebra");
+            method.param(type.array(), "results");
+            method.param(types._int, "base");
+            return method;
+        }
+
+        private AbstractJClass narrowPrimitiveFoldAlgebra(JDefinedClass algebraInterface, JTypeVar[] valueTypeArguments, @Nullable JTypeVar exceptionType) {
+            List<AbstractJClass> arguments = new ArrayList<AbstractJClass>();
+            arguments.addAll(Arrays.asList(valueTypeArguments));
+            if (exceptionType != null)
+                arguments.add(exceptionType);
+            return arguments.isEmpty() ? algebraInterface : algebraInterface.narrow(arguments);
+        }
+
+        /**
+         * Builds memoizedFold method, that folds every distinct subvalue once.
+         * <p>
+         * Value on top of the stack is folded when results for all it's children are known,
+         * otherwise children without results are pushed on top of it.
+         * Every value is examined at most twice, since it's pushed children are completed before
+         * it returns to the top of the stack.
+         * <p>
+         * When hash code is cached, results are shared between structurally equal values.
+         * Every completed value gets the number of it's structural class.
+         * Class is found by shallow key: value's shape, that is value rebuilt with all children replaced
+         * by the same placeholder value, followed by class numbers of children.
+         * Placeholder is the first completed value, that has no children,
+         * so shape's equals and hashCode methods never descend deeper than one level.
+         */
+        void buildMemoizedFoldMethod() {
+            JMethod method = valueClass.method(JMod.PUBLIC | JMod.FINAL, types._void, MEMOIZED_FOLD_METHOD_NAME);
+            JTypeVar visitorResultType = visitorInterface.getResultTypeParameter();
+            JTypeVar resultType = Types.generifyWithBoundsFrom(method, visitorResultType.name(), visitorResultType);
+            method.type(resultType);
+            JTypeVar visitorExceptionType = visitorInterface.getExceptionTypeParameter();
+            JTypeVar exceptionType = null;
+            if (visitorExceptionType != null) {
+                exceptionType = Types.generifyWithBoundsFrom(method, visitorExceptionType.name(), visitorExceptionType);
+                method._throws(exceptionType);
+            }
+            AbstractJClass usedValueClassType = valueClass.narrow(valueClass.typeParams());
+            JVar algebra = method.param(visitorInterface.narrowed(usedValueClassType, resultType, exceptionType, resultType), "algebra");
+            JBlock body = method.body();
+
+            AbstractJClass resultsType = types._IdentityHashMap.narrow(usedValueClassType, resultType);
+            JVar results = body.decl(resultsType, "results", JExpr._new(resultsType));
+            JVar classes = null;
+            JVar valueClasses = null;
+            JVar classResults = null;
+            JVar placeholder = null;
+            if (visitorInterface.hashCodeCaching().enabled()) {
+                AbstractJClass classesType = types._HashMap.narrow(types._List.narrow(types._Object), types._Integer);
+                classes = body.decl(classesType, "classes", JExpr._new(classesType));
+                AbstractJClass valueClassesType = types._IdentityHashMap.narrow(usedValueClassType, types._Integer);
+                valueClasses = body.decl(valueClassesType, "valueClasses", JExpr._new(valueClassesType));
+                AbstractJClass classResultsType = types._ArrayList.narrow(resultType);
+                classResults = body.decl(classResultsType, "classResults", JExpr._new(classResultsType));
+                placeholder = body.decl(usedValueClassType, "placeholder", JExpr._null());
+            }
+            AbstractJClass valuesType = types._ArrayList.narrow(usedValueClassType);
+            JVar stack = body.decl(valuesType, "stack", JExpr._new(valuesType));
+            JVar children = body.decl(valuesType, "children", JExpr._new(valuesType));
+            AbstractJClass childResultsType = types._ArrayList.narrow(resultType);
+            JVar childResults = body.decl(childResultsType, "childResults", JExpr._new(childResultsType));
+            body.invoke(stack, "add").arg(JExpr._this());
+
+            JWhileLoop loop = body._while(stack.invoke("isEmpty").not());
+            IJExpression top = stack.invoke("size").minus(JExpr.lit(1));
+            JVar value = loop.body().decl(usedValueClassType, "value", stack.invoke("get").arg(top));
+            JConditional isCompleted = loop.body()._if(results.invoke("containsKey").arg(value));
+            isCompleted._then().invoke(stack, "remove").arg(top);
+            JBlock pendingBody = isCompleted._else();
+            pendingBody.invoke(children, "clear");
+            pendingBody.invoke(value.ref(acceptorField), pushChildrenAcceptorMethodName()).arg(children);
+            JVar isReady = pendingBody.decl(types._boolean, "isReady", JExpr.TRUE);
+            JForEach forEach = pendingBody.forEach(usedValueClassType, "child", children);
+            JBlock missingBody = forEach.body()._if(results.invoke("containsKey").arg(forEach.var()).not())._then();
+            missingBody.invoke(stack, "add").arg(forEach.var());
+            missingBody.assign(isReady, JExpr.FALSE);
+
+            JBlock readyBody = pendingBody._if(isReady)._then();
+            readyBody.invoke(stack, "remove").arg(top);
+            JBlock foldBody = readyBody;
+            JVar key = null;
+            if (classes != null) {
+                readyBody._if(placeholder.eq(JExpr._null()))._then().assign(placeholder, value);
+                JVar placeholders = readyBody.decl(valuesType, "placeholders", JExpr._new(valuesType));
+                AbstractJClass keyType = types._ArrayList.narrow(types._Object);
+                key = readyBody.decl(keyType, "key", JExpr._new(keyType));
+                JForEach keyForEach = readyBody.forEach(usedValueClassType, "child", children);
+                keyForEach.body().invoke(placeholders, "add").arg(placeholder);
+                keyForEach.body().invoke(key, "add").arg(valueClasses.invoke("get").arg(keyForEach.var()));
+                JInvocation shape = value.ref(acceptorField).invoke(withChildrenAcceptorMethodName()).arg(value).arg(placeholders);
+                readyBody.invoke(key, "add").arg(JExpr.lit(0)).arg(shape);
+                JVar sharedClass = readyBody.decl(types._Integer, "sharedClass", classes.invoke("get").arg(key));
+                JConditional isShared = readyBody._if(sharedClass.ne(JExpr._null()));
+                isShared._then().invoke(valueClasses, "put").arg(value).arg(sharedClass);
+                isShared._then().invoke(results, "put").arg(value).arg(classResults.invoke("get").arg(sharedClass));
+                foldBody = isShared._else();
+            }
+            foldBody.invoke(childResults, "clear");
+            JForEach childForEach = foldBody.forEach(usedValueClassType, "child", children);
+            childForEach.body().invoke(childResults, "add").arg(results.invoke("get").arg(childForEach.var()));
+            JInvocation fold = value.ref(acceptorField).invoke(foldAcceptorMethodName()).arg(algebra).arg(childResults).arg(JExpr.lit(0));
+            JVar result = foldBody.decl(resultType, "result", fold);
+            foldBody.invoke(results, "put").arg(value).arg(result);
+            if (classes != null) {
+                JVar newClass = foldBody.decl(types._Integer, "newClass", classResults.invoke("size"));
+                foldBody.invoke(classResults, "add").arg(result);
+                foldBody.invoke(classes, "put").arg(key).arg(newClass);
+                foldBody.invoke(valueClasses, "put").arg(value).arg(newClass);
+            }
+            body._return(results.invoke("get").arg(JExpr._this()));
+        }
+
+        /**
+         * Builds parallelFold method, that evaluates children with ForkJoinPool tasks.
+         * <p>
+         * Every task forks tasks for children of it's value until given depth is exhausted,
+         * then remaining subtree is evaluated with sequential fold method.
+         * Results of forked tasks are passed to acceptor's fold method in the same order,
+         * that is used by sequential fold.
+         */
+        void buildParallelFoldMethod() throws JClassAlreadyExistsException {
+            JDefinedClass taskClass = valueClass._class(JMod.PRIVATE | JMod.STATIC | JMod.FINAL, PARALLEL_FOLD_TASK_CLASS_NAME);
+            for (JTypeVar visitorTypeParameter: visitorInterface.getValueTypeParameters()) {
+                Types.generifyWithBoundsFrom(taskClass, visitorTypeParameter.name(), visitorTypeParameter);
+            }
+            JTypeVar visitorResultType = visitorInterface.getResultTypeParameter();
+            JTypeVar taskResultType = Types.generifyWithBoundsFrom(taskClass, visitorResultType.name(), visitorResultType);
+            taskClass._extends(types._RecursiveTask.narrow(taskResultType));
+            taskClass.field(JMod.PRIVATE | JMod.FINAL | JMod.STATIC, types._long, "serialVersionUID", JExpr.lit(1L));
+            AbstractJClass usedTaskValueType = valueClass.narrow(Arrays.copyOf(taskClass.typeParams(), valueClass.typeParams().length));
+            AbstractJClass usedTaskClassType = taskClass.narrow(taskClass.typeParams());
+            AbstractJClass usedTaskAlgebraType = visitorInterface.narrowed(usedTaskValueType, taskResultType, null, taskResultType);
+            JFieldVar valueField = taskClass.field(JMod.PRIVATE | JMod.FINAL, usedTaskValueType, "value");
+            JFieldVar algebraField = taskClass.field(JMod.PRIVATE | JMod.FINAL, usedTaskAlgebraType, "algebra");
+            JFieldVar depthField = taskClass.field(JMod.PRIVATE | JMod.FINAL, types._int, "depth");
+            JMethod constructor = taskClass.constructor(JMod.NONE);
+            constructor.body().assign(JExpr.refthis(valueField), constructor.param(usedTaskValueType, "value"));
+            constructor.body().assign(JExpr.refthis(algebraField), constructor.param(usedTaskAlgebraType, "algebra"));
+            constructor.body().assign(JExpr.refthis(depthField), constructor.param(types._int, "depth"));
+
+            JMethod compute = taskClass.method(JMod.PROTECTED, taskResultType, "compute");
+            compute.annotate(Override.class);
+            JBlock body = compute.body();
+            body._if(depthField.lte(JExpr.lit(0)))._then()._return(valueField.invoke(FOLD_METHOD_NAME).arg(algebraField));
+            AbstractJClass childrenType = types._ArrayList.narrow(usedTaskValueType);
+            JVar children = body.decl(childrenType, "children", JExpr._new(childrenType));
+            body.invoke(valueField.ref(acceptorField), pushChildrenAcceptorMethodName()).arg(children);
+            AbstractJClass tasksType = types._ArrayList.narrow(usedTaskClassType);
+            JVar tasks = body.decl(tasksType, "tasks", JExpr._new(tasksType).arg(children.invoke("size")));
+            JForEach forEachChild = body.forEach(usedTaskValueType, "child", children);
+            JInvocation newTask = JExpr._new(usedTaskClassType).arg(forEachChild.var()).arg(algebraField).arg(depthField.minus(JExpr.lit(1)));
+            forEachChild.body().invoke(tasks, "add").arg(newTask);
+            body.add(JExpr.invoke("invokeAll").arg(tasks));
+            AbstractJClass resultsType = types._ArrayList.narrow(taskResultType);
+            JVar results = body.decl(resultsType, "results", JExpr._new(resultsType).arg(tasks.invoke("size")));
+            JForEach forEachTask = body.forEach(usedTaskClassType, "task", tasks);
+            forEachTask.body().invoke(results, "add").arg(forEachTask.var().invoke("join"));
+            body._return(valueField.ref(acceptorField).invoke(foldAcceptorMethodName()).arg(algebraField).arg(results).arg(JExpr.lit(0)));
+
+            JMethod method = valueClass.method(JMod.PUBLIC | JMod.FINAL, types._void, "parallelFold");
+            JTypeVar resultType = Types.generifyWithBoundsFrom(method, visitorResultType.name(), visitorResultType);
+            method.type(resultType);
+            AbstractJClass usedValueClassType = valueClass.narrow(valueClass.typeParams());
+            JVar algebra = method.param(visitorInterface.narrowed(usedValueClassType, resultType, null, resultType), "algebra");
+            JVar pool = method.param(types._ForkJoinPool, "pool");
+            JVar depth = method.param(types._int, "depth");
+            List<AbstractJClass> taskTypeArguments = new ArrayList<AbstractJClass>();
+            taskTypeArguments.addAll(Arrays.asList(valueClass.typeParams()));
+            taskTypeArguments.add(resultType);
+            JInvocation task = JExpr._new(taskClass.narrow(taskTypeArguments)).arg(JExpr._this()).arg(algebra).arg(depth);
+            method.body()._return(pool.invoke("invoke").arg(task));
+        }
+
+        /**
+         * Builds Iterable implementation and fromArray and fromIterable factory methods for list-shaped value class.
+         * <p>
+         * Acceptor returns tail for cons case and null for nil case,
+         * so that iterator walks the list with a loop and doesn't use call stack.
+         * Factory methods build the list from the last element to the first one.
+         */
+        void buildIterableMethods(ConsListShape shape, Map<String, JMethod> constructorMethods) throws JClassAlreadyExistsException, SourceCodeValidationException {
+            Map<String, JBlock> headCaseBodies = null;
+            Map<String, JBlock> tailCaseBodies = null;
+            if (hasCaseClasses()) {
+                declareHeadMethod(acceptingInterface, JMod.PUBLIC | JMod.ABSTRACT, shape);
+                declareTailMethod(acceptingInterface, JMod.PUBLIC | JMod.ABSTRACT);
+            } else {
+                headCaseBodies = buildCaseSwitch(declareHeadMethod(acceptingInterface, JMod.PUBLIC, shape));
+                tailCaseBodies = buildCaseSwitch(declareTailMethod(acceptingInterface, JMod.PUBLIC));
+            }
+            for (JMethod interfaceMethod: visitorInterface.methods()) {
+                JDefinedClass caseClass = caseClass(interfaceMethod);
+                JBlock headBody;
+                JBlock tailBody;
+                if (headCaseBodies != null) {
+                    headBody = headCaseBodies.get(interfaceMethod.name());
+                    tailBody = tailCaseBodies.get(interfaceMethod.name());
+                } else {
+                    JMethod headMethod = declareHeadMethod(caseClass, JMod.PUBLIC | JMod.FINAL, shape);
+                    headMethod.annotate(Override.class);
+                    headBody = headMethod.body();
+                    JMethod tailMethod = declareTailMethod(caseClass, JMod.PUBLIC | JMod.FINAL);
+                    tailMethod.annotate(Override.class);
+                    tailBody = tailMethod.body();
+                }
+                if (interfaceMethod.name().equals(shape.consMethod().name())) {
+                    headBody._return(caseFieldValue(caseClass, interfaceMethod, shape.headParam().name()));
+                    tailBody._return(caseFieldValue(caseClass, interfaceMethod, shape.tailParam().name()));
+                } else {
+                    headBody._throw(JExpr._new(types._NoSuchElementException));
+                    tailBody._return(JExpr._null());
+                }
+            }
+
+            AbstractJClass usedValueClassType = valueClass.narrow(valueClass.typeParams());
+            AbstractJClass elementType = listElementType(shape, usedValueClassType).boxify();
+            valueClass._implements(types._Iterable.narrow(elementType));
+            JDefinedClass iteratorClass = buildIteratorClass(shape);
+            JMethod iteratorMethod = valueClass.method(JMod.PUBLIC | JMod.FINAL, types._Iterator.narrow(elementType), "iterator");
+            iteratorMethod.annotate(Override.class);
+            iteratorMethod.annotate(Nonnull.class);
+            iteratorMethod.body()._return(JExpr._new(iteratorClass.narrow(valueClass.typeParams())).arg(JExpr._this()));
+
+            buildFromArrayMethod(shape, constructorMethods);
+            buildFromIterableMethod(shape, constructorMethods);
+        }
+
+        private JMethod declareHeadMethod(JDefinedClass klass, int mods, ConsListShape shape) {
+            return klass.method(mods, listElementType(shape, valueClass.narrow(klass.typeParams())), headAcceptorMethodName());
+        }
+
+        private JMethod declareTailMethod(JDefinedClass klass, int mods) {
+            JMethod method = klass.method(mods, valueClass.narrow(klass.typeParams()), tailAcceptorMethodName());
+            method.annotate(Nullable.class);
+            return method;
+        }
+
+        private AbstractJType listElementType(ConsListShape shape, AbstractJClass usedValueClassType) {
+            return Source.toDeclarable(visitorInterface.narrowType(shape.headParam().type(), usedValueClassType, usedValueClassType, types._RuntimeException));
+        }
+
+        private JDefinedClass buildIteratorClass(ConsListShape shape) throws JClassAlreadyExistsException {
+            JDefinedClass iteratorClass = valueClass._class(JMod.PRIVATE | JMod.STATIC | JMod.FINAL, ITERATOR_CLASS_NAME);
+            for (JTypeVar visitorTypeParameter: visitorInterface.getValueTypeParameters()) {
+                Types.generifyWithBoundsFrom(iteratorClass, visitorTypeParameter.name(), visitorTypeParameter);
+            }
+            AbstractJClass usedValueClassType = valueClass.narrow(iteratorClass.typeParams());
+            AbstractJType elementType = listElementType(shape, usedValueClassType);
+            iteratorClass._implements(types._Iterator.narrow(elementType.boxify()));
+            JFieldVar currentField = iteratorClass.field(JMod.PRIVATE, usedValueClassType, "current");
+            JMethod constructor = iteratorClass.constructor(JMod.NONE);
+            constructor.body().assign(JExpr.refthis(currentField), constructor.param(usedValueClassType, "list"));
+
+            JMethod hasNext = iteratorClass.method(JMod.PUBLIC, types._boolean, "hasNext");
+            hasNext.annotate(Override.class);
+            hasNext.body()._return(currentField.ref(acceptorField).invoke(tailAcceptorMethodName()).ne(JExpr._null()));
+
+            JMethod next = iteratorClass.method(JMod.PUBLIC, elementType.boxify(), "next");
+            next.annotate(Override.class);
+            JVar tail = next.body().decl(usedValueClassType, "tail", currentField.ref(acceptorField).invoke(tailAcceptorMethodName()));
+            next.body()._if(tail.eq(JExpr._null()))._then()._throw(JExpr._new(types._NoSuchElementException));
+            JVar head = next.body().decl(elementType, "head", currentField.ref(acceptorField).invoke(headAcceptorMethodName()));
+            next.body().assign(currentField, tail);
+            next.body()._return(head);
+
+            JMethod remove = iteratorClass.method(JMod.PUBLIC, types._void, "remove");
+            remove.annotate(Override.class);
+            remove.body()._throw(JExpr._new(types._UnsupportedOperationException));
+            return iteratorClass;
+        }
+
+        private void buildFromArrayMethod(ConsListShape shape, Map<String, JMethod> constructorMethods) {
+            JMethod method = declareListFactoryMethod(shape, constructorMethods, "fromArray");
+            AbstractJClass usedValueClassType = valueClass.narrow(method.typeParams());
+            JVar elements = method.param(listElementType(shape, usedValueClassType).array(), "elements");
+            JVar result = method.body().decl(usedValueClassType, "result", listConstructorInvocation(constructorMethods, shape.nilMethod(), method.typeParams()));
+            JForLoop forLoop = method.body()._for();
+            JVar index = forLoop.init(types._int, "i", elements.ref("length").minus(JExpr.lit(1)));
+            forLoop.test(index.gte(JExpr.lit(0)));
+            forLoop.update(index.decr());
+            forLoop.body().assign(result, consInvocation(shape, constructorMethods, method.typeParams(), elements.component(index), result));
+            method.body()._return(result);
+        }
+
+        private void buildFromIterableMethod(ConsListShape shape, Map<String, JMethod> constructorMethods) {
+            JMethod method = declareListFactoryMethod(shape, constructorMethods, "fromIterable");
+            AbstractJClass usedValueClassType = valueClass.narrow(method.typeParams());
+            AbstractJType elementType = listElementType(shape, usedValueClassType);
+            JVar elements = method.param(types._Iterable.narrow(elementType.boxify().wildcard()), "elements");
+            AbstractJClass bufferType = types._ArrayList.narrow(elementType.boxify());
+            JVar buffer = method.body().decl(bufferType, "buffer", JExpr._new(bufferType));
+            JForEach forEach = method.body().forEach(elementType, "element", elements);
+            forEach.body().invoke(buffer, "add").arg(forEach.var());
+            JVar result = method.body().decl(usedValueClassType, "result", listConstructorInvocation(constructorMethods, shape.nilMethod(), method.typeParams()));
+            JForLoop forLoop = method.body()._for();
+            JVar index = forLoop.init(types._int, "i", buffer.invoke("size").minus(JExpr.lit(1)));
+            forLoop.test(index.gte(JExpr.lit(0)));
+            forLoop.update(index.decr());
+            forLoop.body().assign(result, consInvocation(shape, constructorMethods, method.typeParams(), buffer.invoke("get").arg(index), result));
+            method.body()._return(result);
+        }
+
+        /**
+         * Declares static factory method with the same access level as cons constructor method.
+         */
+        private JMethod declareListFactoryMethod(ConsListShape shape, Map<String, JMethod> constructorMethods, String name) {
+            int mods = constructorMethods.get(shape.consMethod().name()).mods().getValue();
+            JMethod method = valueClass.method(mods, types._void, name);
+            for (JTypeVar visitorTypeParameter: visitorInterface.getValueTypeParameters()) {
+                Types.generifyWithBoundsFrom(method, visitorTypeParameter.name(), visitorTypeParameter);
+            }
+            method.type(valueClass.narrow(method.typeParams()));
+            method.annotate(Nonnull.class);
+            return method;
+        }
+
+        private JInvocation consInvocation(ConsListShape shape, Map<String, JMethod> constructorMethods, JTypeVar[] typeArguments, IJExpression head, IJExpression tail) {
+            JInvocation invocation = listConstructorInvocation(constructorMethods, shape.consMethod(), typeArguments);
+            for (JVar param: shape.consMethod().params()) {
+                invocation.arg(param == shape.headParam() ? head : tail);
+            }
+            return invocation;
+        }
+
+        private JInvocation listConstructorInvocation(Map<String, JMethod> constructorMethods, JMethod interfaceMethod, JTypeVar[] typeArguments) {
+            JInvocation invocation = valueClass.staticInvoke(constructorMethods.get(interfaceMethod.name()));
+            for (JTypeVar typeArgument: typeArguments)
+                invocation.narrow(typeArgument);
+            return invocation;
+        }
+
+        /**
+         * Builds map methods, one for every type parameter of value class.
+         * <p>
+         * Values are processed like in fold methods.
+         * Acceptor reads mapped children starting at base index and returns original value
+         * when mapper returns the same instances and every child is unchanged.
+         * Original value can be returned in place of mapped one, since it has no fields of mapped type,
+         * that are not already instances of new type.
+         */
+        void buildMapMethods(Map<String, JMethod> constructorMethods) throws JClassAlreadyExistsException, SourceCodeValidationException {
+            JDefinedClass mapperInterface = valueClass._class(JMod.PUBLIC, MAPPER_CLASS_NAME, EClassType.INTERFACE);
+            JTypeVar argumentType = mapperInterface.generify("A");
+            JTypeVar resultType = mapperInterface.generify("B");
+            JMethod applyMethod = mapperInterface.method(JMod.NONE, resultType, "apply");
+            applyMethod.param(argumentType, "value");
+
+            List<JTypeVar> valueTypeParameters = visitorInterface.getValueTypeParameters();
+            for (int i = 0; i < valueTypeParameters.size(); i++) {
+                buildMapMethods(mapperInterface, constructorMethods, i);
+            }
+        }
+
+        private void buildMapMethods(JDefinedClass mapperInterface, Map<String, JMethod> constructorMethods, int typeParameterIndex) throws SourceCodeValidationException {
+            JTypeVar visitorTypeParameter = visitorInterface.getValueTypeParameters().get(typeParameterIndex);
+            Map<String, JBlock> mapCaseBodies = null;
+            JMethod acceptorMapMethod;
+            if (hasCaseClasses())
+                acceptorMapMethod = declareMapMethod(acceptingInterface, JMod.PUBLIC | JMod.ABSTRACT, mapperInterface, typeParameterIndex);
+            else {
+                acceptorMapMethod = declareMapMethod(acceptingInterface, JMod.PUBLIC, mapperInterface, typeParameterIndex);
+                acceptorMapMethod.annotate(SuppressWarnings.class).param("value", "unchecked");
+                mapCaseBodies = buildCaseSwitch(acceptorMapMethod);
+            }
+            for (JMethod interfaceMethod: visitorInterface.methods()) {
+                JDefinedClass caseClass = caseClass(interfaceMethod);
+                JDefinedClass klass;
+                JMethod method;
+                JBlock body;
+                if (mapCaseBodies != null) {
+                    klass = acceptingInterface;
+                    method = acceptorMapMethod;
+                    body = mapCaseBodies.get(interfaceMethod.name());
+                } else {
+                    klass = caseClass;
+                    method = declareMapMethod(caseClass, JMod.PUBLIC | JMod.FINAL, mapperInterface, typeParameterIndex);
+                    method.annotate(Override.class);
+                    method.annotate(SuppressWarnings.class).param("value", "unchecked");
+                    body = method.body();
+                }
+                List<AbstractJClass> mappedTypeArguments = new ArrayList<AbstractJClass>(Arrays.asList(klass.typeParams()));
+                mappedTypeArguments.set(typeParameterIndex, method.typeParams()[0]);
+                JInvocation constructorInvocation = valueClass.staticInvoke(constructorMethods.get(interfaceMethod.name()));
+                for (AbstractJClass typeArgument: mappedTypeArguments)
+                    constructorInvocation.narrow(typeArgument);
+                buildMapBody(body, interfaceMethod, caseClass, visitorTypeParameter, valueClass.narrow(klass.typeParams()), valueClass.narrow(mappedTypeArguments), method.typeParams()[0], constructorInvocation);
+            }
+
+            JMethod method = valueClass.method(JMod.PUBLIC | JMod.FINAL, types._void, mapMethodName(visitorTypeParameter.name()));
+            method.annotate(Nonnull.class);
+            JTypeVar mappedType = method.generify(mappedTypeParameterName());
+            List<AbstractJClass> mappedTypeArguments = new ArrayList<AbstractJClass>(Arrays.asList(valueClass.typeParams()));
+            mappedTypeArguments.set(typeParameterIndex, mappedType);
+            AbstractJClass mappedValueClassType = valueClass.narrow(mappedTypeArguments);
+            method.type(mappedValueClassType);
+            AbstractJClass usedValueClassType = valueClass.narrow(valueClass.typeParams());
+            JTypeVar typeParameter = valueClass.typeParams()[typeParameterIndex];
+            JVar mapper = method.param(mapperInterface.narrow(typeParameter.wildcardSuper(), mappedType.wildcard()), "mapper");
+            JBlock body = method.body();
+            if (!visitorInterface.hasSelfReferenceFields()) {
+                IJExpression noResults = types._Collections.staticInvoke("emptyList").narrow(mappedValueClassType);
+                body._return(JExpr.refthis(acceptorField).invoke(mapAcceptorMethodName(visitorTypeParameter)).arg(JExpr._this()).arg(mapper).arg(noResults).arg(JExpr.lit(0)));
+            } else {
+                JVar order = buildPreOrder(body, usedValueClassType);
+                AbstractJClass resultsType = types._ArrayList.narrow(mappedValueClassType);
+                JVar results = body.decl(resultsType, "results", JExpr._new(resultsType));
+                JForLoop forLoop = body._for();
+                JVar index = forLoop.init(types._int, "i", order.invoke("size").minus(JExpr.lit(1)));
+                forLoop.test(index.gte(JExpr.lit(0)));
+                forLoop.update(index.decr());
+                JVar value = forLoop.body().decl(usedValueClassType, "value", order.invoke("get").arg(index));
+                IJExpression childCount = value.ref(acceptorField).invoke(childCountAcceptorMethodName());
+                JVar base = forLoop.body().decl(types._int, "base", results.invoke("size").minus(childCount));
+                JInvocation map = value.ref(acceptorField).invoke(mapAcceptorMethodName(visitorTypeParameter)).arg(value).arg(mapper).arg(results).arg(base);
+                JVar result = forLoop.body().decl(mappedValueClassType, "result", map);
+                forLoop.body().invoke(results.invoke("subList").arg(base).arg(results.invoke("size")), "clear");
+                forLoop.body().invoke(results, "add").arg(result);
+                body._return(results.invoke("get").arg(JExpr.lit(0)));
+            }
+        }
+
+        /**
+         * Name for new type parameter of map methods, that doesn't clash with type parameters of value class.
+         */
+        private String mappedTypeParameterName() {
+            Set<String> typeParameterNames = new TreeSet<String>();
+            for (JTypeVar typeParameter: visitorInterface.getValueTypeParameters()) {
+                typeParameterNames.add(typeParameter.name());
+            }
+            String name = "U";
+            for (int i = 1; typeParameterNames.contains(name); i++) {
+                name = "U" + i;
+            }
+            return name;
+        }
+
+        private JMethod declareMapMethod(JDefinedClass klass, int mods, JDefinedClass mapperInterface, int typeParameterIndex) {
+            JTypeVar visitorTypeParameter = visitorInterface.getValueTypeParameters().get(typeParameterIndex);
+            JMethod method = klass.method(mods, types._void, mapAcceptorMethodName(visitorTypeParameter));
+            JTypeVar mappedType = method.generify(mappedTypeParameterName());
+            List<AbstractJClass> mappedTypeArguments = new ArrayList<AbstractJClass>(Arrays.asList(klass.typeParams()));
+            mappedTypeArguments.set(typeParameterIndex, mappedType);
+            AbstractJClass mappedValueClassType = valueClass.narrow(mappedTypeArguments);
+            method.type(mappedValueClassType);
+            method.param(valueClass.narrow(klass.typeParams()), "value");
+            method.param(mapperInterface.narrow(klass.typeParams()[typeParameterIndex].wildcardSuper(), mappedType.wildcard()), "mapper");
+            method.param(types._List.narrow(mappedValueClassType), "results");
+            method.param(types._int, "base");
+            return method;
+        }
+
+        /**
+         * Builds body of acceptor method, that maps fields of given type parameter and replaces children with mapped ones.
+         * Mapped children are read from results list starting at base index.
+         * Null elements of lists of self-references are preserved.
+         */
+        private void buildMapBody(JBlock body, JMethod interfaceMethod, JDefinedClass caseClass, JTypeVar visitorTypeParameter, AbstractJClass usedValueClassType, AbstractJClass mappedValueClassType, JTypeVar mappedType, JInvocation constructorInvocation) throws SourceCodeValidationException {
+            IJExpression value = JExpr.ref("value");
+            IJExpression mapper = JExpr.ref("mapper");
+            IJExpression results = JExpr.ref("results");
+            VariableNameSource nameSource = new VariableNameSource();
+            nameSource.get("value");
+            nameSource.get("mapper");
+            nameSource.get("results");
+            nameSource.get("base");
+
+            JVar index = null;
+            IJExpression unchanged = null;
+            for (JVar param: interfaceMethod.params()) {
+                IJExpression field = caseFieldValue(caseClass, interfaceMethod, param.name());
+                boolean isSelf = visitorInterface.isSelf(param.type());
+                if (param.type() == visitorTypeParameter) {
+                    IJExpression mapped = mapper.invoke("apply").arg(field);
+                    if (Source.isNullable(param))
+                        mapped = JOp.cond(field.eq(JExpr._null()), JExpr._null(), mapped);
+                    JVar mappedField = body.decl(mappedType, nameSource.get(param.name()), mapped);
+                    IJExpression isSame = JExpr.cast(types._Object, mappedField).eq(field);
+                    unchanged = unchanged == null ? isSame : unchanged.cand(isSame);
+                    constructorInvocation.arg(mappedField);
+                } else if (isSelf || visitorInterface.isSelfList(param.type())) {
+                    if (index == null)
+                        index = body.decl(types._int, nameSource.get("index"), JExpr.ref("base"));
+                    IJExpression result = results.invoke("get").arg(index.incr());
+                    if (isSelf) {
+                        IJExpression child = Source.isNullable(param) ? JOp.cond(field.eq(JExpr._null()), JExpr._null(), result) : result;
+                        JVar childVar = body.decl(mappedValueClassType, nameSource.get(param.name()), child);
+                        IJExpression isSame = JExpr.cast(types._Object, childVar).eq(field);
+                        unchanged = unchanged == null ? isSame : unchanged.cand(isSame);
+                        constructorInvocation.arg(childVar);
+                    } else {
+                        AbstractJClass listType = types._ArrayList.narrow(mappedValueClassType);
+                        JVar list = body.decl(listType, nameSource.get(param.name()), JExpr._null());
+                        JVar listUnchanged = body.decl(types._boolean, nameSource.get(param.name() + "Unchanged"), JExpr.TRUE);
+                        JBlock fieldBody = !Source.isNullable(param) ? body : body._if(field.ne(JExpr._null()))._then();
+                        fieldBody.assign(list, JExpr._new(listType).arg(field.invoke("size")));
+                        JForEach forEach = fieldBody.forEach(usedValueClassType, nameSource.get("child"), field);
+                        JConditional isNull = forEach.body()._if(forEach.var().eq(JExpr._null()));
+                        isNull._then().invoke(list, "add").arg(JExpr._null());
+                        JVar mappedChild = isNull._else().decl(mappedValueClassType, nameSource.get("mappedChild"), result);
+                        isNull._else().invoke(list, "add").arg(mappedChild);
+                        isNull._else()._if(JExpr.cast(types._Object, mappedChild).ne(forEach.var()))._then().assign(listUnchanged, JExpr.FALSE);
+                        unchanged = unchanged == null ? listUnchanged : unchanged.cand(listUnchanged);
+                        constructorInvocation.arg(list);
+                    }
+                } else
+                    constructorInvocation.arg(field);
+            }
+            JVar varParam = interfaceMethod.listVarParam();
+            if (varParam != null)
+                constructorInvocation.arg(caseFieldValue(caseClass, interfaceMethod, varParam.name()));
+            IJExpression sameValue = JExpr.cast(mappedValueClassType, JExpr.cast(types._Object, value));
+            if (unchanged == null)
+                body._return(sameValue);
+            else {
+                body._if(unchanged)._then()._return(sameValue);
+                body._return(constructorInvocation);
+            }
+        }
+
+        /**
+         * Builds method, that returns memoized attribute.
+         * <p>
+         * Attribute is cached in volatile field, so that it is computed once per instance, unless there is a race,
+         * and published safely to other threads.
+         * For recursive value classes, values are traversed in pre-order without descending into values,
+         * that already have cached attribute.
+         * Then attributes are computed in reverse order, so that attributes of children are always cached
+         * when algebra is invoked for their parent.
+         */
+        void buildAttributeMethod(String name, AbstractJClass type, AbstractJClass algebraClass, boolean isSerializable) {
+            String algebraFieldName = name.toUpperCase(Locale.US) + "_ATTRIBUTE_ALGEBRA";
+            JFieldVar algebraField = valueClass.field(JMod.PRIVATE | JMod.STATIC | JMod.FINAL, algebraClass, algebraFieldName, JExpr._new(algebraClass));
+            int mods = JMod.PRIVATE | JMod.VOLATILE;
+            mods = !isSerializable ? mods : mods | JMod.TRANSIENT;
+            JFieldVar cachedValueField = valueClass.field(mods, type, name + "CachedValue");
+            if (protectedConstructor != null) {
+                JVar implementation = protectedConstructor.params().get(0);
+                protectedConstructor.body().assign(JExpr.refthis(cachedValueField), implementation.ref(cachedValueField));
+            }
+
+            JMethod method = valueClass.method(JMod.PUBLIC | JMod.FINAL, type, name);
+            method.annotate(Nonnull.class);
+            JBlock body = method.body();
+            JVar result = body.decl(type, "result", JExpr.refthis(cachedValueField));
+            JBlock computeBody = body._if(result.eq(JExpr._null()))._then();
+            if (!visitorInterface.hasSelfReferenceFields()) {
+                computeBody.assign(result, JExpr._this().invoke(visitorInterface.acceptMethodName()).arg(algebraField));
+                computeBody.assign(JExpr.refthis(cachedValueField), result);
+            } else {
+                AbstractJClass usedValueClassType = valueClass.narrow(valueClass.typeParams());
+                AbstractJClass valuesType = types._ArrayList.narrow(usedValueClassType);
+                JVar stack = computeBody.decl(valuesType, "stack", JExpr._new(valuesType));
+                JVar order = computeBody.decl(valuesType, "order", JExpr._new(valuesType));
+                computeBody.invoke(stack, "add").arg(JExpr._this());
+                JWhileLoop loop = computeBody._while(stack.invoke("isEmpty").not());
+                JVar next = loop.body().decl(usedValueClassType, "value", stack.invoke("remove").arg(stack.invoke("size").minus(JExpr.lit(1))));
+                JBlock uncachedBody = loop.body()._if(next.ref(cachedValueField).eq(JExpr._null()))._then();
+                uncachedBody.invoke(order, "add").arg(next);
+                uncachedBody.invoke(next.ref(acceptorField), pushChildrenAcceptorMethodName()).arg(stack);
+
+                JVar children = computeBody.decl(valuesType, "children", JExpr._new(valuesType));
+                AbstractJClass resultsType = types._ArrayList.narrow(type);
+                JVar results = computeBody.decl(resultsType, "results", JExpr._new(resultsType));
+                JForLoop forLoop = computeBody._for();
+                JVar index = forLoop.init(types._int, "i", order.invoke("size").minus(JExpr.lit(1)));
+                forLoop.test(index.gte(JExpr.lit(0)));
+                forLoop.update(index.decr());
+                JVar value = forLoop.body().decl(usedValueClassType, "value", order.invoke("get").arg(index));
+                forLoop.body().invoke(children, "clear");
+                forLoop.body().invoke(value.ref(acceptorField), pushChildrenAcceptorMethodName()).arg(children);
+                forLoop.body().invoke(results, "clear");
+                JForEach forEach = forLoop.body().forEach(usedValueClassType, "child", children);
+                forEach.body().invoke(results, "add").arg(forEach.var().ref(cachedValueField));
+                JInvocation fold = value.ref(acceptorField).invoke(foldAcceptorMethodName()).arg(algebraField).arg(results).arg(JExpr.lit(0));
+                forLoop.body().assign(value.ref(cachedValueField), fold);
+                computeBody.assign(result, JExpr.refthis(cachedValueField));
+            }
+            body._return(result);
+        }
+
+        void buildToStringMethod() throws SourceCodeValidationException {
+            JMethod toStringMethod = valueClass.method(JMod.PUBLIC | JMod.FINAL, types._String, "toString");
+            toStringMethod.annotate(Override.class);
+            toStringMethod.annotate(Nonnull.class);
+            JInvocation invocation1 = JExpr.refthis(acceptorField).invoke("toString");
+            toStringMethod.body()._return(invocation1);
+
+            if (isEnumBacked()) {
+                JMethod enumToStringMethod = acceptingInterface.method(JMod.PUBLIC | JMod.FINAL, types._String, "toString");
+                enumToStringMethod.annotate(Override.class);
+                enumToStringMethod.annotate(Nonnull.class);
+                Map<String, JBlock> caseBodies = buildCaseSwitch(enumToStringMethod);
+                for (JMethod interfaceMethod1: visitorInterface.methods()) {
+                    String representation = valueClass.name() + "." + Source.capitalize(interfaceMethod1.name()) + "{}";
+                    caseBodies.get(interfaceMethod1.name())._return(JExpr.lit(representation));
+                }
+                return;
+            }
+
+            Map<String, JBlock> switchCaseBodies = null;
+            if (isTaggedUnion()) {
+                JMethod taggedToStringMethod = acceptingInterface.method(JMod.PUBLIC | JMod.FINAL, types._String, "toString");
+                taggedToStringMethod.annotate(Override.class);
+                taggedToStringMethod.annotate(Nonnull.class);
+                switchCaseBodies = buildCaseSwitch(taggedToStringMethod);
+            }
+
+            for (JMethod interfaceMethod1: visitorInterface.methods()) {
+                JDefinedClass caseClass = caseClass(interfaceMethod1);
+                JBlock caseBody;
+                if (switchCaseBodies != null)
+                    caseBody = switchCaseBodies.get(interfaceMethod1.name());
+                else {
+                    JMethod caseToStringMethod = caseClass.method(JMod.PUBLIC | JMod.FINAL, types._String, "toString");
+                    caseToStringMethod.annotate(Override.class);
+                    caseToStringMethod.annotate(Nonnull.class);
+                    caseBody = caseToStringMethod.body();
+                }
+
+                VariableNameSource nameSource = new VariableNameSource();
+                List<JVar> params = interfaceMethod1.params();
+                JVar varParam = interfaceMethod1.listVarParam();
+
+                JVar result = caseBody.decl(types._StringBuilder, nameSource.get("result"), JExpr._new(types._StringBuilder));
+                JInvocation invocation = caseBody.invoke(result, "append");
+                invocation.arg(valueClass.name() + "." + Source.capitalize(interfaceMethod1.name()) + "{");
+                ToStringMethodBody body = new ToStringMethodBody(caseBody, result);
+                for (int i = 0; i < params.size(); i++) {
+                    if (i > 0) {
+                        invocation = caseBody.invoke(result, "append");
+                        invocation.arg(", ");
+                    }
+                    String name = params.get(i).name();
+                    body.appendParam(caseFieldType(caseClass, interfaceMethod1, name), name, caseFieldValue(caseClass, interfaceMethod1, name));
+                }
+                if (varParam != null) {
+                    if (!params.isEmpty()) {
+                        invocation = caseBody.invoke(result, "append");
+                        invocation.arg(", ");
+                    }
+                    String name = varParam.name();
+                    body.appendParam(caseFieldType(caseClass, interfaceMethod1, name), name, caseFieldValue(caseClass, interfaceMethod1, name));
+                }
+                invocation = caseBody.invoke(result, "append");
+                invocation.arg("}");
+                caseBody._return(result.invoke("toString"));
+            }
+        }
+
+        /**
+         * Name of current case for error messages, method is declared on first use.
+         */
+        private JMethod caseNameMethod() {
+            if (caseNameMethod == null) {
+                String methodName = caseNameAcceptorMethodName();
+                if (hasCaseClasses()) {
+                    caseNameMethod = acceptingInterface.method(JMod.PUBLIC | JMod.ABSTRACT, types._String, methodName);
+                    for (JMethod interfaceMethod: visitorInterface.methods()) {
+                        JDefinedClass caseClass = caseClasses.get(interfaceMethod.name());
+                        JMethod caseNameImplementation = caseClass.method(JMod.PUBLIC | JMod.FINAL, types._String, methodName);
+                        caseNameImplementation.annotate(Override.class);
+                        caseNameImplementation.body()._return(JExpr.lit(interfaceMethod.name()));
+                    }
+                } else {
+                    caseNameMethod = acceptingInterface.method(JMod.PUBLIC, types._String, methodName);
+                    Map<String, JBlock> caseBodies = buildCaseSwitch(caseNameMethod);
+                    for (JMethod interfaceMethod: visitorInterface.methods()) {
+                        caseBodies.get(interfaceMethod.name())._return(JExpr.lit(interfaceMethod.name()));
+                    }
+                }
+            }
+            return caseNameMethod;
+        }
+
+        void generateGetter(FieldConfiguration configuration) {
+            String getterName = configuration.name();
+            JMethod getterMethod = valueClass.method(Source.toJMod(configuration.accessLevel()) | JMod.FINAL, configuration.type(), getterName);
+            if (configuration.type().isReference()) {
                 if (configuration.isNullable())
                     getterMethod.annotate(Nullable.class);
                 else
                     getterMethod.annotate(Nonnull.class);
             }
+            if (commonFields.containsKey(getterName)) {
+                JFieldVar field = commonFieldVars.get(getterName);
+                getterMethod.body()._return(JExpr.refthis(acceptorField).ref(field));
+                return;
+            }
 
-            getterMethod = valueClass.method(Source.toJMod(configuration.accessLevel()) | JMod.FINAL, configuration.type(), getterName);
+            // Cases without the field share single throwing implementation from acceptor base class
+            boolean isDefinedForAll = configuration.isDefinedForAll(visitorInterface.methods());
+            boolean isAbstract = isDefinedForAll && hasCaseClasses();
+            JMethod acceptorGetterMethod = acceptingInterface.method(isAbstract ? JMod.PUBLIC | JMod.ABSTRACT : JMod.PUBLIC, configuration.type(), getterName);
             if (configuration.type().isReference()) {
                 if (configuration.isNullable())
-                    getterMethod.annotate(Nullable.class);
+                    acceptorGetterMethod.annotate(Nullable.class);
                 else
-                    getterMethod.annotate(Nonnull.class);
+                    acceptorGetterMethod.annotate(Nonnull.class);
             }
+            if (isTaggedUnion()) {
+                List<JMethod> cases = new ArrayList<JMethod>();
+                for (JMethod interfaceMethod1: visitorInterface.methods()) {
+                    if (configuration.paramName(interfaceMethod1) != null)
+                        cases.add(interfaceMethod1);
+                }
+                Map<String, JBlock> caseBodies = buildCaseSwitch(acceptorGetterMethod.body(), cases);
+                for (JMethod interfaceMethod1: cases) {
+                    IJExpression value = caseFieldValue(acceptingInterface, interfaceMethod1, configuration.paramName(interfaceMethod1));
+                    caseBodies.get(interfaceMethod1.name())._return(value);
+                }
+            }
+            if (!isAbstract) {
+                JInvocation exceptionInvocation = JExpr._new(types._IllegalStateException);
+                exceptionInvocation.arg(JExpr.lit(configuration.name() + " is not accessible in this case: ").plus(JExpr.invoke(caseNameMethod())));
+                acceptorGetterMethod.body()._throw(exceptionInvocation);
+            }
+
             JInvocation invocation1 = JExpr.refthis(acceptorField).invoke(getterName);
             getterMethod.body()._return(invocation1);
 
             for (JMethod interfaceMethod1: visitorInterface.methods()) {
-                JDefinedClass caseClass = caseClasses.get(interfaceMethod1.name());
-                JMethod geterMethod = caseClass.method(JMod.PUBLIC | JMod.FINAL, configuration.type(), getterName);
-                geterMethod.annotate(Override.class);
-                if (configuration.type().isReference()) {
-                    if (configuration.isNullable())
-                        geterMethod.annotate(Nullable.class);
-                    else
-                        geterMethod.annotate(Nonnull.class);
-                }
-                boolean isGettable = false;
-                for (JVar param: interfaceMethod1.params()) {
-                    JFieldVar field = caseClass.fields().get(param.name());
-                    if (configuration.isFieldValue(interfaceMethod1, param.name())) {
-                        geterMethod.body()._return(field);
-                        isGettable = true;
+                String paramName = configuration.paramName(interfaceMethod1);
+                if (paramName != null && hasCaseClasses()) {
+                    JDefinedClass caseClass = caseClasses.get(interfaceMethod1.name());
+                    JMethod geterMethod = caseClass.method(JMod.PUBLIC | JMod.FINAL, configuration.type(), getterName);
+                    geterMethod.annotate(Override.class);
+                    if (configuration.type().isReference()) {
+                        if (configuration.isNullable())
+                            geterMethod.annotate(Nullable.class);
+                        else
+                            geterMethod.annotate(Nonnull.class);
                     }
-                }
-                JVar param = interfaceMethod1.listVarParam();
-                if (param != null) {
-                    JFieldVar field = caseClass.fields().get(param.name());
-                    if (configuration.isFieldValue(interfaceMethod1, param.name())) {
-                        geterMethod.body()._return(field);
-                        isGettable = true;
-                    }
-                }
-                if (!isGettable) {
-                    JInvocation exceptionInvocation = JExpr._new(types._IllegalStateException);
-                    exceptionInvocation.arg(configuration.name() + " is not accessible in this case: " + interfaceMethod1.name());
-                    geterMethod.body()._throw(exceptionInvocation);
+                    geterMethod.body()._return(caseFieldValue(caseClass, interfaceMethod1, paramName));
                 }
             }
         }
@@ -631,8 +2796,13 @@ class ValueClassModel {
             String updaterName = configuration.name();
             AbstractJClass usedValueClassType = valueClass.narrow(valueClass.typeParams());
 
-            JMethod updaterMethod = acceptingInterface.method(JMod.PUBLIC, usedValueClassType, updaterName);
+            // Cases without the field share single implementation from acceptor base class,
+            // that returns updated value itself
+            boolean isDefinedForAll = configuration.isDefinedForAll(visitorInterface.methods());
+            JMethod updaterMethod = acceptingInterface.method(isDefinedForAll && hasCaseClasses() ? JMod.PUBLIC | JMod.ABSTRACT : JMod.PUBLIC, usedValueClassType, updaterName);
             updaterMethod.annotate(Nonnull.class);
+            JVar thisValueParam = updaterMethod.param(usedValueClassType, nameSource.get("thisValue"));
+            thisValueParam.annotate(Nonnull.class);
             JVar newValueParam;
             if (configuration.isVarArg())
                 newValueParam = updaterMethod.varParam(configuration.type().elementType(), nameSource.get("newValue"));
@@ -645,6 +2815,20 @@ class ValueClassModel {
                     newValueParam.annotate(Nonnull.class);
                 }
             }
+            Map<String, JBlock> switchCaseBodies = null;
+            if (isTaggedUnion()) {
+                List<JMethod> cases = new ArrayList<JMethod>();
+                for (JMethod interfaceMethod1: visitorInterface.methods()) {
+                    if (configuration.paramName(interfaceMethod1) != null)
+                        cases.add(interfaceMethod1);
+                }
+                switchCaseBodies = buildCaseSwitch(updaterMethod.body(), cases);
+                if (isDefinedForAll)
+                    throwUnexpectedCase(updaterMethod.body());
+            }
+            if (!isDefinedForAll)
+                updaterMethod.body()._return(thisValueParam);
+            JVar acceptorNewValueParam = newValueParam;
 
             nameSource = new VariableNameSource();
             updaterMethod = valueClass.method(Source.toJMod(configuration.accessLevel()) | JMod.FINAL, usedValueClassType, updaterName);
@@ -662,65 +2846,86 @@ class ValueClassModel {
                 }
             }
             JInvocation invocation1 = JExpr.refthis(acceptorField).invoke(updaterName);
+            invocation1.arg(JExpr._this());
             invocation1.arg(newValue);
             updaterMethod.body()._return(invocation1);
 
             for (JMethod interfaceMethod1: visitorInterface.methods()) {
-                JDefinedClass caseClass = caseClasses.get(interfaceMethod1.name());
-                nameSource = new VariableNameSource();
-                updaterMethod = caseClass.method(JMod.PUBLIC | JMod.FINAL, usedValueClassType, updaterName);
-                updaterMethod.annotate(Nonnull.class);
-                updaterMethod.annotate(Override.class);
-                if (configuration.isVarArg())
-                    newValue = updaterMethod.varParam(configuration.type().elementType(), nameSource.get("newValue"));
-                else
-                    newValue = updaterMethod.param(configuration.type(), nameSource.get("newValue"));
-                if (configuration.type().isReference()) {
-                    if (configuration.isNullable()) {
-                        newValue.annotate(Nullable.class);
-                    } else {
-                        newValue.annotate(Nonnull.class);
+                if (configuration.paramName(interfaceMethod1) == null)
+                    continue;
+                JDefinedClass caseClass = caseClass(interfaceMethod1);
+                JBlock caseBody;
+                if (switchCaseBodies != null) {
+                    caseBody = switchCaseBodies.get(interfaceMethod1.name());
+                    newValue = acceptorNewValueParam;
+                } else {
+                    nameSource = new VariableNameSource();
+                    updaterMethod = caseClass.method(JMod.PUBLIC | JMod.FINAL, usedValueClassType, updaterName);
+                    updaterMethod.annotate(Nonnull.class);
+                    updaterMethod.annotate(Override.class);
+                    JVar thisValue = updaterMethod.param(usedValueClassType, nameSource.get("thisValue"));
+                    thisValue.annotate(Nonnull.class);
+                    if (configuration.isVarArg())
+                        newValue = updaterMethod.varParam(configuration.type().elementType(), nameSource.get("newValue"));
+                    else
+                        newValue = updaterMethod.param(configuration.type(), nameSource.get("newValue"));
+                    if (configuration.type().isReference()) {
+                        if (configuration.isNullable()) {
+                            newValue.annotate(Nullable.class);
+                        } else {
+                            newValue.annotate(Nonnull.class);
+                        }
                     }
+                    caseBody = updaterMethod.body();
                 }
                 JInvocation invocation = valueClass.staticInvoke(interfaceMethod1.name());
                 for (JTypeVar typeArgument: valueClass.typeParams())
                     invocation.narrow(typeArgument);
                 for (JVar param: interfaceMethod1.params()) {
-                    JFieldVar argument = caseClass.fields().get(param.name());
                     if (configuration.isFieldValue(interfaceMethod1, param.name())) {
                         invocation.arg(newValue);
                     } else {
-                        invocation.arg(JExpr.refthis(argument));
+                        invocation.arg(caseFieldValue(caseClass, interfaceMethod1, param.name()));
                     }
                 }
                 JVar param = interfaceMethod1.listVarParam();
                 if (param != null) {
-                    JFieldVar argument = caseClass.fields().get(param.name());
                     if (configuration.isFieldValue(interfaceMethod1, param.name())) {
                         invocation.arg(newValue);
                     } else {
-                        invocation.arg(JExpr.refthis(argument));
+                        invocation.arg(caseFieldValue(caseClass, interfaceMethod1, param.name()));
                     }
                 }
-                updaterMethod.body()._return(invocation);
+                caseBody._return(invocation);
             }
         }
 
         void generatePredicate(String name, PredicateConfigutation configuration) {
-            acceptingInterface.method(JMod.PUBLIC, types._boolean, name);
+            // Acceptor base class returns false and only cases, where predicate holds, override it
+            JMethod predicateMethod = acceptingInterface.method(JMod.PUBLIC, types._boolean, name);
+            if (!hasCaseClasses()) {
+                IJExpression result = JExpr.FALSE;
+                for (JMethod interfaceMethod1: visitorInterface.methods()) {
+                    if (configuration.isTrueFor(interfaceMethod1)) {
+                        IJExpression isCase = isCase(interfaceMethod1);
+                        result = result == JExpr.FALSE ? isCase : result.cor(isCase);
+                    }
+                }
+                predicateMethod.body()._return(result);
+            } else
+                predicateMethod.body()._return(JExpr.FALSE);
 
-            JMethod predicateMethod = valueClass.method(Source.toJMod(configuration.accessLevel()) | JMod.FINAL, types._boolean, name);
+            predicateMethod = valueClass.method(Source.toJMod(configuration.accessLevel()) | JMod.FINAL, types._boolean, name);
             predicateMethod.body()._return(JExpr.refthis(acceptorField).invoke(name));
 
             for (JMethod interfaceMethod1: visitorInterface.methods()) {
-                JDefinedClass caseClass = caseClasses.get(interfaceMethod1.name());
-                predicateMethod = caseClass.method(JMod.PUBLIC | JMod.FINAL, types._boolean, name);
-                predicateMethod.annotate(Override.class);
-
-                boolean result = configuration.isTrueFor(interfaceMethod1);
-                predicateMethod.body()._return(JExpr.lit(result));
+                if (configuration.isTrueFor(interfaceMethod1) && hasCaseClasses()) {
+                    JDefinedClass caseClass = caseClasses.get(interfaceMethod1.name());
+                    predicateMethod = caseClass.method(JMod.PUBLIC | JMod.FINAL, types._boolean, name);
+                    predicateMethod.annotate(Override.class);
+                    predicateMethod.body()._return(JExpr.TRUE);
+                }
             }
-
         }
 
         void buildEqualsMethod() throws SourceCodeValidationException, JClassAlreadyExistsException {
@@ -729,10 +2934,26 @@ class ValueClassModel {
                 typeParams[i] = valueClass.owner().wildcard();
             AbstractJClass usedValueClassType = valueClass.narrow(typeParams);
             AbstractJClass usedAcceptorType = acceptingInterface.narrow(typeParams);
+            if (isEnumBacked()) {
+                // Enum constants are unique, so that acceptors are simply compared by identity
+                JMethod equalsMethod = valueClass.method(JMod.PUBLIC | JMod.FINAL, types._boolean, "equals");
+                VariableNameSource nameSource = new VariableNameSource();
+                equalsMethod.annotate(Override.class);
+                JVar thatObject = equalsMethod.param(types._Object, nameSource.get("thatObject"));
+                JConditional _if = equalsMethod.body()._if(JExpr._this().eq(thatObject));
+                _if._then()._return(JExpr.TRUE);
+                JConditional elseif = _if._elseif(thatObject._instanceof(valueClass).not());
+                elseif._then()._return(JExpr.FALSE);
+                JBlock _else = elseif._else();
+                JVar that = _else.decl(usedValueClassType, nameSource.get("that"), JExpr.cast(usedValueClassType, thatObject));
+                _else._return(JExpr.refthis(acceptorField).eq(that.ref(acceptorField)));
+                return;
+            }
             String equalsImplementationMethodName = Source.decapitalize(valueClass.name()) + "Equals";
-            JMethod equalsImplementationMethod = acceptingInterface.method(JMod.PUBLIC, types._boolean, equalsImplementationMethodName);
+            int equalsImplementationMods = hasCaseClasses() ? JMod.PUBLIC | JMod.ABSTRACT : JMod.PUBLIC;
+            JMethod equalsImplementationMethod = acceptingInterface.method(equalsImplementationMods, types._boolean, equalsImplementationMethodName);
             VariableNameSource nameSource = new VariableNameSource();
-            equalsImplementationMethod.param(usedAcceptorType, nameSource.get("thatAcceptor"));
+            JVar thatAcceptorParam = equalsImplementationMethod.param(usedAcceptorType, nameSource.get("thatAcceptor"));
 
             JMethod equalsMethod = valueClass.method(JMod.PUBLIC | JMod.FINAL, types._boolean, "equals");
             nameSource = new VariableNameSource();
@@ -752,6 +2973,45 @@ class ValueClassModel {
             }
             _else._return(hashCodeResult);
 
+            if (isTaggedUnion()) {
+                // Tags are compared first, then fields of the same case are compared directly
+                JConditional tagCheck = equalsImplementationMethod.body()._if(JExpr.refthis(tagField).ne(thatAcceptorParam.ref(tagField)));
+                tagCheck._then()._return(JExpr.FALSE);
+                Map<String, JBlock> caseBodies = buildCaseSwitch(equalsImplementationMethod);
+                for (JMethod interfaceMethod1: visitorInterface.methods()) {
+                    JBlock caseBody = caseBodies.get(interfaceMethod1.name());
+                    List<JVar> comparedParams = new ArrayList<JVar>();
+                    for (JVar param: interfaceMethod1.params()) {
+                        if (!StructuralParameters.isExcluded(param))
+                            comparedParams.add(param);
+                    }
+                    JVar varParam = interfaceMethod1.listVarParam();
+                    if (varParam != null && !StructuralParameters.isExcluded(varParam))
+                        comparedParams.add(varParam);
+                    if (comparedParams.isEmpty())
+                        caseBody._return(JExpr.TRUE);
+                    else {
+                        EqualsMethod body = new EqualsMethod(types, caseBody, new VariableNameSource());
+                        comparedParams = sortByEqualsComparisonCost(comparedParams, visitorInterface, types);
+                        for (int i = 0; i < comparedParams.size(); i++) {
+                            JVar param = comparedParams.get(i);
+                            JFieldVar field = caseField(acceptingInterface, interfaceMethod1, param.name());
+                            IJExpression value1 = JExpr.refthis(field);
+                            IJExpression value2 = thatAcceptorParam.ref(field);
+                            boolean isLast = i == comparedParams.size() - 1;
+                            ArrayStrategy arrayStrategy = StructuralParameters.arrayStrategy(param);
+                            if (arrayStrategy != ArrayStrategy.ELEMENTS)
+                                body.appendArrayValue(arrayStrategy, field.type(), value1, value2, isLast);
+                            else if (Source.isNullable(param))
+                                body.appendNullableValue(field.type(), value1, value2, isLast);
+                            else
+                                body.appendNotNullValue(field.type(), value1, value2, isLast);
+                        }
+                    }
+                }
+                return;
+            }
+
             for (JMethod interfaceMethod1: visitorInterface.methods()) {
                 JDefinedClass caseClass = caseClasses.get(interfaceMethod1.name());
                 equalsImplementationMethod = caseClass.method(JMod.PUBLIC | JMod.FINAL, types._boolean, equalsImplementationMethod.name());
@@ -760,20 +3020,43 @@ class ValueClassModel {
                 JVar thatAcceptor = equalsImplementationMethod.param(usedAcceptorType, nameSource.get("thatAcceptor"));
 
                 String equalsCaseMethodName = equalsImplementationMethod.name() + Source.capitalize(interfaceMethod1.name());
-                JMethod equalsCaseMethod = acceptingInterface.method(JMod.PUBLIC, types._boolean, equalsCaseMethodName);
+                JMethod equalsCaseMethod = acceptingInterface.method(JMod.PUBLIC | JMod.ABSTRACT, types._boolean, equalsCaseMethodName);
                 nameSource = new VariableNameSource();
 
                 JInvocation equalsCaseInvocation = thatAcceptor.invoke(equalsCaseMethod);
+                // Values of different cases are unequal without evaluation of lazy fields
+                if (lazyFields.containsKey(interfaceMethod1.name()))
+                    equalsImplementationMethod.body()._if(thatAcceptor._instanceof(caseClass).not())._then()._return(JExpr.FALSE);
+                // Packed fields are passed and compared as whole words
+                PackedFields packing1 = packedFields.get(interfaceMethod1.name());
+                List<JFieldVar> words1 = packing1 == null ? Collections.<JFieldVar>emptyList() : packing1.words();
+                for (JFieldVar word: words1) {
+                    equalsCaseMethod.param(word.type(), nameSource.get(word.name()));
+                    equalsCaseInvocation.arg(JExpr.refthis(word));
+                }
                 for (JVar param1: interfaceMethod1.params()) {
+                    if (packing1 != null && packing1.contains(param1.name()))
+                        continue;
                     AbstractJType argumentType = Source.toDeclarable(visitorInterface.narrowType(param1.type(), usedValueClassType, types._Boolean, types._RuntimeException));
                     equalsCaseMethod.param(param1.mods().getValue(), argumentType, nameSource.get(param1.name()));
-                    equalsCaseInvocation.arg(JExpr.refthis(caseClass.fields().get(param1.name())));
+                    equalsCaseInvocation.arg(caseFieldValue(caseClass, interfaceMethod1, param1.name()));
                 }
                 JVar varParam1 = interfaceMethod1.listVarParam();
-                if (varParam1 != null) {
+                // Inline varargs are passed and compared as stored fields
+                InlineVarArgs inline1 = varParam1 == null ? null : inlineVarArgs(interfaceMethod1, varParam1.name());
+                List<JFieldVar> inlineFields1 = new ArrayList<JFieldVar>();
+                if (inline1 != null) {
+                    inlineFields1.add(inline1.length());
+                    inlineFields1.addAll(inline1.elements());
+                    inlineFields1.add(inline1.spill());
+                    for (JFieldVar field: inlineFields1) {
+                        equalsCaseMethod.param(field.type(), nameSource.get(field.name()));
+                        equalsCaseInvocation.arg(JExpr.refthis(field));
+                    }
+                } else if (varParam1 != null) {
                     AbstractJType argumentType = Source.toDeclarable(visitorInterface.narrowType(varParam1.type().elementType(), usedValueClassType, types._Boolean, types._RuntimeException));
                     equalsCaseMethod.varParam(varParam1.mods().getValue(), argumentType, nameSource.get(varParam1.name()));
-                    equalsCaseInvocation.arg(JExpr.refthis(caseClass.fields().get(varParam1.name())));
+                    equalsCaseInvocation.arg(caseFieldValue(caseClass, interfaceMethod1, varParam1.name()));
                 }
                 equalsImplementationMethod.body()._return(equalsCaseInvocation);
 
@@ -786,47 +3069,116 @@ class ValueClassModel {
                     boolean isSameCase = interfaceMethod1.name().equals(interfaceMethod2.name());
                     EqualsMethod body = new EqualsMethod(types, equalsCaseMethod.body(), nameSource);
 
-                    int i = 0;
-                    JVar varParam = interfaceMethod1.listVarParam();
+                    List<JVar> wordArguments1 = new ArrayList<JVar>();
+                    for (JFieldVar word: words1) {
+                        wordArguments1.add(equalsCaseMethod.param(word.type(), nameSource.get(word.name())));
+                    }
+                    Map<String, JVar> arguments1 = new TreeMap<String, JVar>();
+                    List<JVar> comparedParams = new ArrayList<JVar>();
                     for (JVar param: interfaceMethod1.params()) {
+                        if (packing1 != null && packing1.contains(param.name()))
+                            continue;
                         AbstractJType argumentType = Source.toDeclarable(visitorInterface.narrowType(param.type(), usedValueClassType, types._Boolean, types._RuntimeException));
                         JVar argument1 = equalsCaseMethod.param(param.mods().getValue(), argumentType, nameSource.get(param.name()));
-                        if (isSameCase) {
-                            JFieldVar argument2 = caseClass.fields().get(param.name());
-                            boolean isLast = varParam == null && i == interfaceMethod1.params().size() - 1;
-                            if (Source.isNullable(param))
-                                body.appendNullableValue(argumentType, argument1, JExpr.refthis(argument2), isLast);
-                            else
-                                body.appendNotNullValue(argumentType, argument1, JExpr.refthis(argument2), isLast);
-                        }
-                        i++;
+                        arguments1.put(param.name(), argument1);
+                        if (!StructuralParameters.isExcluded(param))
+                            comparedParams.add(param);
                     }
-                    if (varParam != null) {
+                    JVar varParam = interfaceMethod1.listVarParam();
+                    List<JVar> inlineArguments1 = new ArrayList<JVar>();
+                    if (inline1 != null) {
+                        for (JFieldVar field: inlineFields1) {
+                            JVar argument1 = equalsCaseMethod.param(field.type(), nameSource.get(field.name()));
+                            if (!StructuralParameters.isExcluded(varParam))
+                                inlineArguments1.add(argument1);
+                        }
+                    } else if (varParam != null) {
                         AbstractJType argumentType = Source.toDeclarable(visitorInterface.narrowType(varParam.type().elementType(), usedValueClassType, types._Boolean, types._RuntimeException));
                         JVar varArgument1 = equalsCaseMethod.varParam(varParam.mods().getValue(), argumentType, nameSource.get(varParam.name()));
-                        if (isSameCase) {
-                            JFieldVar varArgument2 = caseClass.fields().get(varParam.name());
-                            if (Source.isNullable(varParam))
-                                body.appendNullableValue(varArgument1.type(), varArgument1, JExpr.refthis(varArgument2), true);
-                            else
-                                body.appendNotNullValue(varArgument1.type(), varArgument1, JExpr.refthis(varArgument2), true);
-                        }
+                        arguments1.put(varParam.name(), varArgument1);
+                        if (!StructuralParameters.isExcluded(varParam))
+                            comparedParams.add(varParam);
                     }
-                    boolean isEmpty = i == 0 && varParam == null;
                     if (!isSameCase)
                         equalsCaseMethod.body()._return(JExpr.FALSE);
-                    else if (isSameCase && isEmpty)
+                    else if (comparedParams.isEmpty() && wordArguments1.isEmpty() && inlineArguments1.isEmpty())
                         equalsCaseMethod.body()._return(JExpr.TRUE);
+                    else {
+                        // Words, that hold @EqualsPriority fields, are compared along with other priority fields
+                        Set<Integer> priorityWords = new TreeSet<Integer>();
+                        for (JVar param: interfaceMethod1.params()) {
+                            if (packing1 != null && packing1.contains(param.name()) && StructuralParameters.hasEqualsPriority(param))
+                                priorityWords.add(packing1.word(param.name()));
+                        }
+                        comparedParams = sortByEqualsComparisonCost(comparedParams, visitorInterface, types);
+                        int priorityParamCount = 0;
+                        while (priorityParamCount < comparedParams.size() && StructuralParameters.hasEqualsPriority(comparedParams.get(priorityParamCount)))
+                            priorityParamCount++;
+                        int remaining = wordArguments1.size() + comparedParams.size() + inlineArguments1.size();
+                        for (int i = 0; i < wordArguments1.size(); i++) {
+                            if (priorityWords.contains(i)) {
+                                remaining--;
+                                body.appendNotNullValue(wordArguments1.get(i).type(), wordArguments1.get(i), JExpr.refthis(words1.get(i)), remaining == 0);
+                            }
+                        }
+                        for (int i = 0; i < priorityParamCount; i++) {
+                            remaining--;
+                            JVar param = comparedParams.get(i);
+                            appendEqualsParamComparison(body, param, arguments1.get(param.name()), caseFieldValue(caseClass, interfaceMethod2, param.name()), remaining == 0);
+                        }
+                        for (int i = 0; i < wordArguments1.size(); i++) {
+                            if (!priorityWords.contains(i)) {
+                                remaining--;
+                                body.appendNotNullValue(wordArguments1.get(i).type(), wordArguments1.get(i), JExpr.refthis(words1.get(i)), remaining == 0);
+                            }
+                        }
+                        for (int i = priorityParamCount; i < comparedParams.size(); i++) {
+                            remaining--;
+                            JVar param = comparedParams.get(i);
+                            appendEqualsParamComparison(body, param, arguments1.get(param.name()), caseFieldValue(caseClass, interfaceMethod2, param.name()), remaining == 0);
+                        }
+                        for (int i = 0; i < inlineArguments1.size(); i++) {
+                            JVar argument1 = inlineArguments1.get(i);
+                            IJExpression argument2 = JExpr.refthis(inlineFields1.get(i));
+                            boolean isLast = i == inlineArguments1.size() - 1;
+                            if (argument1.type().isReference())
+                                body.appendNullableValue(argument1.type(), argument1, argument2, isLast);
+                            else
+                                body.appendNotNullValue(argument1.type(), argument1, argument2, isLast);
+                        }
+                    }
                 }
             }
         }
 
+        private void appendEqualsParamComparison(EqualsMethod body, JVar param, JVar argument1, IJExpression argument2, boolean isLast) throws SourceCodeValidationException {
+            ArrayStrategy arrayStrategy = StructuralParameters.arrayStrategy(param);
+            if (arrayStrategy != ArrayStrategy.ELEMENTS)
+                body.appendArrayValue(arrayStrategy, argument1.type(), argument1, argument2, isLast);
+            else if (Source.isNullable(param))
+                body.appendNullableValue(argument1.type(), argument1, argument2, isLast);
+            else
+                body.appendNotNullValue(argument1.type(), argument1, argument2, isLast);
+        }
+
         void buildCompareTo() throws SourceCodeValidationException, JClassAlreadyExistsException {
             AbstractJClass usedValueClassType = valueClass.narrow(valueClass.typeParams());
             AbstractJClass usedAcceptorType = acceptingInterface.narrow(valueClass.typeParams());
-            JMethod compareToMethodImplementation = acceptingInterface.method(JMod.PUBLIC, types._int, "compareTo");
+            if (isEnumBacked()) {
+                // Enum constants are declared in case order and are compared by ordinal
+                JMethod compareToMethod = valueClass.method(JMod.PUBLIC | JMod.FINAL, types._int, "compareTo");
+                compareToMethod.annotate(Override.class);
+                VariableNameSource nameSource = new VariableNameSource();
+                JVar that = compareToMethod.param(usedValueClassType, nameSource.get("that"));
+                JInvocation invocation = JExpr.refthis(acceptorField).invoke("compareTo");
+                invocation.arg(that.ref(acceptorField));
+                compareToMethod.body()._return(invocation);
+                return;
+            }
+            int compareToImplementationMods = isTaggedUnion() ? JMod.PUBLIC : JMod.PUBLIC | JMod.ABSTRACT;
+            JMethod compareToMethodImplementation = acceptingInterface.method(compareToImplementationMods, types._int, "compareTo");
             VariableNameSource nameSource = new VariableNameSource();
-            compareToMethodImplementation.param(usedAcceptorType, nameSource.get("thatAcceptor"));
+            JVar thatAcceptorParam = compareToMethodImplementation.param(usedAcceptorType, nameSource.get("thatAcceptor"));
 
             JMethod compareToMethod = valueClass.method(JMod.PUBLIC | JMod.FINAL, types._int, "compareTo");
             compareToMethod.annotate(Override.class);
@@ -836,6 +3188,35 @@ class ValueClassModel {
             invocation1.arg(that.ref(acceptorField));
             compareToMethod.body()._return(invocation1);
 
+            if (isTaggedUnion()) {
+                // Cases are ordered by tag, fields are compared only when tags are equal
+                JFieldRef thatTag = thatAcceptorParam.ref(tagField);
+                JConditional tagCheck = compareToMethodImplementation.body()._if(JExpr.refthis(tagField).ne(thatTag));
+                tagCheck._then()._return(JOp.cond(JExpr.refthis(tagField).lt(thatTag), JExpr.lit(-1), JExpr.lit(1)));
+                Map<String, JBlock> caseBodies = buildCaseSwitch(compareToMethodImplementation);
+                for (JMethod interfaceMethod1: visitorInterface.methods()) {
+                    JBlock caseBody = caseBodies.get(interfaceMethod1.name());
+                    List<JVar> params = new ArrayList<JVar>(interfaceMethod1.params());
+                    if (interfaceMethod1.listVarParam() != null)
+                        params.add(interfaceMethod1.listVarParam());
+                    CompareToMethod compareToMethodModel = new CompareToMethod(types, caseBody, new VariableNameSource());
+                    CompareToMethod.Body body = null;
+                    for (JVar param: params) {
+                        if (StructuralParameters.isExcluded(param))
+                            continue;
+                        if (body == null)
+                            body = compareToMethodModel.createBody();
+                        JFieldVar field = caseField(acceptingInterface, interfaceMethod1, param.name());
+                        if (Source.isNullable(param))
+                            body.appendNullableValue(field.type(), JExpr.refthis(field), thatAcceptorParam.ref(field));
+                        else
+                            body.appendNotNullValue(field.type(), JExpr.refthis(field), thatAcceptorParam.ref(field));
+                    }
+                    caseBody._return(JExpr.lit(0));
+                }
+                return;
+            }
+
             JMethod[] methods = new JMethod[visitorInterface.methods().size()];
             methods = visitorInterface.methods().toArray(methods);
             for (int interfaceMethod1Index = 0; interfaceMethod1Index < methods.length; interfaceMethod1Index++) {
@@ -847,20 +3228,31 @@ class ValueClassModel {
                 JVar thatAcceptor = compareToMethodImplementation.param(usedAcceptorType, nameSource.get("thatAcceptor"));
 
                 String compareToCaseMethodName = compareToMethodImplementation.name() + Source.capitalize(interfaceMethod1.name());
-                JMethod compareToCaseMethod = acceptingInterface.method(JMod.PUBLIC, types._int, compareToCaseMethodName);
+                JMethod compareToCaseMethod = acceptingInterface.method(JMod.PUBLIC | JMod.ABSTRACT, types._int, compareToCaseMethodName);
                 nameSource = new VariableNameSource();
 
                 JInvocation compareToCaseInvocation = thatAcceptor.invoke(compareToCaseMethod);
                 for (JVar param1: interfaceMethod1.params()) {
                     AbstractJType argumentType = Source.toDeclarable(visitorInterface.narrowType(param1.type(), usedValueClassType, types._Integer, types._RuntimeException));
                     compareToCaseMethod.param(param1.mods().getValue(), argumentType, nameSource.get(param1.name()));
-                    compareToCaseInvocation.arg(JExpr.refthis(caseClass.fields().get(param1.name())));
+                    compareToCaseInvocation.arg(caseFieldValue(caseClass, interfaceMethod1, param1.name()));
                 }
                 JVar varParam1 = interfaceMethod1.listVarParam();
-                if (varParam1 != null) {
+                // Inline varargs are passed and compared as stored fields
+                InlineVarArgs inline1 = varParam1 == null ? null : inlineVarArgs(interfaceMethod1, varParam1.name());
+                List<JFieldVar> inlineFields1 = new ArrayList<JFieldVar>();
+                if (inline1 != null) {
+                    inlineFields1.add(inline1.length());
+                    inlineFields1.add(inline1.spill());
+                    inlineFields1.addAll(inline1.elements());
+                    for (JFieldVar field: inlineFields1) {
+                        compareToCaseMethod.param(field.type(), nameSource.get(field.name()));
+                        compareToCaseInvocation.arg(JExpr.refthis(field));
+                    }
+                } else if (varParam1 != null) {
                     AbstractJType argumentType = Source.toDeclarable(visitorInterface.narrowType(varParam1.type().elementType(), usedValueClassType, types._Integer, types._RuntimeException));
                     compareToCaseMethod.varParam(varParam1.mods().getValue(), argumentType, nameSource.get(varParam1.name()));
-                    compareToCaseInvocation.arg(JExpr.refthis(caseClass.fields().get(varParam1.name())));
+                    compareToCaseInvocation.arg(caseFieldValue(caseClass, interfaceMethod1, varParam1.name()));
                 }
                 compareToMethodImplementation.body()._return(compareToCaseInvocation);
 
@@ -879,27 +3271,37 @@ class ValueClassModel {
                     for (JVar param: interfaceMethod1.params()) {
                         AbstractJType argumentType = Source.toDeclarable(visitorInterface.narrowType(param.type(), usedValueClassType, types._Integer, types._RuntimeException));
                         JVar argument1 = compareToCaseMethod.param(param.mods().getValue(), argumentType, nameSource.get(param.name()));
-                        if (isSameCase) {
+                        if (isSameCase && !StructuralParameters.isExcluded(param)) {
                             if (body == null)
                                 body = compareToMethodModel.createBody();
-                            JFieldVar argument2 = caseClass.fields().get(param.name());
+                            IJExpression argument2 = caseFieldValue(caseClass, interfaceMethod2, param.name());
                             if (Source.isNullable(param))
-                                body.appendNullableValue(argumentType, argument1, JExpr.refthis(argument2));
+                                body.appendNullableValue(argumentType, argument1, argument2);
                             else
-                                body.appendNotNullValue(argumentType, argument1, JExpr.refthis(argument2));
+                                body.appendNotNullValue(argumentType, argument1, argument2);
                         }
                     }
-                    if (varParam != null) {
+                    if (inline1 != null) {
+                        List<JVar> inlineArguments1 = new ArrayList<JVar>();
+                        for (JFieldVar field: inlineFields1) {
+                            inlineArguments1.add(compareToCaseMethod.param(field.type(), nameSource.get(field.name())));
+                        }
+                        if (isSameCase && !StructuralParameters.isExcluded(varParam)) {
+                            if (body == null)
+                                body = compareToMethodModel.createBody();
+                            body.appendInlineVarArgs(inline1, inlineArguments1.get(0), inlineArguments1.get(1), inlineArguments1.subList(2, inlineArguments1.size()));
+                        }
+                    } else if (varParam != null) {
                         AbstractJType argumentType = Source.toDeclarable(visitorInterface.narrowType(varParam.type().elementType(), usedValueClassType, types._Boolean, types._RuntimeException));
                         JVar varArgument1 = compareToCaseMethod.varParam(varParam.mods().getValue(), argumentType, nameSource.get(varParam.name()));
-                        if (isSameCase) {
+                        if (isSameCase && !StructuralParameters.isExcluded(varParam)) {
                             if (body == null)
                                 body = compareToMethodModel.createBody();
-                            JFieldVar varArgument2 = caseClass.fields().get(varParam.name());
+                            IJExpression varArgument2 = caseFieldValue(caseClass, interfaceMethod2, varParam.name());
                             if (Source.isNullable(varParam))
-                                body.appendNullableValue(varArgument1.type(), varArgument1, JExpr.refthis(varArgument2));
+                                body.appendNullableValue(varArgument1.type(), varArgument1, varArgument2);
                             else
-                                body.appendNotNullValue(varArgument1.type(), varArgument1, JExpr.refthis(varArgument2));
+                                body.appendNotNullValue(varArgument1.type(), varArgument1, varArgument2);
                         }
                     }
                     int result = interfaceMethod1Index < interfaceMethod2Index ? -1 : (interfaceMethod1Index > interfaceMethod2Index ? 1 : 0);
@@ -909,7 +3311,9 @@ class ValueClassModel {
         }
 
         void buildReadObjectMethod() {
-            if (visitorInterface.hashCodeCaching() == Caching.PRECOMPUTE) {
+            boolean precomputesHashCode = visitorInterface.hashCodeCaching() == Caching.PRECOMPUTE;
+            boolean precomputesFingerprint = visitorInterface.fingerprintCaching() == Caching.PRECOMPUTE;
+            if (precomputesHashCode || precomputesFingerprint) {
                 JMethod method = valueClass.method(JMod.PRIVATE, types._void, "readObject");
                 method._throws(types._IOException);
                 method._throws(types._ClassNotFoundException);
@@ -917,8 +3321,14 @@ class ValueClassModel {
                 JVar inputStream = method.param(types._ObjectInputStream, variableNameSource.get("input"));
                 JBlock body = method.body();
                 body.invoke(inputStream, "defaultReadObject");
-                JInvocation invocation = JExpr.refthis(acceptorField).invoke(hashCodeAcceptorMethodName());
-                body.assign(JExpr.refthis(hashCodeCachedValueField), invocation);
+                if (precomputesHashCode) {
+                    JInvocation invocation = JExpr.refthis(acceptorField).invoke(hashCodeAcceptorMethodName());
+                    body.assign(JExpr.refthis(hashCodeCachedValueField), invocation);
+                }
+                if (precomputesFingerprint) {
+                    JInvocation invocation = JExpr.refthis(acceptorField).invoke(fingerprintAcceptorMethodName());
+                    body.assign(JExpr.refthis(fingerprintCachedValueField), invocation);
+                }
             }
         }
 
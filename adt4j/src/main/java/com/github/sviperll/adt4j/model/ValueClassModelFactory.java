@@ -29,6 +29,8 @@
  */
 package com.github.sviperll.adt4j.model;
 
+import com.github.sviperll.adt4j.ArrayStrategy;
+import com.github.sviperll.adt4j.Attribute;
 import com.github.sviperll.adt4j.GenerateValueClassForVisitor;
 import com.github.sviperll.adt4j.GenerateValueClassForVisitorProcessor;
 import com.github.sviperll.meta.CodeModelBuildingException;
@@ -53,21 +55,66 @@ import com.helger.jcodemodel.JVar;
 
 import javax.annotation.Generated;
 import javax.annotation.ParametersAreNonnullByDefault;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import javax.lang.model.SourceVersion;
 
 public class ValueClassModelFactory {
     private static final String VISITOR_SUFFIX = "Visitor";
     private static final String VALUE_SUFFIX = "Value";
 
-    public static JDefinedClass createValueClass(JCodeModel jCodeModel, JDefinedClass jVisitorModel, Visitor visitorAnnotation, GenerateValueClassForVisitor annotation) throws SourceCodeValidationException, CodeModelBuildingException {
+    /**
+     * Class with helper methods from adt4j-runtime, that generated code delegates to.
+     */
+    public static final String RUNTIME_SUPPORT_CLASS_NAME = "com.github.sviperll.adt4j.runtime.GeneratedCodeSupport";
+
+    /**
+     * Name of fingerprint method, that generated code calls for fields of classes, that have such method.
+     */
+    public static final String FINGERPRINT_METHOD_NAME = FingerprintMethod.METHOD_NAME;
+
+    /**
+     * Class of optional ASM library, that is required to write value classes as class files.
+     */
+    public static final String ASM_CLASS_NAME = "org.objectweb.asm.ClassWriter";
+
+    /**
+     * @param types types of given code model, that can be shared by several value classes
+     * @param fingerprintedClassNames names of classes, referenced by visitor, that have {@code long fingerprint64()} method
+     */
+    public static JDefinedClass createValueClass(JCodeModel jCodeModel, Types types, JDefinedClass jVisitorModel, Visitor visitorAnnotation, GenerateValueClassForVisitor annotation, boolean isRuntimeAvailable, Set<String> fingerprintedClassNames) throws SourceCodeValidationException, CodeModelBuildingException {
         ValueVisitorInterfaceModel visitorModel = ValueVisitorInterfaceModel.createInstance(jVisitorModel, visitorAnnotation, annotation);
         Serialization serialization = serialization(annotation);
         String valueClassName = valueClassName(jVisitorModel, annotation);
-        ValueClassModelFactory factory = new ValueClassModelFactory(jVisitorModel._package(), valueClassName, serialization, annotation);
-        ValueClassModel valueClassModel = factory.createValueClass(jCodeModel, visitorModel);
+        ValueClassModelFactory factory = new ValueClassModelFactory(jVisitorModel._package(), valueClassName, serialization, annotation, isRuntimeAvailable, fingerprintedClassNames);
+        ValueClassModel valueClassModel = factory.createValueClass(jCodeModel, types, visitorModel);
         return valueClassModel.getJDefinedClass();
     }
 
+    /**
+     * Class files of value class, that is written directly as bytecode instead of source code,
+     * see {@link GenerateValueClassForVisitor#generateBytecode()}.
+     * Value class is not built with code model, only it's name is referenced.
+     *
+     * @param isAsmAvailable whether ASM library is available on annotation processor path
+     * @return class files mapped by binary class names, value class comes first
+     */
+    public static Map<String, byte[]> createClassFiles(JCodeModel jCodeModel, Types types, JDefinedClass jVisitorModel, Visitor visitorAnnotation, GenerateValueClassForVisitor annotation, boolean isAsmAvailable) throws SourceCodeValidationException {
+        // ASM classes are not touched until ASM is known to be available,
+        // since ASM is optional dependency
+        if (!isAsmAvailable)
+            throw new SourceCodeValidationException("generateBytecode requires " + ASM_CLASS_NAME + " on annotation processor path, but it is not found, add org.ow2.asm:asm dependency");
+        ValueVisitorInterfaceModel visitorModel = ValueVisitorInterfaceModel.createInstance(jVisitorModel, visitorAnnotation, annotation);
+        BytecodeValueClass.checkSupported(visitorModel, annotation);
+        String valueClassName = valueClassName(jVisitorModel, annotation);
+        JPackage jpackage = jVisitorModel._package();
+        AbstractJClass valueClass = jCodeModel.directClass(jpackage.isUnnamed() ? valueClassName : jpackage.name() + "." + valueClassName);
+        return BytecodeValueClass.createClassFiles(valueClass, visitorModel, types, annotation);
+    }
+
     private static String valueClassName(JDefinedClass jVisitorModel, GenerateValueClassForVisitor annotation) {
         if (!annotation.className().equals(":auto")) {
             return annotation.className();
@@ -95,29 +142,40 @@ public class ValueClassModelFactory {
     private final GenerateValueClassForVisitor annotation;
     private final JPackage jpackage;
     private final String className;
+    private final boolean isRuntimeAvailable;
+    private final Set<String> fingerprintedClassNames;
 
-    ValueClassModelFactory(JPackage jpackage, String className, Serialization serialization, GenerateValueClassForVisitor annotation) {
+    ValueClassModelFactory(JPackage jpackage, String className, Serialization serialization, GenerateValueClassForVisitor annotation, boolean isRuntimeAvailable, Set<String> fingerprintedClassNames) {
         this.serialization = serialization;
         this.annotation = annotation;
         this.jpackage = jpackage;
         this.className = className;
+        this.isRuntimeAvailable = isRuntimeAvailable;
+        this.fingerprintedClassNames = fingerprintedClassNames;
     }
 
     private JDefinedClass createAcceptingInterface(JDefinedClass valueClass,
                                                    ValueVisitorInterfaceModel visitorInterface,
                                                    Types types) throws JClassAlreadyExistsException {
 
-        JDefinedClass acceptingInterface = valueClass._class(JMod.PUBLIC, valueClass.name() + "Acceptor", EClassType.INTERFACE);
+        JDefinedClass acceptingInterface;
+        JMethod acceptMethod;
+        if (hasOnlyNullaryCases(visitorInterface)) {
+            acceptingInterface = valueClass._class(JMod.PRIVATE, valueClass.name() + "Acceptor", EClassType.ENUM);
+            acceptMethod = acceptingInterface.method(JMod.PUBLIC, types._void, visitorInterface.acceptMethodName());
+        } else {
+            // Tagged union is single final class, that implements every method itself
+            int mods = visitorInterface.isTaggedUnion() ? JMod.FINAL : JMod.ABSTRACT;
+            acceptingInterface = valueClass._class(JMod.PRIVATE | JMod.STATIC | mods, valueClass.name() + "Acceptor", EClassType.CLASS);
 
-        // Hack to overcome bug in codeModel. We want private interface!!! Not public.
-        acceptingInterface.mods().setPrivate();
+            for (JTypeVar visitorTypeParameter: visitorInterface.getValueTypeParameters()) {
+                Types.generifyWithBoundsFrom(acceptingInterface, visitorTypeParameter.name(), visitorTypeParameter);
+            }
 
-        for (JTypeVar visitorTypeParameter: visitorInterface.getValueTypeParameters()) {
-            Types.generifyWithBoundsFrom(acceptingInterface, visitorTypeParameter.name(), visitorTypeParameter);
+            int acceptMethodMods = visitorInterface.isTaggedUnion() ? JMod.PUBLIC : JMod.PUBLIC | JMod.ABSTRACT;
+            acceptMethod = acceptingInterface.method(acceptMethodMods, types._void, visitorInterface.acceptMethodName());
         }
 
-        JMethod acceptMethod = acceptingInterface.method(JMod.PUBLIC, types._void, visitorInterface.acceptMethodName());
-
         JTypeVar visitorResultType = visitorInterface.getResultTypeParameter();
         JTypeVar resultType = Types.generifyWithBoundsFrom(acceptMethod, visitorResultType.name(), visitorResultType);
         acceptMethod.type(resultType);
@@ -136,9 +194,28 @@ public class ValueClassModelFactory {
         return acceptingInterface;
     }
 
-    ValueClassModel createValueClass(JCodeModel jCodeModel, ValueVisitorInterfaceModel visitorInterface) throws SourceCodeValidationException, CodeModelBuildingException {
+    /**
+     * Value classes without type parameters, whose cases are all nullary, are backed by enum.
+     * Every value is one of enum constants, and no case classes are generated.
+     */
+    private static boolean hasOnlyNullaryCases(ValueVisitorInterfaceModel visitorInterface) {
+        if (!visitorInterface.getValueTypeParameters().isEmpty() || visitorInterface.methods().isEmpty())
+            return false;
+        for (JMethod interfaceMethod: visitorInterface.methods()) {
+            if (!interfaceMethod.params().isEmpty() || interfaceMethod.hasVarArgs())
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Partially built value class is hidden when validation fails,
+     * so that it isn't written along with value classes of other visitors, that share the same code model.
+     */
+    ValueClassModel createValueClass(JCodeModel jCodeModel, Types types, ValueVisitorInterfaceModel visitorInterface) throws SourceCodeValidationException, CodeModelBuildingException {
+        JDefinedClass valueClass = null;
+        boolean isBuilt = false;
         try {
-            Types types = Types.createInstance(jpackage.owner());
             if (annotation.isSerializable()) {
                 for (JMethod interfaceMethod: visitorInterface.methods()) {
                     for (JVar param: interfaceMethod.params()) {
@@ -159,20 +236,182 @@ public class ValueClassModelFactory {
                 for (JMethod interfaceMethod: visitorInterface.methods()) {
                     for (JVar param: interfaceMethod.params()) {
                         AbstractJType type = param.type();
-                        if (!type.isError() && !visitorInterface.isSelf(type) && !types.isComparable(type))
+                        if (!type.isError() && !visitorInterface.isSelf(type) && !types.isComparable(type) && !StructuralParameters.isExcluded(param))
                             throw new SourceCodeValidationException("Value class can't be comparable: " + param.name() + " parameter in " + interfaceMethod.name() + " method is not comparable");
+                        if (StructuralParameters.arrayStrategy(param) == ArrayStrategy.IDENTITY)
+                            throw new SourceCodeValidationException("Value class can't be comparable: " + param.name() + " parameter in " + interfaceMethod.name() + " method uses IDENTITY array strategy");
                     }
                     JVar param = interfaceMethod.listVarParam();
                     if (param != null) {
                         AbstractJType type = param.type();
-                        if (!type.isError() && !visitorInterface.isSelf(type) && !types.isComparable(type))
+                        if (!type.isError() && !visitorInterface.isSelf(type) && !types.isComparable(type) && !StructuralParameters.isExcluded(param))
                             throw new SourceCodeValidationException("Value class can't be comparable: " + param.name() + " parameter in " + interfaceMethod.name() + " method is not comparable");
+                        if (StructuralParameters.arrayStrategy(param) == ArrayStrategy.IDENTITY)
+                            throw new SourceCodeValidationException("Value class can't be comparable: " + param.name() + " parameter in " + interfaceMethod.name() + " method uses IDENTITY array strategy");
                     }
                 }
             }
 
+            if (annotation.inlineVarArgsLimit() < 0)
+                throw new SourceCodeValidationException("inlineVarArgsLimit should not be negative, but " + annotation.inlineVarArgsLimit() + " found");
+            if (annotation.isTaggedUnion()) {
+                if (annotation.packPrimitiveFields())
+                    throw new SourceCodeValidationException("isTaggedUnion can't be combined with packPrimitiveFields");
+                if (annotation.inlineVarArgsLimit() > 0)
+                    throw new SourceCodeValidationException("isTaggedUnion can't be combined with inlineVarArgsLimit");
+                for (JMethod interfaceMethod: visitorInterface.methods()) {
+                    List<JVar> params = new ArrayList<JVar>(interfaceMethod.params());
+                    if (interfaceMethod.listVarParam() != null)
+                        params.add(interfaceMethod.listVarParam());
+                    for (JVar param: params) {
+                        if (StructuralParameters.arrayStrategy(param) == ArrayStrategy.CACHED_CONTENT)
+                            throw new SourceCodeValidationException("Value class can't be tagged union: " + param.name() + " parameter in " + interfaceMethod.name() + " method uses CACHED_CONTENT array strategy");
+                    }
+                }
+            }
+            for (JMethod interfaceMethod: visitorInterface.methods()) {
+                boolean hasLazyFields = false;
+                for (JVar param: interfaceMethod.params()) {
+                    if (LazyFields.isLazy(param)) {
+                        if (annotation.isTaggedUnion())
+                            throw new SourceCodeValidationException("Lazy field can't be generated: " + param.name() + " parameter of " + interfaceMethod.name() + " method is annotated with @Lazy, but value class is tagged union");
+                        if (param.type().isArray())
+                            throw new SourceCodeValidationException("Lazy field can't be generated: " + param.name() + " parameter of " + interfaceMethod.name() + " method is an array");
+                        hasLazyFields = true;
+                    }
+                }
+                JVar varParam = interfaceMethod.listVarParam();
+                if (varParam != null && LazyFields.isLazy(varParam))
+                    throw new SourceCodeValidationException("Lazy field can't be generated: " + varParam.name() + " parameter of " + interfaceMethod.name() + " method is varargs");
+                if (hasLazyFields) {
+                    if (className.equals(ValueClassModel.THUNK_CLASS_NAME))
+                        throw new SourceCodeValidationException("Lazy fields can't be generated for value class named " + className);
+                    String lazyConstructorMethodName = ValueClassModel.lazyConstructorMethodName(interfaceMethod.name());
+                    for (JMethod interfaceMethod1: visitorInterface.methods()) {
+                        if (interfaceMethod1.name().equals(lazyConstructorMethodName))
+                            throw new SourceCodeValidationException("Lazy fields can't be generated: " + interfaceMethod1.name() + " method clashes with generated static factory method");
+                    }
+                }
+            }
+            if (annotation.generateMatcher()) {
+                if (className.equals(MatcherClass.CLASS_NAME))
+                    throw new SourceCodeValidationException("Matcher can't be generated for value class named " + className);
+                for (JMethod interfaceMethod: visitorInterface.methods()) {
+                    if (interfaceMethod.name().equals(MatcherClass.FACTORY_METHOD_NAME) || interfaceMethod.name().equals(MatcherClass.OTHERWISE_NAME))
+                        throw new SourceCodeValidationException("Matcher can't be generated: " + interfaceMethod.name() + " method clashes with generated matcher method");
+                }
+            }
+            if (annotation.generateTransform() || annotation.generateFold()) {
+                if (!visitorInterface.hasSelfReferenceFields())
+                    throw new SourceCodeValidationException("Transform or fold methods can't be generated: there are no self-reference fields to traverse");
+            }
+            if (annotation.generateTransform()) {
+                if (className.equals(ValueClassModel.TRANSFORMER_CLASS_NAME))
+                    throw new SourceCodeValidationException("Transform methods can't be generated for value class named " + className);
+            }
+            if (annotation.generateFold()) {
+                for (String primitiveTypeName: ValueClassModel.primitiveFoldTypeNames()) {
+                    if (className.equals(ValueClassModel.primitiveFoldAlgebraClassName(primitiveTypeName)))
+                        throw new SourceCodeValidationException("Fold methods can't be generated for value class named " + className);
+                }
+                for (JMethod interfaceMethod: visitorInterface.methods()) {
+                    for (JVar param: interfaceMethod.params()) {
+                        if (visitorInterface.containsSelf(param.type()) && !visitorInterface.isSelf(param.type()) && !visitorInterface.isSelfList(param.type()))
+                            throw new SourceCodeValidationException("Fold methods can't be generated: " + param.name() + " parameter of " + interfaceMethod.name() + " method is neither self-reference nor list of self-references");
+                    }
+                    JVar varParam = interfaceMethod.listVarParam();
+                    if (varParam != null && visitorInterface.containsSelf(varParam.type()))
+                        throw new SourceCodeValidationException("Fold methods can't be generated: " + varParam.name() + " parameter of " + interfaceMethod.name() + " method is neither self-reference nor list of self-references");
+                }
+            }
+            if (annotation.generateParallelFold()) {
+                if (!annotation.generateFold())
+                    throw new SourceCodeValidationException("generateParallelFold is specified, but fold generation is not enabled with generateFold parameter");
+                if (className.equals(ValueClassModel.PARALLEL_FOLD_TASK_CLASS_NAME))
+                    throw new SourceCodeValidationException("Parallel fold method can't be generated for value class named " + className);
+                if (visitorInterface.getExceptionTypeParameter() != null)
+                    throw new SourceCodeValidationException("Parallel fold method can't be generated: visitor declares exception type variable, but fork/join tasks can't throw checked exceptions");
+            }
+            if (annotation.generateMemoizedFold()) {
+                if (!annotation.generateFold())
+                    throw new SourceCodeValidationException("generateMemoizedFold is specified, but fold generation is not enabled with generateFold parameter");
+                for (JMethod interfaceMethod: visitorInterface.methods()) {
+                    if (interfaceMethod.name().equals(ValueClassModel.MEMOIZED_FOLD_METHOD_NAME))
+                        throw new SourceCodeValidationException("Memoized fold method can't be generated: " + interfaceMethod.name() + " method clashes with generated method");
+                }
+            }
+            if (annotation.generateMap()) {
+                if (className.equals(ValueClassModel.MAPPER_CLASS_NAME))
+                    throw new SourceCodeValidationException("Map methods can't be generated for value class named " + className);
+                if (visitorInterface.getValueTypeParameters().isEmpty())
+                    throw new SourceCodeValidationException("Map methods can't be generated: value class has no type parameters");
+                for (JTypeVar typeParameter: visitorInterface.getValueTypeParameters()) {
+                    AbstractJClass bound = typeParameter._extends();
+                    if (bound != null && !bound.fullName().equals(Object.class.getName()) || typeParameter._implements().hasNext())
+                        throw new SourceCodeValidationException("Map methods can't be generated: " + typeParameter.name() + " type parameter has bounds");
+                    for (JMethod interfaceMethod: visitorInterface.methods()) {
+                        if (interfaceMethod.name().equals(ValueClassModel.mapMethodName(typeParameter.name())))
+                            throw new SourceCodeValidationException("Map methods can't be generated: " + interfaceMethod.name() + " method clashes with generated map method");
+                    }
+                }
+                for (JMethod interfaceMethod: visitorInterface.methods()) {
+                    for (JVar param: interfaceMethod.params()) {
+                        if (visitorInterface.containsSelf(param.type()) && !visitorInterface.isSelf(param.type()) && !visitorInterface.isSelfList(param.type()))
+                            throw new SourceCodeValidationException("Map methods can't be generated: " + param.name() + " parameter of " + interfaceMethod.name() + " method is neither self-reference nor list of self-references");
+                        for (JTypeVar typeParameter: visitorInterface.getValueTypeParameters()) {
+                            if (param.type() != typeParameter && visitorInterface.refersTo(param.type(), typeParameter))
+                                throw new SourceCodeValidationException("Map methods can't be generated: " + param.name() + " parameter of " + interfaceMethod.name() + " method refers to " + typeParameter.name() + " type parameter, but is not of " + typeParameter.name() + " type");
+                        }
+                    }
+                    JVar varParam = interfaceMethod.listVarParam();
+                    if (varParam != null) {
+                        if (visitorInterface.containsSelf(varParam.type()))
+                            throw new SourceCodeValidationException("Map methods can't be generated: " + varParam.name() + " parameter of " + interfaceMethod.name() + " method is neither self-reference nor list of self-references");
+                        for (JTypeVar typeParameter: visitorInterface.getValueTypeParameters()) {
+                            if (visitorInterface.refersTo(varParam.type(), typeParameter))
+                                throw new SourceCodeValidationException("Map methods can't be generated: " + varParam.name() + " parameter of " + interfaceMethod.name() + " method refers to " + typeParameter.name() + " type parameter, but is not of " + typeParameter.name() + " type");
+                        }
+                    }
+                }
+            }
+            Map<String, AbstractJClass> attributeTypes = new TreeMap<String, AbstractJClass>();
+            for (Attribute attribute: annotation.attributes()) {
+                if (!SourceVersion.isName(attribute.name()))
+                    throw new SourceCodeValidationException("Attribute can't be generated: " + attribute.name() + " is not valid Java identifier");
+                if (attributeTypes.containsKey(attribute.name()))
+                    throw new SourceCodeValidationException("Attribute can't be generated: attribute with " + attribute.name() + " name is already defined");
+                if (attribute.name().equals(visitorInterface.acceptMethodName()))
+                    throw new SourceCodeValidationException("Attribute can't be generated: " + attribute.name() + " attribute clashes with accept method");
+                for (JMethod interfaceMethod: visitorInterface.methods()) {
+                    if (interfaceMethod.name().equals(attribute.name()))
+                        throw new SourceCodeValidationException("Attribute can't be generated: " + attribute.name() + " attribute clashes with " + interfaceMethod.name() + " method");
+                }
+                if (!visitorInterface.getValueTypeParameters().isEmpty())
+                    throw new SourceCodeValidationException("Attribute can't be generated: " + attribute.name() + " attribute is declared for value class with type parameters");
+                if (visitorInterface.hasSelfReferenceFields() && !annotation.generateFold())
+                    throw new SourceCodeValidationException("Attribute can't be generated: " + attribute.name() + " attribute is declared for value class with self-reference fields, but fold generation is not enabled with generateFold parameter");
+                AbstractJType type = jCodeModel.parseType(attribute.type());
+                if (!type.isReference() || type.isArray())
+                    throw new SourceCodeValidationException("Attribute can't be generated: " + attribute.name() + " attribute type should be class or interface, but " + attribute.type() + " found");
+                attributeTypes.put(attribute.name(), (AbstractJClass)type);
+            }
+            ConsListShape consListShape = null;
+            if (annotation.generateIterable()) {
+                consListShape = ConsListShape.find(visitorInterface);
+                if (consListShape == null)
+                    throw new SourceCodeValidationException("Iterable can't be generated: visitor should have exactly two cases, nullary case and case with single element field and single non-nullable self-reference field");
+                if (className.equals(ValueClassModel.ITERATOR_CLASS_NAME))
+                    throw new SourceCodeValidationException("Iterable can't be generated for value class named " + className);
+                for (JMethod interfaceMethod: visitorInterface.methods()) {
+                    if (ValueClassModel.iterableMethodNames().contains(interfaceMethod.name()))
+                        throw new SourceCodeValidationException("Iterable can't be generated: " + interfaceMethod.name() + " method clashes with generated method");
+                }
+            }
+            if (!annotation.generateFingerprint() && annotation.fingerprintCaching().enabled())
+                throw new SourceCodeValidationException("fingerprintCaching is specified, but fingerprint generation is not enabled with generateFingerprint parameter");
+
             int mods = annotation.isPublic() ? JMod.PUBLIC: JMod.NONE;
-            JDefinedClass valueClass = jpackage._class(mods, className, EClassType.CLASS);
+            valueClass = jpackage._class(mods, className, EClassType.CLASS);
             if (!annotation.baseInterface().equals("")) {
                 AbstractJClass marker = jCodeModel.ref(annotation.baseInterface());
                 valueClass._implements(marker);
@@ -197,11 +436,19 @@ public class ValueClassModelFactory {
             }
 
             JDefinedClass acceptingInterface = createAcceptingInterface(valueClass, visitorInterface, types);
-            if (annotation.isSerializable()) {
-                acceptingInterface._extends(types._Serializable);
+            if (annotation.isSerializable() && acceptingInterface.getClassType() != EClassType.ENUM) {
+                acceptingInterface._implements(types._Serializable);
+                acceptingInterface.field(JMod.PRIVATE | JMod.FINAL | JMod.STATIC, types._long, "serialVersionUID", JExpr.lit(serialization.serialVersionUIDForGeneratedCode()));
             }
 
-            ValueClassModel result = new ValueClassModel(valueClass, acceptingInterface, visitorInterface, types);
+            AbstractJClass runtimeSupport = null;
+            if (visitorInterface.useRuntimeSupport()) {
+                if (!isRuntimeAvailable)
+                    throw new SourceCodeValidationException("useRuntimeSupport requires adt4j-runtime on compile classpath, but " + RUNTIME_SUPPORT_CLASS_NAME + " class is not found");
+                runtimeSupport = jCodeModel.directClass(RUNTIME_SUPPORT_CLASS_NAME);
+            }
+
+            ValueClassModel result = new ValueClassModel(valueClass, acceptingInterface, visitorInterface, types, runtimeSupport, fingerprintedClassNames);
             ValueClassModel.MethodBuilder methodBuilder = result.createMethodBuilder(serialization);
             Map<String, JMethod> constructorMethods = methodBuilder.buildConstructorMethods(serialization);
             methodBuilder.buildPrivateConstructor();
@@ -225,13 +472,48 @@ public class ValueClassModelFactory {
                 methodBuilder.buildCompareTo();
             }
             methodBuilder.buildEqualsMethod();
-            methodBuilder.buildHashCodeMethod(annotation.hashCodeBase());
+            methodBuilder.buildHashCodeMethod(annotation.hashCodeBase(), annotation.hashCodeAlgorithm());
+            if (annotation.generateFingerprint())
+                methodBuilder.buildFingerprintMethod();
+            Map<String, Pattern> patterns = result.getPatterns();
+            if (!annotation.generateMatcher() && !patterns.isEmpty())
+                throw new SourceCodeValidationException("Patterns are specified, but matcher generation is not enabled with generateMatcher parameter");
+            if (annotation.generateMatcher())
+                methodBuilder.buildMatcher(patterns);
+            boolean isRecursiveMap = annotation.generateMap() && visitorInterface.hasSelfReferenceFields();
+            if (annotation.generateTransform() || annotation.generateFold() || isRecursiveMap)
+                methodBuilder.buildPushChildrenMethods();
+            if (annotation.generateFold() || isRecursiveMap)
+                methodBuilder.buildChildCountMethods();
+            boolean isStructuralMemoizedFold = annotation.generateMemoizedFold() && visitorInterface.hashCodeCaching().enabled();
+            if (annotation.generateTransform() || isStructuralMemoizedFold)
+                methodBuilder.buildWithChildrenMethods(constructorMethods);
+            if (annotation.generateTransform())
+                methodBuilder.buildTransformMethods();
+            if (annotation.generateFold())
+                methodBuilder.buildFoldMethods();
+            if (annotation.generateParallelFold())
+                methodBuilder.buildParallelFoldMethod();
+            if (annotation.generateMemoizedFold())
+                methodBuilder.buildMemoizedFoldMethod();
+            if (consListShape != null)
+                methodBuilder.buildIterableMethods(consListShape, constructorMethods);
+            if (annotation.generateMap())
+                methodBuilder.buildMapMethods(constructorMethods);
+            for (Attribute attribute: annotation.attributes()) {
+                AbstractJClass algebraClass = jCodeModel.ref(attribute.algebra());
+                methodBuilder.buildAttributeMethod(attribute.name(), attributeTypes.get(attribute.name()), algebraClass, serialization.isSerializable());
+            }
             methodBuilder.buildToStringMethod();
             result.buildFactory(constructorMethods);
 
+            isBuilt = true;
             return result;
         } catch (JClassAlreadyExistsException ex) {
             throw new CodeModelBuildingException(ex);
+        } finally {
+            if (!isBuilt && valueClass != null)
+                valueClass.hide();
         }
     }
 
@@ -59,4 +59,28 @@ class Customization {
     Caching hashCodeCaching() {
         return implementation.hashCodeCaching();
     }
+
+    Caching fingerprintCaching() {
+        return implementation.fingerprintCaching();
+    }
+
+    boolean packPrimitiveFields() {
+        return implementation.packPrimitiveFields();
+    }
+
+    int inlineVarArgsLimit() {
+        return implementation.inlineVarArgsLimit();
+    }
+
+    boolean isTaggedUnion() {
+        return implementation.isTaggedUnion();
+    }
+
+    boolean lazyInitialization() {
+        return implementation.lazyInitialization();
+    }
+
+    boolean useRuntimeSupport() {
+        return implementation.useRuntimeSupport();
+    }
 }
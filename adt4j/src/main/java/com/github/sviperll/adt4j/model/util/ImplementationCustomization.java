@@ -37,11 +37,47 @@ import com.github.sviperll.Caching;
  */
 class ImplementationCustomization {
     private final Caching hashCodeCaching;
-    ImplementationCustomization(Caching hashCodeCaching) {
+    private final Caching fingerprintCaching;
+    private final boolean packPrimitiveFields;
+    private final int inlineVarArgsLimit;
+    private final boolean isTaggedUnion;
+    private final boolean lazyInitialization;
+    private final boolean useRuntimeSupport;
+    ImplementationCustomization(Caching hashCodeCaching, Caching fingerprintCaching, boolean packPrimitiveFields, int inlineVarArgsLimit, boolean isTaggedUnion, boolean lazyInitialization, boolean useRuntimeSupport) {
         this.hashCodeCaching = hashCodeCaching;
+        this.fingerprintCaching = fingerprintCaching;
+        this.packPrimitiveFields = packPrimitiveFields;
+        this.inlineVarArgsLimit = inlineVarArgsLimit;
+        this.isTaggedUnion = isTaggedUnion;
+        this.lazyInitialization = lazyInitialization;
+        this.useRuntimeSupport = useRuntimeSupport;
     }
 
     Caching hashCodeCaching() {
         return hashCodeCaching;
     }
+
+    Caching fingerprintCaching() {
+        return fingerprintCaching;
+    }
+
+    boolean packPrimitiveFields() {
+        return packPrimitiveFields;
+    }
+
+    int inlineVarArgsLimit() {
+        return inlineVarArgsLimit;
+    }
+
+    boolean isTaggedUnion() {
+        return isTaggedUnion;
+    }
+
+    boolean lazyInitialization() {
+        return lazyInitialization;
+    }
+
+    boolean useRuntimeSupport() {
+        return useRuntimeSupport;
+    }
 }
@@ -37,8 +37,17 @@ import com.helger.jcodemodel.JPrimitiveType;
 import com.helger.jcodemodel.JTypeVar;
 import java.io.IOException;
 import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
 import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
+import java.util.List;
+import java.util.ListIterator;
+import java.util.NoSuchElementException;
 
 public class Types {
     public static Types createInstance(JCodeModel codeModel) {
@@ -60,6 +69,9 @@ public class Types {
     public final JPrimitiveType _long;
     public final JPrimitiveType _boolean;
     public final JPrimitiveType _int;
+    public final JPrimitiveType _byte;
+    public final JPrimitiveType _char;
+    public final JPrimitiveType _short;
     public final JPrimitiveType _float;
     public final JPrimitiveType _double;
     public final AbstractJClass _Object;
@@ -72,11 +84,27 @@ public class Types {
     public final AbstractJClass _NullPointerException;
     public final AbstractJClass _Serializable;
     public final AbstractJClass _Comparable;
+    public final AbstractJClass _Enum;
     public final AbstractJClass _String;
     public final AbstractJClass _StringBuilder;
     public final AbstractJClass _IllegalStateException;
     public final AbstractJClass _Math;
+    public final AbstractJClass _Arrays;
+    public final AbstractJClass _Collections;
+    public final AbstractJClass _System;
+    public final AbstractJClass _List;
+    public final AbstractJClass _ArrayList;
+    public final AbstractJClass _HashMap;
+    public final AbstractJClass _IdentityHashMap;
+    public final AbstractJClass _ListIterator;
+    public final AbstractJClass _Iterable;
+    public final AbstractJClass _Iterator;
+    public final AbstractJClass _NoSuchElementException;
+    public final AbstractJClass _UnsupportedOperationException;
+    public final AbstractJClass _ForkJoinPool;
+    public final AbstractJClass _RecursiveTask;
     public final AbstractJType _ObjectInputStream;
+    public final AbstractJType _ObjectOutputStream;
     public final AbstractJClass _IOException;
     public final AbstractJClass _ClassNotFoundException;
 
@@ -85,6 +113,9 @@ public class Types {
         _long = codeModel.LONG;
         _boolean = codeModel.BOOLEAN;
         _int = codeModel.INT;
+        _byte = codeModel.BYTE;
+        _char = codeModel.CHAR;
+        _short = codeModel.SHORT;
         _float = codeModel.FLOAT;
         _double = codeModel.DOUBLE;
 
@@ -98,11 +129,28 @@ public class Types {
         _NullPointerException = codeModel.ref(NullPointerException.class);
         _Serializable = codeModel.ref(Serializable.class);
         _Comparable = codeModel.ref(Comparable.class);
+        _Enum = codeModel.ref(Enum.class);
         _String = codeModel.ref(String.class);
         _StringBuilder = codeModel.ref(StringBuilder.class);
         _IllegalStateException = codeModel.ref(IllegalStateException.class);
         _Math = codeModel.ref(Math.class);
+        _Arrays = codeModel.ref(Arrays.class);
+        _Collections = codeModel.ref(Collections.class);
+        _System = codeModel.ref(System.class);
+        _List = codeModel.ref(List.class);
+        _ArrayList = codeModel.ref(ArrayList.class);
+        _HashMap = codeModel.ref(HashMap.class);
+        _IdentityHashMap = codeModel.ref(IdentityHashMap.class);
+        _ListIterator = codeModel.ref(ListIterator.class);
+        _Iterable = codeModel.ref(Iterable.class);
+        _Iterator = codeModel.ref(Iterator.class);
+        _NoSuchElementException = codeModel.ref(NoSuchElementException.class);
+        _UnsupportedOperationException = codeModel.ref(UnsupportedOperationException.class);
+        // Referenced by name, since annotation processor itself may run on Java 6
+        _ForkJoinPool = codeModel.ref("java.util.concurrent.ForkJoinPool");
+        _RecursiveTask = codeModel.ref("java.util.concurrent.RecursiveTask");
         _ObjectInputStream = codeModel.ref(ObjectInputStream.class);
+        _ObjectOutputStream = codeModel.ref(ObjectOutputStream.class);
         _IOException = codeModel.ref(IOException.class);
         _ClassNotFoundException = codeModel.ref(ClassNotFoundException.class);
     }
@@ -115,6 +163,18 @@ public class Types {
         }
     }
 
+    public boolean isEnum(AbstractJType type) {
+        if (!(type instanceof AbstractJClass))
+            return false;
+        else {
+            for (AbstractJClass klass = ((AbstractJClass)type).erasure(); klass != null && !klass.isError(); klass = klass._extends()) {
+                if (klass.erasure().fullName().equals(_Enum.fullName()))
+                    return true;
+            }
+            return false;
+        }
+    }
+
     public boolean isComparable(AbstractJType type) {
         if (type.isPrimitive() || type.isArray())
             return type.isPrimitive() || type.isArray() && isComparable(type.elementType());
@@ -39,6 +39,8 @@ import com.helger.jcodemodel.AbstractJType;
 import com.helger.jcodemodel.JDefinedClass;
 import com.helger.jcodemodel.JMethod;
 import com.helger.jcodemodel.JTypeVar;
+import com.helger.jcodemodel.JTypeWildcard;
+import com.helger.jcodemodel.JVar;
 import java.text.MessageFormat;
 import java.util.ArrayList;
 import java.util.Collection;
@@ -52,7 +54,7 @@ public class ValueVisitorInterfaceModel {
         ValueVisitorTypeParameters typeParameters = createValueVisitorTypeParameters(jVisitorModel, visitorAnnotation);
         Map<String, JMethod> methods = createMethodMap(jVisitorModel, typeParameters);
         APICustomization apiCustomization = new APICustomization(annotation.acceptMethodName(), annotation.acceptMethodAccess(), annotation.isPublic());
-        ImplementationCustomization implementationCustomization = new ImplementationCustomization(annotation.hashCodeCaching());
+        ImplementationCustomization implementationCustomization = new ImplementationCustomization(annotation.hashCodeCaching(), annotation.fingerprintCaching(), annotation.packPrimitiveFields(), annotation.inlineVarArgsLimit(), annotation.isTaggedUnion(), annotation.lazyInitialization(), annotation.useRuntimeSupport());
         Customization customiztion = new Customization(apiCustomization, implementationCustomization);
         return new ValueVisitorInterfaceModel(jVisitorModel, typeParameters, methods, customiztion);
     }
@@ -157,7 +159,7 @@ public class ValueVisitorInterfaceModel {
         return narrowed(usedDataType, resultType, exceptionType, usedDataType);
     }
 
-    private AbstractJClass narrowed(AbstractJClass usedDataType, AbstractJClass resultType, AbstractJClass exceptionType, AbstractJClass selfType) {
+    public AbstractJClass narrowed(AbstractJClass usedDataType, AbstractJClass resultType, AbstractJClass exceptionType, AbstractJClass selfType) {
         AbstractJClass result = visitorInterfaceModel;
         for (JTypeVar typeVariable: visitorInterfaceModel.typeParams()) {
             result = result.narrow(typeParameters.substituteSpecialType(typeVariable, selfType, resultType, exceptionType));
@@ -201,6 +203,80 @@ public class ValueVisitorInterfaceModel {
         return typeParameters.isSelf(type);
     }
 
+    /**
+     * Tests if given type is list of self-references: {@code List<S>} or {@code List<? extends S>}.
+     */
+    public boolean isSelfList(AbstractJType type) {
+        if (!(type instanceof AbstractJClass))
+            return false;
+        else {
+            AbstractJClass klass = (AbstractJClass)type;
+            if (!klass.erasure().fullName().equals(List.class.getName()) || klass.getTypeParameters().size() != 1)
+                return false;
+            else {
+                AbstractJClass elementType = klass.getTypeParameters().get(0);
+                if (elementType instanceof JTypeWildcard) {
+                    JTypeWildcard wildcard = (JTypeWildcard)elementType;
+                    return wildcard.boundMode() == JTypeWildcard.EBoundMode.EXTENDS && isSelf(wildcard.bound());
+                } else
+                    return isSelf(elementType);
+            }
+        }
+    }
+
+    /**
+     * Tests if given type refers to self-reference type variable.
+     */
+    public boolean containsSelf(AbstractJType type) {
+        if (isSelf(type))
+            return true;
+        else if (type.isArray())
+            return containsSelf(type.elementType());
+        else if (type instanceof JTypeWildcard)
+            return containsSelf(((JTypeWildcard)type).bound());
+        else if (type instanceof AbstractJClass) {
+            for (AbstractJClass typeArgument: ((AbstractJClass)type).getTypeParameters()) {
+                if (containsSelf(typeArgument))
+                    return true;
+            }
+            return false;
+        } else
+            return false;
+    }
+
+    /**
+     * Tests if given type refers to given type variable.
+     */
+    public boolean refersTo(AbstractJType type, JTypeVar typeVariable) {
+        if (type == typeVariable)
+            return true;
+        else if (type.isArray())
+            return refersTo(type.elementType(), typeVariable);
+        else if (type instanceof JTypeWildcard)
+            return refersTo(((JTypeWildcard)type).bound(), typeVariable);
+        else if (type instanceof AbstractJClass) {
+            for (AbstractJClass typeArgument: ((AbstractJClass)type).getTypeParameters()) {
+                if (refersTo(typeArgument, typeVariable))
+                    return true;
+            }
+            return false;
+        } else
+            return false;
+    }
+
+    /**
+     * Tests if some case has self-reference field, that is field of {@code S}, {@code List<S>} or {@code List<? extends S>} type.
+     */
+    public boolean hasSelfReferenceFields() {
+        for (JMethod interfaceMethod: methods()) {
+            for (JVar param: interfaceMethod.params()) {
+                if (isSelf(param.type()) || isSelfList(param.type()))
+                    return true;
+            }
+        }
+        return false;
+    }
+
     public boolean isResult(AbstractJType type) {
         return typeParameters.isResult(type);
     }
@@ -224,4 +300,28 @@ public class ValueVisitorInterfaceModel {
     public Caching hashCodeCaching() {
         return customization.hashCodeCaching();
     }
+
+    public Caching fingerprintCaching() {
+        return customization.fingerprintCaching();
+    }
+
+    public boolean packPrimitiveFields() {
+        return customization.packPrimitiveFields();
+    }
+
+    public int inlineVarArgsLimit() {
+        return customization.inlineVarArgsLimit();
+    }
+
+    public boolean isTaggedUnion() {
+        return customization.isTaggedUnion();
+    }
+
+    public boolean lazyInitialization() {
+        return customization.lazyInitialization();
+    }
+
+    public boolean useRuntimeSupport() {
+        return customization.useRuntimeSupport();
+    }
 }